@@ -0,0 +1,300 @@
+/**
+ * Encoder and decoder of the compact binary representation of machine data.
+ *
+ * Instead of the machine and the field names, every MachineData instance refers to the schema of its
+ * machine by the ID the server registered it with. Values are stored positionally in the slot order
+ * of the SchemaLayout:
+ *
+ * message      := version (1 byte) time (8 bytes) count (varint) machine_data{count}
+ * machine_data := schema_id (varint) status_code (4 bytes) status_description (string)
+ *                 presence (1 bit per slot) bools (1 bit per boolean slot) value{present non boolean slots}
+ * value        := long (8 bytes) | double (8 bytes) | string
+ * string       := length + 1 (varint, 0 = null) UTF-8 bytes
+ *
+ * Multi byte numbers are big endian, varints are unsigned and use 7 bits per byte (least significant
+ * group first). Bit fields are filled from the least significant bit of their first byte on.
+ */
+package de.appsist.service.middrv.entity;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+import org.vertx.java.core.buffer.Buffer;
+
+public class BinaryCodec {
+	/**
+	 * Version of the binary representation, sent as the first byte of every message
+	 */
+	public static final byte VERSION = 1;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Encode machine data in the binary representation
+	 * @param time Time of the message in number of milli seconds since 1. 1. 1970 0:00:00 UTC
+	 * @param data MachineData instances to encode
+	 * @param layouts Layouts of the registered schemas of the machines
+	 * @return A buffer containing the binary representation
+	 * @throws IllegalArgumentException No layout is known for a machine or its data does not match the
+	 *                                  schema of the layout
+	 */
+	public static Buffer encode(long time, List<MachineData> data, Map<Machine, SchemaLayout> layouts){
+		Buffer buffer = new Buffer(16 + 32 * data.size());
+		buffer.appendByte(VERSION);
+		buffer.appendLong(time);
+		appendVarInt(buffer, data.size());
+
+		for (MachineData item : data){
+			SchemaLayout layout = layouts.get(item.getMachine());
+			if (layout == null)
+				throw new IllegalArgumentException("No schema ID known for machine \"" + item.getMachine() + "\"");
+
+			encodeMachineData(buffer, item, layout);
+		}
+
+		return buffer;
+	}
+
+	/**
+	 * Append the binary representation of a single MachineData instance to the given buffer
+	 * @throws IllegalArgumentException The given data does not match the schema of the layout
+	 */
+	public static void encodeMachineData(Buffer dest, MachineData data, SchemaLayout layout){
+		int slotCount = layout.getSlotCount();
+		byte[] presence = new byte[(slotCount + 7) / 8];
+		byte[] bools = new byte[(layout.getBoolCount() + 7) / 8];
+		MachineValue[] values = new MachineValue[slotCount];
+		int found = 0;
+
+		for (int slot = 0; slot < slotCount; slot++){
+			MachineValue value = data.getValue(layout.getName(slot));
+			if (value == null)
+				continue;
+
+			if (value.getType() != layout.getType(slot))
+				throw new IllegalArgumentException("Value for \"" + layout.getName(slot) + "\" is of type "
+				                                   + value.getType().identifier + " but type "
+				                                   + layout.getType(slot).identifier + " was expected");
+
+			presence[slot >>> 3] |= 1 << (slot & 7);
+			int boolIndex = layout.getBoolIndex(slot);
+			if (boolIndex < 0)
+				values[slot] = value;
+			else if (booleanOf(value))
+				bools[boolIndex >>> 3] |= 1 << (boolIndex & 7);
+
+			found++;
+		}
+
+		if (found != data.getDataCount())
+			throw new IllegalArgumentException("MachineData instance of machine \"" + data.getMachine()
+			                                   + "\" contains keys not listed in its schema");
+
+		appendVarInt(dest, layout.getSchemaID());
+		Status status = data.getStatus();
+		dest.appendInt(status.getCode());
+		appendString(dest, status.getDescription());
+		dest.appendBytes(presence);
+		dest.appendBytes(bools);
+
+		for (int slot = 0; slot < slotCount; slot++){
+			if (values[slot] == null)
+				continue;
+
+			switch(layout.getType(slot)){
+			case LONG:
+				dest.appendLong(longOf(values[slot]));
+				break;
+			case DOUBLE:
+				dest.appendDouble(doubleOf(values[slot]));
+				break;
+			case STRING:
+				appendString(dest, (String) valueOf(values[slot]));
+				break;
+			default:
+				throw new IllegalStateException("Unexpected type in value slot: " + layout.getType(slot));
+			}
+		}
+	}
+
+	private static Object valueOf(MachineValue value){
+		return ((MachineValueImpl<?>) value).getValue();
+	}
+
+	private static long longOf(MachineValue value){
+		return (value instanceof LongValue) ? ((LongValue) value).getLong() : (Long) valueOf(value);
+	}
+
+	private static double doubleOf(MachineValue value){
+		return (value instanceof DoubleValue) ? ((DoubleValue) value).getDouble() : (Double) valueOf(value);
+	}
+
+	private static boolean booleanOf(MachineValue value){
+		return (value instanceof BoolValue) ? ((BoolValue) value).getBoolean() : (Boolean) valueOf(value);
+	}
+
+	private static void appendVarInt(Buffer dest, int value){
+		while ((value & ~0x7F) != 0){
+			dest.appendByte((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		dest.appendByte((byte) value);
+	}
+
+	private static void appendString(Buffer dest, String value){
+		if (value == null){
+			appendVarInt(dest, 0);
+			return;
+		}
+
+		byte[] bytes = value.getBytes(UTF_8);
+		appendVarInt(dest, bytes.length + 1);
+		dest.appendBytes(bytes);
+	}
+
+	/**
+	 * Reads a binary message step by step: The header is read on construction, afterwards the schema
+	 * ID of each MachineData instance has to be read, before the instance itself can be read using
+	 * the layout of the schema.
+	 */
+	public static class Decoder {
+		private final byte[] content;
+		private final int end;
+		private int pos;
+		private final long time;
+		private final int count;
+
+		/**
+		 * @param content Buffer containing the binary message
+		 * @param offset Position of the message in the buffer
+		 * @param length Length of the message in bytes
+		 * @throws IllegalArgumentException The header of the message is invalid
+		 */
+		public Decoder(byte[] content, int offset, int length){
+			this.content = content;
+			this.pos = offset;
+			this.end = offset + length;
+
+			require(1);
+			if (content[pos] != VERSION)
+				throw new IllegalArgumentException("Unsupported version of binary message: " + content[pos]);
+			pos++;
+
+			time = readLong();
+			count = readVarInt();
+		}
+
+		/**
+		 * @return Time of the message in number of milli seconds since 1. 1. 1970 0:00:00 UTC
+		 */
+		public long getTime(){
+			return time;
+		}
+
+		/**
+		 * @return Number of MachineData instances in the message
+		 */
+		public int getCount(){
+			return count;
+		}
+
+		/**
+		 * @return The schema ID of the next MachineData instance
+		 * @throws IllegalArgumentException The message is truncated
+		 */
+		public int readSchemaID(){
+			return readVarInt();
+		}
+
+		/**
+		 * Read the next MachineData instance, after its schema ID was read
+		 * @param layout Layout of the schema identified by the schema ID
+		 * @throws IllegalArgumentException The message is truncated
+		 */
+		public MachineData readMachineData(SchemaLayout layout){
+			int code = readInt();
+			String description = readString();
+
+			int slotCount = layout.getSlotCount();
+			int presence = pos;
+			pos += (slotCount + 7) / 8;
+			int bools = pos;
+			pos += (layout.getBoolCount() + 7) / 8;
+			require(0);
+
+			SlotValues data = new SlotValues(layout.getStructure());
+			for (int slot = 0; slot < slotCount; slot++){
+				if ((content[presence + (slot >>> 3)] & (1 << (slot & 7))) == 0)
+					continue;
+
+				switch(layout.getType(slot)){
+				case LONG:
+					data.setLong(slot, readLong());
+					break;
+				case DOUBLE:
+					data.setDouble(slot, Double.longBitsToDouble(readLong()));
+					break;
+				case STRING:
+					data.setString(slot, readString());
+					break;
+				default:
+					int boolIndex = layout.getBoolIndex(slot);
+					data.setBoolean(slot, (content[bools + (boolIndex >>> 3)] & (1 << (boolIndex & 7))) != 0);
+				}
+			}
+
+			return new MachineData(layout.getSchema().getMachine(), data, new Status(code, description));
+		}
+
+		/**
+		 * Check that the whole message was read
+		 * @throws IllegalArgumentException The message contains trailing bytes
+		 */
+		public void finish(){
+			if (pos != end)
+				throw new IllegalArgumentException("Binary message contains " + (end - pos) + " trailing bytes");
+		}
+
+		private void require(int count){
+			if ((count < 0) || (pos > end - count))
+				throw new IllegalArgumentException("Binary message is truncated");
+		}
+
+		private int readInt(){
+			require(4);
+			int result = ((content[pos] & 0xFF) << 24) | ((content[pos + 1] & 0xFF) << 16)
+			             | ((content[pos + 2] & 0xFF) << 8) | (content[pos + 3] & 0xFF);
+			pos += 4;
+			return result;
+		}
+
+		private long readLong(){
+			long high = readInt();
+			return (high << 32) | (readInt() & 0xFFFFFFFFL);
+		}
+
+		private int readVarInt(){
+			int result = 0;
+			for (int shift = 0; shift < 35; shift += 7){
+				require(1);
+				byte b = content[pos++];
+				result |= (b & 0x7F) << shift;
+				if (b >= 0)
+					return result;
+			}
+			throw new IllegalArgumentException("Binary message contains an invalid varint");
+		}
+
+		private String readString(){
+			int length = readVarInt() - 1;
+			if (length == -1)
+				return null;
+
+			require(length);
+			String result = new String(content, pos, length, UTF_8);
+			pos += length;
+			return result;
+		}
+	}
+}
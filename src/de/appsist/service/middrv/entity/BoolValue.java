@@ -0,0 +1,89 @@
+/**
+ * A MachineValue of type BOOL holding a primitive boolean. getValue() returns the cached Boolean
+ * constants.
+ */
+package de.appsist.service.middrv.entity;
+
+public class BoolValue extends MachineValueImpl<Boolean> {
+	private boolean value;
+
+	/**
+	 * Creates a new value - use MachineValueFactory.create() instead
+	 */
+	BoolValue(boolean value){
+		super(MachineValueType.BOOL, null);
+		this.value = value;
+	}
+
+	/**
+	 * @return The actual value without boxing it
+	 */
+	public boolean getBoolean(){
+		return value;
+	}
+
+	@Override
+	public Boolean getValue(){
+		return value;
+	}
+
+	@Override
+	public void setValue(Boolean value){
+		this.value = value;
+	}
+
+	@Override
+	public String toString(){
+		return Boolean.toString(value);
+	}
+
+	@Override
+	public String toJson(){
+		return Boolean.toString(value);
+	}
+
+	@Override
+	public String toXml(boolean withOuterTags){
+		if (!withOuterTags)
+			return Boolean.toString(value);
+
+		return super.toXml(true);
+	}
+
+	@Override
+	public void writeJson(SerializationWriter writer){
+		writer.append(value);
+	}
+
+	@Override
+	public void writeXml(SerializationWriter writer, boolean withOuterTags){
+		if (withOuterTags)
+			super.writeXml(writer, true);
+		else
+			writer.append(value);
+	}
+
+	/**
+	 * @return <code>true</code> The given Object is a MachineValue of the same type and value
+	 */
+	@Override
+	public boolean equals(Object o){
+		if (o instanceof BoolValue)
+			return ((BoolValue) o).value == value;
+
+		return super.equals(o);
+	}
+
+	@Override
+	public int hashCode(){
+		return value ? 1231 : 1237;
+	}
+
+	@Override
+	public int compareTo(MachineValue o){
+		if (o instanceof BoolValue)
+			return Boolean.compare(value, ((BoolValue) o).value);
+
+		return super.compareTo(o);
+	}
+}
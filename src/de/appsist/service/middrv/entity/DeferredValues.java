@@ -0,0 +1,27 @@
+/**
+ * The still encoded values of a MachineData instance. A lazy decoder of messages only indexes the
+ * machines of a message and leaves their values encoded, so handlers routing messages by their
+ * machines do not pay for decoding and validating values they never look at. The values are decoded
+ * and validated on first access (see MachineData.decodeValues()).
+ */
+package de.appsist.service.middrv.entity;
+
+import java.util.Map;
+
+import de.appsist.service.middrv.rest.DataSchemaMismatchException;
+
+public interface DeferredValues {
+	/**
+	 * Decode the values. This is called again after it failed
+	 * @return The decoded values, which are kept by the MachineData instance from now on
+	 * @throws RuntimeException The encoded values are invalid, e.g. a JSONException
+	 */
+	Map<String, MachineValue> decode();
+
+	/**
+	 * Validate the decoded values against the schema of their machine
+	 * @param data The MachineData instance holding the decoded values
+	 * @throws DataSchemaMismatchException The values do not match the schema
+	 */
+	void validate(MachineData data) throws DataSchemaMismatchException;
+}
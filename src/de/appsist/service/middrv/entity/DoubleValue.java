@@ -0,0 +1,91 @@
+/**
+ * A MachineValue of type DOUBLE holding a primitive double. Most machine values are doubles, so they
+ * are neither boxed when decoded nor when compared or serialized. getValue() boxes the value.
+ */
+package de.appsist.service.middrv.entity;
+
+public class DoubleValue extends MachineValueImpl<Double> {
+	private double value;
+
+	/**
+	 * Creates a new value - use MachineValueFactory.create() instead
+	 */
+	DoubleValue(double value){
+		super(MachineValueType.DOUBLE, null);
+		this.value = value;
+	}
+
+	/**
+	 * @return The actual value without boxing it
+	 */
+	public double getDouble(){
+		return value;
+	}
+
+	@Override
+	public Double getValue(){
+		return value;
+	}
+
+	@Override
+	public void setValue(Double value){
+		this.value = value;
+	}
+
+	@Override
+	public String toString(){
+		return Double.toString(value);
+	}
+
+	@Override
+	public String toJson(){
+		return Double.toString(value);
+	}
+
+	@Override
+	public String toXml(boolean withOuterTags){
+		if (!withOuterTags)
+			return Double.toString(value);
+
+		return super.toXml(true);
+	}
+
+	@Override
+	public void writeJson(SerializationWriter writer){
+		writer.append(value);
+	}
+
+	@Override
+	public void writeXml(SerializationWriter writer, boolean withOuterTags){
+		if (withOuterTags)
+			super.writeXml(writer, true);
+		else
+			writer.append(value);
+	}
+
+	/**
+	 * @return <code>true</code> The given Object is a MachineValue of the same type and value.
+	 *         Like Double.equals(), NaN equals itself and 0.0 differs from -0.0
+	 */
+	@Override
+	public boolean equals(Object o){
+		if (o instanceof DoubleValue)
+			return Double.doubleToLongBits(((DoubleValue) o).value) == Double.doubleToLongBits(value);
+
+		return super.equals(o);
+	}
+
+	@Override
+	public int hashCode(){
+		long bits = Double.doubleToLongBits(value);
+		return (int) (bits ^ (bits >>> 32));
+	}
+
+	@Override
+	public int compareTo(MachineValue o){
+		if (o instanceof DoubleValue)
+			return Double.compare(value, ((DoubleValue) o).value);
+
+		return super.compareTo(o);
+	}
+}
@@ -0,0 +1,196 @@
+/**
+ * Converts between the XML representation of Serializeables and EXI (Efficient XML Interchange)
+ * using the nagasena (OpenEXI) library.
+ *
+ * The bundled nagasena runtime has no schema compiler, so the built-in (schema-less) grammars are
+ * used. Encoder and decoder are expensive to create, so every thread keeps its own instances.
+ */
+package de.appsist.service.middrv.entity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.openexi.proc.common.EXIOptionsException;
+import org.openexi.proc.common.GrammarOptions;
+import org.openexi.proc.grammars.GrammarCache;
+import org.openexi.sax.EXIReader;
+import org.openexi.sax.Transmogrifier;
+import org.openexi.sax.TransmogrifierException;
+import org.openexi.schema.EXISchema;
+import org.xml.sax.InputSource;
+
+public class EXIConverter {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	// Largest array most JVMs can allocate
+	private static final long MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+	private static final GrammarCache grammarCache = new GrammarCache((EXISchema) null, GrammarOptions.DEFAULT_OPTIONS);
+	private static final TransformerFactory transformerFactory = TransformerFactory.newInstance();
+
+	private static final ThreadLocal<Transmogrifier> encoders = new ThreadLocal<Transmogrifier>(){
+		@Override
+		protected Transmogrifier initialValue(){
+			Transmogrifier encoder = new Transmogrifier();
+			try {
+				encoder.setGrammarCache(grammarCache);
+				encoder.setPreserveWhitespaces(true);
+			} catch (EXIOptionsException e){
+				throw new IllegalStateException("Failed to set up EXI encoder: " + e.getMessage(), e);
+			}
+			return encoder;
+		}
+	};
+
+	private static final ThreadLocal<EXIReader> decoders = new ThreadLocal<EXIReader>(){
+		@Override
+		protected EXIReader initialValue(){
+			EXIReader decoder = new EXIReader();
+			try {
+				decoder.setGrammarCache(grammarCache);
+			} catch (EXIOptionsException e){
+				throw new IllegalStateException("Failed to set up EXI decoder: " + e.getMessage(), e);
+			}
+			return decoder;
+		}
+	};
+
+	private static final ThreadLocal<Transformer> transformers = new ThreadLocal<Transformer>(){
+		@Override
+		protected Transformer initialValue(){
+			try {
+				Transformer transformer = transformerFactory.newTransformer();
+				transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+				transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+				return transformer;
+			} catch (TransformerConfigurationException e){
+				throw new IllegalStateException("Failed to set up XML transformer: " + e.getMessage(), e);
+			}
+		}
+	};
+
+	/**
+	 * Encode the given XML document as EXI
+	 * @param xml XML document to encode
+	 * @return The EXI representation of the given document
+	 * @throws IllegalArgumentException The given String is no well formed XML document
+	 */
+	public static byte[] encode(String xml){
+		ByteArrayOutputStream out = new ByteArrayOutputStream(xml.length() / 2);
+		Transmogrifier encoder = encoders.get();
+
+		try {
+			encoder.setOutputStream(out);
+			encoder.encode(new InputSource(new StringReader(xml)));
+		} catch (TransmogrifierException | IOException e){
+			throw new IllegalArgumentException("Could not encode XML as EXI: " + e.getMessage(), e);
+		} finally {
+			encoder.setOutputStream(null);
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decode an EXI document to its UTF-8 encoded XML representation
+	 * @param exi Buffer containing the EXI document
+	 * @param offset Position of the EXI document in the buffer
+	 * @param length Length of the EXI document in bytes
+	 * @return The UTF-8 encoded XML document without XML declaration
+	 * @throws IllegalArgumentException The given buffer contains no valid EXI document
+	 */
+	public static byte[] decode(byte[] exi, int offset, int length){
+		return decode(exi, offset, length, MAX_ARRAY_LENGTH);
+	}
+
+	/**
+	 * Decode an EXI document to its UTF-8 encoded XML representation of limited size. As EXI encodes
+	 * repeated names and values by reference, a small document can expand to an XML document many
+	 * times its size
+	 * @param exi Buffer containing the EXI document
+	 * @param offset Position of the EXI document in the buffer
+	 * @param length Length of the EXI document in bytes
+	 * @param maxLength Maximum length of the XML document in bytes
+	 * @return The UTF-8 encoded XML document without XML declaration
+	 * @throws IllegalArgumentException The given buffer contains no valid EXI document or the XML
+	 *         document exceeds the given length
+	 */
+	public static byte[] decode(byte[] exi, int offset, int length, long maxLength){
+		BoundedOutputStream out = new BoundedOutputStream((int) Math.min(length * 4L, Math.min(maxLength, MAX_ARRAY_LENGTH)),
+		                                                  maxLength);
+		SAXSource source = new SAXSource(decoders.get(), new InputSource(new ByteArrayInputStream(exi, offset, length)));
+
+		try {
+			transformers.get().transform(source, new StreamResult(out));
+		} catch (TransformerException e){
+			if (out.exceeded)
+				throw new IllegalArgumentException("Decoded EXI document exceeds the maximum of " + maxLength + " bytes", e);
+			throw new IllegalArgumentException("Could not decode EXI: " + e.getMessage(), e);
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decode an EXI document to its XML representation
+	 * @param exi The EXI document
+	 * @return The XML document without XML declaration
+	 * @throws IllegalArgumentException The given buffer contains no valid EXI document
+	 */
+	public static String decodeToString(byte[] exi){
+		return decodeToString(exi, MAX_ARRAY_LENGTH);
+	}
+
+	/**
+	 * Decode an EXI document to its XML representation of limited size
+	 * @param exi The EXI document
+	 * @param maxLength Maximum length of the UTF-8 encoded XML document in bytes
+	 * @return The XML document without XML declaration
+	 * @throws IllegalArgumentException The given buffer contains no valid EXI document or the XML
+	 *         document exceeds the given length
+	 */
+	public static String decodeToString(byte[] exi, long maxLength){
+		return new String(decode(exi, 0, exi.length, maxLength), UTF_8);
+	}
+
+	/**
+	 * Collects the decoded document and fails, once it exceeds its maximum length
+	 */
+	private static final class BoundedOutputStream extends ByteArrayOutputStream {
+		private final long maxLength;
+		boolean exceeded = false;
+
+		BoundedOutputStream(int size, long maxLength){
+			super(size);
+			this.maxLength = maxLength;
+		}
+
+		@Override
+		public void write(int b){
+			ensureLength(1);
+			super.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len){
+			ensureLength(len);
+			super.write(b, off, len);
+		}
+
+		private void ensureLength(int length){
+			if (count + (long) length > maxLength){
+				exceeded = true;
+				throw new IllegalStateException("Decoded EXI document exceeds the maximum of " + maxLength + " bytes");
+			}
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * A MachineValue of type LONG holding a primitive long instead of a boxed Long, so creating, comparing
+ * and serializing it does not box the value. getValue() is kept for existing callers, but boxes the
+ * value on every call.
+ */
+package de.appsist.service.middrv.entity;
+
+public class LongValue extends MachineValueImpl<Long> {
+	private long value;
+
+	/**
+	 * Creates a new value - use MachineValueFactory.create() instead
+	 */
+	LongValue(long value){
+		super(MachineValueType.LONG, null);
+		this.value = value;
+	}
+
+	/**
+	 * @return The actual value without boxing it
+	 */
+	public long getLong(){
+		return value;
+	}
+
+	@Override
+	public Long getValue(){
+		return value;
+	}
+
+	@Override
+	public void setValue(Long value){
+		this.value = value;
+	}
+
+	@Override
+	public String toString(){
+		return Long.toString(value);
+	}
+
+	@Override
+	public String toJson(){
+		return Long.toString(value);
+	}
+
+	@Override
+	public String toXml(boolean withOuterTags){
+		if (!withOuterTags)
+			return Long.toString(value);
+
+		return super.toXml(true);
+	}
+
+	@Override
+	public void writeJson(SerializationWriter writer){
+		writer.append(value);
+	}
+
+	@Override
+	public void writeXml(SerializationWriter writer, boolean withOuterTags){
+		if (withOuterTags)
+			super.writeXml(writer, true);
+		else
+			writer.append(value);
+	}
+
+	/**
+	 * @return <code>true</code> The given Object is a MachineValue of the same type and value
+	 */
+	@Override
+	public boolean equals(Object o){
+		if (o instanceof LongValue)
+			return ((LongValue) o).value == value;
+
+		return super.equals(o);
+	}
+
+	@Override
+	public int hashCode(){
+		return (int) (value ^ (value >>> 32));
+	}
+
+	@Override
+	public int compareTo(MachineValue o){
+		if (o instanceof LongValue)
+			return Long.compare(value, ((LongValue) o).value);
+
+		return super.compareTo(o);
+	}
+}
@@ -1,6 +1,9 @@
 /**
  * An entity class representing a machine
  * 
+ * Machines are immutable and used as keys of the schema registry, so their hash code is computed
+ * once on construction.
+ * 
  * @author Marian
  */
 package de.appsist.service.middrv.entity;
@@ -10,11 +13,15 @@ import org.json.JSONObject;
 import org.json.XML;
 
 public class Machine implements Serializeable {
-	private String vendorID;
-	private String machineID;
-	private String serialNumber;
-	private String machineUUID;
-
+	private final String vendorID;
+	private final String machineID;
+	private final String serialNumber;
+	private final String machineUUID;
+	private final int hash;
+	// Encoded members of the JSON object and content of the XML element, created on first use. The
+	// fields are immutable, so threads racing for them just create equal fragments
+	private SerializedFragment jsonMembers;
+	private SerializedFragment xmlContent;
 	
 	/**
 	 * Construct a machine
@@ -24,11 +31,7 @@ public class Machine implements Serializeable {
 	 *                     type from this vendor)
 	 */
 	public Machine(String vendorID, String machineID, String serialNumber){
-		this.vendorID = vendorID;
-		this.machineID = machineID;
-		this.serialNumber = serialNumber;
-		this.machineUUID = "";
-		
+		this(vendorID, machineID, serialNumber, "");
 	}
 	
 	/**
@@ -43,6 +46,7 @@ public class Machine implements Serializeable {
 		this.machineID = machineID;
 		this.serialNumber = serialNumber;
 		this.machineUUID = machineUUID;
+		this.hash = computeHashCode();
 	}
 	
 	/**
@@ -81,8 +85,7 @@ public class Machine implements Serializeable {
 	 */
 	@Override
 	public String toJson(){
-		return "{\"vendor\":" + JSONObject.quote(getVendorID()) + ",\"id\":" + JSONObject.quote(getMachineID()) + ",\"serial_number\":"
-		            + JSONObject.quote(getSerialNumber()) + ",\"uuid\":" + JSONObject.quote(getMachineUUID()) + "}";
+		return SerializationWriter.toJson(this);
 	}
 	
 	/**
@@ -99,19 +102,58 @@ public class Machine implements Serializeable {
 	 */
 	@Override
 	public String toXml(boolean withMachineTags){
-		String xml = "";
+		return SerializationWriter.toXml(this, withMachineTags);
+	}
+	
+	@Override
+	public void writeJson(SerializationWriter writer){
+		writer.append('{');
+		writeJsonMembers(writer);
+		writer.append('}');
+	}
+	
+	/**
+	 * Append the members of the JSON object of this machine without the braces, so MachineData and
+	 * MachineSchema can add their own members to the object
+	 */
+	void writeJsonMembers(SerializationWriter writer){
+		SerializedFragment members = jsonMembers;
+		if (members == null){
+			StringBuilder json = new StringBuilder(96);
+			SerializationWriter.create(json).append("\"vendor\":").appendQuoted(getVendorID())
+			      .append(",\"id\":").appendQuoted(getMachineID())
+			      .append(",\"serial_number\":").appendQuoted(getSerialNumber())
+			      .append(",\"uuid\":").appendQuoted(getMachineUUID());
+			members = new SerializedFragment(json.toString());
+			jsonMembers = members;
+		}
 		
+		writer.append(members);
+	}
+	
+	/**
+	 * @param withMachineTags Encapsulate the XML representation in "<machine>" ... "</machine>" tags
+	 */
+	@Override
+	public void writeXml(SerializationWriter writer, boolean withMachineTags){
 		if (withMachineTags)
-			xml += "<machine>";
+			writer.append("<machine>");
+		
+		SerializedFragment content = xmlContent;
+		if (content == null){
+			StringBuilder xml = new StringBuilder(160);
+			SerializationWriter.create(xml).append("<vendor>").append(getVendorID()).append("</vendor>")
+			      .append("<id>").append(getMachineID()).append("</id>")
+			      .append("<serial_number>").appendCData(getSerialNumber()).append("</serial_number>")
+			      .append("<uuid>").appendCData(getMachineUUID()).append("</uuid>");
+			content = new SerializedFragment(xml.toString());
+			xmlContent = content;
+		}
 		
-		xml += "<vendor>" + getVendorID() + "</vendor><id>" + getMachineID() + "</id>"
-		     + "<serial_number><![CDATA[" + getSerialNumber() + "]]></serial_number>"
-		     +"<uuid><![CDATA[" + getMachineUUID() + "]]></uuid>";
+		writer.append(content);
 		
 		if (withMachineTags)
-			xml += "</machine>";
-		
-		return xml;
+			writer.append("</machine>");
 	}
 	
 	/**
@@ -183,6 +225,10 @@ public class Machine implements Serializeable {
 
 	@Override
 	public int hashCode() {
+		return hash;
+	}
+
+	private int computeHashCode() {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((machineID == null) ? 0 : machineID.hashCode());
@@ -201,25 +247,36 @@ public class Machine implements Serializeable {
 		if (getClass() != obj.getClass())
 			return false;
 		Machine other = (Machine) obj;
-		if (machineID == null) {
-			if (other.machineID != null)
+		if (hash != other.hash)
+			return false;
+		return matches(other.vendorID, other.machineID, other.serialNumber, other.machineUUID);
+	}
+
+	/**
+	 * @return <code>true</code>, if this machine has the given identity, i.e. it equals a machine
+	 *         created from the given values. Decoders use it to check whether the instance of the
+	 *         registry can be used instead of creating a new one
+	 */
+	public boolean matches(String vendorID, String machineID, String serialNumber, String machineUUID) {
+		if (this.machineID == null) {
+			if (machineID != null)
 				return false;
-		} else if (!machineID.equals(other.machineID))
+		} else if (!this.machineID.equals(machineID))
 			return false;
-		if (serialNumber == null) {
-			if (other.serialNumber != null)
+		if (this.serialNumber == null) {
+			if (serialNumber != null)
 				return false;
-		} else if (!serialNumber.equals(other.serialNumber))
+		} else if (!this.serialNumber.equals(serialNumber))
 			return false;
-		if (vendorID == null) {
-			if (other.vendorID != null)
+		if (this.vendorID == null) {
+			if (vendorID != null)
 				return false;
-		} else if (!vendorID.equals(other.vendorID))
+		} else if (!this.vendorID.equals(vendorID))
 			return false;
-		if (machineUUID == null) {
-			if (other.machineUUID != null)
+		if (this.machineUUID == null) {
+			if (machineUUID != null)
 				return false;
-		} else if (!machineUUID.equals(other.machineUUID))
+		} else if (!this.machineUUID.equals(machineUUID))
 			return false;
 		return true;
 	}
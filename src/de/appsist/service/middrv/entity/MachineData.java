@@ -2,6 +2,12 @@
  * An entity class representing a machine state. It contains a machine and the
  * state vector of the machine (which consists of a set of labeled machine values)
  * 
+ * The state vector is either kept in a map or in the slots of the structure of the schema of the
+ * machine (see SlotValues). Both are accessed by the same methods. A lazy decoder may leave the state
+ * vector encoded (see DeferredValues), then it is decoded and validated on first access. Handlers may
+ * access the values from several threads, so they are decoded under the lock of this instance and
+ * published once by clearing the volatile encoded state vector after they were validated.
+ * 
  * @author Marian
  */
 
@@ -16,8 +22,13 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.XML;
 
+import de.appsist.service.middrv.rest.DataSchemaMismatchException;
+
 public class MachineData implements Serializeable {
 	private Map<String, MachineValue> data;
+	// Encoded state vector, null once it is decoded. data is set before, so it is visible to every
+	// thread reading null here
+	private volatile DeferredValues deferred;
 	private Machine machine;
 	
 	//state given from the machine controller
@@ -48,13 +59,80 @@ public class MachineData implements Serializeable {
 		this(machine, new HashMap<String, MachineValue>(), new Status(0, null));
 	}
 	
+	/**
+	 * Create an instance storing its values in the slots of the given structure
+	 * @param structure Structure of the schema of the machine
+	 */
+	public MachineData(Machine machine, SchemaStructure structure, Status status){
+		this(machine, new SlotValues(structure), status);
+	}
+	
+	/**
+	 * Create an instance whose values are decoded and validated on first access
+	 * @param values The encoded values
+	 */
+	public MachineData(Machine machine, DeferredValues values, Status status){
+		this(machine, (Map<String, MachineValue>) null, status);
+		deferred = values;
+	}
+	
+	/**
+	 * @return The slots holding the values of this instance or <code>null</code>, if they are kept in
+	 *         a map
+	 */
+	public SlotValues getSlotValues(){
+		Map<String, MachineValue> values = values();
+		return (values instanceof SlotValues) ? (SlotValues) values : null;
+	}
+	
+	/**
+	 * @return <code>false</code>, if the values are still encoded
+	 */
+	public boolean isDecoded(){
+		return deferred == null;
+	}
+	
+	/**
+	 * Decode and validate the values, if they are still encoded. Otherwise this happens on first access
+	 * of the values, which reports invalid values as IllegalStateException
+	 * @throws DataSchemaMismatchException The values do not match the schema of the machine
+	 * @throws RuntimeException The encoded values are invalid, e.g. a JSONException
+	 */
+	public synchronized void decodeValues() throws DataSchemaMismatchException{
+		DeferredValues pending = deferred;
+		if (pending == null)
+			return;
+		
+		// Invalid values are not published, so every access reports them as invalid
+		Map<String, MachineValue> decoded = pending.decode();
+		pending.validate(new MachineData(machine, decoded, status));
+		data = decoded;
+		deferred = null;
+	}
+	
+	/**
+	 * @return The values, which are decoded first if needed
+	 * @throws IllegalStateException The values do not match the schema of the machine
+	 */
+	private Map<String, MachineValue> values(){
+		if (deferred != null){
+			try {
+				decodeValues();
+			} catch (DataSchemaMismatchException e){
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+		}
+		
+		return data;
+	}
+	
 	/**
 	 * Add/replace a value to the state vector of this machine
 	 * @param name Unique identifier of the state variable
 	 * @param value Value to add/replace
 	 */
 	public void put(String name, String value){
-		data.put(name, MachineValueFactory.create(value));
+		values().put(name, MachineValueFactory.create(value));
 	}
 	
 	/**
@@ -63,11 +141,11 @@ public class MachineData implements Serializeable {
 	 * @param value Value to add/replace
 	 */
 	public void put(String name, boolean value){
-		data.put(name, MachineValueFactory.create(value));
+		values().put(name, MachineValueFactory.create(value));
 	}
 	
 	public Set<Entry<String, MachineValue>> entrySet() {
-		return data.entrySet();
+		return values().entrySet();
 	}
 	
 	/**
@@ -76,7 +154,7 @@ public class MachineData implements Serializeable {
 	 * @param value Value to add/replace
 	 */
 	public void put(String name, int value){
-		data.put(name, MachineValueFactory.create(value));
+		values().put(name, MachineValueFactory.create(value));
 	}
 	
 	/**
@@ -85,7 +163,7 @@ public class MachineData implements Serializeable {
 	 * @param value Value to add/replace
 	 */
 	public void put(String name, long value){
-		data.put(name, MachineValueFactory.create(value));
+		values().put(name, MachineValueFactory.create(value));
 	}
 	
 	/**
@@ -94,7 +172,7 @@ public class MachineData implements Serializeable {
 	 * @param value Value to add/replace
 	 */
 	public void put(String name, double value){
-		data.put(name, MachineValueFactory.create(value));
+		values().put(name, MachineValueFactory.create(value));
 	}
 	
 	/**
@@ -127,7 +205,7 @@ public class MachineData implements Serializeable {
 	}
 	
 	public MachineValue getValue(String name){
-		return data.get(name);
+		return values().get(name);
 	}
 	
 	/**
@@ -135,7 +213,7 @@ public class MachineData implements Serializeable {
 	 * @param name Identifier of the value to remove
 	 */
 	public void remove(String name){
-		data.remove(name);
+		values().remove(name);
 	}
 	
 	public Status getStatus(){
@@ -162,23 +240,7 @@ public class MachineData implements Serializeable {
 	 */
 	@Override
 	public String toJson(){
-		String json = machine.toJson();
-		json = json.substring(0, json.length() - 1);
-		json += ",\"data\":{";
-		
-		boolean isFirst = true;
-		for(Entry<String, MachineValue> e : data.entrySet()){
-			if (isFirst)
-				isFirst = false;
-			else
-				json += ",";
-			
-			json += JSONObject.quote(e.getKey()) + ":" + e.getValue().toJson();
-		}
-		
-		json += "},\"status\":" + status.toJson() + "}";
-		
-		return json;
+		return SerializationWriter.toJson(this);
 	}
 	
 	/**
@@ -194,39 +256,74 @@ public class MachineData implements Serializeable {
 	 */
 	@Override
 	public String toXml(boolean withOuterTags){
-		String xml = "";
+		return SerializationWriter.toXml(this, withOuterTags);
+	}
+	
+	@Override
+	public void writeJson(SerializationWriter writer){
+		writer.append('{');
+		machine.writeJsonMembers(writer);
+		writer.append(",\"data\":{");
+		
+		Map<String, MachineValue> values = values();
+		if (values instanceof SlotValues){
+			((SlotValues) values).writeJson(writer);
+		} else {
+			boolean isFirst = true;
+			for(Entry<String, MachineValue> e : values.entrySet()){
+				if (isFirst)
+					isFirst = false;
+				else
+					writer.append(',');
+				
+				writer.appendQuoted(e.getKey()).append(':');
+				e.getValue().writeJson(writer);
+			}
+		}
+		
+		writer.append("},\"status\":");
+		status.writeJson(writer);
+		writer.append('}');
+	}
+	
+	@Override
+	public void writeXml(SerializationWriter writer, boolean withOuterTags){
 		if (withOuterTags)
-			xml += "<machine>";
+			writer.append("<machine>");
 		
-		xml += machine.toXml(false) + "<data>";
+		machine.writeXml(writer, false);
+		writer.append("<data>");
 		
-		for(Entry<String, MachineValue> e : data.entrySet()){
-			xml += "<entry><name><![CDATA[" + e.getKey() + "]]></name><value>"
-			     + e.getValue().toXml() +  "</value></entry>";
+		Map<String, MachineValue> values = values();
+		if (values instanceof SlotValues){
+			((SlotValues) values).writeXml(writer);
+		} else {
+			for(Entry<String, MachineValue> e : values.entrySet()){
+				writer.append("<entry><name>").appendCData(e.getKey()).append("</name><value>");
+				e.getValue().writeXml(writer, false);
+				writer.append("</value></entry>");
+			}
 		}
 		
-		xml += "</data>";
-		
-		xml += status.toXml();
+		writer.append("</data>");
+		status.writeXml(writer, true);
 		
 		if (withOuterTags)
-			xml += "</machine>";
-		
-		return xml;
+			writer.append("</machine>");
 	}
 	
 	/**
 	 * @return Get the dimension of the machine state vector (this is the number of values it contains)
 	 */
 	public int getDataCount(){
-		return data.size();
+		return values().size();
 	}
 	
 	/**
 	 * @return Get the identifies of the machine state values
 	 */
 	public Set<String> getDataKeys(){
-		return data.keySet();
+		return values().keySet();
 	}
 	
 	/**
@@ -326,7 +423,7 @@ public class MachineData implements Serializeable {
 		if (m.getDataCount() != getDataCount())
 			return false;
 		
-		for (String key : data.keySet()){
+		for (String key : values().keySet()){
 			if (!m.getValue(key).equals(getValue(key)))
 				return false;
 		}
@@ -340,10 +437,16 @@ public class MachineData implements Serializeable {
 	@Override
 	public String toString(){
 		String result = machine.toString();
-		result += "\nData:\n";
 		
-		for (String key : data.keySet()){
-			result += "\t\"" + key + "\" = \"" + getValue(key).toString() + "\"\n"; 
+		// Logging a message must not decode it
+		if (deferred != null){
+			result += "\nData: not decoded yet\n";
+		} else {
+			result += "\nData:\n";
+			
+			for (String key : data.keySet()){
+				result += "\t\"" + key + "\" = \"" + getValue(key).toString() + "\"\n"; 
+			}
 		}
 		
 		if (status != null){
@@ -1,10 +1,18 @@
 /**
  * Entity class representing a machine data schema.
  * 
+ * The fields of a schema can be shared with other schemas as immutable SchemaStructure, so machines
+ * of the same model registered at a server only differ in their identity. Such a schema cannot be
+ * modified.
+ * 
  * @author Marian
  */
 package de.appsist.service.middrv.entity;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -22,6 +30,10 @@ public class MachineSchema implements Serializeable {
 	private String stationID;
 	private String siteID;
 	private String siteUUID;
+	// Cached fingerprint, reset by every change of the schema
+	private volatile String fingerprint;
+	// Shared or cached structure of the fields, reset by every change of the schema
+	private volatile SchemaStructure structure;
 	
 	/**
 	 * Create an empty Schema
@@ -55,6 +67,17 @@ public class MachineSchema implements Serializeable {
 		this.siteID = siteID;
 	}
 	
+	/**
+	 * Create a new Schema sharing the given fields
+	 * 
+	 * @param machine Machine to create schema for
+	 * @param structure The fields of the schema. The schema cannot be modified afterwards
+	 */
+	public MachineSchema(Machine machine, String stationID, String siteID, String siteUUID, SchemaStructure structure){
+		this(machine, stationID, siteID, siteUUID, structure.getFields());
+		this.structure = structure;
+	}
+	
 	/**
 	 * @return Machine belonging to this schema
 	 */
@@ -118,6 +141,8 @@ public class MachineSchema implements Serializeable {
 	 */
 	public void addField(MachineValueSpecification specification){
 		schema.put(specification.getName(), specification);
+		fingerprint = null;
+		structure = null;
 	}
 	
 	/**
@@ -129,6 +154,8 @@ public class MachineSchema implements Serializeable {
 	 */
 	public void addField(String key, MachineValueType type, Unit unit) throws IllegalArgumentException{
 		schema.put(key, new MachineValueSpecification(key, type, unit));
+		fingerprint = null;
+		structure = null;
 	}
 	
 	/**
@@ -143,6 +170,104 @@ public class MachineSchema implements Serializeable {
 	     throws IllegalArgumentException
 	{
 		schema.put(key, new MachineValueSpecification(key, type, unit, visualizationType, visualizationLevel));
+		fingerprint = null;
+		structure = null;
+	}
+	
+	/**
+	 * @return The structure of the fields of this schema. It is shared with other schemas or a
+	 *         snapshot of the current fields
+	 */
+	public SchemaStructure getStructure(){
+		SchemaStructure result = structure;
+		if (result == null){
+			result = new SchemaStructure(schema);
+			structure = result;
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * @param structure A structure equal to the one of this schema, e.g. from a pool of structures
+	 * @return This schema, if it shares the given structure already, otherwise a new schema of the
+	 *         same machine, station and site sharing the given structure
+	 */
+	public MachineSchema withStructure(SchemaStructure structure){
+		if (schema == structure.getFields())
+			return this;
+		
+		MachineSchema result = new MachineSchema(machine, stationID, siteID, siteUUID, structure);
+		// The content is the same, so is the fingerprint
+		result.fingerprint = fingerprint;
+		return result;
+	}
+	
+	/**
+	 * @return A stable fingerprint of the content of this schema: The hex encoded first 128 bits of the
+	 *         SHA-256 hash of the machine, station, site and all fields ordered by their name. Schemas
+	 *         with the same content have the same fingerprint in every process, so a client can ask
+	 *         the server whether it knows a schema without sending it
+	 */
+	public String getFingerprint(){
+		String result = fingerprint;
+		if (result == null){
+			result = computeFingerprint();
+			fingerprint = result;
+		}
+		
+		return result;
+	}
+	
+	private String computeFingerprint(){
+		StringBuilder content = new StringBuilder(64 + 32 * schema.size());
+		appendFingerprintField(content, machine.getVendorID());
+		appendFingerprintField(content, machine.getMachineID());
+		appendFingerprintField(content, machine.getSerialNumber());
+		appendFingerprintField(content, machine.getMachineUUID());
+		appendFingerprintField(content, stationID);
+		appendFingerprintField(content, siteID);
+		appendFingerprintField(content, siteUUID);
+		
+		String[] keys = schema.keySet().toArray(new String[schema.size()]);
+		Arrays.sort(keys);
+		for (String key : keys){
+			MachineValueSpecification specification = schema.get(key);
+			appendFingerprintField(content, key);
+			appendFingerprintField(content, specification.getType());
+			appendFingerprintField(content, specification.getUnit());
+			appendFingerprintField(content, specification.getVisualizationType());
+			appendFingerprintField(content, specification.getVisualizationLevel());
+		}
+		
+		byte[] hash;
+		try {
+			hash = MessageDigest.getInstance("SHA-256").digest(content.toString().getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has to support SHA-256
+			throw new IllegalStateException(e);
+		}
+		
+		char[] hex = new char[32];
+		for (int i = 0; i < 16; i++){
+			hex[2 * i] = Character.forDigit((hash[i] >> 4) & 0xF, 16);
+			hex[2 * i + 1] = Character.forDigit(hash[i] & 0xF, 16);
+		}
+		
+		return new String(hex);
+	}
+	
+	/**
+	 * Append a field prefixed by its length, so the content of different schemas never concatenates to
+	 * the same string
+	 */
+	private static void appendFingerprintField(StringBuilder content, Object field){
+		if (field == null){
+			content.append("-1;");
+		} else {
+			String value = field.toString();
+			content.append(value.length()).append(':').append(value).append(';');
+		}
 	}
 	
 	/**
@@ -208,27 +333,7 @@ public class MachineSchema implements Serializeable {
 	 */
 	@Override
 	public String toXml(boolean withMachineTags) {
-		String xml = "";
-		if(withMachineTags)
-			xml += "<machine>";
-		
-		xml +=  machine.toXml(false);
-		xml += "<station_id>" + stationID + "</station_id>";
-		xml += "<site_id>" + siteID + "</site_id>";
-		xml += "<site_uuid>" + siteUUID + "</site_uuid>";
-		
-		xml += "<schema>";
-		
-		for (MachineValueSpecification item : schema.values()){
-			xml += item.toXml();
-		}
-		
-		xml += "</schema>";
-		
-		if (withMachineTags)
-			xml +="</machine>";
-		
-		return xml;
+		return SerializationWriter.toXml(this, withMachineTags);
 	}
 	
 	/**
@@ -236,24 +341,49 @@ public class MachineSchema implements Serializeable {
 	 */
 	@Override
 	public String toJson() {
-		String json = machine.toJson();
-		json = json.substring(0, json.length() - "}".length());
-		json += ",\"station_id\":" + JSONObject.quote(stationID) + ",\"site_id\":" + JSONObject.quote(siteID) + ",\"site_uuid\":" + JSONObject.quote(siteUUID) + ",\"schema\":[";
-		
-		{
-			boolean isFirst = true;
-			for (MachineValueSpecification item : schema.values()){
-				if (isFirst)
-					isFirst = false;
-				else
-					json += ",";
-				
-				json += item.toJson();
-			}
+		return SerializationWriter.toJson(this);
+	}
+	
+	@Override
+	public void writeJson(SerializationWriter writer) {
+		writer.append('{');
+		machine.writeJsonMembers(writer);
+		writer.append(",\"station_id\":").appendQuoted(stationID).append(",\"site_id\":").appendQuoted(siteID)
+		      .append(",\"site_uuid\":").appendQuoted(siteUUID).append(",\"schema\":[");
+		
+		boolean isFirst = true;
+		for (MachineValueSpecification item : schema.values()){
+			if (isFirst)
+				isFirst = false;
+			else
+				writer.append(',');
+			
+			item.writeJson(writer);
+		}
+		
+		writer.append("]}");
+	}
+	
+	@Override
+	public void writeXml(SerializationWriter writer, boolean withMachineTags) {
+		if(withMachineTags)
+			writer.append("<machine>");
+		
+		machine.writeXml(writer, false);
+		writer.append("<station_id>").append(stationID).append("</station_id>");
+		writer.append("<site_id>").append(siteID).append("</site_id>");
+		writer.append("<site_uuid>").append(siteUUID).append("</site_uuid>");
+		
+		writer.append("<schema>");
+		
+		for (MachineValueSpecification item : schema.values()){
+			item.writeXml(writer, true);
 		}
 		
-		json += "]}";
-		return json;
+		writer.append("</schema>");
+		
+		if (withMachineTags)
+			writer.append("</machine>");
 	}
 	
 	/**
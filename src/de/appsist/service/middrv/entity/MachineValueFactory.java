@@ -1,11 +1,26 @@
 package de.appsist.service.middrv.entity;
 
+/**
+ * Creates MachineValues. Booleans, integers and floating point numbers are held as primitives (see
+ * BoolValue, LongValue and DoubleValue), so passing primitives does not box them. Passing
+ * <code>null</code> as a boxed value creates a MachineValueImpl holding <code>null</code>, as before.
+ */
 public class MachineValueFactory {
+	/**
+	 * @return A new MachineValue of type BOOL
+	 */
+	public static MachineValue create(boolean value){
+		return new BoolValue(value);
+	}
+	
 	/**
 	 * @return A new MachineValue of type BOOL
 	 */
 	public static MachineValue create(Boolean value){
-		return new MachineValueImpl<>(MachineValueType.BOOL, value);
+		if (value == null)
+			return new MachineValueImpl<Boolean>(MachineValueType.BOOL, null);
+		
+		return new BoolValue(value);
 	}
 	
 	/**
@@ -15,24 +30,54 @@ public class MachineValueFactory {
 		return new MachineValueImpl<>(MachineValueType.STRING, value);
 	}
 	
+	/**
+	 * @return A new MachineValue of type LONG
+	 */
+	public static MachineValue create(int value){
+		return new LongValue(value);
+	}
+	
 	/**
 	 * @return A new MachineValue of type LONG
 	 */
 	public static MachineValue create(Integer value){
-		return new MachineValueImpl<>(MachineValueType.LONG, new Long(value));
+		if (value == null)
+			return new MachineValueImpl<Long>(MachineValueType.LONG, null);
+		
+		return new LongValue(value);
+	}
+	
+	/**
+	 * @return A new MachineValue of type LONG
+	 */
+	public static MachineValue create(long value){
+		return new LongValue(value);
 	}
 	
 	/**
 	 * @return A new MachineValue of type LONG
 	 */
 	public static MachineValue create(Long value){
-		return new MachineValueImpl<>(MachineValueType.LONG, value);
+		if (value == null)
+			return new MachineValueImpl<Long>(MachineValueType.LONG, null);
+		
+		return new LongValue(value);
+	}
+	
+	/**
+	 * @return A new MachineValue of type DOUBLE
+	 */
+	public static MachineValue create(double value){
+		return new DoubleValue(value);
 	}
 	
 	/**
 	 * @return A new MachineValue of type DOUBLE
 	 */
 	public static MachineValue create(Double value){
-		return new MachineValueImpl<>(MachineValueType.DOUBLE, value);
+		if (value == null)
+			return new MachineValueImpl<Double>(MachineValueType.DOUBLE, null);
+		
+		return new DoubleValue(value);
 	}
 }
@@ -68,6 +68,14 @@ public class MachineValueImpl<T extends Comparable<T>> implements MachineValue {
 		return true;
 	}
 	
+	/**
+	 * @return The hash code of the value, so it is consistent with equals()
+	 */
+	@Override
+	public int hashCode(){
+		return getValue().hashCode();
+	}
+	
 	/**
 	 * Creates a new MachineValue - use the static MachineValue.create() functions instead
 	 * @param type Type of the machine value
@@ -109,6 +117,28 @@ public class MachineValueImpl<T extends Comparable<T>> implements MachineValue {
 		return result;
 	}
 
+	@Override
+	public void writeJson(SerializationWriter writer) {
+		if (getType() == MachineValueType.STRING)
+			writer.appendQuoted((String) getValue());
+		else
+			writer.append(getValue().toString());
+	}
+
+	@Override
+	public void writeXml(SerializationWriter writer, boolean withOuterTags) {
+		if (withOuterTags)
+			writer.append('<').append(getType().toString()).append('>');
+		
+		if (getType() == MachineValueType.STRING)
+			writer.appendCData(getValue().toString());
+		else
+			writer.append(getValue().toString());
+		
+		if (withOuterTags)
+			writer.append("</").append(getType().toString()).append('>');
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public int compareTo(MachineValue o) {
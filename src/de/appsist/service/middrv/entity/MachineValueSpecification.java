@@ -5,11 +5,14 @@ import org.json.JSONObject;
 import org.json.XML;
 
 public class MachineValueSpecification implements Serializeable {
-	private String name;
-	private MachineValueType type;
-	private Unit unit;
-	private VisualizationType visualizationType;
-	private VisualizationLevel visualizationLevel;
+	private final String name;
+	private final MachineValueType type;
+	private final Unit unit;
+	private final VisualizationType visualizationType;
+	private final VisualizationLevel visualizationLevel;
+	// Encoded JSON object and content of the XML element, created on first use
+	private SerializedFragment json;
+	private SerializedFragment xmlContent;
 	
 	public MachineValueSpecification(String name, MachineValueType type, Unit unit,
 	                                 VisualizationType visualizationType,
@@ -48,10 +51,7 @@ public class MachineValueSpecification implements Serializeable {
 
 	@Override
 	public String toJson() {
-		return "{\"name\":" + JSONObject.quote(name)  + ",\"type\":" + type.toJson()
-		     + ",\"unit\":" + JSONObject.quote(unit.toString()) + ",\"visualization_type\":"
-		     + JSONObject.quote(visualizationType.toString()) + ",\"visualization_level\":"
-		     + JSONObject.quote(visualizationLevel.toString()) + "}";
+		return SerializationWriter.toJson(this);
 	}
 
 	@Override
@@ -61,21 +61,49 @@ public class MachineValueSpecification implements Serializeable {
 
 	@Override
 	public String toXml(boolean withOuterTags) {
-		String result = "";
+		return SerializationWriter.toXml(this, withOuterTags);
+	}
+	
+	@Override
+	public void writeJson(SerializationWriter writer) {
+		SerializedFragment fragment = json;
+		if (fragment == null){
+			StringBuilder builder = new StringBuilder(128);
+			SerializationWriter jsonWriter = SerializationWriter.create(builder);
+			jsonWriter.append("{\"name\":").appendQuoted(name).append(",\"type\":");
+			type.writeJson(jsonWriter);
+			jsonWriter.append(",\"unit\":").appendQuoted(unit.toString())
+			          .append(",\"visualization_type\":").appendQuoted(visualizationType.toString())
+			          .append(",\"visualization_level\":").appendQuoted(visualizationLevel.toString()).append('}');
+			fragment = new SerializedFragment(builder.toString());
+			json = fragment;
+		}
 		
+		writer.append(fragment);
+	}
+	
+	@Override
+	public void writeXml(SerializationWriter writer, boolean withOuterTags) {
 		if (withOuterTags)
-			result += "<specification>";
+			writer.append("<specification>");
 		
-		result += "<name><![CDATA[" + name + "]]></name>"
-		        + type.toXml()
-		        + "<unit><![CDATA[" + unit + "]]></unit>"
-		        + "<visualization_type><![CDATA[" + visualizationType + "]]></visualization_type>"
-		        + "<visualization_level><![CDATA[" + visualizationLevel + "]]></visualization_level>";
+		SerializedFragment content = xmlContent;
+		if (content == null){
+			StringBuilder builder = new StringBuilder(192);
+			SerializationWriter xmlWriter = SerializationWriter.create(builder);
+			xmlWriter.append("<name>").appendCData(name).append("</name>");
+			type.writeXml(xmlWriter, true);
+			xmlWriter.append("<unit>").appendCData(String.valueOf(unit)).append("</unit>")
+			         .append("<visualization_type>").appendCData(String.valueOf(visualizationType)).append("</visualization_type>")
+			         .append("<visualization_level>").appendCData(String.valueOf(visualizationLevel)).append("</visualization_level>");
+			content = new SerializedFragment(builder.toString());
+			xmlContent = content;
+		}
 		
-		if (withOuterTags)
-			result += "</specification>";
+		writer.append(content);
 		
-		return result;
+		if (withOuterTags)
+			writer.append("</specification>");
 	}
 	
 	/**
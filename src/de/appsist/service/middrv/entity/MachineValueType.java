@@ -88,6 +88,22 @@ public enum MachineValueType implements Serializeable {
 		
 		return result;
 	}
+
+	@Override
+	public void writeJson(SerializationWriter writer) {
+		writer.append('"').append(toString()).append('"');
+	}
+
+	@Override
+	public void writeXml(SerializationWriter writer, boolean withOuterTags) {
+		if (withOuterTags)
+			writer.append("<type>");
+		
+		writer.append(toString());
+		
+		if (withOuterTags)
+			writer.append("</type>");
+	}
 	
 	@Override
 	public String toString(){
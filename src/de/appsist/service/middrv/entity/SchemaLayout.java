@@ -0,0 +1,104 @@
+/**
+ * The slot layout of a MachineSchema as used by the binary content type: The fields of the schema are
+ * ordered canonically by their name, so client and server agree on the position of every value
+ * without transmitting field names. Boolean fields are additionally numbered among themselves, as
+ * their values are packed into a bit field.
+ *
+ * The slots are compiled by the SchemaStructure of the schema, so a lookup takes neither a comparison
+ * of whole names nor allocates anything, and schemas sharing their structure share the slots as well.
+ * ASCII names can be looked up from their encoded bytes, so decoders take the name strings of the
+ * schema instead of creating new ones.
+ */
+package de.appsist.service.middrv.entity;
+
+public class SchemaLayout {
+	private final int schemaID;
+	private final MachineSchema schema;
+	private final SchemaStructure structure;
+
+	/**
+	 * Create the layout of the given schema
+	 * @param schema The schema to create the layout of. It must not be modified afterwards
+	 * @param schemaID The ID the server registered the schema with
+	 */
+	public SchemaLayout(MachineSchema schema, int schemaID){
+		this.schemaID = schemaID;
+		this.schema = schema;
+		this.structure = schema.getStructure();
+	}
+
+	/**
+	 * @return The ID the server registered the schema with
+	 */
+	public int getSchemaID(){
+		return schemaID;
+	}
+
+	/**
+	 * @return The schema this layout belongs to
+	 */
+	public MachineSchema getSchema(){
+		return schema;
+	}
+
+	/**
+	 * @return The structure the slots of this layout are compiled by
+	 */
+	public SchemaStructure getStructure(){
+		return structure;
+	}
+
+	/**
+	 * @return Number of slots (fields) in this layout
+	 */
+	public int getSlotCount(){
+		return structure.getSlotCount();
+	}
+
+	/**
+	 * @return Name of the field in the given slot
+	 */
+	public String getName(int slot){
+		return structure.getName(slot);
+	}
+
+	/**
+	 * @return Slot of the field with the given name or -1, if the schema has no such field
+	 */
+	public int getSlot(String name){
+		return structure.getSlot(name);
+	}
+
+	/**
+	 * Look up the slot of a field by the encoded bytes of its name
+	 * @param name Buffer containing the name
+	 * @param offset Position of the name in the buffer
+	 * @param length Length of the name in bytes
+	 * @return Slot of the field with the given name or -1, if the schema has no such field or the
+	 *         name is not plain ASCII
+	 */
+	public int getSlot(byte[] name, int offset, int length){
+		return structure.getSlot(name, offset, length);
+	}
+
+	/**
+	 * @return Type of the field in the given slot
+	 */
+	public MachineValueType getType(int slot){
+		return structure.getType(slot);
+	}
+
+	/**
+	 * @return Position of the given slot among the boolean slots or -1, if it is no boolean slot
+	 */
+	public int getBoolIndex(int slot){
+		return structure.getBoolIndex(slot);
+	}
+
+	/**
+	 * @return Number of boolean slots in this layout
+	 */
+	public int getBoolCount(){
+		return structure.getBoolCount();
+	}
+}
@@ -0,0 +1,256 @@
+/**
+ * The immutable field list of a MachineSchema, i.e. the schema without the identity of its machine,
+ * station and site. Machines of the same model register the same fields, so the schema registry
+ * shares one structure between all of their schemas instead of keeping a copy per machine.
+ *
+ * The structure also holds the tables compiled from the fields: The fields are ordered canonically by
+ * their name into slots, and the slot of a field name is looked up in an open addressing table of the
+ * slots, which is probed with the cached hash code of the name. So layouts and validators of all
+ * schemas with the same structure share them as well.
+ */
+package de.appsist.service.middrv.entity;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public final class SchemaStructure {
+	private final Map<String, MachineValueSpecification> fields;
+	private final String[] names;
+	private final MachineValueSpecification[] specifications;
+	private final MachineValueType[] types;
+	private final int[] boolIndices;
+	private final int boolCount;
+	// Slot + 1 of each name at the position of its hash code, 0 for empty positions
+	private final int[] slotTable;
+	private final int[] hashes;
+	private final int hashCode;
+	// Encoded keys of the slots in the JSON and XML representations of MachineData, created on first use
+	private SerializedFragment[] jsonKeys;
+	private SerializedFragment[] xmlKeys;
+
+	/**
+	 * Create a structure from a copy of the given fields
+	 * @param fields A mapping name --> specification as held by a MachineSchema
+	 */
+	public SchemaStructure(Map<String, MachineValueSpecification> fields){
+		this.fields = Collections.unmodifiableMap(new HashMap<>(fields));
+
+		names = fields.keySet().toArray(new String[fields.size()]);
+		Arrays.sort(names);
+
+		specifications = new MachineValueSpecification[names.length];
+		types = new MachineValueType[names.length];
+		boolIndices = new int[names.length];
+		int bools = 0;
+		int hash = 1;
+		for (int i = 0; i < names.length; i++){
+			specifications[i] = fields.get(names[i]);
+			types[i] = specifications[i].getType();
+			boolIndices[i] = (types[i] == MachineValueType.BOOL) ? bools++ : -1;
+			hash = 31 * hash + names[i].hashCode();
+			hash = 31 * hash + ((types[i] == null) ? 0 : types[i].hashCode());
+		}
+		boolCount = bools;
+		hashCode = hash;
+
+		int tableSize = Integer.highestOneBit(Math.max(names.length, 1) * 2) * 2;
+		slotTable = new int[tableSize];
+		hashes = new int[names.length];
+		for (int slot = 0; slot < names.length; slot++){
+			hashes[slot] = names[slot].hashCode();
+			int i = spread(hashes[slot]) & (tableSize - 1);
+			while (slotTable[i] != 0){
+				i = (i + 1) & (tableSize - 1);
+			}
+			slotTable[i] = slot + 1;
+		}
+	}
+
+	private static int spread(int hash){
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * @return The unmodifiable mapping name --> specification
+	 */
+	public Map<String, MachineValueSpecification> getFields(){
+		return fields;
+	}
+
+	/**
+	 * @return Number of slots (fields) in this structure
+	 */
+	public int getSlotCount(){
+		return names.length;
+	}
+
+	/**
+	 * @return Name of the field in the given slot
+	 */
+	public String getName(int slot){
+		return names[slot];
+	}
+
+	/**
+	 * @return Slot of the field with the given name or -1, if there is no such field
+	 */
+	public int getSlot(String name){
+		int hash = name.hashCode();
+		int mask = slotTable.length - 1;
+		int i = spread(hash) & mask;
+		while (true){
+			int slot = slotTable[i] - 1;
+			if (slot < 0)
+				return -1;
+			if ((hashes[slot] == hash) && ((names[slot] == name) || names[slot].equals(name)))
+				return slot;
+			i = (i + 1) & mask;
+		}
+	}
+
+	/**
+	 * Look up the slot of a field by the encoded bytes of its name
+	 * @param name Buffer containing the name
+	 * @param offset Position of the name in the buffer
+	 * @param length Length of the name in bytes
+	 * @return Slot of the field with the given name or -1, if there is no such field or the name is
+	 *         not plain ASCII
+	 */
+	public int getSlot(byte[] name, int offset, int length){
+		// The hash code of a String of ASCII characters is the same as the one of its bytes
+		int hash = 0;
+		for (int i = offset; i < offset + length; i++){
+			if (name[i] < 0)
+				return -1;
+			hash = 31 * hash + name[i];
+		}
+
+		int mask = slotTable.length - 1;
+		int i = spread(hash) & mask;
+		while (true){
+			int slot = slotTable[i] - 1;
+			if (slot < 0)
+				return -1;
+			if ((hashes[slot] == hash) && equals(names[slot], name, offset, length))
+				return slot;
+			i = (i + 1) & mask;
+		}
+	}
+
+	private static boolean equals(String s, byte[] bytes, int offset, int length){
+		if (s.length() != length)
+			return false;
+
+		for (int i = 0; i < length; i++){
+			if (s.charAt(i) != bytes[offset + i])
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return Type of the field in the given slot
+	 */
+	public MachineValueType getType(int slot){
+		return types[slot];
+	}
+
+	/**
+	 * @return Position of the given slot among the boolean slots or -1, if it is no boolean slot
+	 */
+	public int getBoolIndex(int slot){
+		return boolIndices[slot];
+	}
+
+	/**
+	 * @return Number of boolean slots in this structure
+	 */
+	public int getBoolCount(){
+		return boolCount;
+	}
+
+	/**
+	 * @return The encoded name of the field in the given slot as key of a JSON object including the
+	 *         colon, e.g. <code>"name":</code>
+	 */
+	SerializedFragment getJsonKey(int slot){
+		SerializedFragment[] keys = jsonKeys;
+		if (keys == null){
+			keys = new SerializedFragment[names.length];
+			jsonKeys = keys;
+		}
+
+		// Another thread may not see the fragments created by others and creates them again
+		SerializedFragment key = keys[slot];
+		if (key == null){
+			StringBuilder builder = new StringBuilder(names[slot].length() + 3);
+			SerializationWriter.create(builder).appendQuoted(names[slot]).append(':');
+			key = new SerializedFragment(builder.toString());
+			keys[slot] = key;
+		}
+
+		return key;
+	}
+
+	/**
+	 * @return The encoded beginning of an entry of the XML representation of MachineData for the field
+	 *         in the given slot up to its value
+	 */
+	SerializedFragment getXmlKey(int slot){
+		SerializedFragment[] keys = xmlKeys;
+		if (keys == null){
+			keys = new SerializedFragment[names.length];
+			xmlKeys = keys;
+		}
+
+		SerializedFragment key = keys[slot];
+		if (key == null){
+			StringBuilder builder = new StringBuilder(names[slot].length() + 40);
+			SerializationWriter.create(builder).append("<entry><name>").appendCData(names[slot]).append("</name><value>");
+			key = new SerializedFragment(builder.toString());
+			keys[slot] = key;
+		}
+
+		return key;
+	}
+
+	@Override
+	public int hashCode(){
+		return hashCode;
+	}
+
+	/**
+	 * @return <code>true</code>, if the given Object is a structure with the same fields, i.e. all
+	 *         names, types, units and visualizations are equal
+	 */
+	@Override
+	public boolean equals(Object o){
+		if (this == o)
+			return true;
+		if (!(o instanceof SchemaStructure))
+			return false;
+
+		SchemaStructure other = (SchemaStructure) o;
+		if ((other.hashCode != hashCode) || (other.names.length != names.length))
+			return false;
+
+		for (int i = 0; i < names.length; i++){
+			MachineValueSpecification a = specifications[i];
+			MachineValueSpecification b = other.specifications[i];
+			if (!names[i].equals(other.names[i]) || !equals(a.getName(), b.getName())
+			    || (a.getType() != b.getType()) || !equals(a.getUnit(), b.getUnit())
+			    || (a.getVisualizationType() != b.getVisualizationType())
+			    || (a.getVisualizationLevel() != b.getVisualizationLevel()))
+				return false;
+		}
+
+		return true;
+	}
+
+	private static boolean equals(Object a, Object b){
+		return (a == null) ? (b == null) : a.equals(b);
+	}
+}
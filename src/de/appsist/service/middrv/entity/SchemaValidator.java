@@ -0,0 +1,82 @@
+/**
+ * An immutable validator compiled from a MachineSchema, which checks MachineData instances the same
+ * way as MachineSchema.checkValid() and throws the same exceptions. Field names are looked up in the
+ * slots of the SchemaLayout and their types are compared by identity with a precomputed type array,
+ * instead of looking every key up in the map of the schema three times. Data stored in the slots of the
+ * same structure only needs its values outside of the slots checked.
+ */
+package de.appsist.service.middrv.entity;
+
+import java.util.Map;
+import java.util.Set;
+
+import de.appsist.service.middrv.rest.DataSchemaMismatchException;
+
+public class SchemaValidator {
+	private final Machine machine;
+	private final SchemaLayout layout;
+
+	/**
+	 * Compile a validator for the schema of the given layout
+	 * @param layout Layout of the schema. The schema must not be modified afterwards
+	 */
+	public SchemaValidator(SchemaLayout layout){
+		this.machine = layout.getSchema().getMachine();
+		this.layout = layout;
+	}
+
+	/**
+	 * @return The layout whose slots the field names are looked up in
+	 */
+	public SchemaLayout getLayout(){
+		return layout;
+	}
+
+	/**
+	 * Check if the given MachineData instance belongs to the schema and if its values are valid
+	 * @throws DataSchemaMismatchException if the MachineData instances does not match the schema
+	 */
+	public void checkValid(MachineData data) throws DataSchemaMismatchException{
+		checkValid(data, false);
+	}
+
+	/**
+	 * Check if the given MachineData instance matches the schema
+	 * @param machineMatches The schema was looked up by the machine of the data, e.g. as key of a
+	 *                       SchemaRegistry, so the machines are not compared again
+	 * @throws DataSchemaMismatchException if the MachineData instances does not match the schema
+	 */
+	public void checkValid(MachineData data, boolean machineMatches) throws DataSchemaMismatchException{
+		if (!machineMatches){
+			Machine dataMachine = data.getMachine();
+			if ((dataMachine != machine) && !dataMachine.equals(machine))
+				throw new DataSchemaMismatchException("Machine of MachineData instance and MachineSchema instance differ");
+		}
+
+		SlotValues slots = data.getSlotValues();
+		if ((slots != null) && (slots.getStructure() == layout.getStructure())){
+			// Values in their slots have the type of their field
+			if (slots.hasOthers())
+				checkValues(slots.getOthers().entrySet());
+			return;
+		}
+
+		checkValues(data.entrySet());
+	}
+
+	private void checkValues(Set<Map.Entry<String, MachineValue>> values) throws DataSchemaMismatchException{
+		for (Map.Entry<String, MachineValue> entry : values){
+			String key = entry.getKey();
+			int slot = layout.getSlot(key);
+			if (slot < 0)
+				throw new DataSchemaMismatchException("MachineData instance contains extra key \"" + key + "\"");
+
+			MachineValueType type = entry.getValue().getType();
+			MachineValueType expected = layout.getType(slot);
+			// Types are enum constants, so identity is equality
+			if (type != expected)
+				throw new DataSchemaMismatchException("Value for \"" + key + "\" is of type " + type.identifier
+				                                      + " but type " + expected.identifier + " was expected");
+		}
+	}
+}
@@ -0,0 +1,330 @@
+/**
+ * Target of the serialization of Serializeable instances. Implementations either collect the
+ * characters in a StringBuilder, from which toJson() and toXml() return their String, or encode them
+ * as UTF-8 straight into a growing vert.x Buffer or Netty ByteBuf. So a message is serialized in a
+ * single pass without building and copying the String of every part of it, and sending it does not
+ * need an encoded copy of the whole String either.
+ *
+ * Strings are quoted by appendQuoted() exactly like JSONObject.quote() does it.
+ */
+package de.appsist.service.middrv.entity;
+
+import io.netty.buffer.ByteBuf;
+
+import org.vertx.java.core.buffer.Buffer;
+
+public abstract class SerializationWriter {
+	/**
+	 * @return A writer appending to the given StringBuilder
+	 */
+	public static SerializationWriter create(StringBuilder builder){
+		return new StringBuilderWriter(builder);
+	}
+
+	/**
+	 * @return A writer appending the UTF-8 encoding to the given buffer
+	 */
+	public static SerializationWriter create(Buffer buffer){
+		return new BufferWriter(buffer);
+	}
+
+	/**
+	 * @return A writer appending the UTF-8 encoding to the given buffer, which is expanded as needed
+	 */
+	public static SerializationWriter create(ByteBuf buffer){
+		return new ByteBufWriter(buffer);
+	}
+
+	/**
+	 * @return The JSON representation of the given Serializeable as String
+	 */
+	public static String toJson(Serializeable serializeMe){
+		StringBuilder builder = new StringBuilder(128);
+		serializeMe.writeJson(create(builder));
+		return builder.toString();
+	}
+
+	/**
+	 * @return The XML representation of the given Serializeable as String
+	 */
+	public static String toXml(Serializeable serializeMe, boolean withOuterTags){
+		StringBuilder builder = new StringBuilder(256);
+		serializeMe.writeXml(create(builder), withOuterTags);
+		return builder.toString();
+	}
+
+	/**
+	 * Append a single character
+	 */
+	public abstract SerializationWriter append(char c);
+
+	/**
+	 * Append the characters start (inclusive) to end (exclusive) of the given String
+	 */
+	public abstract SerializationWriter append(String s, int start, int end);
+
+	/**
+	 * Append a fragment serialized before
+	 */
+	public abstract SerializationWriter append(SerializedFragment fragment);
+
+	/**
+	 * Append the given String or "null" like StringBuilder does
+	 */
+	public SerializationWriter append(String s){
+		if (s == null)
+			return append("null", 0, 4);
+
+		return append(s, 0, s.length());
+	}
+
+	/**
+	 * Append the decimal representation of the given number
+	 */
+	public SerializationWriter append(long value){
+		return append(Long.toString(value));
+	}
+
+	/**
+	 * Append the given number as Double.toString() represents it
+	 */
+	public SerializationWriter append(double value){
+		return append(Double.toString(value));
+	}
+
+	/**
+	 * Append "true" or "false"
+	 */
+	public SerializationWriter append(boolean value){
+		return value ? append("true", 0, 4) : append("false", 0, 5);
+	}
+
+	/**
+	 * Append the given String as CDATA section. The String is not escaped, just like the XML
+	 * representations of all Serializeables did before
+	 */
+	public SerializationWriter appendCData(String s){
+		return append("<![CDATA[", 0, 9).append(s).append("]]>", 0, 3);
+	}
+
+	/**
+	 * Append the given String as quoted JSON string, the same as JSONObject.quote() does
+	 */
+	public SerializationWriter appendQuoted(String s){
+		if ((s == null) || s.isEmpty())
+			return append("\"\"", 0, 2);
+
+		append('"');
+		int start = 0;
+		char previous = 0;
+		for (int i = 0; i < s.length(); i++){
+			char c = s.charAt(i);
+			if ((c >= ' ') && (c != '"') && (c != '\\') && ((c != '/') || (previous != '<'))
+			    && ((c < '\u0080') || (c >= '\u00a0')) && ((c < '\u2000') || (c >= '\u2100'))){
+				previous = c;
+				continue;
+			}
+
+			append(s, start, i);
+			appendEscaped(c);
+			start = i + 1;
+			previous = c;
+		}
+		append(s, start, s.length());
+
+		return append('"');
+	}
+
+	private void appendEscaped(char c){
+		switch(c){
+		case '"':
+		case '\\':
+		case '/':
+			append('\\').append(c);
+			break;
+		case '\b':
+			append("\\b", 0, 2);
+			break;
+		case '\t':
+			append("\\t", 0, 2);
+			break;
+		case '\n':
+			append("\\n", 0, 2);
+			break;
+		case '\f':
+			append("\\f", 0, 2);
+			break;
+		case '\r':
+			append("\\r", 0, 2);
+			break;
+		default:
+			append("\\u", 0, 2);
+			for (int shift = 12; shift >= 0; shift -= 4){
+				append(Character.forDigit((c >>> shift) & 0xf, 16));
+			}
+		}
+	}
+
+	private static final class StringBuilderWriter extends SerializationWriter {
+		private final StringBuilder builder;
+
+		StringBuilderWriter(StringBuilder builder){
+			this.builder = builder;
+		}
+
+		@Override
+		public SerializationWriter append(char c){
+			builder.append(c);
+			return this;
+		}
+
+		@Override
+		public SerializationWriter append(String s, int start, int end){
+			builder.append(s, start, end);
+			return this;
+		}
+
+		@Override
+		public SerializationWriter append(SerializedFragment fragment){
+			builder.append(fragment.getText());
+			return this;
+		}
+
+		@Override
+		public SerializationWriter append(long value){
+			builder.append(value);
+			return this;
+		}
+
+		@Override
+		public SerializationWriter append(double value){
+			builder.append(value);
+			return this;
+		}
+	}
+
+	/**
+	 * Encodes the characters as UTF-8 into the bytes written by writeByte()
+	 */
+	private abstract static class Utf8Writer extends SerializationWriter {
+		abstract void writeByte(int b);
+
+		abstract void writeBytes(byte[] bytes);
+
+		@Override
+		public SerializationWriter append(SerializedFragment fragment){
+			writeBytes(fragment.getBytes());
+			return this;
+		}
+
+		@Override
+		public SerializationWriter append(char c){
+			if (c < 0x80)
+				writeByte(c);
+			else
+				append(String.valueOf(c), 0, 1);
+
+			return this;
+		}
+
+		/**
+		 * Unpaired surrogates are replaced by '?' like String.getBytes() does it
+		 */
+		@Override
+		public SerializationWriter append(String s, int start, int end){
+			for (int i = start; i < end; i++){
+				char c = s.charAt(i);
+				if (c < 0x80){
+					writeByte(c);
+				} else if (c < 0x800){
+					writeByte(0xc0 | (c >> 6));
+					writeByte(0x80 | (c & 0x3f));
+				} else if (!Character.isSurrogate(c)){
+					writeByte(0xe0 | (c >> 12));
+					writeByte(0x80 | ((c >> 6) & 0x3f));
+					writeByte(0x80 | (c & 0x3f));
+				} else if (Character.isHighSurrogate(c) && (i + 1 < end) && Character.isLowSurrogate(s.charAt(i + 1))){
+					int codePoint = Character.toCodePoint(c, s.charAt(++i));
+					writeByte(0xf0 | (codePoint >> 18));
+					writeByte(0x80 | ((codePoint >> 12) & 0x3f));
+					writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+					writeByte(0x80 | (codePoint & 0x3f));
+				} else {
+					writeByte('?');
+				}
+			}
+
+			return this;
+		}
+
+		/**
+		 * Writes the digits directly instead of creating a String of them
+		 */
+		@Override
+		public SerializationWriter append(long value){
+			if (value == Long.MIN_VALUE)
+				return append(Long.toString(value));
+
+			if (value < 0){
+				writeByte('-');
+				value = -value;
+			}
+
+			long divisor = 1;
+			while (value / divisor >= 10){
+				divisor *= 10;
+			}
+			for (; divisor > 0; divisor /= 10){
+				writeByte((int) ('0' + (value / divisor) % 10));
+			}
+
+			return this;
+		}
+	}
+
+	private static final class ByteBufWriter extends Utf8Writer {
+		private final ByteBuf buffer;
+
+		ByteBufWriter(ByteBuf buffer){
+			this.buffer = buffer;
+		}
+
+		@Override
+		void writeByte(int b){
+			buffer.writeByte(b);
+		}
+
+		@Override
+		void writeBytes(byte[] bytes){
+			buffer.writeBytes(bytes);
+		}
+
+		@Override
+		public SerializationWriter append(String s, int start, int end){
+			buffer.ensureWritable(end - start);
+			return super.append(s, start, end);
+		}
+	}
+
+	/**
+	 * Appends to a vert.x Buffer by its own methods, since the ByteBuf it returns is a duplicate whose
+	 * writer index is not the length of the Buffer
+	 */
+	private static final class BufferWriter extends Utf8Writer {
+		private final Buffer buffer;
+
+		BufferWriter(Buffer buffer){
+			this.buffer = buffer;
+		}
+
+		@Override
+		void writeByte(int b){
+			buffer.appendByte((byte) b);
+		}
+
+		@Override
+		void writeBytes(byte[] bytes){
+			buffer.appendBytes(bytes);
+		}
+	}
+}
@@ -21,4 +21,17 @@ public interface Serializeable {
 	 * @return All needed attributes to recreate this Object serialized as XML-String
 	 */
 	String toXml(boolean withOuterTags);
+	
+	/**
+	 * Append the JSON representation returned by toJson() to the given writer
+	 * @param writer Target of the serialization, e.g. the buffer of a request
+	 */
+	void writeJson(SerializationWriter writer);
+	
+	/**
+	 * Append the XML representation returned by toXml(withOuterTags) to the given writer
+	 * @param writer Target of the serialization, e.g. the buffer of a request
+	 * @param withOuterTags Wether to print outer tags
+	 */
+	void writeXml(SerializationWriter writer, boolean withOuterTags);
 }
@@ -0,0 +1,41 @@
+/**
+ * A piece of serialized output kept as String and as its UTF-8 encoding, so a SerializationWriter
+ * copies it instead of quoting and encoding its parts again. Entities which do not change cache the
+ * fragments of their representations, e.g. a Machine, whose members are part of every sample sent
+ * for it.
+ */
+package de.appsist.service.middrv.entity;
+
+import java.nio.charset.StandardCharsets;
+
+public final class SerializedFragment {
+	private final String text;
+	private final byte[] utf8;
+
+	/**
+	 * @param text The serialized output, e.g. as written by SerializationWriter.create(StringBuilder)
+	 */
+	public SerializedFragment(String text){
+		this.text = text;
+		utf8 = text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return The fragment as String
+	 */
+	public String getText(){
+		return text;
+	}
+
+	/**
+	 * @return The UTF-8 encoding of the fragment. The array must not be changed
+	 */
+	byte[] getBytes(){
+		return utf8;
+	}
+
+	@Override
+	public String toString(){
+		return text;
+	}
+}
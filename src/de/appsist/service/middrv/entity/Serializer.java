@@ -3,11 +3,17 @@
  */
 package de.appsist.service.middrv.entity;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
 import org.vertx.java.core.buffer.Buffer;
 
 import de.appsist.service.middrv.rest.ContentType;
 
 public class Serializer {
+	// Initial capacity of a buffer, which is doubled until the serialized Object fits
+	private static final int INITIAL_BUFFER_SIZE = 256;
+
 	/**
 	 * Serialize the given Serializable to a vert.x buffer ready for sending it
 	 * @param serializeMe The Object to serialize
@@ -15,12 +21,53 @@ public class Serializer {
 	 * @return A buffer containing the serialized version of the given Object
 	 */
 	public static Buffer serializeToBuffer(Serializeable serializeMe, ContentType contentType)
+	{
+		ByteBuf buffer = Unpooled.buffer(INITIAL_BUFFER_SIZE);
+		serialize(serializeMe, contentType, buffer);
+		return new Buffer(buffer);
+	}
+
+	/**
+	 * Append the serialized version of the given Serializable to a vert.x buffer
+	 * @param serializeMe The Object to serialize
+	 * @param contentType The content type to use for serialization
+	 * @param dest The buffer to append to
+	 */
+	public static void serialize(Serializeable serializeMe, ContentType contentType, Buffer dest){
+		switch (contentType){
+		case JSON:
+			serializeMe.writeJson(SerializationWriter.create(dest));
+			break;
+		case XML:
+			serializeMe.writeXml(SerializationWriter.create(dest), !(serializeMe instanceof MachineValue));
+			break;
+		default:
+			dest.appendBuffer(serializeToBuffer(serializeMe, contentType));
+		}
+	}
+
+	/**
+	 * Append the serialized version of the given Serializable to a Netty buffer, e.g. a pooled one. JSON
+	 * and XML are encoded directly into the buffer without creating a String of the whole Object
+	 * @param serializeMe The Object to serialize
+	 * @param contentType The content type to use for serialization
+	 * @param dest The buffer to append to, it is expanded as needed
+	 */
+	public static void serialize(Serializeable serializeMe, ContentType contentType, ByteBuf dest)
 	{
 		switch (contentType){
 		case JSON:
-			return new Buffer(serializeMe.toJson());
+			serializeMe.writeJson(SerializationWriter.create(dest));
+			break;
 		case XML:
-			return new Buffer(serializeMe.toXml());
+			// toXml() of a single MachineValue omits its tags, all others include them
+			serializeMe.writeXml(SerializationWriter.create(dest), !(serializeMe instanceof MachineValue));
+			break;
+		case EXI:
+			dest.writeBytes(EXIConverter.encode(serializeMe.toXml()));
+			break;
+		case BINARY:
+			throw new IllegalArgumentException("The binary content type refers to registered schemas, use BinaryCodec to serialize data messages.");
 		default:
 			throw new IllegalArgumentException("Content type \"" + contentType.toString() + "\" not supported for serialization.");
 		}
@@ -0,0 +1,440 @@
+/**
+ * The values of a MachineData instance stored in the slots of the SchemaStructure of its schema,
+ * instead of a HashMap with an entry, a key and a MachineValue object per value. Numbers and booleans
+ * are kept in a primitive array, strings in an array allocated on first use and a bit set marks the
+ * slots holding a value.
+ *
+ * The class implements the Map interface used by MachineData. Values returned by get() or the entry
+ * set are views created on every call, so changing them does not change the stored value. Values the
+ * slots cannot hold (names not in the structure, values of a different type than their field or
+ * values of other MachineValue implementations) are kept in a HashMap, so they are still reported by
+ * the validator of the schema.
+ */
+package de.appsist.service.middrv.entity;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+public class SlotValues extends AbstractMap<String, MachineValue> {
+	private final SchemaStructure structure;
+	// Long values, bits of double values and 0 or 1 for booleans
+	private final long[] primitives;
+	private String[] strings;
+	private final long[] presence;
+	private int count = 0;
+	// Values which do not fit into their slot, null as long as there are none
+	private HashMap<String, MachineValue> others;
+	private Set<Map.Entry<String, MachineValue>> entrySet;
+
+	/**
+	 * Create an empty instance for the fields of the given structure
+	 */
+	public SlotValues(SchemaStructure structure){
+		this.structure = structure;
+		primitives = new long[structure.getSlotCount()];
+		presence = new long[(structure.getSlotCount() + 63) >>> 6];
+	}
+
+	/**
+	 * @return The structure the slots belong to
+	 */
+	public SchemaStructure getStructure(){
+		return structure;
+	}
+
+	/**
+	 * @return <code>true</code>, if the given slot holds a value
+	 */
+	public boolean isPresent(int slot){
+		return (presence[slot >>> 6] & (1L << slot)) != 0;
+	}
+
+	/**
+	 * @return <code>true</code>, if there are values which do not fit into their slots. They are not
+	 *         valid for the schema of the structure
+	 */
+	public boolean hasOthers(){
+		return (others != null) && !others.isEmpty();
+	}
+
+	/**
+	 * @return The values which do not fit into their slots
+	 */
+	public Map<String, MachineValue> getOthers(){
+		return hasOthers() ? others : Collections.<String, MachineValue>emptyMap();
+	}
+
+	/**
+	 * @return The long value in the given slot of type LONG
+	 */
+	public long getLong(int slot){
+		return primitives[slot];
+	}
+
+	/**
+	 * @return The double value in the given slot of type DOUBLE
+	 */
+	public double getDouble(int slot){
+		return Double.longBitsToDouble(primitives[slot]);
+	}
+
+	/**
+	 * @return The boolean value in the given slot of type BOOL
+	 */
+	public boolean getBoolean(int slot){
+		return primitives[slot] != 0;
+	}
+
+	/**
+	 * @return The String value in the given slot of type STRING
+	 */
+	public String getString(int slot){
+		return (strings == null) ? null : strings[slot];
+	}
+
+	/**
+	 * Set the value of the given slot. If the field of the slot is of another type, the value is kept
+	 * aside and reported by the validator
+	 */
+	public void setLong(int slot, long value){
+		if (structure.getType(slot) == MachineValueType.LONG)
+			setPrimitive(slot, value);
+		else
+			putOther(structure.getName(slot), MachineValueFactory.create(value));
+	}
+
+	/**
+	 * Set the value of the given slot. If the field of the slot is of another type, the value is kept
+	 * aside and reported by the validator
+	 */
+	public void setDouble(int slot, double value){
+		if (structure.getType(slot) == MachineValueType.DOUBLE)
+			setPrimitive(slot, Double.doubleToRawLongBits(value));
+		else
+			putOther(structure.getName(slot), MachineValueFactory.create(value));
+	}
+
+	/**
+	 * Set the value of the given slot. If the field of the slot is of another type, the value is kept
+	 * aside and reported by the validator
+	 */
+	public void setBoolean(int slot, boolean value){
+		if (structure.getType(slot) == MachineValueType.BOOL)
+			setPrimitive(slot, value ? 1 : 0);
+		else
+			putOther(structure.getName(slot), MachineValueFactory.create(value));
+	}
+
+	/**
+	 * Set the value of the given slot. If the field of the slot is of another type or the value is
+	 * <code>null</code>, the value is kept aside and reported by the validator
+	 */
+	public void setString(int slot, String value){
+		if ((structure.getType(slot) != MachineValueType.STRING) || (value == null)){
+			putOther(structure.getName(slot), MachineValueFactory.create(value));
+			return;
+		}
+
+		if (strings == null)
+			strings = new String[primitives.length];
+		strings[slot] = value;
+		setPresent(slot);
+	}
+
+	private void setPrimitive(int slot, long value){
+		primitives[slot] = value;
+		setPresent(slot);
+	}
+
+	private void setPresent(int slot){
+		if (!isPresent(slot)){
+			presence[slot >>> 6] |= 1L << slot;
+			count++;
+			if (hasOthers())
+				others.remove(structure.getName(slot));
+		}
+	}
+
+	private void clearSlot(int slot){
+		if (isPresent(slot)){
+			presence[slot >>> 6] &= ~(1L << slot);
+			count--;
+			if (strings != null)
+				strings[slot] = null;
+		}
+	}
+
+	private MachineValue putOther(String name, MachineValue value){
+		int slot = structure.getSlot(name);
+		MachineValue previous = (slot < 0) ? null : valueOf(slot);
+		if (slot >= 0)
+			clearSlot(slot);
+
+		if (others == null)
+			others = new HashMap<>();
+		MachineValue replaced = others.put(name, value);
+		return (previous == null) ? replaced : previous;
+	}
+
+	/**
+	 * @return A new MachineValue of the value in the given slot or <code>null</code>, if it holds none
+	 */
+	private MachineValue valueOf(int slot){
+		if (!isPresent(slot))
+			return null;
+
+		switch(structure.getType(slot)){
+		case LONG:
+			return new LongValue(primitives[slot]);
+		case DOUBLE:
+			return new DoubleValue(Double.longBitsToDouble(primitives[slot]));
+		case BOOL:
+			return new BoolValue(primitives[slot] != 0);
+		default:
+			return MachineValueFactory.create(strings[slot]);
+		}
+	}
+
+	/**
+	 * Append the values as members of a JSON object in the order of the entry set without creating a
+	 * MachineValue per slot
+	 */
+	void writeJson(SerializationWriter writer){
+		boolean isFirst = true;
+		for (int slot = 0; slot < primitives.length; slot++){
+			if (!isPresent(slot))
+				continue;
+
+			if (isFirst)
+				isFirst = false;
+			else
+				writer.append(',');
+
+			writer.append(structure.getJsonKey(slot));
+			if (structure.getType(slot) == MachineValueType.STRING)
+				writer.appendQuoted(strings[slot]);
+			else
+				writePrimitive(writer, slot);
+		}
+
+		if (others == null)
+			return;
+
+		for (Map.Entry<String, MachineValue> entry : others.entrySet()){
+			if (isFirst)
+				isFirst = false;
+			else
+				writer.append(',');
+
+			writer.appendQuoted(entry.getKey()).append(':');
+			entry.getValue().writeJson(writer);
+		}
+	}
+
+	/**
+	 * Append the values as entries of the XML representation of MachineData in the order of the entry
+	 * set without creating a MachineValue per slot
+	 */
+	void writeXml(SerializationWriter writer){
+		for (int slot = 0; slot < primitives.length; slot++){
+			if (!isPresent(slot))
+				continue;
+
+			writer.append(structure.getXmlKey(slot));
+			if (structure.getType(slot) == MachineValueType.STRING)
+				writer.appendCData(strings[slot]);
+			else
+				writePrimitive(writer, slot);
+			writer.append("</value></entry>");
+		}
+
+		if (others == null)
+			return;
+
+		for (Map.Entry<String, MachineValue> entry : others.entrySet()){
+			writer.append("<entry><name>").appendCData(entry.getKey()).append("</name><value>");
+			entry.getValue().writeXml(writer, false);
+			writer.append("</value></entry>");
+		}
+	}
+
+	private void writePrimitive(SerializationWriter writer, int slot){
+		switch(structure.getType(slot)){
+		case LONG:
+			writer.append(primitives[slot]);
+			break;
+		case DOUBLE:
+			writer.append(getDouble(slot));
+			break;
+		default:
+			writer.append(getBoolean(slot));
+		}
+	}
+
+	@Override
+	public int size(){
+		return count + ((others == null) ? 0 : others.size());
+	}
+
+	@Override
+	public boolean containsKey(Object key){
+		if (!(key instanceof String))
+			return false;
+
+		int slot = structure.getSlot((String) key);
+		return ((slot >= 0) && isPresent(slot)) || ((others != null) && others.containsKey(key));
+	}
+
+	@Override
+	public MachineValue get(Object key){
+		if (!(key instanceof String))
+			return null;
+
+		int slot = structure.getSlot((String) key);
+		if ((slot >= 0) && isPresent(slot))
+			return valueOf(slot);
+
+		return (others == null) ? null : others.get(key);
+	}
+
+	@Override
+	public MachineValue put(String key, MachineValue value){
+		int slot = structure.getSlot(key);
+		if ((slot < 0) || (value == null) || (value.getType() != structure.getType(slot)))
+			return putOther(key, value);
+
+		MachineValue previous = get(key);
+		if (value instanceof LongValue){
+			setLong(slot, ((LongValue) value).getLong());
+		} else if (value instanceof DoubleValue){
+			setDouble(slot, ((DoubleValue) value).getDouble());
+		} else if (value instanceof BoolValue){
+			setBoolean(slot, ((BoolValue) value).getBoolean());
+		} else {
+			Object content = (value instanceof MachineValueImpl) ? ((MachineValueImpl<?>) value).getValue() : null;
+			if (content == null)
+				return putOther(key, value);
+
+			switch(value.getType()){
+			case LONG:
+				setLong(slot, (Long) content);
+				break;
+			case DOUBLE:
+				setDouble(slot, (Double) content);
+				break;
+			case BOOL:
+				setBoolean(slot, (Boolean) content);
+				break;
+			default:
+				setString(slot, (String) content);
+			}
+		}
+
+		return previous;
+	}
+
+	@Override
+	public MachineValue remove(Object key){
+		if (!(key instanceof String))
+			return null;
+
+		int slot = structure.getSlot((String) key);
+		if ((slot >= 0) && isPresent(slot)){
+			MachineValue previous = valueOf(slot);
+			clearSlot(slot);
+			return previous;
+		}
+
+		return (others == null) ? null : others.remove(key);
+	}
+
+	@Override
+	public void clear(){
+		for (int i = 0; i < presence.length; i++){
+			presence[i] = 0;
+		}
+		count = 0;
+		strings = null;
+		others = null;
+	}
+
+	@Override
+	public Set<Map.Entry<String, MachineValue>> entrySet(){
+		if (entrySet == null){
+			entrySet = new AbstractSet<Map.Entry<String, MachineValue>>(){
+					@Override
+					public Iterator<Map.Entry<String, MachineValue>> iterator(){
+						return new EntryIterator();
+					}
+
+					@Override
+					public int size(){
+						return SlotValues.this.size();
+					}
+				};
+		}
+
+		return entrySet;
+	}
+
+	/**
+	 * Iterates the present slots in their order followed by the other values
+	 */
+	private final class EntryIterator implements Iterator<Map.Entry<String, MachineValue>> {
+		private int nextSlot = nextPresent(0);
+		// Slot of the last entry, OTHER for an entry of the other values or NONE
+		private static final int OTHER = -1;
+		private static final int NONE = -2;
+		private int lastSlot = NONE;
+		private Iterator<Map.Entry<String, MachineValue>> otherEntries;
+
+		private int nextPresent(int slot){
+			while ((slot < primitives.length) && !isPresent(slot)){
+				slot++;
+			}
+			return slot;
+		}
+
+		@Override
+		public boolean hasNext(){
+			if (nextSlot < primitives.length)
+				return true;
+			if ((otherEntries == null) && (others != null))
+				otherEntries = others.entrySet().iterator();
+			return (otherEntries != null) && otherEntries.hasNext();
+		}
+
+		@Override
+		public Map.Entry<String, MachineValue> next(){
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			if (nextSlot < primitives.length){
+				lastSlot = nextSlot;
+				nextSlot = nextPresent(nextSlot + 1);
+				return new AbstractMap.SimpleImmutableEntry<>(structure.getName(lastSlot), valueOf(lastSlot));
+			}
+
+			lastSlot = OTHER;
+			return otherEntries.next();
+		}
+
+		@Override
+		public void remove(){
+			if (lastSlot == NONE)
+				throw new IllegalStateException();
+
+			if (lastSlot == OTHER)
+				otherEntries.remove();
+			else
+				clearSlot(lastSlot);
+			lastSlot = NONE;
+		}
+	}
+}
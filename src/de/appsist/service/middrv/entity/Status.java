@@ -12,6 +12,12 @@ public class Status implements Serializeable {
 	private int code;
 	private String description;
 	
+	// Encoded beginning of the JSON object and code element of the codes from -128 to 127, created on
+	// first use
+	private static final int MIN_CACHED_CODE = -128;
+	private static final SerializedFragment[] JSON_CODES = new SerializedFragment[256];
+	private static final SerializedFragment[] XML_CODES = new SerializedFragment[256];
+	
 	/**
 	 * Create a new error message
 	 * 
@@ -70,10 +76,7 @@ public class Status implements Serializeable {
 	 */
 	@Override
 	public String toJson() {
-		if (description != null)
-			return "{\"code\":" + code + ",\"description\":" + JSONObject.quote(description) + "}";
-		
-		return  "{\"code\":" + code + "}";
+		return SerializationWriter.toJson(this);
 	}
 	
 	/**
@@ -89,19 +92,55 @@ public class Status implements Serializeable {
 	 */
 	@Override
 	public String toXml(boolean withOuterTags) {
-		String result = "";
+		return SerializationWriter.toXml(this, withOuterTags);
+	}
+	
+	@Override
+	public void writeJson(SerializationWriter writer) {
+		SerializedFragment fragment = getCodeFragment(JSON_CODES, "{\"code\":", "");
+		if (fragment != null)
+			writer.append(fragment);
+		else
+			writer.append("{\"code\":").append(code);
 		
+		if (description != null)
+			writer.append(",\"description\":").appendQuoted(description);
+		writer.append('}');
+	}
+	
+	@Override
+	public void writeXml(SerializationWriter writer, boolean withOuterTags) {
 		if (withOuterTags)
-			result += "<status>";
+			writer.append("<status>");
 		
-		result += "<code>" + code + "</code>";
+		SerializedFragment fragment = getCodeFragment(XML_CODES, "<code>", "</code>");
+		if (fragment != null)
+			writer.append(fragment);
+		else
+			writer.append("<code>").append(code).append("</code>");
 		
 		if (description != null)
-			result += "<description><![CDATA[" + description + "]]></description>";
+			writer.append("<description>").appendCData(description).append("</description>");
 		
 		if (withOuterTags)
-			result += "</status>";
-		return result;
+			writer.append("</status>");
+	}
+	
+	/**
+	 * @return The cached fragment prefix + code + suffix or <code>null</code>, if the code is not cached
+	 */
+	private SerializedFragment getCodeFragment(SerializedFragment[] cache, String prefix, String suffix){
+		int index = code - MIN_CACHED_CODE;
+		if ((index < 0) || (index >= cache.length))
+			return null;
+		
+		SerializedFragment fragment = cache[index];
+		if (fragment == null){
+			fragment = new SerializedFragment(prefix + code + suffix);
+			cache[index] = fragment;
+		}
+		
+		return fragment;
 	}
 	
 	/**
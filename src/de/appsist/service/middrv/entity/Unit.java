@@ -7,6 +7,9 @@ import org.json.JSONObject;
 
 public class Unit implements Serializeable {
 	private final String unit;
+	// Encoded JSON string and CDATA section, created on first use
+	private SerializedFragment json;
+	private SerializedFragment xmlContent;
 	
 	public Unit(String unit){
 		this.unit = unit;
@@ -37,6 +40,38 @@ public class Unit implements Serializeable {
 		return result;
 	}
 	
+	@Override
+	public void writeJson(SerializationWriter writer) {
+		SerializedFragment fragment = json;
+		if (fragment == null){
+			StringBuilder builder = new StringBuilder(unit.length() + 2);
+			SerializationWriter.create(builder).appendQuoted(toString());
+			fragment = new SerializedFragment(builder.toString());
+			json = fragment;
+		}
+		
+		writer.append(fragment);
+	}
+	
+	@Override
+	public void writeXml(SerializationWriter writer, boolean withOuterTags) {
+		if (withOuterTags)
+			writer.append("<unit>");
+		
+		SerializedFragment content = xmlContent;
+		if (content == null){
+			StringBuilder builder = new StringBuilder(unit.length() + 12);
+			SerializationWriter.create(builder).appendCData(toString());
+			content = new SerializedFragment(builder.toString());
+			xmlContent = content;
+		}
+		
+		writer.append(content);
+		
+		if (withOuterTags)
+			writer.append("</unit>");
+	}
+	
 	@Override
 	public String toString(){
 		return unit;
@@ -54,7 +89,7 @@ public class Unit implements Serializeable {
 		
 		Unit u = (Unit) o;
 		
-		return toString().equals(u);
+		return unit.equals(u.unit);
 	}
 	
 	// Definitions of some most common units (mostly SI units) to promote consisted spelling of
@@ -48,11 +48,27 @@ public enum VisualizationLevel implements Serializeable {
 		result +=  "<![CDATA[" + getName() + "]]>"; 
 		
 		if (withOuterTags)
-			result += "<visualization_level>";
+			result += "</visualization_level>";
 		
 		return result;
 	}
 	
+	@Override
+	public void writeJson(SerializationWriter writer) {
+		writer.appendQuoted(getName());
+	}
+	
+	@Override
+	public void writeXml(SerializationWriter writer, boolean withOuterTags) {
+		if (withOuterTags)
+			writer.append("<visualization_level>");
+		
+		writer.appendCData(getName());
+		
+		if (withOuterTags)
+			writer.append("</visualization_level>");
+	}
+	
 	public static VisualizationLevel byName(String name){
 		switch (name){
 		case "overview":
@@ -40,6 +40,22 @@ public enum VisualizationType implements Serializeable{
 		return result;
 	}
 	
+	@Override
+	public void writeJson(SerializationWriter writer) {
+		writer.appendQuoted(name);
+	}
+	
+	@Override
+	public void writeXml(SerializationWriter writer, boolean withOuterTags) {
+		if (withOuterTags)
+			writer.append("<visualization_type>");
+		
+		writer.appendCData(name);
+		
+		if (withOuterTags)
+			writer.append("</visualization_type>");
+	}
+	
 	@Override
 	public String toString(){
 		return name;
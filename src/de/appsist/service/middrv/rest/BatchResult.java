@@ -0,0 +1,193 @@
+/**
+ * Entity class representing the result of a batch of data messages: One status code per message in
+ * the order of the batch. A code of 0 means the message was accepted, otherwise the code is one of
+ * the error codes in Constants.
+ */
+package de.appsist.service.middrv.rest;
+
+import java.util.Arrays;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.XML;
+
+import de.appsist.service.middrv.entity.SerializationWriter;
+import de.appsist.service.middrv.entity.Serializeable;
+
+public class BatchResult implements Serializeable {
+	private int[] codes;
+	private int count;
+
+	/**
+	 * Create an empty result
+	 */
+	public BatchResult(){
+		this(16);
+	}
+
+	/**
+	 * Create an empty result
+	 * @param capacity Expected number of messages
+	 */
+	public BatchResult(int capacity){
+		codes = new int[Math.max(capacity, 1)];
+		count = 0;
+	}
+
+	/**
+	 * Append the code of the next message of the batch
+	 * @return The position of the message in the batch
+	 */
+	public int add(int code){
+		if (count == codes.length)
+			codes = Arrays.copyOf(codes, codes.length * 2);
+
+		codes[count] = code;
+		return count++;
+	}
+
+	/**
+	 * Replace the code of a message, e.g. because the handler rejected it
+	 */
+	public void setCode(int position, int code){
+		if (position >= count)
+			throw new IndexOutOfBoundsException("Batch contains only " + count + " messages");
+
+		codes[position] = code;
+	}
+
+	/**
+	 * @return The code of the message at the given position of the batch
+	 */
+	public int getCode(int position){
+		if (position >= count)
+			throw new IndexOutOfBoundsException("Batch contains only " + count + " messages");
+
+		return codes[position];
+	}
+
+	/**
+	 * @return Number of messages in the batch
+	 */
+	public int getCount(){
+		return count;
+	}
+
+	/**
+	 * @return Number of accepted messages in the batch
+	 */
+	public int getAcceptedCount(){
+		int accepted = 0;
+		for (int i = 0; i < count; i++){
+			if (codes[i] == 0)
+				accepted++;
+		}
+
+		return accepted;
+	}
+
+	/**
+	 * @return The JSON representation of this result
+	 */
+	@Override
+	public String toJson() {
+		return SerializationWriter.toJson(this);
+	}
+
+	/**
+	 * @return The XML representation of this result
+	 */
+	@Override
+	public String toXml() {
+		return toXml(true);
+	}
+
+	/**
+	 * @return The XML representation of this result. The codes are a whitespace separated list
+	 */
+	@Override
+	public String toXml(boolean withOuterTags) {
+		return SerializationWriter.toXml(this, withOuterTags);
+	}
+
+	@Override
+	public void writeJson(SerializationWriter writer) {
+		writer.append("{\"codes\":[");
+		for (int i = 0; i < count; i++){
+			if (i > 0)
+				writer.append(',');
+			writer.append(codes[i]);
+		}
+		writer.append("]}");
+	}
+
+	@Override
+	public void writeXml(SerializationWriter writer, boolean withOuterTags) {
+		if (withOuterTags)
+			writer.append("<batch_result>");
+
+		writer.append("<codes>");
+		for (int i = 0; i < count; i++){
+			if (i > 0)
+				writer.append(' ');
+			writer.append(codes[i]);
+		}
+		writer.append("</codes>");
+
+		if (withOuterTags)
+			writer.append("</batch_result>");
+	}
+
+	/**
+	 * Create a BatchResult instance from its JSON representation
+	 * @throws JSONException The given JSON does not represent a valid BatchResult
+	 */
+	public static BatchResult createFromJson(String json) throws JSONException{
+		JSONArray codes = new JSONObject(json).getJSONArray("codes");
+		int length = codes.length();
+		BatchResult result = new BatchResult(length);
+
+		for (int i = 0; i < length; i++){
+			result.add(codes.getInt(i));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Create a BatchResult instance from its XML representation
+	 * @throws JSONException The given XML does not represent a valid BatchResult
+	 */
+	public static BatchResult createFromXml(String xml) throws JSONException{
+		JSONObject json = XML.toJSONObject(xml);
+
+		// Unwrap if needed
+		if (json.has("batch_result"))
+			json = json.getJSONObject("batch_result");
+
+		String codes = json.get("codes").toString().trim();
+		BatchResult result = new BatchResult();
+		if (codes.length() == 0)
+			return result;
+
+		try {
+			for (String code : codes.split("\\s+")){
+				result.add(Integer.parseInt(code));
+			}
+		} catch (NumberFormatException e){
+			throw new JSONException("Invalid code in batch result: " + e.getMessage());
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return A human readable String representation of this BatchResult
+	 */
+	@Override
+	public String toString(){
+		return "Batch result: " + getAcceptedCount() + " of " + count + " messages accepted, codes = "
+		       + Arrays.toString(Arrays.copyOf(codes, count));
+	}
+}
@@ -21,6 +21,15 @@ public class Constants {
 	 */
 	public static final String RES_MSG_DATA = "/machine/data";
 	
+	/**
+	 * Path to POST batches of machine data messages to. JSON messages are separated by newlines,
+	 * messages in other content types are prefixed by their length as 4 byte big endian integer.
+	 * The response is a BatchResult.
+	 * 
+	 * Unsafe to change!
+	 */
+	public static final String RES_MSG_DATA_BATCH = "/machine/data/batch";
+	
 	/**
 	 * Path to POST machine schemas to.
 	 * 
@@ -28,6 +37,14 @@ public class Constants {
 	 */
 	public static final String RES_MSG_SCHEMA = "/machine/schema";
 	
+	/**
+	 * Path to POST schema fingerprints to. The response lists the fingerprints of the schemas unknown
+	 * to the server, which have to be sent to RES_MSG_SCHEMA (see SchemaFingerprints).
+	 * 
+	 * Unsafe to change!
+	 */
+	public static final String RES_SCHEMA_FINGERPRINTS = "/machine/schema/fingerprints";
+	
 	/**
 	 * Path to GET server information from
 	 * 
@@ -42,6 +59,20 @@ public class Constants {
 	 */
 	public static final String RES_CLIENT_HEART_BEAT = "/client_heart_beat";
 
+	/**
+	 * HTTP-Header of the response to a schema message: The comma separated IDs the schemas were
+	 * registered with, in the order of the schemas in the message. The IDs are used by the binary
+	 * content type to refer to schemas.
+	 */
+	public static final String HEADER_SCHEMA_IDS = "X-Schema-IDs";
+	
+	/**
+	 * Optional HTTP-Header of a data message or batch: The comma separated fingerprints of the schemas
+	 * the data was created with. If the server does not know one of them, the request is rejected
+	 * with STATUS_ERR_SCHEMA_NEEDED before its body is decoded.
+	 */
+	public static final String HEADER_SCHEMA_FINGERPRINTS = "X-Schema-Fingerprints";
+
 	// machineId for get parameters
 	public static final String GET_PARAM_MACHINE_ID = "machineId";
 	
@@ -65,4 +96,9 @@ public class Constants {
 	 * Status code: Error: Something went wrong on server side
 	 */
 	public static final int STATUS_ERR_INTERNAL_SERVER = -6;
+	
+	/**
+	 * Status code: Error: The machine sent more data than its rate limit allows. Retry later
+	 */
+	public static final int STATUS_ERR_RATE_LIMITED = -7;
 }
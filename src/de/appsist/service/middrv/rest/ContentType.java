@@ -7,6 +7,12 @@ package de.appsist.service.middrv.rest;
 public enum ContentType {
 	JSON("application/json"),
 	XML("application/xml"),
+	EXI("application/exi"),
+	/**
+	 * Compact binary representation of data messages referring to registered schemas by their ID.
+	 * Other messages can not be encoded in this content type.
+	 */
+	BINARY("application/x-appsist-binary"),
 	TEXT_PLAIN("text/plain");
 	
 	final String name;
@@ -37,6 +43,10 @@ public enum ContentType {
 			return ContentType.JSON;
 		case "application/xml":
 			return ContentType.XML;
+		case "application/exi":
+			return ContentType.EXI;
+		case "application/x-appsist-binary":
+			return ContentType.BINARY;
 		case "text/plain":
 			return ContentType.TEXT_PLAIN;
 		}
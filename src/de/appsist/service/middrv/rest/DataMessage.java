@@ -11,12 +11,18 @@ import java.util.Map;
 
 import java.util.Iterator;
 
+import de.appsist.service.middrv.rest.server.SchemaRegistry;
 import de.appsist.service.middrv.rest.server.SchemaTimePair;
+import io.netty.buffer.Unpooled;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.XML;
+import org.vertx.java.core.buffer.Buffer;
 
+import de.appsist.service.middrv.entity.BinaryCodec;
+import de.appsist.service.middrv.entity.EXIConverter;
 import de.appsist.service.middrv.entity.Machine;
 import de.appsist.service.middrv.entity.MachineData;
 import de.appsist.service.middrv.entity.MachineSchema;
@@ -24,6 +30,11 @@ import de.appsist.service.middrv.entity.Serializeable;
 
 public class DataMessage extends Message<MachineData> implements Serializeable {
 	private List<MachineSchema> schemas;
+	// Received representation of the message, only kept by lazy decoding
+	private ContentType rawContentType;
+	private byte[] rawContent;
+	private int rawOffset;
+	private int rawLength;
 	
 	/**
 	 * Create a new DataMessage with the current time as timestemp
@@ -62,6 +73,64 @@ public class DataMessage extends Message<MachineData> implements Serializeable {
 		this.schemas.add(schema);
 	}
 	
+	/**
+	 * Add a MachineData instance, checking it with the compiled validator of its registered schema
+	 * @param machineMatches The schema was looked up by the machine of the given data
+	 * @throws DataSchemaMismatchException If the given data is not valid to the given schema
+	 */
+	void addMachineData(MachineData data, SchemaTimePair schema, boolean machineMatches) throws DataSchemaMismatchException{
+		// Still encoded values are checked when they are decoded
+		if (data.isDecoded())
+			schema.getValidator().checkValid(data, machineMatches);
+		addToMessage(data);
+		this.schemas.add(schema.getSchema());
+	}
+	
+	/**
+	 * Decode and validate the values of all MachineData instances left encoded by lazy decoding.
+	 * Otherwise this happens on first access of the values of each instance
+	 * @throws DataSchemaMismatchException The values of an instance do not match its schema
+	 * @throws JSONException The values of an instance are not valid
+	 */
+	public void validate() throws DataSchemaMismatchException{
+		for (MachineData data : getData()){
+			data.decodeValues();
+		}
+	}
+	
+	/**
+	 * Keep the representation the message was decoded from, so it can be forwarded without encoding
+	 * the message again. The given buffer must not be changed afterwards
+	 * @param contentType Content type of the representation or <code>null</code> to drop it
+	 * @param content Buffer containing the representation
+	 * @param offset Position of the representation in the buffer
+	 * @param length Length of the representation in bytes
+	 */
+	public void setRawContent(ContentType contentType, byte[] content, int offset, int length){
+		rawContentType = contentType;
+		rawContent = (contentType == null) ? null : content;
+		rawOffset = offset;
+		rawLength = length;
+	}
+	
+	/**
+	 * @return The representation the message was decoded from without copying it or <code>null</code>,
+	 *         if it was not kept or the message was changed since, e.g. by the rate limiter
+	 */
+	public Buffer getRawContent(){
+		if (rawContent == null)
+			return null;
+		
+		return new Buffer(Unpooled.wrappedBuffer(rawContent, rawOffset, rawLength));
+	}
+	
+	/**
+	 * @return Content type of the representation returned by getRawContent() or <code>null</code>
+	 */
+	public ContentType getRawContentType(){
+		return rawContentType;
+	}
+	
 	/**
 	 * returns <code>true</code>, if all of these conditions apply:
 	 * - o is a Data Message
@@ -111,6 +180,155 @@ public class DataMessage extends Message<MachineData> implements Serializeable {
 		return createFromXml(schemas, XML.toJSONObject(xml));
 	}
 	
+	/**
+	 * Create a DataMessage from the raw bytes of its XML representation. The bytes are decoded by a
+	 * StAX pull parser, without creating an intermediate JSONObject.
+	 * @param schemas Map containing schemas that will be used to look up the schema of the given machine
+	 * @param xml The XML representation to create a machine data message from
+	 * @return A new DataMessage instance created from the given XML representation
+	 * @throws JSONException The given XML representation is not a valid DataMessage representation
+	 * @throws SchemaNotFoundException The given schema map does not contain a schema for the machine
+	 *         represented by the given XML
+	 * @throws DataSchemaMismatchException A schema for the machine in the XML was found, but the data
+	 *         in the XML does not match this schema
+	 */
+	public static DataMessage createFromXml(Map<Machine, SchemaTimePair> schemas, byte[] xml)
+	                          throws JSONException, SchemaNotFoundException, DataSchemaMismatchException
+	{
+		return createFromXml(schemas, xml, 0, xml.length);
+	}
+	
+	/**
+	 * Create a DataMessage from a part of a buffer containing its XML representation
+	 * @param schemas Map containing schemas that will be used to look up the schema of the given machine
+	 * @param xml Buffer containing the XML representation
+	 * @param offset Position of the XML representation in the buffer
+	 * @param length Length of the XML representation in bytes
+	 * @return A new DataMessage instance created from the given XML representation
+	 * @throws JSONException The given XML representation is not a valid DataMessage representation
+	 * @throws SchemaNotFoundException The given schema map does not contain a schema for the machine
+	 *         represented by the given XML
+	 * @throws DataSchemaMismatchException A schema for the machine in the XML was found, but the data
+	 *         in the XML does not match this schema
+	 */
+	public static DataMessage createFromXml(Map<Machine, SchemaTimePair> schemas, byte[] xml, int offset, int length)
+	                          throws JSONException, SchemaNotFoundException, DataSchemaMismatchException
+	{
+		return XmlDataMessageDecoder.decode(schemas, xml, offset, length);
+	}
+	
+	/**
+	 * Create a DataMessage from its EXI representation
+	 * @param schemas Map containing schemas that will be used to look up the schema of the given machine
+	 * @param exi The EXI encoded XML representation to create a machine data message from
+	 * @return A new DataMessage instance created from the given EXI representation
+	 * @throws IllegalArgumentException The given content is no valid EXI document
+	 * @throws JSONException The given EXI representation is not a valid DataMessage representation
+	 * @throws SchemaNotFoundException The given schema map does not contain a schema for the machine
+	 *         represented by the given EXI
+	 * @throws DataSchemaMismatchException A schema for the machine in the EXI was found, but the data
+	 *         in the EXI does not match this schema
+	 */
+	public static DataMessage createFromExi(Map<Machine, SchemaTimePair> schemas, byte[] exi)
+	                          throws JSONException, SchemaNotFoundException, DataSchemaMismatchException
+	{
+		return createFromExi(schemas, exi, 0, exi.length);
+	}
+	
+	/**
+	 * Create a DataMessage from a part of a buffer containing its EXI representation
+	 * @param schemas Map containing schemas that will be used to look up the schema of the given machine
+	 * @param exi Buffer containing the EXI encoded XML representation
+	 * @param offset Position of the EXI representation in the buffer
+	 * @param length Length of the EXI representation in bytes
+	 * @return A new DataMessage instance created from the given EXI representation
+	 * @throws IllegalArgumentException The given content is no valid EXI document
+	 * @throws JSONException The given EXI representation is not a valid DataMessage representation
+	 * @throws SchemaNotFoundException The given schema map does not contain a schema for the machine
+	 *         represented by the given EXI
+	 * @throws DataSchemaMismatchException A schema for the machine in the EXI was found, but the data
+	 *         in the EXI does not match this schema
+	 */
+	public static DataMessage createFromExi(Map<Machine, SchemaTimePair> schemas, byte[] exi, int offset, int length)
+	                          throws JSONException, SchemaNotFoundException, DataSchemaMismatchException
+	{
+		byte[] xml = EXIConverter.decode(exi, offset, length);
+		return XmlDataMessageDecoder.decodeWithoutCdata(schemas, xml, 0, xml.length);
+	}
+	
+	/**
+	 * Create a DataMessage from a part of a buffer containing its EXI representation, which must not
+	 * expand to an XML representation of more than the given length
+	 * @param schemas Map containing schemas that will be used to look up the schema of the given machine
+	 * @param exi Buffer containing the EXI encoded XML representation
+	 * @param offset Position of the EXI representation in the buffer
+	 * @param length Length of the EXI representation in bytes
+	 * @param maxLength Maximum length of the XML representation in bytes
+	 * @return A new DataMessage instance created from the given EXI representation
+	 * @throws IllegalArgumentException The given content is no valid EXI document or its XML
+	 *         representation exceeds the given length
+	 * @throws JSONException The given EXI representation is not a valid DataMessage representation
+	 * @throws SchemaNotFoundException The given schema map does not contain a schema for the machine
+	 *         represented by the given EXI
+	 * @throws DataSchemaMismatchException A schema for the machine in the EXI was found, but the data
+	 *         in the EXI does not match this schema
+	 */
+	public static DataMessage createFromExi(Map<Machine, SchemaTimePair> schemas, byte[] exi, int offset, int length,
+	                                        long maxLength)
+	                          throws JSONException, SchemaNotFoundException, DataSchemaMismatchException
+	{
+		byte[] xml = EXIConverter.decode(exi, offset, length, maxLength);
+		return XmlDataMessageDecoder.decodeWithoutCdata(schemas, xml, 0, xml.length);
+	}
+	
+	/**
+	 * Create a DataMessage from its binary representation (see BinaryCodec)
+	 * @param schemas Registry to resolve the schema IDs in the message with
+	 * @param content The binary representation to create a machine data message from
+	 * @return A new DataMessage instance created from the given binary representation
+	 * @throws IllegalArgumentException The given content is no valid binary representation
+	 * @throws SchemaNotFoundException No schema is registered with a schema ID in the message
+	 * @throws DataSchemaMismatchException The decoded data does not match its schema
+	 */
+	public static DataMessage createFromBinary(SchemaRegistry schemas, byte[] content)
+	                          throws SchemaNotFoundException, DataSchemaMismatchException
+	{
+		return createFromBinary(schemas, content, 0, content.length);
+	}
+	
+	/**
+	 * Create a DataMessage from a part of a buffer containing its binary representation
+	 * @param schemas Registry to resolve the schema IDs in the message with
+	 * @param content Buffer containing the binary representation
+	 * @param offset Position of the binary representation in the buffer
+	 * @param length Length of the binary representation in bytes
+	 * @return A new DataMessage instance created from the given binary representation
+	 * @throws IllegalArgumentException The given content is no valid binary representation
+	 * @throws SchemaNotFoundException No schema is registered with a schema ID in the message
+	 * @throws DataSchemaMismatchException The decoded data does not match its schema
+	 */
+	public static DataMessage createFromBinary(SchemaRegistry schemas, byte[] content, int offset, int length)
+	                          throws SchemaNotFoundException, DataSchemaMismatchException
+	{
+		BinaryCodec.Decoder decoder = new BinaryCodec.Decoder(content, offset, length);
+		DataMessage result = new DataMessage(decoder.getTime());
+		int count = decoder.getCount();
+		
+		for (int i = 0; i < count; i++){
+			int schemaID = decoder.readSchemaID();
+			SchemaTimePair schema = schemas.get(schemaID);
+			
+			if (schema == null)
+				throw new SchemaNotFoundException("Schema with ID " + schemaID + " not found.");
+			
+			// The decoded data belongs to the machine of the layout
+			result.addMachineData(decoder.readMachineData(schema.getLayout()), schema, true);
+		}
+		decoder.finish();
+		
+		return result;
+	}
+	
 	/**
 	 * @param schemas Map containing schemas that will be used to look up the schema of the given machine
 	 * @param xml The XML representation to create a machine data message from
@@ -145,7 +363,7 @@ public class DataMessage extends Message<MachineData> implements Serializeable {
 			if (schema == null)
 				throw new SchemaNotFoundException("Schema of machine \"" + data.getMachine().toString() + "\" not found.");
 			
-			result.addMachineData(data, schema.getSchema());
+			result.addMachineData(data, schema, true);
 		} else {
 			// Multiple MachineData instances in this message
 			int machinesLength = machines.length();
@@ -156,7 +374,7 @@ public class DataMessage extends Message<MachineData> implements Serializeable {
 				if (schema == null)
 					throw new SchemaNotFoundException("Schema of machine \"" + data.getMachine().toString() + "\" not found.");
 				
-				result.addMachineData(data, schema.getSchema());
+				result.addMachineData(data, schema, true);
 			}
 		}
 		
@@ -183,6 +401,70 @@ public class DataMessage extends Message<MachineData> implements Serializeable {
 		return createFromJson(schemas, new JSONObject(json));
 	}
 	
+	/**
+	 * Create a DataMessage from the raw bytes of its JSON representation. The bytes are decoded in
+	 * a single pass, without creating an intermediate JSONObject. The result is the same as the one of
+	 * createFromJson(Map, String).
+	 * @param schemas Map containing schemas that will be used to look up the schema of the given machine
+	 * @param json The UTF-8 encoded JSON representation to create a machine data message from
+	 * @return A new DataMessage instance created from the given JSON representation
+	 * @throws JSONException The given JSON representation is not a valid DataMessage representation
+	 * @throws SchemaNotFoundException The given schema map does not contain a schema for the machine
+	 *         represented by the given JSON
+	 * @throws DataSchemaMismatchException A schema for the machine in the JSON was found, but the data
+	 *         in the JSON does not match this schema
+	 */
+	public static DataMessage createFromJson(Map<Machine, SchemaTimePair> schemas, byte[] json)
+	                          throws JSONException, SchemaNotFoundException, DataSchemaMismatchException
+	{
+		return createFromJson(schemas, json, 0, json.length);
+	}
+	
+	/**
+	 * Create a DataMessage from a part of a buffer containing its JSON representation
+	 * @param schemas Map containing schemas that will be used to look up the schema of the given machine
+	 * @param json Buffer containing the UTF-8 encoded JSON representation
+	 * @param offset Position of the JSON representation in the buffer
+	 * @param length Length of the JSON representation in bytes
+	 * @return A new DataMessage instance created from the given JSON representation
+	 * @throws JSONException The given JSON representation is not a valid DataMessage representation
+	 * @throws SchemaNotFoundException The given schema map does not contain a schema for the machine
+	 *         represented by the given JSON
+	 * @throws DataSchemaMismatchException A schema for the machine in the JSON was found, but the data
+	 *         in the JSON does not match this schema
+	 */
+	public static DataMessage createFromJson(Map<Machine, SchemaTimePair> schemas, byte[] json, int offset, int length)
+	                          throws JSONException, SchemaNotFoundException, DataSchemaMismatchException
+	{
+		return JsonDataMessageDecoder.decode(schemas, json, offset, length, false);
+	}
+	
+	/**
+	 * Create a DataMessage from a part of a buffer containing its JSON representation. With lazy
+	 * decoding only the machines and their status are decoded, their values are decoded and validated
+	 * on first access (see MachineData.decodeValues() and validate()). So handlers routing messages by
+	 * their machines do not pay for values they never look at. Lazily decoded values refer to the given
+	 * buffer, which must not be changed afterwards
+	 * @param schemas Map containing schemas that will be used to look up the schema of the given machine
+	 * @param json Buffer containing the UTF-8 encoded JSON representation
+	 * @param offset Position of the JSON representation in the buffer
+	 * @param length Length of the JSON representation in bytes
+	 * @param lazy Leave the values encoded until they are accessed
+	 * @return A new DataMessage instance created from the given JSON representation
+	 * @throws JSONException The given JSON representation is not a valid DataMessage representation
+	 * @throws SchemaNotFoundException The given schema map does not contain a schema for the machine
+	 *         represented by the given JSON
+	 * @throws DataSchemaMismatchException A schema for the machine in the JSON was found, but the data
+	 *         in the JSON does not match this schema. With lazy decoding this is only reported for
+	 *         values decoded at once
+	 */
+	public static DataMessage createFromJson(Map<Machine, SchemaTimePair> schemas, byte[] json, int offset, int length,
+	                                         boolean lazy)
+	                          throws JSONException, SchemaNotFoundException, DataSchemaMismatchException
+	{
+		return JsonDataMessageDecoder.decode(schemas, json, offset, length, lazy);
+	}
+	
 	/**
 	 * @param schemas Map containing schemas that will be used to look up the schema of the given machine
 	 * @param json The JSON representation to create a machine data message from
@@ -215,7 +497,32 @@ public class DataMessage extends Message<MachineData> implements Serializeable {
 			if (schema == null)
 				throw new SchemaNotFoundException("Schema of machine \"" + data.getMachine().toString() + "\" not found.");
 			
-			result.addMachineData(data, schema.getSchema());
+			result.addMachineData(data, schema, true);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Create a DataMessage from already decoded MachineData instances, looking up and checking the
+	 * schema of each of them in the given order
+	 * @param schemas Map containing schemas that will be used to look up the schema of the given machines
+	 * @param time Time of the message in number of milli seconds since 1. 1. 1970 0:00:00 UTC
+	 * @param data The decoded MachineData instances
+	 * @throws SchemaNotFoundException The given schema map does not contain a schema for a machine
+	 * @throws DataSchemaMismatchException A schema for a machine was found, but its data does not match
+	 */
+	static DataMessage createFromMachineData(Map<Machine, SchemaTimePair> schemas, long time, List<MachineData> data)
+	                   throws SchemaNotFoundException, DataSchemaMismatchException
+	{
+		DataMessage result = new DataMessage(time);
+		for (MachineData item : data){
+			SchemaTimePair schema = schemas.get(item.getMachine());
+			
+			if (schema == null)
+				throw new SchemaNotFoundException("Schema of machine \"" + item.getMachine().toString() + "\" not found.");
+			
+			result.addMachineData(item, schema, true);
 		}
 		
 		return result;
@@ -0,0 +1,891 @@
+/**
+ * A single pass decoder creating DataMessages straight from the bytes of their JSON representation,
+ * without building an org.json object tree first.
+ *
+ * Only the canonical structure of a DataMessage (as written by DataMessage.toJson()) is decoded here.
+ * As soon as the input leaves this structure (lenient JSON syntax, wrapped machines, missing status,
+ * unsupported value types, ...) the decoder falls back to the org.json based implementation. So the
+ * resulting DataMessage - or the thrown exception - is always the same as the one of
+ * DataMessage.createFromJson(Map, String).
+ *
+ * The schema of a machine is looked up as soon as its data starts. The names of its values are then
+ * matched against the names of the schema without decoding them, and the decoded data refers to the
+ * machine instance of the registry instead of an equal copy. So the same few machines and names are
+ * not created again for every message.
+ *
+ * In lazy mode the "data" object of a machine with a schema is only checked for its syntax and left
+ * encoded (see DeferredValues). Its values are decoded into the slots of the schema and validated on
+ * first access, falling back to org.json for this object alone if needed.
+ */
+package de.appsist.service.middrv.rest;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import de.appsist.service.middrv.entity.DeferredValues;
+import de.appsist.service.middrv.entity.Machine;
+import de.appsist.service.middrv.entity.MachineData;
+import de.appsist.service.middrv.entity.MachineValue;
+import de.appsist.service.middrv.entity.MachineValueFactory;
+import de.appsist.service.middrv.entity.SchemaLayout;
+import de.appsist.service.middrv.entity.SlotValues;
+import de.appsist.service.middrv.entity.Status;
+import de.appsist.service.middrv.rest.server.SchemaTimePair;
+
+class JsonDataMessageDecoder {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Powers of ten that are exactly representable as double
+	 */
+	private static final double[] EXACT_POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	/**
+	 * Thrown when the input is not in the canonical structure. It carries no stack trace, as it is
+	 * only used to leave the decoder and is always caught in decode()
+	 */
+	private static class FallbackRequired extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		private FallbackRequired(){
+			super(null, null, false, false);
+		}
+	}
+
+	private static final FallbackRequired FALLBACK = new FallbackRequired();
+
+	private final Map<Machine, SchemaTimePair> schemas;
+	private final byte[] in;
+	private final int end;
+	private int pos;
+	private boolean lazy = false;
+
+	private JsonDataMessageDecoder(Map<Machine, SchemaTimePair> schemas, byte[] in, int offset, int length){
+		this.schemas = schemas;
+		this.in = in;
+		this.pos = offset;
+		this.end = offset + length;
+	}
+
+	/**
+	 * @param schemas Map containing schemas that will be used to look up the schema of the given machines
+	 * @param content Buffer containing the JSON representation of a DataMessage
+	 * @param offset Position of the first byte of the JSON representation in content
+	 * @param length Length of the JSON representation in bytes
+	 * @return A new DataMessage instance created from the given JSON representation
+	 * @throws JSONException The given JSON representation is not a valid DataMessage representation
+	 * @throws SchemaNotFoundException The given schema map does not contain a schema for a machine
+	 *         in the given JSON
+	 * @throws DataSchemaMismatchException A schema for a machine in the JSON was found, but the data
+	 *         in the JSON does not match this schema
+	 */
+	static DataMessage decode(Map<Machine, SchemaTimePair> schemas, byte[] content, int offset, int length)
+	       throws JSONException, SchemaNotFoundException, DataSchemaMismatchException
+	{
+		return decode(schemas, content, offset, length, false);
+	}
+
+	/**
+	 * @param lazy Leave the values of machines with a schema encoded until they are accessed
+	 * @see #decode(Map, byte[], int, int)
+	 */
+	static DataMessage decode(Map<Machine, SchemaTimePair> schemas, byte[] content, int offset, int length,
+	                          boolean lazy)
+	       throws JSONException, SchemaNotFoundException, DataSchemaMismatchException
+	{
+		JsonDataMessageDecoder decoder = new JsonDataMessageDecoder(schemas, content, offset, length);
+		decoder.lazy = lazy;
+		List<MachineData> machines = new ArrayList<>();
+		long time;
+
+		try {
+			time = decoder.decodeMessage(machines);
+		} catch (FallbackRequired e){
+			return DataMessage.createFromJson(schemas, new String(content, offset, length, UTF_8));
+		}
+
+		return DataMessage.createFromMachineData(schemas, time, machines);
+	}
+
+	/**
+	 * Decodes the top level object and adds all machines in it to dest
+	 * @return The time stamp of the message
+	 */
+	private long decodeMessage(List<MachineData> dest) throws FallbackRequired {
+		boolean hasTime = false;
+		boolean hasMachines = false;
+		long time = 0;
+
+		expect('{');
+		if (!tryConsume('}')){
+			do {
+				String key = readKey();
+
+				switch(key){
+				case "time":
+					if (hasTime)
+						throw FALLBACK;
+
+					hasTime = true;
+					time = readLong();
+					break;
+				case "machines":
+					if (hasMachines)
+						throw FALLBACK;
+
+					hasMachines = true;
+					expect('[');
+					if (!tryConsume(']')){
+						do {
+							dest.add(decodeMachineData());
+						} while (nextSeparator(']'));
+					}
+					break;
+				default:
+					skipValue();
+				}
+			} while (nextSeparator('}'));
+		}
+
+		if (!hasTime || !hasMachines)
+			throw FALLBACK;
+
+		return time;
+	}
+
+	/**
+	 * Decodes a single entry of the "machines" array
+	 */
+	private MachineData decodeMachineData() throws FallbackRequired {
+		String vendor = null;
+		String id = null;
+		String serial = null;
+		String uuid = "";
+		Map<String, MachineValue> data = null;
+		DeferredData deferred = null;
+		Status status = null;
+		SchemaTimePair schema = null;
+
+		expect('{');
+		if (!tryConsume('}')){
+			do {
+				String key = readKey();
+
+				switch(key){
+				case "vendor":
+					vendor = readUniqueString(vendor);
+					break;
+				case "id":
+					id = readUniqueString(id);
+					break;
+				case "serial_number":
+					serial = readUniqueString(serial);
+					break;
+				case "uuid":
+					// A missing or non string uuid defaults to ""
+					uuid = (peek() == '"') ? readString() : skipValueAndReturn("");
+					break;
+				case "data":
+					if ((data != null) || (deferred != null))
+						throw FALLBACK;
+
+					schema = lookUpSchema(vendor, id, serial, uuid);
+					if (lazy && (schema != null))
+						deferred = skipData(schema);
+					else
+						data = decodeData((schema == null) ? null : schema.getLayout());
+					break;
+				case "status":
+					if (status != null)
+						throw FALLBACK;
+
+					status = decodeStatus();
+					break;
+				case "machine":
+					// Wrapped machine, leave this to org.json
+					throw FALLBACK;
+				default:
+					skipValue();
+				}
+			} while (nextSeparator('}'));
+		}
+
+		if ((vendor == null) || (id == null) || (serial == null) || ((data == null) && (deferred == null))
+		    || (status == null))
+			throw FALLBACK;
+
+		// Refer to the machine of the registry, unless the machine changed after its data
+		Machine machine = (schema == null) ? null : schema.getSchema().getMachine();
+		if ((machine == null) || !machine.matches(vendor, id, serial, uuid)){
+			machine = new Machine(vendor, id, serial, uuid);
+
+			// The data is checked against the schema of another machine, which needs it decoded
+			if (deferred != null)
+				data = deferred.decodeSlots();
+		} else if (deferred != null){
+			return new MachineData(machine, deferred, status);
+		}
+
+		return new MachineData(machine, data, status);
+	}
+
+	/**
+	 * Skips the "data" object of a machine, checking only its syntax
+	 * @return The range of the object to decode on first access
+	 */
+	private DeferredData skipData(SchemaTimePair schema) throws FallbackRequired {
+		if (peek() != '{')
+			throw FALLBACK;
+
+		int start = pos;
+		skipValue();
+
+		return new DeferredData(schemas, in, start, pos, schema);
+	}
+
+	/**
+	 * @return The schema registered for the machine decoded so far or <code>null</code>, if there is none
+	 */
+	private SchemaTimePair lookUpSchema(String vendor, String id, String serial, String uuid){
+		if ((vendor == null) || (id == null) || (serial == null))
+			return null;
+
+		return schemas.get(new Machine(vendor, id, serial, uuid));
+	}
+
+	/**
+	 * Decodes the "data" object of a machine
+	 * @param layout Layout of the schema of the machine to take the names of the values from or
+	 *               <code>null</code>
+	 */
+	private Map<String, MachineValue> decodeData(SchemaLayout layout) throws FallbackRequired {
+		if (layout != null)
+			return decodeSlots(layout);
+
+		Map<String, MachineValue> data = new HashMap<>();
+
+		expect('{');
+		if (!tryConsume('}')){
+			do {
+				String key = readKey();
+				if (data.put(key, readValue()) != null)
+					throw FALLBACK;
+			} while (nextSeparator('}'));
+		}
+
+		return data;
+	}
+
+	/**
+	 * Decodes the "data" object of a machine straight into the slots of the given layout
+	 */
+	private SlotValues decodeSlots(SchemaLayout layout) throws FallbackRequired {
+		SlotValues data = new SlotValues(layout.getStructure());
+
+		expect('{');
+		if (!tryConsume('}')){
+			do {
+				String key = readKey(layout);
+				if (data.containsKey(key))
+					throw FALLBACK;
+
+				int slot = layout.getSlot(key);
+				if (slot < 0)
+					data.put(key, readValue());
+				else
+					readValue(data, slot);
+			} while (nextSeparator('}'));
+		}
+
+		return data;
+	}
+
+	/**
+	 * The encoded "data" object of a machine, decoded the same way as in an eagerly decoded message
+	 */
+	private static class DeferredData implements DeferredValues {
+		private final Map<Machine, SchemaTimePair> schemas;
+		private final byte[] in;
+		private final int start;
+		private final int end;
+		private final SchemaTimePair schema;
+
+		DeferredData(Map<Machine, SchemaTimePair> schemas, byte[] in, int start, int end, SchemaTimePair schema){
+			this.schemas = schemas;
+			this.in = in;
+			this.start = start;
+			this.end = end;
+			this.schema = schema;
+		}
+
+		SlotValues decodeSlots() throws FallbackRequired {
+			JsonDataMessageDecoder decoder = new JsonDataMessageDecoder(schemas, in, start, end - start);
+			return decoder.decodeSlots(schema.getLayout());
+		}
+
+		@Override
+		public Map<String, MachineValue> decode(){
+			try {
+				return decodeSlots();
+			} catch (FallbackRequired e){
+				// Leave the object to org.json, like the whole message is left to it otherwise
+				JSONObject json = new JSONObject(new String(in, start, end - start, UTF_8));
+				SlotValues values = new SlotValues(schema.getLayout().getStructure());
+				MachineData data = new MachineData(null, values, null);
+				for (String name : json.keySet()){
+					data.putAutodetectType(name, json.get(name));
+				}
+
+				return values;
+			}
+		}
+
+		@Override
+		public void validate(MachineData data) throws DataSchemaMismatchException{
+			schema.getValidator().checkValid(data, true);
+		}
+	}
+
+	/**
+	 * Decodes the "status" object of a machine
+	 */
+	private Status decodeStatus() throws FallbackRequired {
+		boolean hasCode = false;
+		boolean hasDescription = false;
+		long code = 0;
+		String description = "";
+
+		expect('{');
+		if (!tryConsume('}')){
+			do {
+				String key = readKey();
+
+				switch(key){
+				case "code":
+					if (hasCode)
+						throw FALLBACK;
+
+					hasCode = true;
+					code = readLong();
+					if ((code < Integer.MIN_VALUE) || (code > Integer.MAX_VALUE))
+						throw FALLBACK;
+					break;
+				case "description":
+					if (hasDescription)
+						throw FALLBACK;
+
+					hasDescription = true;
+					if (peek() == '"')
+						description = readString();
+					else if (tryConsumeLiteral("null"))
+						description = "";
+					else
+						throw FALLBACK;
+					break;
+				default:
+					skipValue();
+				}
+			} while (nextSeparator('}'));
+		}
+
+		if (!hasCode)
+			throw FALLBACK;
+
+		return new Status((int) code, description);
+	}
+
+	/**
+	 * Reads a machine value. The type detection is the same as the one of org.json followed by
+	 * MachineData.putAutodetectType()
+	 */
+	private MachineValue readValue() throws FallbackRequired {
+		byte c = peek();
+
+		if (c == '"')
+			return MachineValueFactory.create(readString());
+
+		if (tryConsumeLiteral("true"))
+			return MachineValueFactory.create(true);
+
+		if (tryConsumeLiteral("false"))
+			return MachineValueFactory.create(false);
+
+		if ((c == '-') || ((c >= '0') && (c <= '9'))){
+			int start = pos;
+			if (scanNumber())
+				return MachineValueFactory.create(parseDouble(start, pos));
+
+			return MachineValueFactory.create(parseLong(start, pos));
+		}
+
+		// null, nested objects and arrays are rejected by putAutodetectType()
+		throw FALLBACK;
+	}
+
+	/**
+	 * Reads a machine value like readValue() into the given slot, without creating a MachineValue
+	 */
+	private void readValue(SlotValues dest, int slot) throws FallbackRequired {
+		byte c = peek();
+
+		if (c == '"'){
+			dest.setString(slot, readString());
+		} else if (tryConsumeLiteral("true")){
+			dest.setBoolean(slot, true);
+		} else if (tryConsumeLiteral("false")){
+			dest.setBoolean(slot, false);
+		} else if ((c == '-') || ((c >= '0') && (c <= '9'))){
+			int start = pos;
+			if (scanNumber())
+				dest.setDouble(slot, parseDouble(start, pos));
+			else
+				dest.setLong(slot, parseLong(start, pos));
+		} else {
+			throw FALLBACK;
+		}
+	}
+
+	/**
+	 * Reads a number without fraction or exponent
+	 */
+	private long readLong() throws FallbackRequired {
+		skipWhitespace();
+		int start = pos;
+
+		if (scanNumber())
+			throw FALLBACK;
+
+		return parseLong(start, pos);
+	}
+
+	/**
+	 * Scans a number in strict JSON syntax
+	 * @return <code>true</code> if the number has a fraction or an exponent
+	 */
+	private boolean scanNumber() throws FallbackRequired {
+		boolean isDouble = false;
+
+		if ((pos < end) && (in[pos] == '-'))
+			pos++;
+
+		if ((pos < end) && (in[pos] == '0')){
+			pos++;
+		} else {
+			scanDigits();
+		}
+
+		if ((pos < end) && (in[pos] == '.')){
+			pos++;
+			scanDigits();
+			isDouble = true;
+		}
+
+		if ((pos < end) && ((in[pos] == 'e') || (in[pos] == 'E'))){
+			pos++;
+			if ((pos < end) && ((in[pos] == '+') || (in[pos] == '-')))
+				pos++;
+			scanDigits();
+			isDouble = true;
+		}
+
+		// org.json reads unquoted values up to the next delimiter, so anything glued to the number
+		// would result in a different value
+		if ((pos < end) && !isDelimiter(in[pos]))
+			throw FALLBACK;
+
+		return isDouble;
+	}
+
+	private void scanDigits() throws FallbackRequired {
+		int start = pos;
+		while ((pos < end) && (in[pos] >= '0') && (in[pos] <= '9'))
+			pos++;
+
+		if (pos == start)
+			throw FALLBACK;
+	}
+
+	/**
+	 * Parses an integral number previously validated by scanNumber()
+	 */
+	private long parseLong(int start, int stop) throws FallbackRequired {
+		boolean negative = (in[start] == '-');
+		int i = negative ? start + 1 : start;
+
+		// Skip the cases in which org.json returns a String ("-0") or that might overflow
+		if ((stop - i > 18) || (negative && (stop - i == 1) && (in[i] == '0')))
+			throw FALLBACK;
+
+		long result = 0;
+		for (; i < stop; i++)
+			result = result * 10 + (in[i] - '0');
+
+		return negative ? -result : result;
+	}
+
+	/**
+	 * Parses a floating point number previously validated by scanNumber(). Numbers with up to 15
+	 * significant digits and small exponents are converted exactly using double arithmetic, all
+	 * others are passed to Double.parseDouble()
+	 */
+	private double parseDouble(int start, int stop) throws FallbackRequired {
+		boolean negative = (in[start] == '-');
+		boolean fast = true;
+		boolean inFraction = false;
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		int i = negative ? start + 1 : start;
+
+		for (; fast && (i < stop); i++){
+			byte c = in[i];
+
+			if (c == '.'){
+				inFraction = true;
+				continue;
+			}
+
+			if ((c == 'e') || (c == 'E'))
+				break;
+
+			if ((digits > 0) || (c != '0'))
+				digits++;
+
+			mantissa = mantissa * 10 + (c - '0');
+			if (inFraction)
+				exponent--;
+
+			fast = (digits <= 15);
+		}
+
+		if (fast && (i < stop)){
+			// Explicit exponent
+			boolean negativeExponent = false;
+			int e = 0;
+
+			i++;
+			if ((in[i] == '+') || (in[i] == '-')){
+				negativeExponent = (in[i] == '-');
+				i++;
+			}
+
+			for (; fast && (i < stop); i++){
+				e = e * 10 + (in[i] - '0');
+				fast = (e <= 1000);
+			}
+
+			exponent += negativeExponent ? -e : e;
+		}
+
+		if (fast && (exponent >= -22) && (exponent <= 22)){
+			double value = (double) mantissa;
+			value = (exponent < 0) ? value / EXACT_POWERS_OF_TEN[-exponent]
+			                       : value * EXACT_POWERS_OF_TEN[exponent];
+			return negative ? -value : value;
+		}
+
+		double value = Double.parseDouble(new String(in, start, stop - start, UTF_8));
+
+		// org.json keeps infinite numbers as String
+		if (Double.isInfinite(value))
+			throw FALLBACK;
+
+		return value;
+	}
+
+	/**
+	 * Reads a key of an object including the following colon
+	 */
+	private String readKey() throws FallbackRequired {
+		if (peek() != '"')
+			throw FALLBACK;
+
+		String key = readString();
+		expect(':');
+		return key;
+	}
+
+	/**
+	 * Reads a key of an object including the following colon. Plain keys found in the given layout are
+	 * not decoded, but the name of the layout is returned instead
+	 * @param layout Layout to look up the key in or <code>null</code>
+	 */
+	private String readKey(SchemaLayout layout) throws FallbackRequired {
+		if (layout == null)
+			return readKey();
+		if (peek() != '"')
+			throw FALLBACK;
+
+		int start = pos + 1;
+		int stop = start;
+		while ((stop < end) && (in[stop] != '"') && (in[stop] != '\\') && (in[stop] >= ' '))
+			stop++;
+
+		int slot = ((stop < end) && (in[stop] == '"')) ? layout.getSlot(in, start, stop - start) : -1;
+		if (slot < 0)
+			return readKey();
+
+		pos = stop + 1;
+		expect(':');
+		return layout.getName(slot);
+	}
+
+	/**
+	 * Reads a string value, that must not have been read before
+	 */
+	private String readUniqueString(String current) throws FallbackRequired {
+		if ((current != null) || (peek() != '"'))
+			throw FALLBACK;
+
+		return readString();
+	}
+
+	/**
+	 * Reads a quoted string starting at the current position
+	 */
+	private String readString() throws FallbackRequired {
+		pos++; // opening quote
+		int start = pos;
+
+		while (pos < end){
+			byte c = in[pos];
+
+			if (c == '"'){
+				String result = new String(in, start, pos - start, UTF_8);
+				pos++;
+				return result;
+			}
+
+			if (c == '\\')
+				return readEscapedString(start);
+
+			if ((c >= 0) && (c < ' '))
+				throw FALLBACK;
+
+			pos++;
+		}
+
+		throw FALLBACK;
+	}
+
+	/**
+	 * Continues reading a string starting at start after the first escape sequence was found at the
+	 * current position
+	 */
+	private String readEscapedString(int start) throws FallbackRequired {
+		StringBuilder sb = new StringBuilder(new String(in, start, pos - start, UTF_8));
+
+		while (pos < end){
+			byte c = in[pos];
+
+			if (c == '"'){
+				pos++;
+				return sb.toString();
+			}
+
+			if ((c >= 0) && (c < ' '))
+				throw FALLBACK;
+
+			if (c != '\\'){
+				int runStart = pos;
+				while ((pos < end) && (in[pos] != '"') && (in[pos] != '\\') && ((in[pos] < 0) || (in[pos] >= ' ')))
+					pos++;
+				sb.append(new String(in, runStart, pos - runStart, UTF_8));
+				continue;
+			}
+
+			if (pos + 1 >= end)
+				throw FALLBACK;
+
+			c = in[pos + 1];
+			pos += 2;
+			switch(c){
+			case 'b':
+				sb.append('\b');
+				break;
+			case 't':
+				sb.append('\t');
+				break;
+			case 'n':
+				sb.append('\n');
+				break;
+			case 'f':
+				sb.append('\f');
+				break;
+			case 'r':
+				sb.append('\r');
+				break;
+			case '"':
+			case '\'':
+			case '\\':
+			case '/':
+				sb.append((char) c);
+				break;
+			case 'u':
+				sb.append(readHexChar());
+				break;
+			default:
+				throw FALLBACK;
+			}
+		}
+
+		throw FALLBACK;
+	}
+
+	private char readHexChar() throws FallbackRequired {
+		if (pos + 4 > end)
+			throw FALLBACK;
+
+		int value = 0;
+		for (int i = 0; i < 4; i++){
+			byte c = in[pos++];
+			value <<= 4;
+
+			if ((c >= '0') && (c <= '9'))
+				value |= c - '0';
+			else if ((c >= 'a') && (c <= 'f'))
+				value |= c - 'a' + 10;
+			else if ((c >= 'A') && (c <= 'F'))
+				value |= c - 'A' + 10;
+			else
+				throw FALLBACK;
+		}
+
+		return (char) value;
+	}
+
+	/**
+	 * Skips a value of any type, validating its syntax
+	 */
+	private void skipValue() throws FallbackRequired {
+		byte c = peek();
+
+		switch(c){
+		case '"':
+			readString();
+			break;
+		case '{':
+			pos++;
+			if (!tryConsume('}')){
+				do {
+					readKey();
+					skipValue();
+				} while (nextSeparator('}'));
+			}
+			break;
+		case '[':
+			pos++;
+			if (!tryConsume(']')){
+				do {
+					skipValue();
+				} while (nextSeparator(']'));
+			}
+			break;
+		default:
+			if (tryConsumeLiteral("true") || tryConsumeLiteral("false") || tryConsumeLiteral("null"))
+				break;
+
+			if ((c == '-') || ((c >= '0') && (c <= '9'))){
+				scanNumber();
+				break;
+			}
+
+			throw FALLBACK;
+		}
+	}
+
+	private <T> T skipValueAndReturn(T result) throws FallbackRequired {
+		skipValue();
+		return result;
+	}
+
+	/**
+	 * Consumes the separator between two elements of an object or array
+	 * @param close The closing bracket of the current object or array
+	 * @return <code>true</code> if another element follows, <code>false</code> if the closing
+	 *         bracket was consumed
+	 */
+	private boolean nextSeparator(char close) throws FallbackRequired {
+		byte c = peek();
+		pos++;
+
+		if (c == ',')
+			return true;
+
+		if (c == close)
+			return false;
+
+		throw FALLBACK;
+	}
+
+	private boolean tryConsumeLiteral(String literal) throws FallbackRequired {
+		skipWhitespace();
+		int length = literal.length();
+
+		if (pos + length > end)
+			return false;
+
+		for (int i = 0; i < length; i++){
+			if (in[pos + i] != literal.charAt(i))
+				return false;
+		}
+
+		if ((pos + length < end) && !isDelimiter(in[pos + length]))
+			throw FALLBACK;
+
+		pos += length;
+		return true;
+	}
+
+	private boolean tryConsume(char c) throws FallbackRequired {
+		if (peek() != c)
+			return false;
+
+		pos++;
+		return true;
+	}
+
+	private void expect(char c) throws FallbackRequired {
+		if (!tryConsume(c))
+			throw FALLBACK;
+	}
+
+	/**
+	 * @return The next non whitespace byte without consuming it
+	 */
+	private byte peek() throws FallbackRequired {
+		skipWhitespace();
+
+		if (pos >= end)
+			throw FALLBACK;
+
+		return in[pos];
+	}
+
+	/**
+	 * Skips whitespace the same way org.json does (every control character counts as whitespace)
+	 */
+	private void skipWhitespace() throws FallbackRequired {
+		while ((pos < end) && (in[pos] >= 0) && (in[pos] <= ' ')){
+			if (in[pos] == 0)
+				throw FALLBACK;
+			pos++;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the given byte terminates an unquoted value in org.json
+	 */
+	private static boolean isDelimiter(byte c){
+		return ((c >= 0) && (c <= ' ')) || (c == ',') || (c == '}') || (c == ']');
+	}
+}
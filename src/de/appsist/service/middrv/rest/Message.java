@@ -3,6 +3,7 @@ package de.appsist.service.middrv.rest;
 import java.util.Iterator;
 import java.util.List;
 
+import de.appsist.service.middrv.entity.SerializationWriter;
 import de.appsist.service.middrv.entity.Serializeable;
 
 public abstract class Message<T extends Serializeable> implements Serializeable {
@@ -63,21 +64,7 @@ public abstract class Message<T extends Serializeable> implements Serializeable
 	 */
 	@Override
 	public String toJson() {
-		String result = "{\"time\":" + Long.toString(time) + ",\"" + innerTagName + "\":[";
-		
-		boolean isFirst = true;
-		for (Serializeable item : content){
-			if (isFirst)
-				isFirst = false;
-			else
-				result += ",";
-			
-			result += item.toJson();
-		}
-		
-		result += "]}";
-		
-		return result;
+		return SerializationWriter.toJson(this);
 	}
 	
 	/**
@@ -93,22 +80,41 @@ public abstract class Message<T extends Serializeable> implements Serializeable
 	 */
 	@Override
 	public String toXml(boolean withOuterTags) {
-		String result = "";
+		return SerializationWriter.toXml(this, withOuterTags);
+	}
+	
+	@Override
+	public void writeJson(SerializationWriter writer) {
+		writer.append("{\"time\":").append(time).append(",\"").append(innerTagName).append("\":[");
+		
+		boolean isFirst = true;
+		for (Serializeable item : content){
+			if (isFirst)
+				isFirst = false;
+			else
+				writer.append(',');
+			
+			item.writeJson(writer);
+		}
+		
+		writer.append("]}");
+	}
+	
+	@Override
+	public void writeXml(SerializationWriter writer, boolean withOuterTags) {
 		if (withOuterTags)
-			result += "<" + outerTagName + ">";
+			writer.append('<').append(outerTagName).append('>');
 		
-		result += "<time>" + Long.toString(time) + "</time><" + innerTagName + ">";
+		writer.append("<time>").append(time).append("</time><").append(innerTagName).append('>');
 		
 		for (Serializeable item : content){
-			result += item.toXml();
+			item.writeXml(writer, true);
 		}
 		
-		result += "</" + innerTagName + ">";
+		writer.append("</").append(innerTagName).append('>');
 		
 		if (withOuterTags)
-			result += "</" + outerTagName + ">";
-		
-		return result;
+			writer.append("</").append(outerTagName).append('>');
 	}
 	
 	/**
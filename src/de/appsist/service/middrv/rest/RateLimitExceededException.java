@@ -0,0 +1,24 @@
+/**
+ * Exception thrown when a message contains machine data of a machine exceeding its rate limit
+ */
+package de.appsist.service.middrv.rest;
+
+public class RateLimitExceededException extends Exception{
+	private static final long serialVersionUID = 1L;
+	private final long retryAfter;
+
+	/**
+	 * @param retryAfter Milliseconds until the machine may send data again
+	 */
+	public RateLimitExceededException(String msg, long retryAfter){
+		super(msg);
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * @return Milliseconds until the machine may send data again
+	 */
+	public long getRetryAfter(){
+		return retryAfter;
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ * Entity class representing a list of schema fingerprints (see MachineSchema.getFingerprint()). A
+ * client sends the fingerprints of its schemas to the server, which responds with the fingerprints
+ * of the schemas it does not know. Only these schemas have to be sent again.
+ */
+package de.appsist.service.middrv.rest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.XML;
+
+import de.appsist.service.middrv.entity.EXIConverter;
+import de.appsist.service.middrv.entity.MachineSchema;
+import de.appsist.service.middrv.entity.SerializationWriter;
+import de.appsist.service.middrv.entity.Serializeable;
+
+public class SchemaFingerprints implements Serializeable {
+	private List<String> fingerprints;
+
+	/**
+	 * Create an empty list of fingerprints
+	 */
+	public SchemaFingerprints(){
+		fingerprints = new ArrayList<>();
+	}
+
+	/**
+	 * Create a list of the fingerprints of the given schemas
+	 */
+	public SchemaFingerprints(List<MachineSchema> schemas){
+		fingerprints = new ArrayList<>(schemas.size());
+		for (MachineSchema schema : schemas){
+			fingerprints.add(schema.getFingerprint());
+		}
+	}
+
+	/**
+	 * Append a fingerprint
+	 */
+	public void add(String fingerprint){
+		fingerprints.add(fingerprint);
+	}
+
+	/**
+	 * @return The fingerprints in the order they were added
+	 */
+	public List<String> getFingerprints(){
+		return fingerprints;
+	}
+
+	/**
+	 * @return The JSON representation of this list
+	 */
+	@Override
+	public String toJson() {
+		return SerializationWriter.toJson(this);
+	}
+
+	/**
+	 * @return The XML representation of this list
+	 */
+	@Override
+	public String toXml() {
+		return toXml(true);
+	}
+
+	/**
+	 * @return The XML representation of this list. The fingerprints are a whitespace separated list
+	 *         in a CDATA section, so they are not mistaken for numbers
+	 */
+	@Override
+	public String toXml(boolean withOuterTags) {
+		return SerializationWriter.toXml(this, withOuterTags);
+	}
+
+	@Override
+	public void writeJson(SerializationWriter writer) {
+		writer.append("{\"fingerprints\":[");
+		for (int i = 0; i < fingerprints.size(); i++){
+			if (i > 0)
+				writer.append(',');
+			writer.appendQuoted(fingerprints.get(i));
+		}
+		writer.append("]}");
+	}
+
+	@Override
+	public void writeXml(SerializationWriter writer, boolean withOuterTags) {
+		if (withOuterTags)
+			writer.append("<schema_fingerprints>");
+
+		writer.append("<fingerprints><![CDATA[");
+		for (int i = 0; i < fingerprints.size(); i++){
+			if (i > 0)
+				writer.append(' ');
+			writer.append(fingerprints.get(i));
+		}
+		writer.append("]]></fingerprints>");
+
+		if (withOuterTags)
+			writer.append("</schema_fingerprints>");
+	}
+
+	/**
+	 * Create a SchemaFingerprints instance from its JSON representation
+	 * @throws JSONException The given JSON does not represent a valid SchemaFingerprints instance
+	 */
+	public static SchemaFingerprints createFromJson(String json) throws JSONException{
+		JSONArray fingerprints = new JSONObject(json).getJSONArray("fingerprints");
+		int length = fingerprints.length();
+		SchemaFingerprints result = new SchemaFingerprints();
+
+		for (int i = 0; i < length; i++){
+			result.add(fingerprints.getString(i));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Create a SchemaFingerprints instance from its XML representation
+	 * @throws JSONException The given XML does not represent a valid SchemaFingerprints instance
+	 */
+	public static SchemaFingerprints createFromXml(String xml) throws JSONException{
+		JSONObject json = XML.toJSONObject(xml);
+
+		// Unwrap if needed
+		if (json.has("schema_fingerprints"))
+			json = json.getJSONObject("schema_fingerprints");
+
+		String fingerprints = json.get("fingerprints").toString().trim();
+		SchemaFingerprints result = new SchemaFingerprints();
+		if (fingerprints.length() == 0)
+			return result;
+
+		for (String fingerprint : fingerprints.split("\\s+")){
+			result.add(fingerprint);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Create a SchemaFingerprints instance from its EXI representation
+	 * @throws JSONException The given EXI does not represent a valid SchemaFingerprints instance
+	 */
+	public static SchemaFingerprints createFromExi(byte[] exi) throws JSONException{
+		return createFromXml(EXIConverter.decodeToString(exi));
+	}
+
+	/**
+	 * Create a SchemaFingerprints instance from its EXI representation, which must not expand to an
+	 * XML representation of more than the given length
+	 * @param maxLength Maximum length of the UTF-8 encoded XML representation in bytes
+	 * @throws IllegalArgumentException The XML representation exceeds the given length
+	 * @throws JSONException The given EXI does not represent a valid SchemaFingerprints instance
+	 */
+	public static SchemaFingerprints createFromExi(byte[] exi, long maxLength) throws JSONException{
+		return createFromXml(EXIConverter.decodeToString(exi, maxLength));
+	}
+
+	/**
+	 * @return A human readable String representation of this list
+	 */
+	@Override
+	public String toString(){
+		return "Schema fingerprints: " + fingerprints;
+	}
+}
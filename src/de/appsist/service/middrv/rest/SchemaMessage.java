@@ -8,6 +8,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.XML;
 
+import de.appsist.service.middrv.entity.EXIConverter;
 import de.appsist.service.middrv.entity.MachineSchema;
 import de.appsist.service.middrv.entity.Serializeable;
 
@@ -89,6 +90,31 @@ public class SchemaMessage extends Message<MachineSchema> implements Serializeab
 		return result;
 	}
 	
+	/**
+	 * Create a SchemaMessage instance from its EXI representation
+	 * @param exi EXI encoded XML representation of the SchemaMessage to create
+	 * @return The new SchemaMessage created from its EXI representation
+	 * @throws IllegalArgumentException If the given content is no valid EXI document
+	 * @throws JSONException If the given EXI does not contain a valid SchemaMessage
+	 */
+	public static SchemaMessage createFromExi(byte[] exi) throws JSONException{
+		return createFromXml(EXIConverter.decodeToString(exi));
+	}
+	
+	/**
+	 * Create a SchemaMessage instance from its EXI representation, which must not expand to an XML
+	 * representation of more than the given length
+	 * @param exi EXI encoded XML representation of the SchemaMessage to create
+	 * @param maxLength Maximum length of the UTF-8 encoded XML representation in bytes
+	 * @return The new SchemaMessage created from its EXI representation
+	 * @throws IllegalArgumentException If the given content is no valid EXI document or its XML
+	 *         representation exceeds the given length
+	 * @throws JSONException If the given EXI does not contain a valid SchemaMessage
+	 */
+	public static SchemaMessage createFromExi(byte[] exi, long maxLength) throws JSONException{
+		return createFromXml(EXIConverter.decodeToString(exi, maxLength));
+	}
+	
 	/**
 	 * Create a SchemaMessage instance from its JSON representation
 	 * @param json JSON representation of the SchemaMessage to create
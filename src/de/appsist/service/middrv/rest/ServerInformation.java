@@ -14,6 +14,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.XML;
 
+import de.appsist.service.middrv.entity.SerializationWriter;
 import de.appsist.service.middrv.entity.Serializeable;
 
 public class ServerInformation implements Serializeable {
@@ -78,22 +79,7 @@ public class ServerInformation implements Serializeable {
 	 */
 	@Override
 	public String toJson() {
-		String result = "{\"name\":" + JSONObject.quote(serverName) + ", " +
-				"\"hearBeatInterval\":" + heartBeatInterval + ", " +
-				"\"content_types\":[";
-		
-		boolean isFirst = true;
-		for (ContentType c : contentTypes){
-			if (isFirst)
-				isFirst = false;
-			else
-				result += ", ";
-			
-			result += JSONObject.quote(c.toString());
-		}
-		
-		result += "]}";
-		return result;
+		return SerializationWriter.toJson(this);
 	}
 	
 	/**
@@ -109,25 +95,45 @@ public class ServerInformation implements Serializeable {
 	 */
 	@Override
 	public String toXml(boolean withOuterTags) {
-		String result = "";
+		return SerializationWriter.toXml(this, withOuterTags);
+	}
+	
+	@Override
+	public void writeJson(SerializationWriter writer) {
+		writer.append("{\"name\":").appendQuoted(serverName).append(", ")
+		      .append("\"hearBeatInterval\":").append(heartBeatInterval).append(", ")
+		      .append("\"content_types\":[");
 		
+		boolean isFirst = true;
+		for (ContentType c : contentTypes){
+			if (isFirst)
+				isFirst = false;
+			else
+				writer.append(", ");
+			
+			writer.appendQuoted(c.toString());
+		}
+		
+		writer.append("]}");
+	}
+	
+	@Override
+	public void writeXml(SerializationWriter writer, boolean withOuterTags) {
 		if (withOuterTags)
-			result += "<server_info>";
+			writer.append("<server_info>");
 		
-		result +="<name><![CDATA[" + serverName + "]]></name>" +
-				"<hearBeatInterval>" + heartBeatInterval + "</hearBeatInterval>" +
-				"<content_types>";
+		writer.append("<name>").appendCData(serverName).append("</name>")
+		      .append("<hearBeatInterval>").append(heartBeatInterval).append("</hearBeatInterval>")
+		      .append("<content_types>");
 		
 		for (ContentType c : contentTypes){
-			result += "<entry><![CDATA[" + c.toString() + "]]></entry>";
+			writer.append("<entry>").appendCData(c.toString()).append("</entry>");
 		}
 		
-		result += "</content_types>";
+		writer.append("</content_types>");
 		
 		if (withOuterTags)
-			result += "</server_info>";
-		
-		return result;
+			writer.append("</server_info>");
 	}
 	
 	/**
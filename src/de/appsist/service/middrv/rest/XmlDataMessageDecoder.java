@@ -0,0 +1,604 @@
+/**
+ * A streaming decoder creating DataMessages straight from the bytes of their XML representation
+ * using a StAX pull parser, instead of converting the XML to a JSONObject tree first.
+ *
+ * Like JsonDataMessageDecoder, only the canonical structure of a DataMessage (as written by
+ * DataMessage.toXml()) is decoded here. Values are typed the same way org.json.XML does it. Whenever
+ * the input leaves this structure (attributes, namespaces, mixed content, missing or repeated elements,
+ * ...) decoding falls back to the org.json based implementation, so the resulting DataMessage or the
+ * thrown exception is the same as the one of DataMessage.createFromXml(Map, String).
+ *
+ * The only intended difference are character references (like "&#65;"), which are resolved by the
+ * StAX parser as required by XML 1.0, but kept literally by org.json.
+ *
+ * Documents converted from EXI have lost their CDATA sections, which mark string values in the XML
+ * representation. For them the type of string values is taken from the registered schema instead.
+ *
+ * Like in JsonDataMessageDecoder, the decoded data refers to the machine instance and the value names
+ * of the registered schema instead of equal copies.
+ */
+package de.appsist.service.middrv.rest;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.XML;
+
+import de.appsist.service.middrv.entity.Machine;
+import de.appsist.service.middrv.entity.MachineData;
+import de.appsist.service.middrv.entity.MachineSchema;
+import de.appsist.service.middrv.entity.MachineValue;
+import de.appsist.service.middrv.entity.MachineValueFactory;
+import de.appsist.service.middrv.entity.MachineValueSpecification;
+import de.appsist.service.middrv.entity.MachineValueType;
+import de.appsist.service.middrv.entity.SchemaLayout;
+import de.appsist.service.middrv.entity.SlotValues;
+import de.appsist.service.middrv.entity.Status;
+import de.appsist.service.middrv.rest.server.SchemaTimePair;
+
+class XmlDataMessageDecoder {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Property of the StAX implementation shipped with the JRE to report CDATA sections as separate
+	 * events. It is needed, as org.json keeps CDATA sections untrimmed and untyped.
+	 */
+	private static final String PROPERTY_REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+	/**
+	 * The factory is configured once and afterwards only used to create readers. It is
+	 * <code>null</code> if the available StAX implementation cannot report CDATA sections, in which
+	 * case every message is decoded by org.json
+	 */
+	private static final XMLInputFactory factory = createFactory();
+
+	/**
+	 * Thrown when the input is not in the canonical structure. It carries no stack trace, as it is
+	 * only used to leave the decoder and is always caught in decode()
+	 */
+	private static class FallbackRequired extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		private FallbackRequired(){
+			super(null, null, false, false);
+		}
+	}
+
+	private static final FallbackRequired FALLBACK = new FallbackRequired();
+
+	private final XMLStreamReader reader;
+
+	private final Map<Machine, SchemaTimePair> schemas;
+
+	/**
+	 * The schemas are used to recognize string values, as the document has no CDATA sections
+	 */
+	private final boolean typingStrings;
+
+	private XmlDataMessageDecoder(XMLStreamReader reader, Map<Machine, SchemaTimePair> schemas, boolean typingStrings){
+		this.reader = reader;
+		this.schemas = schemas;
+		this.typingStrings = typingStrings;
+	}
+
+	private static XMLInputFactory createFactory(){
+		try {
+			XMLInputFactory result = XMLInputFactory.newInstance();
+			result.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			result.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+			result.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+			result.setProperty(PROPERTY_REPORT_CDATA, Boolean.TRUE);
+			return result;
+		} catch (IllegalArgumentException e){
+			return null;
+		}
+	}
+
+	/**
+	 * @param schemas Map containing schemas that will be used to look up the schema of the given machines
+	 * @param content Buffer containing the XML representation of a DataMessage
+	 * @param offset Position of the first byte of the XML representation in content
+	 * @param length Length of the XML representation in bytes
+	 * @return A new DataMessage instance created from the given XML representation
+	 * @throws JSONException The given XML representation is not a valid DataMessage representation
+	 * @throws SchemaNotFoundException The given schema map does not contain a schema for a machine
+	 *         in the given XML
+	 * @throws DataSchemaMismatchException A schema for a machine in the XML was found, but the data
+	 *         in the XML does not match this schema
+	 */
+	static DataMessage decode(Map<Machine, SchemaTimePair> schemas, byte[] content, int offset, int length)
+	       throws JSONException, SchemaNotFoundException, DataSchemaMismatchException
+	{
+		return decode(schemas, content, offset, length, false);
+	}
+
+	/**
+	 * Same as decode(), but for documents converted from a representation without CDATA sections
+	 * (like EXI). The type of string values is taken from the schema of their machine.
+	 */
+	static DataMessage decodeWithoutCdata(Map<Machine, SchemaTimePair> schemas, byte[] content, int offset, int length)
+	       throws JSONException, SchemaNotFoundException, DataSchemaMismatchException
+	{
+		return decode(schemas, content, offset, length, true);
+	}
+
+	private static DataMessage decode(Map<Machine, SchemaTimePair> schemas, byte[] content, int offset, int length,
+	                                  boolean withoutCdata)
+	        throws JSONException, SchemaNotFoundException, DataSchemaMismatchException
+	{
+		if (factory != null){
+			XMLStreamReader reader = null;
+			try {
+				reader = factory.createXMLStreamReader(new ByteArrayInputStream(content, offset, length));
+				List<MachineData> machines = new ArrayList<>();
+				long time = new XmlDataMessageDecoder(reader, schemas, withoutCdata).decodeMessage(machines);
+
+				return DataMessage.createFromMachineData(schemas, time, machines);
+			} catch (FallbackRequired | XMLStreamException e){
+				// decoded by org.json below
+			} finally {
+				close(reader);
+			}
+		}
+
+		return DataMessage.createFromXml(schemas, new String(content, offset, length, UTF_8));
+	}
+
+	private static void close(XMLStreamReader reader){
+		if (reader == null)
+			return;
+
+		try {
+			reader.close();
+		} catch (XMLStreamException e){
+			// nothing left to clean up
+		}
+	}
+
+	/**
+	 * Decodes the document and adds all machines in it to dest
+	 * @return The time stamp of the message
+	 */
+	private long decodeMessage(List<MachineData> dest) throws FallbackRequired, XMLStreamException {
+		boolean hasTime = false;
+		boolean hasMachines = false;
+		long time = 0;
+
+		reader.nextTag();
+		// Namespace declarations (like the ones added by the EXI decoder) end up as ignored keys of the
+		// root object in org.json, so they are allowed here
+		if ((reader.getAttributeCount() > 0) || (reader.getPrefix() != null && reader.getPrefix().length() > 0))
+			throw FALLBACK;
+		if (!reader.getLocalName().equals("data_message"))
+			throw FALLBACK;
+
+		String child;
+		while ((child = nextChild()) != null){
+			switch(child){
+			case "time":
+				if (hasTime)
+					throw FALLBACK;
+
+				hasTime = true;
+				time = readLong();
+				break;
+			case "machines":
+				if (hasMachines)
+					throw FALLBACK;
+
+				hasMachines = true;
+				decodeMachines(dest);
+				break;
+			default:
+				skipElement();
+			}
+		}
+
+		if (!hasTime || !hasMachines)
+			throw FALLBACK;
+
+		// Let the parser validate the remaining document
+		while (reader.hasNext())
+			reader.next();
+
+		return time;
+	}
+
+	/**
+	 * Decodes all "machine" elements in the "machines" element
+	 */
+	private void decodeMachines(List<MachineData> dest) throws FallbackRequired, XMLStreamException {
+		int count = 0;
+
+		String child;
+		while ((child = nextChild()) != null){
+			if (child.equals("machine")){
+				dest.add(decodeMachineData());
+				count++;
+			} else {
+				skipElement();
+			}
+		}
+
+		if (count == 0)
+			throw FALLBACK;
+	}
+
+	/**
+	 * Decodes a single "machine" element
+	 */
+	private MachineData decodeMachineData() throws FallbackRequired, XMLStreamException {
+		String vendor = null;
+		String id = null;
+		String serial = null;
+		Object uuid = null;
+		int uuidCount = 0;
+		Map<String, MachineValue> data = null;
+		Status status = null;
+		SchemaTimePair schema = null;
+
+		String child;
+		while ((child = nextChild()) != null){
+			// The schema is looked up when the data starts, so the machine must not change afterwards
+			if (typingStrings && (data != null) && !child.equals("status"))
+				throw FALLBACK;
+
+			switch(child){
+			case "vendor":
+				vendor = readUniqueString(vendor);
+				break;
+			case "id":
+				id = readUniqueString(id);
+				break;
+			case "serial_number":
+				serial = readUniqueString(serial);
+				break;
+			case "uuid":
+				uuid = readValue(false);
+				uuidCount++;
+				break;
+			case "data":
+				if (data != null)
+					throw FALLBACK;
+
+				schema = lookUpSchema(vendor, id, serial, uuid, uuidCount);
+				data = decodeData(schema);
+				break;
+			case "status":
+				if (status != null)
+					throw FALLBACK;
+
+				status = decodeStatus();
+				break;
+			case "machine":
+				// Wrapped machine, leave this to org.json
+				throw FALLBACK;
+			default:
+				skipElement();
+			}
+		}
+
+		if ((vendor == null) || (id == null) || (serial == null) || (data == null) || (status == null))
+			throw FALLBACK;
+
+		// Refer to the machine of the registry, unless the machine changed after its data
+		Machine machine = (schema == null) ? null : schema.getSchema().getMachine();
+		if ((machine == null) || !machine.matches(vendor, id, serial, toUUID(uuid, uuidCount)))
+			machine = new Machine(vendor, id, serial, toUUID(uuid, uuidCount));
+
+		return new MachineData(machine, data, status);
+	}
+
+	/**
+	 * A missing, repeated or non string uuid defaults to ""
+	 */
+	private static String toUUID(Object uuid, int uuidCount){
+		return ((uuidCount == 1) && (uuid instanceof String)) ? (String) uuid : "";
+	}
+
+	/**
+	 * @return The schema registered for the machine decoded so far or <code>null</code>, if there is none
+	 */
+	private SchemaTimePair lookUpSchema(String vendor, String id, String serial, Object uuid, int uuidCount)
+	        throws FallbackRequired
+	{
+		if ((vendor == null) || (id == null) || (serial == null)){
+			// String values could not be recognized
+			if (typingStrings)
+				throw FALLBACK;
+
+			return null;
+		}
+
+		return schemas.get(new Machine(vendor, id, serial, toUUID(uuid, uuidCount)));
+	}
+
+	/**
+	 * Decodes the "data" element of a machine
+	 * @param schema Schema of the machine or <code>null</code>, if none is known
+	 */
+	private Map<String, MachineValue> decodeData(SchemaTimePair schema) throws FallbackRequired, XMLStreamException {
+		MachineSchema typingSchema = (typingStrings && (schema != null)) ? schema.getSchema() : null;
+		SchemaLayout layout = (schema == null) ? null : schema.getLayout();
+		Map<String, MachineValue> data = (layout == null) ? new HashMap<String, MachineValue>()
+		                                 : new SlotValues(layout.getStructure());
+		int count = 0;
+
+		String child;
+		while ((child = nextChild()) != null){
+			if (child.equals("entry")){
+				decodeEntry(data, typingSchema, layout);
+				count++;
+			} else {
+				skipElement();
+			}
+		}
+
+		if (count == 0)
+			throw FALLBACK;
+
+		return data;
+	}
+
+	/**
+	 * Decodes a single "entry" element of the machine data and adds it to dest
+	 * @param typingSchema Schema to recognize string values by or <code>null</code>
+	 * @param layout Layout to take the name of the value from or <code>null</code>
+	 */
+	private void decodeEntry(Map<String, MachineValue> dest, MachineSchema typingSchema, SchemaLayout layout)
+	        throws FallbackRequired, XMLStreamException
+	{
+		String name = null;
+		MachineValue value = null;
+
+		String child;
+		while ((child = nextChild()) != null){
+			switch(child){
+			case "name":
+				name = readUniqueString(name);
+				break;
+			case "value":
+				if (value != null)
+					throw FALLBACK;
+
+				if (typingSchema == null){
+					value = toMachineValue(readValue(false));
+				} else if (name == null){
+					throw FALLBACK;
+				} else {
+					MachineValueSpecification specification = typingSchema.getSpecification(name);
+					boolean isString = (specification != null) && (specification.getType() == MachineValueType.STRING);
+					value = toMachineValue(readValue(isString));
+				}
+				break;
+			default:
+				skipElement();
+			}
+		}
+
+		if ((name == null) || (value == null))
+			throw FALLBACK;
+
+		int slot = (layout == null) ? -1 : layout.getSlot(name);
+		dest.put((slot < 0) ? name : layout.getName(slot), value);
+	}
+
+	/**
+	 * Decodes the "status" element of a machine
+	 */
+	private Status decodeStatus() throws FallbackRequired, XMLStreamException {
+		boolean hasDescription = false;
+		Long code = null;
+		String description = "";
+
+		String child;
+		while ((child = nextChild()) != null){
+			switch(child){
+			case "code":
+				if (code != null)
+					throw FALLBACK;
+
+				code = readLong();
+				if ((code < Integer.MIN_VALUE) || (code > Integer.MAX_VALUE))
+					throw FALLBACK;
+				break;
+			case "description":
+				if (hasDescription)
+					throw FALLBACK;
+
+				hasDescription = true;
+				Object value = readValue(false);
+				description = JSONObject.NULL.equals(value) ? "" : value.toString();
+				break;
+			default:
+				skipElement();
+			}
+		}
+
+		if (code == null)
+			throw FALLBACK;
+
+		return new Status(code.intValue(), description);
+	}
+
+	/**
+	 * Creates a MachineValue the same way MachineData.putAutodetectType() does it
+	 */
+	private static MachineValue toMachineValue(Object value) throws FallbackRequired {
+		if (value instanceof Long)
+			return MachineValueFactory.create((Long) value);
+
+		if (value instanceof Double)
+			return MachineValueFactory.create((Double) value);
+
+		if (value instanceof Boolean)
+			return MachineValueFactory.create((Boolean) value);
+
+		if (value instanceof String)
+			return MachineValueFactory.create((String) value);
+
+		throw FALLBACK;
+	}
+
+	private long readLong() throws FallbackRequired, XMLStreamException {
+		Object value = readValue(false);
+
+		if (!(value instanceof Long))
+			throw FALLBACK;
+
+		return (Long) value;
+	}
+
+	/**
+	 * Reads the content of a leaf element, that must not have been read before, as String
+	 */
+	private String readUniqueString(String current) throws FallbackRequired, XMLStreamException {
+		if (current != null)
+			throw FALLBACK;
+
+		Object value = readValue(false);
+		if (!(value instanceof String))
+			throw FALLBACK;
+
+		return (String) value;
+	}
+
+	/**
+	 * Reads the content of the current leaf element up to its end tag and converts it the same way
+	 * org.json.XML does it: Text is trimmed and converted by XML.stringToValue(), CDATA sections are
+	 * kept as they are and an empty element results in an empty String
+	 * @param raw Keep text as it is, like a CDATA section
+	 */
+	private Object readValue(boolean raw) throws FallbackRequired, XMLStreamException {
+		Object result = "";
+		int pieces = 0;
+		StringBuilder text = null;
+
+		for (;;){
+			int event = reader.next();
+
+			switch(event){
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.SPACE:
+				if (text == null)
+					text = new StringBuilder();
+				text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+				continue;
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.COMMENT:
+			case XMLStreamConstants.PROCESSING_INSTRUCTION:
+			case XMLStreamConstants.END_ELEMENT:
+				break;
+			default:
+				// Nested elements, entity references, ...
+				throw FALLBACK;
+			}
+
+			// org.json splits the text content at every '<'
+			if (text != null){
+				String piece = raw ? text.toString() : trim(text);
+				if (piece.length() > 0){
+					result = raw ? piece : XML.stringToValue(piece);
+					pieces++;
+				}
+				text = null;
+			}
+
+			if (event == XMLStreamConstants.CDATA){
+				String cdata = reader.getText();
+				if (cdata.length() > 0){
+					result = cdata;
+					pieces++;
+				}
+			}
+
+			if (pieces > 1)
+				throw FALLBACK;
+
+			if (event == XMLStreamConstants.END_ELEMENT)
+				return result;
+		}
+	}
+
+	/**
+	 * Trims text the same way org.json.XMLTokener.nextContent() does it
+	 */
+	private static String trim(StringBuilder text){
+		int start = 0;
+		int length = text.length();
+
+		while ((start < length) && Character.isWhitespace(text.charAt(start)))
+			start++;
+
+		return text.substring(start).trim();
+	}
+
+	/**
+	 * Moves to the next child element of the current element, ignoring any text content
+	 * @return The name of the child element or <code>null</code>, if the end of the current element
+	 *         was reached
+	 */
+	private String nextChild() throws FallbackRequired, XMLStreamException {
+		for (;;){
+			switch(reader.next()){
+			case XMLStreamConstants.START_ELEMENT:
+				checkElement();
+				return reader.getLocalName();
+			case XMLStreamConstants.END_ELEMENT:
+				return null;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.SPACE:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.COMMENT:
+			case XMLStreamConstants.PROCESSING_INSTRUCTION:
+				break;
+			default:
+				throw FALLBACK;
+			}
+		}
+	}
+
+	/**
+	 * Skips the current element including all of its children
+	 */
+	private void skipElement() throws XMLStreamException {
+		int depth = 1;
+
+		while (depth > 0){
+			switch(reader.next()){
+			case XMLStreamConstants.START_ELEMENT:
+				depth++;
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				depth--;
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	/**
+	 * org.json turns attributes into additional values and keeps prefixes in element names, so such
+	 * elements are left to org.json
+	 */
+	private void checkElement() throws FallbackRequired {
+		if ((reader.getAttributeCount() > 0) || (reader.getNamespaceCount() > 0))
+			throw FALLBACK;
+
+		String prefix = reader.getPrefix();
+		if ((prefix != null) && (prefix.length() > 0))
+			throw FALLBACK;
+	}
+}
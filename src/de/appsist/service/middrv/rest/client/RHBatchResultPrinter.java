@@ -0,0 +1,52 @@
+/**
+ * ResponseHandler that dumps the result of a batch of data messages to the terminal
+ */
+package de.appsist.service.middrv.rest.client;
+
+import org.json.JSONException;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import de.appsist.service.middrv.entity.EXIConverter;
+import de.appsist.service.middrv.rest.BatchResult;
+import de.appsist.service.middrv.rest.ContentType;
+
+public class RHBatchResultPrinter implements ResponseHandler {
+	private static final Logger logger = LoggerFactory.getLogger(RHBatchResultPrinter.class);
+
+	/**
+	 * Generate a BatchResult instance from its JSON/XML/EXI representation
+	 * @param contentType Encoding of the BatchResult representation (JSON/XML/EXI)
+	 * @param content The BatchResult representation to convert
+	 * @return The new BatchResult instance created from the given representation
+	 * @throws JSONException <code>content</code> does not contain a valid BatchResult representation
+	 */
+	public static BatchResult decodeBatchResult(ContentType contentType, byte[] content) throws JSONException {
+		switch(contentType){
+		case JSON:
+			return BatchResult.createFromJson(new String(content));
+		case XML:
+			return BatchResult.createFromXml(new String(content));
+		case EXI:
+			return BatchResult.createFromXml(EXIConverter.decodeToString(content));
+		default:
+			throw new IllegalArgumentException("Unhandled content type \"" + contentType.toString() + "\"");
+		}
+	}
+
+	@Override
+	public void handleResponse(ContentType contentType, byte[] content, int statusCode, String statusMessage) {
+		try {
+			if ((statusCode / 100) == 2){
+				logger.debug("Server returned " + decodeBatchResult(contentType, content) + " for previously sent batch!");
+			} else {
+				// The whole batch was rejected
+				logger.error("Server returned " + RHStatusPrinter.decodeStatusMessage(contentType, content)
+				             + " for previously sent batch!");
+			}
+		} catch (Exception e){
+			logger.error("When proccessing content: \n" + new String(content) + "\nGot error:\n");
+			e.printStackTrace();
+		}
+	}
+}
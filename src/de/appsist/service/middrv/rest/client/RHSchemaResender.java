@@ -16,6 +16,7 @@ import org.vertx.java.core.logging.impl.LoggerFactory;
 public class RHSchemaResender implements ResponseHandler {
 	private RestClient restClient;
 	private DataMessage msg;
+	private ContentType messageContentType;
 	private Logger logger = LoggerFactory.getLogger(RHSchemaResender.class);
 	
 	/**
@@ -23,8 +24,41 @@ public class RHSchemaResender implements ResponseHandler {
 	 * @param msg Message to resend, if Server signals missing Schema
 	 */
 	public RHSchemaResender(RestClient restClient, DataMessage msg){
+		this(restClient, msg, null);
+	}
+	
+	/**
+	 * @param restClient Client used to (re-)send Schema and DataMessage
+	 * @param msg Message to resend, if Server signals missing Schema
+	 * @param messageContentType Content type to resend the message in or <code>null</code> to use the
+	 *                           content type of the response
+	 */
+	public RHSchemaResender(RestClient restClient, DataMessage msg, ContentType messageContentType){
 		this.restClient = restClient;
 		this.msg = msg;
+		this.messageContentType = messageContentType;
+	}
+	
+	/**
+	 * Resends the message, if the server accepted the schemas
+	 */
+	private class SchemaResponseHandler implements ResponseHandler {
+		@Override
+		public void handleResponse(ContentType contentType, byte[] content, int statusCode, String statusMessage) {
+			try {
+				Status status = RHStatusPrinter.decodeStatusMessage(contentType, content);
+				if (status.isError()){
+					logger.error("Server rejected schema with " + status.toString() + ", message not resent");
+					return;
+				}
+			} catch (Exception e) {
+				logger.error("Failed to decode Server-Response: " + e.getMessage());
+				return;
+			}
+			
+			restClient.send((messageContentType == null) ? contentType : messageContentType, msg, false);
+			logger.debug("Resent Message: " + msg);
+		}
 	}
 	
 	@Override
@@ -33,11 +67,9 @@ public class RHSchemaResender implements ResponseHandler {
 			Status status = RHStatusPrinter.decodeStatusMessage(contentType, content);
 			if (status.getCode() == Constants.STATUS_ERR_SCHEMA_NEEDED){
 				logger.debug("Server signaled missing schema ==> Sending Schema and resending message");
-				restClient.send(contentType, new SchemaMessage(msg.getSchemas()));
+				// Resend the message once the server registered the schemas and returned their IDs
+				restClient.send(contentType, new SchemaMessage(msg.getSchemas()), new SchemaResponseHandler());
 				logger.debug("(Re)sent Schema: " + msg.getSchemas());
-				Thread.sleep(500);
-				restClient.send(contentType, msg, false);
-				logger.debug("Resent Message: " + msg);
 			} else {
 				logger.debug("Server returned " + status.toString() + " for previously sent message!");
 			}
@@ -0,0 +1,85 @@
+/**
+ * ResponseHandler for the fingerprints of schemas sent to the server: The schemas the server does not
+ * know are sent, the others are not sent again
+ */
+package de.appsist.service.middrv.rest.client;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.json.JSONException;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import de.appsist.service.middrv.entity.EXIConverter;
+import de.appsist.service.middrv.entity.MachineSchema;
+import de.appsist.service.middrv.rest.ContentType;
+import de.appsist.service.middrv.rest.SchemaFingerprints;
+import de.appsist.service.middrv.rest.SchemaMessage;
+
+public class RHSchemaSynchronizer implements ResponseHandler {
+	private static final Logger logger = LoggerFactory.getLogger(RHSchemaSynchronizer.class);
+	private RestClient restClient;
+	private SchemaMessage msg;
+	private ContentType messageContentType;
+
+	/**
+	 * @param restClient Client used to send the missing schemas
+	 * @param msg Message containing the schemas whose fingerprints were sent
+	 * @param messageContentType Content type to send the missing schemas in
+	 */
+	public RHSchemaSynchronizer(RestClient restClient, SchemaMessage msg, ContentType messageContentType){
+		this.restClient = restClient;
+		this.msg = msg;
+		this.messageContentType = messageContentType;
+	}
+
+	/**
+	 * Generate a SchemaFingerprints instance from its JSON/XML/EXI representation
+	 * @param contentType Encoding of the SchemaFingerprints representation (JSON/XML/EXI)
+	 * @param content The SchemaFingerprints representation to convert
+	 * @return The new SchemaFingerprints instance created from the given representation
+	 * @throws JSONException <code>content</code> does not contain a valid SchemaFingerprints representation
+	 */
+	public static SchemaFingerprints decodeFingerprints(ContentType contentType, byte[] content) throws JSONException {
+		switch(contentType){
+		case JSON:
+			return SchemaFingerprints.createFromJson(new String(content));
+		case XML:
+			return SchemaFingerprints.createFromXml(new String(content));
+		case EXI:
+			return SchemaFingerprints.createFromXml(EXIConverter.decodeToString(content));
+		default:
+			throw new IllegalArgumentException("Unhandled content type \"" + contentType.toString() + "\"");
+		}
+	}
+
+	@Override
+	public void handleResponse(ContentType contentType, byte[] content, int statusCode, String statusMessage) {
+		try {
+			if ((statusCode / 100) != 2){
+				logger.error("Server returned " + RHStatusPrinter.decodeStatusMessage(contentType, content)
+				             + " for previously sent schema fingerprints!");
+				return;
+			}
+
+			Set<String> missing = new HashSet<>(decodeFingerprints(contentType, content).getFingerprints());
+			if (missing.isEmpty()){
+				logger.debug("Server knows all " + msg.getSchemas().size() + " schemas");
+				return;
+			}
+
+			SchemaMessage resend = new SchemaMessage();
+			for (MachineSchema schema : msg.getSchemas()){
+				if (missing.contains(schema.getFingerprint()))
+					resend.addSchema(schema);
+			}
+			logger.debug("Server misses " + resend.getSchemas().size() + " of " + msg.getSchemas().size()
+			             + " schemas ==> Sending them");
+			restClient.send(messageContentType, resend);
+		} catch (Exception e){
+			logger.error("When proccessing content: \n" + new String(content) + "\nGot error:\n");
+			e.printStackTrace();
+		}
+	}
+}
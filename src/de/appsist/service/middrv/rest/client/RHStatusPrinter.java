@@ -13,6 +13,7 @@ import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
 import org.xml.sax.SAXException;
 
+import de.appsist.service.middrv.entity.EXIConverter;
 import de.appsist.service.middrv.entity.Status;
 import de.appsist.service.middrv.rest.ContentType;
 
@@ -22,8 +23,8 @@ public class RHStatusPrinter implements ResponseHandler {
 	public RHStatusPrinter() {
 	}
 	/**
-	 * Generate a ErrorMessage instance from a JSON/XML representation of an ErrorMessage
-	 * @param contentType Encoding of the ErrorMessage representation (JSON/XML)
+	 * Generate a ErrorMessage instance from a JSON/XML/EXI representation of an ErrorMessage
+	 * @param contentType Encoding of the ErrorMessage representation (JSON/XML/EXI)
 	 * @param content The ErrorMessage representation to convert
 	 * @return The new ErrorMessage instance create from the given representation
 	 * @throws JSONException <code>content</code> does not contain a valid ErrorMessage representation
@@ -37,6 +38,8 @@ public class RHStatusPrinter implements ResponseHandler {
 			return Status.createFromJson(new String(content));
 		case XML:
 			return Status.createFromXml(new String(content));
+		case EXI:
+			return Status.createFromXml(EXIConverter.decodeToString(content));
 		default:
 			throw new IllegalArgumentException("Unhandled content type \"" + contentType.toString() + "\"");
 		}
@@ -8,32 +8,63 @@
 
 package de.appsist.service.middrv.rest.client;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPOutputStream;
 
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.VertxFactory;
 import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.http.HttpClient;
+import org.vertx.java.core.http.HttpClientRequest;
 import org.vertx.java.core.http.HttpClientResponse;
 
+import de.appsist.service.middrv.entity.BinaryCodec;
+import de.appsist.service.middrv.entity.Machine;
+import de.appsist.service.middrv.entity.MachineSchema;
+import de.appsist.service.middrv.entity.SchemaLayout;
 import de.appsist.service.middrv.entity.Serializeable;
 import de.appsist.service.middrv.entity.Serializer;
 import de.appsist.service.middrv.rest.Constants;
 import de.appsist.service.middrv.rest.ContentType;
 import de.appsist.service.middrv.rest.DataMessage;
+import de.appsist.service.middrv.rest.SchemaFingerprints;
 import de.appsist.service.middrv.rest.SchemaMessage;
 
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
 
 public class RestClient {
+	/**
+	 * Default number of times a request rejected by an overloaded server is retried
+	 */
+	public static final int DEFAULT_MAX_RETRIES = 5;
+	/**
+	 * Default maximum time to wait before retrying a request in milliseconds
+	 */
+	public static final long DEFAULT_MAX_BACKOFF = 60000;
 
+	private Vertx vertx;
 	private HttpClient httpClient;
 	private ResponseHandler statusPrinter;
+	private ResponseHandler batchResultPrinter;
 	private String cookies;
 	private String basePath;
+	private boolean compressRequests = false;
+	private boolean sendFingerprints = false;
+	private int maxRetries = DEFAULT_MAX_RETRIES;
+	private long maxBackoff = DEFAULT_MAX_BACKOFF;
+	// Layouts of the schemas registered at the server, used by the binary content type
+	private Map<Machine, SchemaLayout> schemaLayouts = new ConcurrentHashMap<>();
 	private static final Logger logger = LoggerFactory.getLogger(RestClient.class);
 
 	
@@ -44,18 +75,86 @@ public class RestClient {
 	public RestClient(String host, int port, String basePath){
 		cookies = "";
 		this.basePath=basePath;
-		Vertx vertx = VertxFactory.newVertx();
+		vertx = VertxFactory.newVertx();
 		
 		httpClient = vertx.createHttpClient();
 		httpClient.setHost(host);
 		httpClient.setPort(port);
 		
 		statusPrinter = new RHStatusPrinter();
+		batchResultPrinter = new RHBatchResultPrinter();
 	}
 	
 	public RestClient(String host, String basePath){
 		this(host, Constants.HTTP_DEFAULT_PORT, basePath);
 	}
+	
+	/**
+	 * Enable gzip compression of posted messages and accept compressed responses. The server
+	 * decompresses requests transparently
+	 * @param compression Compress requests and ask for compressed responses
+	 */
+	public void setCompression(boolean compression){
+		compressRequests = compression;
+		httpClient.setTryUseCompression(compression);
+	}
+	
+	/**
+	 * Send the fingerprints of the schemas of data messages and batches in a header. The server
+	 * rejects a message with STATUS_ERR_SCHEMA_NEEDED before decoding it, if it does not know one of
+	 * the schemas, e.g. because the schema was changed without sending it again
+	 */
+	public void setSendSchemaFingerprints(boolean sendFingerprints){
+		this.sendFingerprints = sendFingerprints;
+	}
+	
+	/**
+	 * Set how often posts rejected by an overloaded server (HTTP status 429 or 503 with a Retry-After
+	 * header) are retried. The wait time starts at the Retry-After time of the server and doubles with
+	 * every retry. A random jitter is added, so clients rejected at the same time do not retry at the
+	 * same time
+	 * @param maxRetries Maximum number of retries, 0 to pass the rejection on to the response handler
+	 * @param maxBackoff Maximum time to wait before a retry in milliseconds
+	 */
+	public void setRetries(int maxRetries, long maxBackoff){
+		if ((maxRetries < 0) || (maxBackoff < 0))
+			throw new IllegalArgumentException("Retries and backoff must not be negative");
+
+		this.maxRetries = maxRetries;
+		this.maxBackoff = maxBackoff;
+	}
+	
+	/**
+	 * @return Milliseconds to wait before retrying the request of the given response or -1, if the
+	 *         request should not be retried
+	 */
+	private long getRetryDelay(HttpClientResponse response, int attempt){
+		int statusCode = response.statusCode();
+		String retryAfter = response.headers().get("Retry-After");
+		if (((statusCode != 429) && (statusCode != 503)) || (retryAfter == null) || (attempt >= maxRetries))
+			return -1;
+		
+		long delay = 1000;
+		try {
+			delay = Math.max(Long.parseLong(retryAfter.trim()) * 1000, 1);
+		} catch (NumberFormatException e){
+			// HTTP date, use the default delay
+		}
+		
+		long backoff = Math.min(delay << Math.min(attempt, 16), maxBackoff);
+		return backoff + (long) (ThreadLocalRandom.current().nextDouble() * backoff / 2);
+	}
+	
+	/**
+	 * @return A gzip compressed copy of the given buffer
+	 */
+	private static Buffer compress(Buffer body) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(body.length() / 4 + 64);
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out)){
+			gzip.write(body.getBytes());
+		}
+		return new Buffer(out.toByteArray());
+	}
 
     public void get(String destPath, ContentType acceptType, Map<String, String> params) {
         get(destPath, acceptType, params, null);
@@ -120,17 +219,113 @@ public class RestClient {
 		}
 	}
 	
+	/**
+	 * Remember the IDs the server registered the schemas of the given message with
+	 * @param msg The schema message sent to the server
+	 * @param schemaIDs Value of the schema ID header of the response
+	 */
+	private void registerSchemaIDs(SchemaMessage msg, String schemaIDs){
+		List<MachineSchema> schemas = msg.getSchemas();
+		String[] ids = schemaIDs.split(",");
+		
+		if (ids.length != schemas.size()){
+			logger.error("Server returned " + ids.length + " schema IDs for " + schemas.size() + " schemas");
+			return;
+		}
+		
+		int i = 0;
+		for (MachineSchema schema : schemas){
+			try {
+				schemaLayouts.put(schema.getMachine(), new SchemaLayout(schema, Integer.parseInt(ids[i++].trim())));
+			} catch (NumberFormatException e){
+				logger.error("Server returned invalid schema ID: " + e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Encode a Serializeable in the given content type. DataMessages are encoded in the binary content
+	 * type using the schema IDs of previously sent schema messages
+	 */
+	private Buffer serialize(Serializeable sendMe, ContentType contentType){
+		if ((contentType == ContentType.BINARY) && (sendMe instanceof DataMessage)){
+			DataMessage msg = (DataMessage) sendMe;
+			return BinaryCodec.encode(msg.getTime(), msg.getData(), schemaLayouts);
+		}
+		
+		return Serializer.serializeToBuffer(sendMe, contentType);
+	}
+	
 	/**
 	 * Send a Serializeable in the desired encoding to the given destination path as POST-Request
 	 * @param destPath Path to send the data to
 	 * @param contentType Desired encoding to send the data in
 	 * @param sendMe Data to send
 	 */
-	private void post(String destPath, ContentType contentType, Serializeable sendMe, final ResponseHandler responseHandler){
+	private void post(String destPath, ContentType contentType, Serializeable sendMe, ResponseHandler responseHandler){
+		Buffer body;
+		
+		try {
+			body = serialize(sendMe, contentType);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return;
+		}
+		
+		String fingerprints = null;
+		if (sendMe instanceof DataMessage)
+			fingerprints = getFingerprints(Collections.singletonList((DataMessage) sendMe));
+		
+		post(destPath, contentType, body, sendMe, fingerprints, responseHandler);
+	}
+	
+	/**
+	 * Send an already encoded body to the given destination path as POST-Request
+	 * @param destPath Path to send the data to
+	 * @param contentType Encoding of the body
+	 * @param body The encoded data to send
+	 * @param sendMe The Serializeable contained in the body or <code>null</code>
+	 * @param fingerprints Value of the schema fingerprints header or <code>null</code>
+	 */
+	private void post(String destPath, ContentType contentType, Buffer body, Serializeable sendMe,
+	                  String fingerprints, ResponseHandler responseHandler)
+	{
+		boolean compressed = compressRequests;
+		try {
+			if (compressed)
+				body = compress(body);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return;
+		}
 		
+		post(destPath, contentType, body, compressed, sendMe, fingerprints, responseHandler, 0);
+	}
+	
+	/**
+	 * Send an encoded body and retry, while the server is overloaded
+	 * @param compressed The body is gzip compressed
+	 * @param attempt Number of previous attempts to send the body
+	 */
+	private void post(final String destPath, final ContentType contentType, final Buffer body,
+	                  final boolean compressed, final Serializeable sendMe, final String fingerprints,
+	                  final ResponseHandler responseHandler, final int attempt)
+	{
 		try {
-			httpClient.post(destPath, new Handler<HttpClientResponse>(){
+			HttpClientRequest request = httpClient.post(destPath, new Handler<HttpClientResponse>(){
 				public void handle(HttpClientResponse response){
+					long retryDelay = getRetryDelay(response, attempt);
+					if (retryDelay >= 0){
+						logger.warn("Server is overloaded (HTTP status " + response.statusCode() + "), retrying in "
+						            + retryDelay + " ms");
+						vertx.setTimer(retryDelay, new Handler<Long>(){
+							public void handle(Long timerID){
+								post(destPath, contentType, body, compressed, sendMe, fingerprints, responseHandler, attempt + 1);
+							}
+						});
+						return;
+					}
+					
 					try{
 						final ContentType responseContentType = ContentType.byString(response.headers().get("Content-Type"));
 						final int statusCode = response.statusCode();
@@ -141,6 +336,10 @@ public class RestClient {
 						if (setCookie != null)
 							cookies += ((cookies.length() == 0) ? "" : ";") + setCookie;
 						
+						String schemaIDs = response.headers().get(Constants.HEADER_SCHEMA_IDS);
+						if ((schemaIDs != null) && (sendMe instanceof SchemaMessage))
+							registerSchemaIDs((SchemaMessage) sendMe, schemaIDs);
+						
 						// Handle response
 						response.bodyHandler(new Handler<Buffer>(){
 							public void handle(Buffer buffer){
@@ -156,19 +355,134 @@ public class RestClient {
 							}
 						}
 					}
-				}).putHeader("Content-Type", contentType.toString())
-				  .putHeader("Cookie", cookies)
-				  .end(Serializer.serializeToBuffer(sendMe, contentType));
+				});
+			
+			// Responses are not available in the binary content type
+			if (contentType == ContentType.BINARY)
+				request.putHeader("Accept", ContentType.JSON.toString());
+			
+			if (compressed)
+				request.putHeader("Content-Encoding", "gzip");
+			
+			if (fingerprints != null)
+				request.putHeader(Constants.HEADER_SCHEMA_FINGERPRINTS, fingerprints);
+			
+			// Sending releases the buffer, so a copy is sent as long as the body may be sent again
+			request.putHeader("Content-Type", contentType.toString())
+			       .putHeader("Cookie", cookies)
+			       .end((attempt < maxRetries) ? body.copy() : body);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 	
+	/**
+	 * @return The value of the schema fingerprints header for the given messages or <code>null</code>,
+	 *         if no header is sent
+	 */
+	private String getFingerprints(List<DataMessage> msgs){
+		if (!sendFingerprints)
+			return null;
+		
+		Set<String> fingerprints = new LinkedHashSet<>();
+		for (DataMessage msg : msgs){
+			for (MachineSchema schema : msg.getSchemas()){
+				fingerprints.add(schema.getFingerprint());
+			}
+		}
+		
+		StringBuilder header = new StringBuilder(33 * fingerprints.size());
+		for (String fingerprint : fingerprints){
+			if (header.length() > 0)
+				header.append(',');
+			header.append(fingerprint);
+		}
+		
+		return header.toString();
+	}
+	
+	/**
+	 * Encode a batch of DataMessages: JSON messages are separated by newlines, messages in other
+	 * content types are prefixed by their length. JSON and XML messages are written directly into the
+	 * buffer of the batch
+	 */
+	private Buffer serializeBatch(List<DataMessage> msgs, ContentType contentType){
+		Buffer buffer = new Buffer();
+		
+		for (DataMessage msg : msgs){
+			if (contentType == ContentType.JSON){
+				Serializer.serialize(msg, contentType, buffer);
+				buffer.appendByte((byte) '\n');
+			} else if (contentType == ContentType.XML){
+				int start = buffer.length();
+				buffer.appendInt(0);
+				Serializer.serialize(msg, contentType, buffer);
+				buffer.setInt(start, buffer.length() - start - 4);
+			} else {
+				Buffer encoded = serialize(msg, contentType);
+				buffer.appendInt(encoded.length());
+				buffer.appendBuffer(encoded);
+			}
+		}
+		
+		return buffer;
+	}
+	
+	/**
+	 * Send several DataMessage instances to the server in a single request. The result of each message
+	 * is logged
+	 * @param contentType Content type to encode the messages in
+	 * @param msgs Messages to send
+	 */
+	public void sendBatch(ContentType contentType, List<DataMessage> msgs){
+		sendBatch(contentType, msgs, batchResultPrinter);
+	}
+	
+	/**
+	 * Send several DataMessage instances to the server in a single request
+	 * @param contentType Content type to encode the messages in
+	 * @param msgs Messages to send
+	 * @param responseHandler Handler to call with the response, which is a BatchResult on success
+	 */
+	public void sendBatch(ContentType contentType, List<DataMessage> msgs, ResponseHandler responseHandler){
+		Buffer body;
+		
+		try {
+			body = serializeBatch(msgs, contentType);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return;
+		}
+		
+		post(basePath + Constants.RES_MSG_DATA_BATCH, contentType, body, null, getFingerprints(msgs), responseHandler);
+	}
+	
 	/**
 	 * Send a MachineSchema instance to the server in the desired encoding with a custom basebath
 	 */
 	public void send(ContentType contentType, SchemaMessage msg){
-		post(basePath + Constants.RES_MSG_SCHEMA, contentType, msg, statusPrinter);
+		send(contentType, msg, statusPrinter);
+	}
+	
+	/**
+	 * Send a MachineSchema instance to the server and pass the response to the given handler. The
+	 * schema IDs returned by the server are registered before the handler is called, so data sent
+	 * from the handler can use the binary content type
+	 */
+	public void send(ContentType contentType, SchemaMessage msg, ResponseHandler responseHandler){
+		post(basePath + Constants.RES_MSG_SCHEMA, contentType, msg, responseHandler);
+	}
+	
+	/**
+	 * Send only the fingerprints of the schemas of the given message to the server and then the
+	 * schemas the server does not know. Cheaper than sending all schemas, if the server knows most of
+	 * them, e.g. after a reconnect
+	 * @param contentType Content type to encode the fingerprints and the missing schemas in
+	 * @param msg Message containing the schemas to synchronize
+	 */
+	public void syncSchemas(ContentType contentType, SchemaMessage msg){
+		post(basePath + Constants.RES_SCHEMA_FINGERPRINTS, contentType, new SchemaFingerprints(msg.getSchemas()),
+		     new RHSchemaSynchronizer(this, msg, contentType));
 	}
 	
 	/**
@@ -182,12 +496,15 @@ public class RestClient {
 	
 	/**
 	 * Send a DataMessage instance to the server in the desired encoding
-	 * @param contentType Content type to encode message in
+	 * @param contentType Content type to encode message in. The binary content type requires the schemas
+	 *                    of the machines to be sent with send(ContentType, SchemaMessage) before
 	 * @param msg Message to send
 	 * @param retry Send Schema and resend Message on failure
 	 */
 	public void send(ContentType contentType, DataMessage msg, boolean retry){
-		if (retry)
+		if (retry && (contentType == ContentType.BINARY))
+			post(basePath + Constants.RES_MSG_DATA, contentType, msg, new RHSchemaResender(this, msg, contentType));
+		else if (retry)
 			post(basePath + Constants.RES_MSG_DATA, contentType, msg, new RHSchemaResender(this, msg));
 		else
 			post(basePath + Constants.RES_MSG_DATA, contentType, msg, statusPrinter);
@@ -0,0 +1,142 @@
+/**
+ * Admission control for the resources receiving data messages. A request is only admitted while the
+ * server is not overloaded, i.e. the number of requests in flight, the number of messages waiting for
+ * the worker pool and the lag of the event loop are below their limits. Otherwise the request is
+ * rejected with HTTP status 429 and a Retry-After header before its body is read.
+ *
+ * A request is in flight from its admission until its body was received and parsed. Messages waiting
+ * for a handler on the worker pool are limited by the queue depth instead.
+ */
+
+package de.appsist.service.middrv.rest.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.HttpServerResponse;
+
+import de.appsist.service.middrv.rest.ContentType;
+
+public class AdmissionControl {
+	private static final String REJECT_MESSAGE = "Server is overloaded, retry later";
+
+	private final int maxInFlight;
+	private final int maxQueueDepth;
+	private final long maxEventLoopLag;
+	private final String retryAfter;
+	private final ByteBuf rejectBody;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong rejected = new AtomicLong();
+	private WorkerPool workers;
+
+	/**
+	 * @param maxInFlight Maximum number of requests in flight or 0 for no limit
+	 * @param maxQueueDepth Maximum number of messages waiting for the worker pool or 0 for no limit
+	 * @param maxEventLoopLag Maximum lag of the event loop in milliseconds or 0 for no limit
+	 * @param retryAfter Seconds clients are asked to wait before retrying a rejected request
+	 */
+	AdmissionControl(int maxInFlight, int maxQueueDepth, long maxEventLoopLag, int retryAfter){
+		if ((maxInFlight < 0) || (maxQueueDepth < 0) || (maxEventLoopLag < 0))
+			throw new IllegalArgumentException("Limits must not be negative");
+		if (retryAfter < 0)
+			throw new IllegalArgumentException("Retry-After must not be negative");
+
+		this.maxInFlight = maxInFlight;
+		this.maxQueueDepth = maxQueueDepth;
+		this.maxEventLoopLag = maxEventLoopLag;
+		this.retryAfter = Integer.toString(retryAfter);
+		// Writing the response releases the buffer, so it is made unreleasable to be reused
+		rejectBody = Unpooled.unreleasableBuffer(
+				Unpooled.wrappedBuffer(REJECT_MESSAGE.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * @param workers Pool whose queues are limited by the maximum queue depth or <code>null</code>
+	 */
+	void setWorkerPool(WorkerPool workers){
+		this.workers = workers;
+	}
+
+	/**
+	 * Admit a request, if the server is not overloaded. An admitted request has to be released
+	 * @param eventLoopLag Current lag of the event loop of the request in milliseconds
+	 * @return <code>true</code>, if the request was admitted
+	 */
+	boolean tryAcquire(long eventLoopLag){
+		if (((maxEventLoopLag > 0) && (eventLoopLag > maxEventLoopLag))
+		    || ((maxQueueDepth > 0) && (workers != null) && (workers.getQueueDepth() >= maxQueueDepth)))
+		{
+			rejected.incrementAndGet();
+			return false;
+		}
+
+		if (maxInFlight == 0){
+			inFlight.incrementAndGet();
+			return true;
+		}
+
+		while (true){
+			int current = inFlight.get();
+			if (current >= maxInFlight){
+				rejected.incrementAndGet();
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1))
+				return true;
+		}
+	}
+
+	/**
+	 * Release an admitted request
+	 */
+	void release(){
+		inFlight.decrementAndGet();
+	}
+
+	/**
+	 * Respond to a rejected request
+	 */
+	void reject(HttpServerResponse response){
+		response.setStatusCode(429);
+		response.setStatusMessage("Too Many Requests");
+		response.putHeader("Retry-After", retryAfter);
+		response.putHeader("Content-Type", ContentType.TEXT_PLAIN.toString());
+		response.end(new Buffer(rejectBody.duplicate()));
+	}
+
+	/**
+	 * @return Number of requests in flight
+	 */
+	public int getInFlight(){
+		return inFlight.get();
+	}
+
+	/**
+	 * @return Number of rejected requests
+	 */
+	public long getRejectedCount(){
+		return rejected.get();
+	}
+
+	public int getMaxInFlight(){
+		return maxInFlight;
+	}
+
+	public int getMaxQueueDepth(){
+		return maxQueueDepth;
+	}
+
+	public long getMaxEventLoopLag(){
+		return maxEventLoopLag;
+	}
+
+	@Override
+	public String toString(){
+		return "Admission control: " + getInFlight() + " requests in flight, " + getRejectedCount() + " rejected";
+	}
+}
@@ -0,0 +1,249 @@
+/**
+ * Decompresses a gzip or deflate encoded request body chunk by chunk (Content-Encoding). The inflated
+ * data is passed on in small pieces, so the size of the inflated body can be limited before a small
+ * compressed body expands into a huge one.
+ */
+
+package de.appsist.service.middrv.rest.server;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import io.netty.buffer.Unpooled;
+
+import org.vertx.java.core.buffer.Buffer;
+
+class BodyInflater {
+	/**
+	 * Receiver of the inflated data. The passed buffer is only valid during the call
+	 */
+	interface Sink {
+		void write(Buffer data) throws Exception;
+	}
+
+	private static final int GZIP_MAGIC = 0x8B1F;
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+	private static final int MAX_HEADER_SIZE = 64 * 1024;
+
+	private final boolean gzip;
+	private final Sink sink;
+	private final byte[] output = new byte[8192];
+	private final CRC32 crc = new CRC32();
+	private Inflater inflater;
+	// Bytes of a gzip header or trailer, which are not complete yet
+	private byte[] pending = new byte[64];
+	private int pendingLength = 0;
+	private boolean inHeader;
+	private boolean inTrailer;
+	private boolean started;
+
+	private BodyInflater(boolean gzip, Sink sink){
+		this.gzip = gzip;
+		this.sink = sink;
+		this.inHeader = gzip;
+	}
+
+	/**
+	 * @param contentEncoding Value of the Content-Encoding header of the request
+	 * @param sink Receiver of the inflated body
+	 * @return An inflater for the given encoding or <code>null</code>, if the body is not encoded
+	 * @throws IllegalArgumentException The given encoding is not supported
+	 */
+	static BodyInflater create(String contentEncoding, Sink sink){
+		if (contentEncoding == null)
+			return null;
+
+		switch(contentEncoding.trim().toLowerCase()){
+		case "":
+		case "identity":
+			return null;
+		case "gzip":
+		case "x-gzip":
+			return new BodyInflater(true, sink);
+		case "deflate":
+			return new BodyInflater(false, sink);
+		}
+
+		throw new IllegalArgumentException("Content encoding \"" + contentEncoding + "\" is not supported");
+	}
+
+	/**
+	 * Inflate the next chunk of the body
+	 * @throws IllegalArgumentException The body is not encoded correctly
+	 */
+	void write(Buffer chunk) throws Exception {
+		byte[] data = chunk.getBytes();
+		int offset = 0;
+
+		while (offset < data.length){
+			if (inHeader || inTrailer){
+				offset += collect(data, offset, data.length - offset);
+				continue;
+			}
+
+			if (inflater == null){
+				if (gzip){
+					inflater = new Inflater(true);
+				} else if (pendingLength == 1){
+					// The first byte arrived in a chunk of its own
+					inflater = createInflater(pending[0], data[offset]);
+					inflater.setInput(pending, 0, 1);
+					inflate();
+					pendingLength = 0;
+				} else if (offset + 1 < data.length){
+					inflater = createInflater(data[offset], data[offset + 1]);
+				} else {
+					pending[pendingLength++] = data[offset++];
+					continue;
+				}
+			}
+
+			inflater.setInput(data, offset, data.length - offset);
+			inflate();
+
+			int remaining = inflater.getRemaining();
+			offset = data.length - remaining;
+			if (inflater.finished()){
+				inflater.end();
+				inflater = null;
+				inTrailer = gzip;
+				if (!gzip && (remaining > 0))
+					throw new IllegalArgumentException("Deflate encoded body contains trailing data");
+			} else if (remaining > 0){
+				throw new IllegalStateException("Inflater did not consume its input");
+			}
+		}
+	}
+
+	/**
+	 * Check that the whole encoded body was received
+	 * @throws IllegalArgumentException The body ends in the middle of the encoded data
+	 */
+	void finish(){
+		// A gzip member whose header was complete still needs its deflate data and trailer
+		if ((inflater != null) || inTrailer || (pendingLength > 0) || (inHeader && !started) || (gzip && !inHeader))
+			throw new IllegalArgumentException("Compressed body is truncated");
+	}
+
+	/**
+	 * Create the inflater of a deflate encoded body from its first two bytes
+	 */
+	private Inflater createInflater(byte first, byte second){
+		// HTTP "deflate" is the zlib format, but some clients send raw deflate data
+		int header = ((first & 0xFF) << 8) | (second & 0xFF);
+		boolean zlib = ((first & 0x0F) == 8) && ((header % 31) == 0);
+		return new Inflater(!zlib);
+	}
+
+	private void inflate() throws Exception {
+		try {
+			int count;
+			while ((count = inflater.inflate(output)) > 0){
+				if (gzip)
+					crc.update(output, 0, count);
+				sink.write(new Buffer(Unpooled.wrappedBuffer(output, 0, count)));
+			}
+
+			if (inflater.needsDictionary())
+				throw new IllegalArgumentException("Deflate encoded body needs a preset dictionary");
+		} catch (DataFormatException e){
+			throw new IllegalArgumentException("Compressed body is invalid: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Collect bytes of a gzip header or trailer and process it, once it is complete
+	 * @return Number of bytes used
+	 */
+	private int collect(byte[] data, int offset, int length){
+		int used = 0;
+		while (used < length){
+			if (pendingLength == pending.length){
+				if (pending.length >= MAX_HEADER_SIZE)
+					throw new IllegalArgumentException("Gzip header is too large");
+				pending = Arrays.copyOf(pending, pending.length * 2);
+			}
+
+			pending[pendingLength++] = data[offset + used++];
+			started = true;
+
+			if (inHeader && isHeaderComplete()){
+				inHeader = false;
+				pendingLength = 0;
+				crc.reset();
+				break;
+			}
+
+			if (inTrailer && (pendingLength == 8)){
+				checkTrailer();
+				inTrailer = false;
+				// Another gzip member may follow
+				inHeader = true;
+				pendingLength = 0;
+				break;
+			}
+		}
+
+		return used;
+	}
+
+	private boolean isHeaderComplete(){
+		if (pendingLength < 10)
+			return false;
+
+		if ((((pending[1] & 0xFF) << 8) | (pending[0] & 0xFF)) != GZIP_MAGIC)
+			throw new IllegalArgumentException("Body is not gzip encoded");
+		if (pending[2] != 8)
+			throw new IllegalArgumentException("Unsupported gzip compression method " + pending[2]);
+
+		int flags = pending[3];
+		int pos = 10;
+		if ((flags & FEXTRA) != 0){
+			if (pendingLength < pos + 2)
+				return false;
+			pos += 2 + (((pending[pos + 1] & 0xFF) << 8) | (pending[pos] & 0xFF));
+		}
+		if ((flags & FNAME) != 0){
+			pos = skipZeroTerminated(pos);
+			if (pos < 0)
+				return false;
+		}
+		if ((flags & FCOMMENT) != 0){
+			pos = skipZeroTerminated(pos);
+			if (pos < 0)
+				return false;
+		}
+		if ((flags & FHCRC) != 0)
+			pos += 2;
+
+		return pendingLength >= pos;
+	}
+
+	/**
+	 * @return Position after the zero terminated string at the given position or -1, if the string
+	 *         is not complete yet
+	 */
+	private int skipZeroTerminated(int pos){
+		for (int i = pos; i < pendingLength; i++){
+			if (pending[i] == 0)
+				return i + 1;
+		}
+		return -1;
+	}
+
+	private void checkTrailer(){
+		long expectedCrc = readIntLE(0) & 0xFFFFFFFFL;
+		if (expectedCrc != crc.getValue())
+			throw new IllegalArgumentException("Gzip checksum mismatch");
+	}
+
+	private int readIntLE(int pos){
+		return (pending[pos] & 0xFF) | ((pending[pos + 1] & 0xFF) << 8) | ((pending[pos + 2] & 0xFF) << 16)
+		       | ((pending[pos + 3] & 0xFF) << 24);
+	}
+}
@@ -0,0 +1,44 @@
+/**
+ * A clock with a resolution of a few milliseconds, which is cheap to read. The time is updated by a
+ * background thread, so reading it is a single volatile read instead of a call of
+ * System.currentTimeMillis(). Precise enough for heart beat intervals of seconds.
+ */
+
+package de.appsist.service.middrv.rest.server;
+
+final class CoarseClock {
+	/**
+	 * Interval the time is updated at in milliseconds
+	 */
+	static final long RESOLUTION = 5;
+
+	private static volatile long now = System.currentTimeMillis();
+
+	static {
+		Thread thread = new Thread(new Runnable(){
+				public void run(){
+					while (true){
+						now = System.currentTimeMillis();
+						try {
+							Thread.sleep(RESOLUTION);
+						} catch (InterruptedException e){
+							return;
+						}
+					}
+				}
+			}, "adwisar-clock");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private CoarseClock(){
+	}
+
+	/**
+	 * @return The current time in milliseconds since 1. 1. 1970 0:00:00 UTC, at most RESOLUTION
+	 *         milliseconds old
+	 */
+	static long now(){
+		return now;
+	}
+}
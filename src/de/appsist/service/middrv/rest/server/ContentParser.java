@@ -10,8 +10,12 @@ import org.vertx.java.core.http.HttpServerResponse;
 import de.appsist.service.middrv.rest.ContentType;
 
 interface ContentParser {
+	/**
+	 * @param maxBodySize Maximum size of the request body in bytes, which limits the size of bodies
+	 *                    expanding while they are decoded, e.g. EXI documents, as well
+	 */
 	void parseContent(byte[] content, ContentType contentType, HttpServerResponse response,
-	                         ContentType responseContentType, HttpServerRequest request)
+	                         ContentType responseContentType, HttpServerRequest request, long maxBodySize)
 	     throws Exception;
 	
 	/**
@@ -0,0 +1,26 @@
+/**
+ * An interface used for the callback when a batch of DataMessages was received. If the
+ * DataMessageHandler passed to the RestServer implements this interface, the batch resource is
+ * served as well.
+ */
+package de.appsist.service.middrv.rest.server;
+
+import java.util.List;
+
+import org.vertx.java.core.http.HttpServerResponse;
+
+import de.appsist.service.middrv.rest.BatchResult;
+import de.appsist.service.middrv.rest.ContentType;
+import de.appsist.service.middrv.rest.DataMessage;
+
+public interface DataMessageBatchHandler {
+	/**
+	 * @param msgs The valid messages of the batch, in the order of the batch. With lazy decoding their
+	 *              values are not validated yet, see RestServer.setLazyDecoding()
+	 * @param positions Position of each of the valid messages in the batch
+	 * @param result The codes of all messages of the batch. Messages rejected by the handler should
+	 *               be marked in it, before it is sent as response
+	 */
+	void handleDataMessageBatch(List<DataMessage> msgs, int[] positions, BatchResult result,
+	                            HttpServerResponse response, ContentType responseContentType);
+}
@@ -0,0 +1,319 @@
+/**
+ * The Parser for batches of DataMessages. JSON messages are separated by newlines (NDJSON), messages
+ * of the other content types are prefixed by their length as 4 byte big endian integer.
+ *
+ * Messages are decoded one after another while the request body is received, so only the message not
+ * yet complete has to be buffered. An invalid message does not fail the batch, it is only marked in
+ * the BatchResult with the same code a single message would have been rejected with. If a WorkerPool
+ * is given, the handler is called on the worker thread of the machine of the first message. A message
+ * whose samples were all dropped by the RateLimiter counts as accepted, but is not passed on.
+ *
+ * With lazy decoding the values of JSON messages are decoded on first access and every message keeps
+ * its raw content (see DataMessage.getRawContent()). As the buffer of the received bytes is reused,
+ * each message is decoded from a copy of its bytes then. Messages whose values do not match their
+ * schema are passed on as valid then, the handler has to validate them and mark them in the result.
+ */
+
+package de.appsist.service.middrv.rest.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONException;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.HttpServerResponse;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import de.appsist.service.middrv.entity.Machine;
+import de.appsist.service.middrv.rest.BatchResult;
+import de.appsist.service.middrv.rest.Constants;
+import de.appsist.service.middrv.rest.ContentType;
+import de.appsist.service.middrv.rest.DataMessage;
+import de.appsist.service.middrv.rest.DataSchemaMismatchException;
+import de.appsist.service.middrv.rest.RateLimitExceededException;
+import de.appsist.service.middrv.rest.SchemaNotFoundException;
+
+class DataMessageBatchParser implements IncrementalContentParser {
+	private DataMessageBatchHandler handler;
+	private SchemaRegistry schemas;
+	private WorkerPool workers;
+	private RateLimiter rateLimiter;
+	private boolean lazyDecoding = false;
+	private Logger logger = LoggerFactory.getLogger(DataMessageBatchParser.class);
+
+	public DataMessageBatchParser(SchemaRegistry schemas, DataMessageBatchHandler handler){
+		this.handler = handler;
+		this.schemas = schemas;
+	}
+
+	/**
+	 * @param workers Pool to call the handler from or <code>null</code> to call it on the event loop
+	 * @param rateLimiter Limiter of the samples per machine or <code>null</code> for no limits
+	 */
+	public DataMessageBatchParser(SchemaRegistry schemas, DataMessageBatchHandler handler, WorkerPool workers,
+	                              RateLimiter rateLimiter)
+	{
+		this(schemas, handler);
+		this.workers = workers;
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * @param lazyDecoding Decode the values of JSON messages on first access
+	 */
+	public DataMessageBatchParser(SchemaRegistry schemas, DataMessageBatchHandler handler, WorkerPool workers,
+	                              RateLimiter rateLimiter, boolean lazyDecoding)
+	{
+		this(schemas, handler, workers, rateLimiter);
+		this.lazyDecoding = lazyDecoding;
+	}
+
+	@Override
+	public void parseContent(byte[] content, ContentType contentType, HttpServerResponse response,
+	                         ContentType responseContentType, HttpServerRequest request, long maxBodySize)
+	     throws Exception
+	{
+		checkFingerprints(request);
+		BatchConsumer consumer = new BatchConsumer(contentType, response, responseContentType, maxBodySize);
+		consumer.parse(content, 0, content.length, true);
+		consumer.finish();
+	}
+
+	@Override
+	public BodyConsumer createBodyConsumer(ContentType contentType, HttpServerResponse response,
+	                                       ContentType responseContentType, HttpServerRequest request,
+	                                       long maxBodySize)
+	     throws SchemaNotFoundException
+	{
+		checkFingerprints(request);
+		return new BatchConsumer(contentType, response, responseContentType, maxBodySize);
+	}
+
+	/**
+	 * Reject the whole batch before its body is received, if the server does not know one of the
+	 * schemas in the fingerprint header of the request
+	 */
+	private void checkFingerprints(HttpServerRequest request) throws SchemaNotFoundException{
+		String fingerprints = request.headers().get(Constants.HEADER_SCHEMA_FINGERPRINTS);
+		if (fingerprints != null)
+			schemas.checkFingerprints(fingerprints);
+	}
+
+	/**
+	 * Decodes the messages of a single batch
+	 */
+	private class BatchConsumer implements BodyConsumer {
+		private ContentType contentType;
+		private HttpServerResponse response;
+		private ContentType responseContentType;
+		// Limits every decoded EXI message of the batch
+		private long maxBodySize;
+		private List<DataMessage> msgs = new ArrayList<>();
+		private int[] positions = new int[16];
+		private BatchResult result = new BatchResult();
+		// Received bytes of the messages not complete yet
+		private byte[] pending = new byte[4096];
+		private int pendingLength = 0;
+		// Number of bytes of the incomplete line at the start of pending already searched for its end
+		private int lineSearched = 0;
+
+		BatchConsumer(ContentType contentType, HttpServerResponse response, ContentType responseContentType,
+		              long maxBodySize)
+		{
+			switch(contentType){
+			case JSON:
+			case XML:
+			case EXI:
+			case BINARY:
+				break;
+			default:
+				throw new IllegalArgumentException("Parser for this content type is not implemented");
+			}
+
+			this.contentType = contentType;
+			this.response = response;
+			this.responseContentType = responseContentType;
+			this.maxBodySize = maxBodySize;
+		}
+
+		@Override
+		public void handleChunk(Buffer chunk){
+			int length = chunk.length();
+			if (pendingLength + length > pending.length)
+				pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + length));
+
+			chunk.getByteBuf().getBytes(chunk.getByteBuf().readerIndex(), pending, pendingLength, length);
+			pendingLength += length;
+
+			// A message split into many chunks is neither searched nor moved again for every chunk
+			int parsed = parse(pending, 0, pendingLength, false);
+			if (parsed > 0){
+				pendingLength -= parsed;
+				System.arraycopy(pending, parsed, pending, 0, pendingLength);
+			}
+		}
+
+		@Override
+		public void handleEnd(){
+			parse(pending, 0, pendingLength, true);
+			finish();
+		}
+
+		/**
+		 * Decode all complete messages in the given part of a buffer
+		 * @param last No more content follows, so an unterminated line is a complete message
+		 * @return Number of bytes parsed
+		 */
+		int parse(byte[] content, int offset, int end, boolean last){
+			int pos = offset;
+
+			if (contentType == ContentType.JSON){
+				// The start of the first line was searched by the previous call already
+				int searched = lineSearched;
+				lineSearched = 0;
+				while (pos < end){
+					int lineEnd = pos + searched;
+					searched = 0;
+					while ((lineEnd < end) && (content[lineEnd] != '\n'))
+						lineEnd++;
+
+					if ((lineEnd == end) && !last){
+						lineSearched = end - pos;
+						break;
+					}
+
+					if (!isBlank(content, pos, lineEnd))
+						addMessage(content, pos, lineEnd - pos);
+
+					pos = lineEnd + 1;
+				}
+				return Math.min(pos, end) - offset;
+			}
+
+			while (end - pos >= 4){
+				int length = ((content[pos] & 0xFF) << 24) | ((content[pos + 1] & 0xFF) << 16)
+				             | ((content[pos + 2] & 0xFF) << 8) | (content[pos + 3] & 0xFF);
+				if (length < 0)
+					throw new IllegalArgumentException("Batch contains a message with negative length");
+				if (length > end - pos - 4)
+					break;
+
+				addMessage(content, pos + 4, length);
+				pos += 4 + length;
+			}
+
+			if (last && (pos < end))
+				throw new IllegalArgumentException((end - pos < 4) ? "Batch ends with an incomplete length prefix"
+				                                                    : "Batch ends with a truncated message");
+			return pos - offset;
+		}
+
+		/**
+		 * Pass the decoded messages on to the handler
+		 */
+		void finish(){
+			logger.debug("Batch contained " + result.getCount() + " messages, " + msgs.size() + " of them valid");
+
+			// update timers of machines since they did something
+			for (DataMessage msg : msgs){
+				schemas.updateTimeOfLastUpdate(msg.getContent());
+			}
+
+			final int[] validPositions = Arrays.copyOf(positions, msgs.size());
+			if (workers == null){
+				handler.handleDataMessageBatch(msgs, validPositions, result, response, responseContentType);
+				return;
+			}
+
+			Machine machine = null;
+			if (!msgs.isEmpty() && !msgs.get(0).getContent().isEmpty())
+				machine = msgs.get(0).getContent().get(0).getMachine();
+			workers.execute(machine, response, new WorkerPool.Task(){
+					public void run(HttpServerResponse response){
+						handler.handleDataMessageBatch(msgs, validPositions, result, response, responseContentType);
+					}
+				});
+		}
+
+		/**
+		 * Decode a single message of the batch and record its result
+		 */
+		private void addMessage(byte[] content, int offset, int length){
+			if (lazyDecoding){
+				// The message refers to its bytes, which are overwritten by the next chunks otherwise
+				content = Arrays.copyOfRange(content, offset, offset + length);
+				offset = 0;
+			}
+
+			try {
+				DataMessage msg = decode(contentType, content, offset, length, maxBodySize);
+				if (lazyDecoding)
+					msg.setRawContent(contentType, content, offset, length);
+				if (rateLimiter != null){
+					boolean empty = msg.getContent().isEmpty();
+					rateLimiter.apply(msg);
+					if (!empty && msg.getContent().isEmpty()){
+						result.add(0);
+						return;
+					}
+				}
+				int position = result.add(0);
+
+				if (msgs.size() == positions.length)
+					positions = Arrays.copyOf(positions, positions.length * 2);
+				positions[msgs.size()] = position;
+				msgs.add(msg);
+			} catch (JSONException | IllegalArgumentException e){
+				logger.debug("Invalid message in batch: " + e.getMessage());
+				result.add(Constants.STATUS_ERR_INVALID_MSG);
+			} catch (SchemaNotFoundException e){
+				logger.debug("Message without schema in batch: " + e.getMessage());
+				result.add(Constants.STATUS_ERR_SCHEMA_NEEDED);
+			} catch (DataSchemaMismatchException e){
+				logger.debug("Message not matching its schema in batch: " + e.getMessage());
+				result.add(Constants.STATUS_ERR_DATA_DOES_NOT_MATCH_SCHEMA);
+			} catch (RateLimitExceededException e){
+				logger.debug("Message exceeding the rate limit in batch: " + e.getMessage());
+				result.add(Constants.STATUS_ERR_RATE_LIMITED);
+			}
+		}
+	}
+
+	private DataMessage decode(ContentType contentType, byte[] content, int offset, int length, long maxBodySize)
+	        throws JSONException, SchemaNotFoundException, DataSchemaMismatchException
+	{
+		switch(contentType){
+		case JSON:
+			return DataMessage.createFromJson(schemas.getSchemas(), content, offset, length, lazyDecoding);
+		case XML:
+			return DataMessage.createFromXml(schemas.getSchemas(), content, offset, length);
+		case EXI:
+			return DataMessage.createFromExi(schemas.getSchemas(), content, offset, length, maxBodySize);
+		default:
+			return DataMessage.createFromBinary(schemas, content, offset, length);
+		}
+	}
+
+	private static boolean isBlank(byte[] content, int start, int end){
+		for (int i = start; i < end; i++){
+			byte b = content[i];
+			if ((b != ' ') && (b != '\t') && (b != '\r'))
+				return false;
+		}
+
+		return true;
+	}
+
+	@Override
+	public boolean allowEmptyContent() {
+		return false;
+	}
+
+	@Override
+	public boolean allowResponseContentTypeEmpty() {
+		return false;
+	}
+}
@@ -9,6 +9,10 @@ import de.appsist.service.middrv.rest.ContentType;
 import de.appsist.service.middrv.rest.DataMessage;
 
 public interface DataMessageHandler {
+	/**
+	 * @param msg The received message. With lazy decoding its values are not validated yet, see
+	 *            RestServer.setLazyDecoding()
+	 */
 	void handleDataMessage(DataMessage msg, HttpServerResponse response,
 	                              ContentType responseContentType);
 }
@@ -1,11 +1,19 @@
 /**
- * The Parser for DataMessages
+ * The Parser for DataMessages. The handler is either called directly on the event loop or, if a
+ * WorkerPool is given, on the worker thread of the machine of the message. If a RateLimiter is given,
+ * the samples are checked against the limits of their machines before the handler is called. With lazy
+ * decoding the values of JSON messages are decoded on first access and every message keeps its raw
+ * content (see DataMessage.getRawContent()). Values not matching their schema are not rejected then,
+ * the handler has to call DataMessage.validate() or handle the IllegalStateException thrown on first
+ * access of the values
  */
 
 package de.appsist.service.middrv.rest.server;
 
 import de.appsist.service.middrv.entity.Machine;
-import de.appsist.service.middrv.entity.MachineData;
+import de.appsist.service.middrv.entity.Serializer;
+import de.appsist.service.middrv.entity.Status;
+import de.appsist.service.middrv.rest.Constants;
 import de.appsist.service.middrv.rest.ContentType;
 import de.appsist.service.middrv.rest.DataMessage;
 
@@ -14,46 +22,98 @@ import org.vertx.java.core.http.HttpServerResponse;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
 
-import java.util.concurrent.ConcurrentHashMap;
-
 class DataMessageParser implements ContentParser{
 	private DataMessageHandler handler;
-	private ConcurrentHashMap<Machine, SchemaTimePair> schemas;
+	private SchemaRegistry schemas;
+	private WorkerPool workers;
+	private RateLimiter rateLimiter;
+	private boolean lazyDecoding = false;
 	private Logger logger = LoggerFactory.getLogger(DataMessageParser.class);
 	
-	public DataMessageParser(ConcurrentHashMap<Machine, SchemaTimePair> schemas, DataMessageHandler handler){
+	public DataMessageParser(SchemaRegistry schemas, DataMessageHandler handler){
 		this.handler = handler;
 		this.schemas = schemas;
 	}
 
+	/**
+	 * @param workers Pool to call the handler from or <code>null</code> to call it on the event loop
+	 * @param rateLimiter Limiter of the samples per machine or <code>null</code> for no limits
+	 */
+	public DataMessageParser(SchemaRegistry schemas, DataMessageHandler handler, WorkerPool workers,
+	                         RateLimiter rateLimiter)
+	{
+		this(schemas, handler);
+		this.workers = workers;
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * @param lazyDecoding Decode the values of JSON messages on first access
+	 */
+	public DataMessageParser(SchemaRegistry schemas, DataMessageHandler handler, WorkerPool workers,
+	                         RateLimiter rateLimiter, boolean lazyDecoding)
+	{
+		this(schemas, handler, workers, rateLimiter);
+		this.lazyDecoding = lazyDecoding;
+	}
+
 	@Override
 	public void parseContent(byte[] content, ContentType contentType, HttpServerResponse response,
-	                         ContentType responseContentType, HttpServerRequest request)
+	                         final ContentType responseContentType, HttpServerRequest request, long maxBodySize)
 	     throws Exception 
 	{
-		DataMessage msg = null;
+		final DataMessage msg;
 
+		// Reject data of schemas the server does not know before decoding it
+		String fingerprints = request.headers().get(Constants.HEADER_SCHEMA_FINGERPRINTS);
+		if (fingerprints != null)
+			schemas.checkFingerprints(fingerprints);
 		
 		switch(contentType){
 		case JSON:
-			msg = DataMessage.createFromJson(schemas, new String(content));
-			logger.info("Message: "+msg);
+			msg = DataMessage.createFromJson(schemas.getSchemas(), content, 0, content.length, lazyDecoding);
+			if (logger.isDebugEnabled())
+				logger.debug("Message: " + msg);
 			break;
 		case XML:
-			msg = DataMessage.createFromXml(schemas, new String(content));
+			msg = DataMessage.createFromXml(schemas.getSchemas(), content);
+			break;
+		case EXI:
+			msg = DataMessage.createFromExi(schemas.getSchemas(), content, 0, content.length, maxBodySize);
+			break;
+		case BINARY:
+			msg = DataMessage.createFromBinary(schemas, content);
 			break;
-		case TEXT_PLAIN:
-				break;
 		default:
 			throw new IllegalArgumentException("Parser for this content type is not implemented");
 		}
+		if (lazyDecoding)
+			msg.setRawContent(contentType, content, 0, content.length);
         // update timers of machines since they did something
-        for (MachineData data : msg.getContent()) {
-            schemas.get(data.getMachine()).updateTimeOfLastUpdate();
+        schemas.updateTimeOfLastUpdate(msg.getContent());
+        if (rateLimiter != null){
+            boolean empty = msg.getContent().isEmpty();
+            rateLimiter.apply(msg);
+            if (!empty && msg.getContent().isEmpty()){
+                // All samples were dropped, so there is nothing to pass on
+                response.setStatusCode(202);
+                response.end(Serializer.serializeToBuffer(new Status(0, "Data message dropped by rate limit"),
+                                                          responseContentType));
+                return;
+            }
         }
         // call interface callback
 		if (handler!=null){
-			handler.handleDataMessage(msg, response, responseContentType);
+			if (workers == null){
+				handler.handleDataMessage(msg, response, responseContentType);
+			} else {
+				Machine machine = msg.getContent().isEmpty() ? null : msg.getContent().get(0).getMachine();
+				workers.execute(machine, response, new WorkerPool.Task(){
+						public void run(HttpServerResponse response){
+							handler.handleDataMessage(msg, response, responseContentType);
+						}
+					});
+			}
 		}
 	}
 
@@ -0,0 +1,602 @@
+/**
+ * A response which can be used from any thread. Every call changing the response is passed on to
+ * the event loop of the request in the order of the calls. Headers and trailers are read from copies,
+ * and changes of them are applied to the copies at once and to the response on the event loop. The
+ * headers are copied when the response is passed on, the copy of the trailers starts empty. Handlers
+ * registered at the response are called on the event loop.
+ */
+
+package de.appsist.service.middrv.rest.server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.MultiMap;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.CaseInsensitiveMultiMap;
+import org.vertx.java.core.http.HttpServerResponse;
+
+import de.appsist.service.middrv.rest.ContentType;
+
+class EventLoopResponse implements HttpServerResponse {
+	private final Context context;
+	private final HttpServerResponse response;
+	private volatile boolean ended = false;
+	private final EventLoopMultiMap headers = new EventLoopMultiMap(false);
+	private final EventLoopMultiMap trailers = new EventLoopMultiMap(true);
+
+	/**
+	 * Has to be called on the event loop of the request, which must not use the given response
+	 * afterwards
+	 */
+	EventLoopResponse(Context context, HttpServerResponse response){
+		this.context = context;
+		this.response = response;
+		headers.copy.add(response.headers());
+	}
+
+	private void run(final Runnable call){
+		context.runOnContext(new Handler<Void>(){
+				public void handle(Void event){
+					call.run();
+				}
+			});
+	}
+
+	/**
+	 * Respond with an internal server error, unless the response was ended already
+	 */
+	void fail(final Exception e){
+		if (ended)
+			return;
+
+		ended = true;
+		run(new Runnable(){
+				public void run(){
+					response.setStatusCode(500);
+					response.putHeader("Content-Type", ContentType.TEXT_PLAIN.toString());
+					response.end("Error: \"" + e.toString() + "\"");
+				}
+			});
+	}
+
+	@Override
+	public int getStatusCode(){
+		return response.getStatusCode();
+	}
+
+	@Override
+	public HttpServerResponse setStatusCode(final int statusCode){
+		run(new Runnable(){
+				public void run(){
+					response.setStatusCode(statusCode);
+				}
+			});
+		return this;
+	}
+
+	@Override
+	public String getStatusMessage(){
+		return response.getStatusMessage();
+	}
+
+	@Override
+	public HttpServerResponse setStatusMessage(final String statusMessage){
+		run(new Runnable(){
+				public void run(){
+					response.setStatusMessage(statusMessage);
+				}
+			});
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse setChunked(final boolean chunked){
+		run(new Runnable(){
+				public void run(){
+					response.setChunked(chunked);
+				}
+			});
+		return this;
+	}
+
+	@Override
+	public boolean isChunked(){
+		return response.isChunked();
+	}
+
+	@Override
+	public MultiMap headers(){
+		return headers;
+	}
+
+	@Override
+	public HttpServerResponse putHeader(final String name, final String value){
+		headers.set(name, value);
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putHeader(final CharSequence name, final CharSequence value){
+		headers.set(name, value);
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putHeader(final String name, final Iterable<String> values){
+		headers.set(name, values);
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putHeader(final CharSequence name, final Iterable<CharSequence> values){
+		headers.set(name, values);
+		return this;
+	}
+
+	@Override
+	public MultiMap trailers(){
+		return trailers;
+	}
+
+	@Override
+	public HttpServerResponse putTrailer(final String name, final String value){
+		trailers.set(name, value);
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putTrailer(final CharSequence name, final CharSequence value){
+		trailers.set(name, value);
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putTrailer(final String name, final Iterable<String> values){
+		trailers.set(name, values);
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putTrailer(final CharSequence name, final Iterable<CharSequence> values){
+		trailers.set(name, values);
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse closeHandler(final Handler<Void> handler){
+		run(new Runnable(){
+				public void run(){
+					response.closeHandler(handler);
+				}
+			});
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse write(final Buffer chunk){
+		run(new Runnable(){
+				public void run(){
+					response.write(chunk);
+				}
+			});
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse write(final String chunk, final String enc){
+		run(new Runnable(){
+				public void run(){
+					response.write(chunk, enc);
+				}
+			});
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse write(final String chunk){
+		run(new Runnable(){
+				public void run(){
+					response.write(chunk);
+				}
+			});
+		return this;
+	}
+
+	@Override
+	public void end(final String chunk){
+		ended = true;
+		run(new Runnable(){
+				public void run(){
+					response.end(chunk);
+				}
+			});
+	}
+
+	@Override
+	public void end(final String chunk, final String enc){
+		ended = true;
+		run(new Runnable(){
+				public void run(){
+					response.end(chunk, enc);
+				}
+			});
+	}
+
+	@Override
+	public void end(final Buffer chunk){
+		ended = true;
+		run(new Runnable(){
+				public void run(){
+					response.end(chunk);
+				}
+			});
+	}
+
+	@Override
+	public void end(){
+		ended = true;
+		run(new Runnable(){
+				public void run(){
+					response.end();
+				}
+			});
+	}
+
+	@Override
+	public HttpServerResponse sendFile(final String filename){
+		ended = true;
+		run(new Runnable(){
+				public void run(){
+					response.sendFile(filename);
+				}
+			});
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse sendFile(final String filename, final String notFoundFile){
+		ended = true;
+		run(new Runnable(){
+				public void run(){
+					response.sendFile(filename, notFoundFile);
+				}
+			});
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse sendFile(final String filename, final Handler<AsyncResult<Void>> resultHandler){
+		ended = true;
+		run(new Runnable(){
+				public void run(){
+					response.sendFile(filename, resultHandler);
+				}
+			});
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse sendFile(final String filename, final String notFoundFile,
+	                                   final Handler<AsyncResult<Void>> resultHandler)
+	{
+		ended = true;
+		run(new Runnable(){
+				public void run(){
+					response.sendFile(filename, notFoundFile, resultHandler);
+				}
+			});
+		return this;
+	}
+
+	@Override
+	public void close(){
+		ended = true;
+		run(new Runnable(){
+				public void run(){
+					response.close();
+				}
+			});
+	}
+
+	@Override
+	public HttpServerResponse exceptionHandler(final Handler<Throwable> handler){
+		run(new Runnable(){
+				public void run(){
+					response.exceptionHandler(handler);
+				}
+			});
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse setWriteQueueMaxSize(final int maxSize){
+		run(new Runnable(){
+				public void run(){
+					response.setWriteQueueMaxSize(maxSize);
+				}
+			});
+		return this;
+	}
+
+	@Override
+	public boolean writeQueueFull(){
+		return response.writeQueueFull();
+	}
+
+	@Override
+	public HttpServerResponse drainHandler(final Handler<Void> handler){
+		run(new Runnable(){
+				public void run(){
+					response.drainHandler(handler);
+				}
+			});
+		return this;
+	}
+
+	/**
+	 * Copy of the headers or trailers of the response. Reads are answered by the copy, changes are
+	 * applied to the copy at once and to the response on the event loop, in the order of the calls
+	 */
+	private class EventLoopMultiMap implements MultiMap {
+		private final boolean trailers;
+		private final MultiMap copy = new CaseInsensitiveMultiMap();
+
+		EventLoopMultiMap(boolean trailers){
+			this.trailers = trailers;
+		}
+
+		/**
+		 * @return The headers or trailers of the response. Must only be called on the event loop
+		 */
+		private MultiMap target(){
+			return trailers ? response.trailers() : response.headers();
+		}
+
+		@Override
+		public String get(CharSequence name){
+			return copy.get(name);
+		}
+
+		@Override
+		public String get(String name){
+			return copy.get(name);
+		}
+
+		@Override
+		public List<String> getAll(String name){
+			return copy.getAll(name);
+		}
+
+		@Override
+		public List<String> getAll(CharSequence name){
+			return copy.getAll(name);
+		}
+
+		@Override
+		public List<Map.Entry<String, String>> entries(){
+			return copy.entries();
+		}
+
+		@Override
+		public Iterator<Map.Entry<String, String>> iterator(){
+			return copy.entries().iterator();
+		}
+
+		@Override
+		public boolean contains(String name){
+			return copy.contains(name);
+		}
+
+		@Override
+		public boolean contains(CharSequence name){
+			return copy.contains(name);
+		}
+
+		@Override
+		public boolean isEmpty(){
+			return copy.isEmpty();
+		}
+
+		@Override
+		public Set<String> names(){
+			return copy.names();
+		}
+
+		@Override
+		public int size(){
+			return copy.size();
+		}
+
+		@Override
+		public MultiMap add(final String name, final String value){
+			copy.add(name, value);
+			run(new Runnable(){
+					public void run(){
+						target().add(name, value);
+					}
+				});
+			return this;
+		}
+
+		@Override
+		public MultiMap add(final CharSequence name, final CharSequence value){
+			copy.add(name, value);
+			run(new Runnable(){
+					public void run(){
+						target().add(name, value);
+					}
+				});
+			return this;
+		}
+
+		@Override
+		public MultiMap add(final String name, Iterable<String> values){
+			final List<String> list = listOf(values);
+			copy.add(name, list);
+			run(new Runnable(){
+					public void run(){
+						target().add(name, list);
+					}
+				});
+			return this;
+		}
+
+		@Override
+		public MultiMap add(final CharSequence name, Iterable<CharSequence> values){
+			final List<CharSequence> list = listOf(values);
+			copy.add(name, list);
+			run(new Runnable(){
+					public void run(){
+						target().add(name, list);
+					}
+				});
+			return this;
+		}
+
+		@Override
+		public MultiMap add(MultiMap map){
+			final MultiMap entries = new CaseInsensitiveMultiMap().add(map);
+			copy.add(entries);
+			run(new Runnable(){
+					public void run(){
+						target().add(entries);
+					}
+				});
+			return this;
+		}
+
+		@Override
+		public MultiMap add(Map<String, String> map){
+			final MultiMap entries = new CaseInsensitiveMultiMap().add(map);
+			copy.add(entries);
+			run(new Runnable(){
+					public void run(){
+						target().add(entries);
+					}
+				});
+			return this;
+		}
+
+		@Override
+		public MultiMap set(final String name, final String value){
+			copy.set(name, value);
+			run(new Runnable(){
+					public void run(){
+						target().set(name, value);
+					}
+				});
+			return this;
+		}
+
+		@Override
+		public MultiMap set(final CharSequence name, final CharSequence value){
+			copy.set(name, value);
+			run(new Runnable(){
+					public void run(){
+						target().set(name, value);
+					}
+				});
+			return this;
+		}
+
+		@Override
+		public MultiMap set(final String name, Iterable<String> values){
+			final List<String> list = listOf(values);
+			copy.set(name, list);
+			run(new Runnable(){
+					public void run(){
+						target().set(name, list);
+					}
+				});
+			return this;
+		}
+
+		@Override
+		public MultiMap set(final CharSequence name, Iterable<CharSequence> values){
+			final List<CharSequence> list = listOf(values);
+			copy.set(name, list);
+			run(new Runnable(){
+					public void run(){
+						target().set(name, list);
+					}
+				});
+			return this;
+		}
+
+		@Override
+		public MultiMap set(MultiMap map){
+			final MultiMap entries = new CaseInsensitiveMultiMap().add(map);
+			copy.set(entries);
+			run(new Runnable(){
+					public void run(){
+						target().set(entries);
+					}
+				});
+			return this;
+		}
+
+		@Override
+		public MultiMap set(Map<String, String> map){
+			final MultiMap entries = new CaseInsensitiveMultiMap().add(map);
+			copy.set(entries);
+			run(new Runnable(){
+					public void run(){
+						target().set(entries);
+					}
+				});
+			return this;
+		}
+
+		@Override
+		public MultiMap remove(final String name){
+			copy.remove(name);
+			run(new Runnable(){
+					public void run(){
+						target().remove(name);
+					}
+				});
+			return this;
+		}
+
+		@Override
+		public MultiMap remove(final CharSequence name){
+			copy.remove(name);
+			run(new Runnable(){
+					public void run(){
+						target().remove(name);
+					}
+				});
+			return this;
+		}
+
+		@Override
+		public MultiMap clear(){
+			copy.clear();
+			run(new Runnable(){
+					public void run(){
+						target().clear();
+					}
+				});
+			return this;
+		}
+	}
+
+	/**
+	 * @return A copy of the given values, which the caller may change afterwards
+	 */
+	private static <T> List<T> listOf(Iterable<T> values){
+		List<T> list = new ArrayList<>();
+		for (T value : values){
+			list.add(value);
+		}
+
+		return list;
+	}
+}
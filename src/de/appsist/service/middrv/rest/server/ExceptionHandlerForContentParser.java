@@ -2,9 +2,22 @@
  * This Class handles Exceptions that can occur when parsing content. Because of
  * this separation of Parsing and Exception handling the code for exception handling
  * can be shared between all content parsers
+ *
+ * The body of the request is received chunk by chunk. Bodies larger than the configured maximum are
+ * rejected, if possible based on the Content-Length header before any chunk was received. Chunks are
+ * either passed on to an IncrementalContentParser or collected in a single array. The array is
+ * presized from the Content-Length header, but at most to INITIAL_CAPACITY, and grown as the chunks
+ * arrive, so clients announcing large bodies without sending them do not hold large arrays. Bodies compressed with gzip or deflate (Content-Encoding) are
+ * inflated on the fly, the maximum size applies to the inflated body as well.
+ *
+ * A request admitted by the admission control is released as soon as it is finished, i.e. it was
+ * answered, its body was parsed or its connection was closed.
  */
 package de.appsist.service.middrv.rest.server;
 
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+
 import org.json.JSONException;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.buffer.Buffer;
@@ -16,46 +29,99 @@ import de.appsist.service.middrv.entity.Status;
 import de.appsist.service.middrv.rest.Constants;
 import de.appsist.service.middrv.rest.ContentType;
 import de.appsist.service.middrv.rest.DataSchemaMismatchException;
+import de.appsist.service.middrv.rest.RateLimitExceededException;
 import de.appsist.service.middrv.rest.SchemaNotFoundException;
 
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
 
 class ExceptionHandlerForContentParser implements Handler<Buffer>{
+	/**
+	 * Maximum size of the array collecting the body before the first chunk arrived
+	 */
+	static final int INITIAL_CAPACITY = 64 * 1024;
+
 	private ContentParser parser;
 	private HttpServerResponse response;
 	private HttpServerRequest request;
+	private long maxBodySize;
+	private AdmissionControl admissionControl;
+	private ContentType contentType;
+	private ContentType responseContentType;
+	private IncrementalContentParser.BodyConsumer consumer;
+	private BodyInflater inflater;
+	private byte[] content;
+	// Size of the body as received and after inflating it
+	private long receivedEncoded;
+	private int received;
+	private boolean finished;
 	private Logger logger = LoggerFactory.getLogger(ExceptionHandlerForContentParser.class);
-	
-	public ExceptionHandlerForContentParser(HttpServerRequest request, HttpServerResponse response, ContentParser parser){
+
+	/**
+	 * @param admissionControl Admission control which admitted the request or <code>null</code>
+	 */
+	public ExceptionHandlerForContentParser(HttpServerRequest request, HttpServerResponse response, ContentParser parser,
+	                                        long maxBodySize, AdmissionControl admissionControl)
+	{
 		this.request = request;
 		this.response = response;
 		this.parser = parser;
+		this.maxBodySize = maxBodySize;
+		this.admissionControl = admissionControl;
 	}
-	
+
+	/**
+	 * Mark the request as finished and release it from the admission control
+	 */
+	private void finish(){
+		if (finished)
+			return;
+
+		finished = true;
+		if (admissionControl != null)
+			admissionControl.release();
+	}
+
 	private void putMessage(HttpServerResponse dest, String message){
 		putMessage(dest, message, 400);
 	}
-	
+
 	private void putMessage(HttpServerResponse dest, String message, int httpCode){
+		finish();
 		dest.setStatusCode(httpCode);
 		dest.setStatusMessage(message);
 		dest.putHeader("Content-Type", ContentType.TEXT_PLAIN.toString());
 		dest.end(message);
 	}
-	
-	@Override
-	public void handle(Buffer body)	{
-		byte[] content = body.getBytes();
-		ContentType contentType;
-		ContentType responseContentType;
 
-		if (!parser.allowEmptyContent() && ((content == null) || (content.length == 0))){
-			putMessage(response, "Request contained no content, but content was expected");
-			logger.error("Request contained no content, but content was expected");
-            return;
+	/**
+	 * Check the headers of the request and start receiving its body
+	 */
+	public void start(){
+		if (admissionControl != null){
+			response.closeHandler(new Handler<Void>(){
+					public void handle(Void event){
+						finish();
+					}
+				});
+		}
+
+		long contentLength = -1;
+		try {
+			String header = request.headers().get("Content-Length");
+			if (header != null)
+				contentLength = Long.parseLong(header.trim());
+		} catch (NumberFormatException e){
+			// Length unknown, the body size is checked while receiving it
+		}
+
+		if (contentLength > maxBodySize){
+			putMessage(response, "Request body of " + contentLength + " bytes exceeds the maximum of "
+			                     + maxBodySize + " bytes", 413);
+			logger.error("Rejected request with a body of " + contentLength + " bytes");
+			return;
 		}
-		
+
 		try{
 			contentType = ContentType.byString(request.headers().get("Content-Type"));
 		} catch (Exception e){
@@ -69,32 +135,169 @@ class ExceptionHandlerForContentParser implements Handler<Buffer>{
                 return;
 			}
 		}
-			
+
 		try {
 			responseContentType = ContentType.byString(request.headers().get("Accept").split(",")[0]);
 		} catch (Exception e){
 			responseContentType = contentType;
 		}
-		
+
+		// Only data messages can be encoded in the binary content type, so respond in JSON
+		if (responseContentType == ContentType.BINARY)
+			responseContentType = ContentType.JSON;
+
 		if ((responseContentType == null) && !parser.allowResponseContentTypeEmpty()){
 			putMessage(response, "No content type for response specified (HTTP-Header: Accept)");
             logger.error("No content type for response specified (HTTP-Header: Accept)");
             return;
 		}
 
-        try{
-            if (responseContentType != null)
-                response.putHeader("Content-Type", responseContentType.toString());
+		if (responseContentType != null)
+			response.putHeader("Content-Type", responseContentType.toString());
 
-            parser.parseContent(content, contentType, response, responseContentType, request);
+		try {
+			inflater = BodyInflater.create(request.headers().get("Content-Encoding"), new BodyInflater.Sink(){
+					public void write(Buffer data) throws Exception {
+						receiveDecoded(data);
+					}
+				});
+		} catch (IllegalArgumentException e){
+			putMessage(response, e.getMessage(), 415);
+			logger.error(e.getMessage());
+			return;
+		}
+
+		if ((parser instanceof IncrementalContentParser) && (contentType != null)){
+			try {
+				consumer = ((IncrementalContentParser) parser).createBodyConsumer(contentType, response,
+				                                                                  responseContentType, request,
+				                                                                  maxBodySize);
+			} catch (Exception e){
+				handleException(e);
+				return;
+			}
+		} else {
+			// The size of a compressed body is only a hint for the size of the inflated one
+			long expectedLength = (inflater == null) ? contentLength : Math.min(contentLength * 4, maxBodySize);
+			content = new byte[(int) Math.max(Math.min(expectedLength, INITIAL_CAPACITY), 0)];
+		}
+
+		request.dataHandler(this);
+		request.endHandler(new Handler<Void>(){
+			public void handle(Void event){
+				end();
+			}
+		});
+	}
+
+	/**
+	 * Receive the next chunk of the body
+	 */
+	@Override
+	public void handle(Buffer chunk)	{
+		if (finished)
+			return;
+
+		receivedEncoded += chunk.length();
+		try {
+			if (receivedEncoded > maxBodySize)
+				throw new BodyTooLargeException();
 
+			if (inflater == null)
+				receiveDecoded(chunk);
+			else
+				inflater.write(chunk);
+		} catch (Exception e){
+			handleException(e);
+		}
+	}
+
+	/**
+	 * Receive the next chunk of the (inflated) body
+	 */
+	private void receiveDecoded(Buffer chunk) throws Exception {
+		int length = chunk.length();
+		if (received + (long) length > maxBodySize)
+			throw new BodyTooLargeException();
+
+		if (consumer != null){
+			received += length;
+			consumer.handleChunk(chunk);
+			return;
+		}
+
+		if (received + length > content.length)
+			content = Arrays.copyOf(content, (int) Math.min(Math.max(content.length * 2L, received + length), maxBodySize));
+
+		chunk.getByteBuf().getBytes(chunk.getByteBuf().readerIndex(), content, received, length);
+		received += length;
+	}
+
+	/**
+	 * Called after the whole body was received
+	 */
+	private void end(){
+		if (finished)
+			return;
+
+		if (inflater != null){
+			try {
+				inflater.finish();
+			} catch (IllegalArgumentException e){
+				handleException(e);
+				return;
+			}
+		}
+
+		if (!parser.allowEmptyContent() && (received == 0)){
+			putMessage(response, "Request contained no content, but content was expected");
+			logger.error("Request contained no content, but content was expected");
+            return;
+		}
+
+		finish();
+		try {
+			if (consumer != null){
+				consumer.handleEnd();
+			} else {
+				if (received != content.length)
+					content = Arrays.copyOf(content, received);
+
+				parser.parseContent(content, contentType, response, responseContentType, request, maxBodySize);
+			}
+		} catch (Exception e){
+			handleException(e);
+		}
+	}
+
+	private void handleException(Exception exception){
+		finish();
+
+        try{
+            throw exception;
+        } catch (BodyTooLargeException e){
+            putMessage(response, "Request body exceeds the maximum of " + maxBodySize + " bytes", 413);
+            logger.error("Rejected request with a body of more than " + maxBodySize + " bytes");
+        } catch (RejectedExecutionException e){
+            // The queue of the worker pool is full
+            response.setStatusCode(503);
+            response.putHeader("Retry-After", "1");
+            Status error = new Status(Constants.STATUS_ERR_INTERNAL_SERVER, "Server is busy, try again later");
+            response.end(Serializer.serializeToBuffer(error, responseContentType));
+            logger.error("Rejected message, the queue of its worker is full");
+        } catch (RateLimitExceededException e){
+            response.setStatusCode(429);
+            response.putHeader("Retry-After", Long.toString(Math.max((e.getRetryAfter() + 999) / 1000, 1)));
+            Status error = new Status(Constants.STATUS_ERR_RATE_LIMITED, e.getMessage());
+            response.end(Serializer.serializeToBuffer(error, responseContentType));
+            logger.debug("Rejected message exceeding the rate limit: " + e.getMessage());
         } catch(JSONException | IllegalArgumentException e){
             response.setStatusCode(400);
             Status error = new Status(Constants.STATUS_ERR_INVALID_MSG,
                                                   "Could not parse message: \"" + e.getMessage() + "\"");
             response.end(Serializer.serializeToBuffer(error, responseContentType));
             logger.error("Received an invalid message!");
-            logger.error("Invalid message is:" + content.toString());
+            logger.error("Invalid message is:" + ((content == null) ? "<streamed>" : new String(content, 0, received)));
         } catch (SchemaNotFoundException e){
             response.setStatusCode(400);
             Status error = new Status(Constants.STATUS_ERR_SCHEMA_NEEDED, e.getMessage());
@@ -114,4 +317,11 @@ class ExceptionHandlerForContentParser implements Handler<Buffer>{
             e.printStackTrace();
         }
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Thrown when the (inflated) body exceeds the maximum size
+	 */
+	private static class BodyTooLargeException extends Exception {
+		private static final long serialVersionUID = 1L;
+	}
+}
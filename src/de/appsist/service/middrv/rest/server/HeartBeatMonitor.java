@@ -0,0 +1,142 @@
+/**
+ * Background thread which checks if a machine did not report back within the heart beat interval.
+ * Machines which timed out are removed from the schema registry and reported to the HeartBeatHandler.
+ * There is a single monitor per RestServer, no matter how many server instances it listens with.
+ *
+ * The entries of the registry are kept in a hashed timing wheel, in the slot of the tick they expire
+ * at. Refreshing an entry only updates its time of last update. When the wheel reaches the slot of an
+ * entry, the entry is either expired or moved to the slot of its new expiry. So every check only
+ * touches the entries due at this tick, and every entry is moved at most once per interval, no matter
+ * how many heart beats it got.
+ */
+
+package de.appsist.service.middrv.rest.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+class HeartBeatMonitor implements SchemaRegistry.Listener {
+	// Number of slots of the wheel, the wheel covers this number of ticks
+	private static final int WHEEL_SIZE = 512;
+	// Number of ticks per heart beat interval, i.e. the precision of detecting lost machines
+	private static final int TICKS_PER_INTERVAL = 16;
+
+	private long heartBeatInterval;
+	private SchemaRegistry schemas;
+	private HeartBeatHandler heartBeatHandler;
+	private final long tickDuration;
+	private final List<ConcurrentLinkedQueue<SchemaTimePair>> wheel = new ArrayList<>(WHEEL_SIZE);
+	// Last tick whose slot was checked
+	private volatile long currentTick;
+	private Logger logger = LoggerFactory.getLogger(HeartBeatMonitor.class);
+
+	public HeartBeatMonitor(long heartBeatInterval, SchemaRegistry schemas, HeartBeatHandler heartBeatHandler){
+		this.heartBeatInterval = heartBeatInterval;
+		this.schemas = schemas;
+		this.heartBeatHandler = heartBeatHandler;
+		tickDuration = Math.max(heartBeatInterval / TICKS_PER_INTERVAL, 1);
+		for (int i = 0; i < WHEEL_SIZE; i++){
+			wheel.add(new ConcurrentLinkedQueue<SchemaTimePair>());
+		}
+	}
+
+	/**
+	 * Start checking the machines periodically
+	 */
+	public void start(){
+		attach(CoarseClock.now());
+
+		Runnable runnable = new Runnable() {
+			@Override
+			public void run() {
+				advance(CoarseClock.now());
+			}
+		};
+		ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+		executorService.scheduleAtFixedRate(runnable, tickDuration, tickDuration, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Track the entries of the registry from the given time on, without checking them periodically
+	 */
+	void attach(long now){
+		currentTick = now / tickDuration;
+		schemas.addListener(this);
+		// Entries registered before, entries registered meanwhile are scheduled only once
+		for (SchemaTimePair entry : schemas.getEntries()){
+			schedule(entry);
+		}
+	}
+
+	@Override
+	public void schemaRegistered(SchemaTimePair entry){
+		schedule(entry);
+	}
+
+	@Override
+	public void schemaRemoved(SchemaTimePair entry){
+		// The entry is dropped, when the wheel reaches it
+	}
+
+	/**
+	 * Put the given entry in the slot of the tick it expires at, but not in a slot already checked
+	 */
+	private void schedule(SchemaTimePair entry){
+		long expiry = entry.getTimeOfLastUpdate() + heartBeatInterval;
+		long tick = Math.max(expiry / tickDuration + 1, currentTick + 1);
+		entry.scheduledTick = tick;
+		wheel.get((int) (tick % WHEEL_SIZE)).add(entry);
+	}
+
+	/**
+	 * Check the slots of all ticks passed until the given time
+	 */
+	void advance(long now){
+		long target = now / tickDuration;
+		// After a long pause each slot has to be checked only once
+		if (target - currentTick > WHEEL_SIZE)
+			currentTick = target - WHEEL_SIZE;
+
+		while (currentTick < target){
+			currentTick++;
+			checkSlot(currentTick, now);
+		}
+	}
+
+	private void checkSlot(long tick, long now){
+		ConcurrentLinkedQueue<SchemaTimePair> slot = wheel.get((int) (tick % WHEEL_SIZE));
+		List<SchemaTimePair> due = new ArrayList<>();
+		SchemaTimePair entry;
+		while ((entry = slot.poll()) != null){
+			due.add(entry);
+		}
+
+		for (SchemaTimePair pair : due){
+			// Skip entries scheduled for a later tick meanwhile and entries no longer registered. Entries of
+			// earlier ticks are overdue, as their ticks were skipped after a long pause
+			if ((pair.scheduledTick > tick) || (schemas.get(pair.getSchema().getMachine()) != pair))
+				continue;
+
+			if (pair.getTimeOfLastUpdate() + heartBeatInterval < now){
+				// remove from schemas, unless the schema was just replaced
+				if (schemas.remove(pair)) {
+					try {
+						// call callback
+						heartBeatHandler.handleLostMachine(pair.getSchema().getMachine());
+					} catch (RuntimeException e){
+						logger.error("Handler of lost machine failed: " + e);
+					}
+				}
+			} else {
+				schedule(pair);
+			}
+		}
+	}
+}
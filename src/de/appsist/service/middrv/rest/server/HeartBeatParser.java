@@ -6,45 +6,68 @@ import de.appsist.service.middrv.rest.ContentType;
 import org.vertx.java.core.http.HttpServerRequest;
 import org.vertx.java.core.http.HttpServerResponse;
 
-import java.util.Iterator;
-import java.util.Map;
+import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
+/**
+ * Parser for heart beats of clients. Machines which stop sending heart beats are detected by the
+ * HeartBeatMonitor shared by all instances of the server
+ */
 public class HeartBeatParser implements ContentParser {
 
-    private long heartBeatInterval;
-    private ConcurrentHashMap<Machine, SchemaTimePair> schemas;
-    private HeartBeatHandler heartBeatHandler;
+    private SchemaRegistry schemas;
 
-    public HeartBeatParser(long heartBeatInterval, ConcurrentHashMap<Machine, SchemaTimePair> schemas, HeartBeatHandler heartBeatHandler) {
-        this.heartBeatInterval = heartBeatInterval;
+    public HeartBeatParser(SchemaRegistry schemas) {
         this.schemas = schemas;
-        this.heartBeatHandler = heartBeatHandler;
+    }
+
+    /**
+     * Create a parser with its own HeartBeatMonitor for the machines of the given map. Their schemas
+     * are registered in a new SchemaRegistry, whose entries replace the ones of the map, and lost
+     * machines are removed from the map as before. Schemas put into the map afterwards are not
+     * monitored
+     * @deprecated Register the schemas in a SchemaRegistry, start a HeartBeatMonitor for it and use
+     *             HeartBeatParser(SchemaRegistry)
+     */
+    @Deprecated
+    public HeartBeatParser(long heartBeatInterval, ConcurrentHashMap<Machine, SchemaTimePair> schemas, HeartBeatHandler heartBeatHandler) {
+        this(monitor(heartBeatInterval, schemas, heartBeatHandler));
+    }
+
+    /**
+     * @return A registry of the schemas of the given map, which is monitored and kept in sync with the map
+     */
+    private static SchemaRegistry monitor(long heartBeatInterval, final ConcurrentHashMap<Machine, SchemaTimePair> schemas,
+                                          HeartBeatHandler heartBeatHandler) {
+        SchemaRegistry registry = new SchemaRegistry();
+        registry.addListener(new SchemaRegistry.Listener() {
+            @Override
+            public void schemaRegistered(SchemaTimePair entry) {
+                schemas.put(entry.getSchema().getMachine(), entry);
+            }
 
-        // Create background thread which checks if a machine did not report back within heartBeatinterval
-        Runnable runnable = new Runnable() {
             @Override
-            public void run() {
-                checkTimedOutMachines();
+            public void schemaRemoved(SchemaTimePair entry) {
+                schemas.remove(entry.getSchema().getMachine(), entry);
             }
-        };
-        ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
-        executorService.scheduleAtFixedRate(runnable, 0, heartBeatInterval, TimeUnit.MILLISECONDS);
+        });
 
+        for (SchemaTimePair entry : new ArrayList<>(schemas.values())) {
+            registry.register(entry.getSchema()).updateTimeOfLastUpdate(entry.getTimeOfLastUpdate());
+        }
+
+        new HeartBeatMonitor(heartBeatInterval, registry, heartBeatHandler).start();
+        return registry;
     }
 
     @Override
-    public void parseContent(byte[] content, ContentType contentType, HttpServerResponse response, ContentType responseContentType, HttpServerRequest request) throws Exception {
+    public void parseContent(byte[] content, ContentType contentType, HttpServerResponse response, ContentType responseContentType, HttpServerRequest request, long maxBodySize) throws Exception {
         // reset timer of machine
         String machineId = request.params().get(Constants.GET_PARAM_MACHINE_ID);
 
-        for (Map.Entry<Machine, SchemaTimePair> entry : schemas.entrySet()) {
-            if (entry.getKey().getMachineID().equals(machineId)) {
-                entry.getValue().updateTimeOfLastUpdate();
-            }
+        long now = CoarseClock.now();
+        for (SchemaTimePair entry : schemas.getByMachineID(machineId)) {
+            entry.updateTimeOfLastUpdate(now);
         }
 
         // return OK
@@ -61,16 +84,4 @@ public class HeartBeatParser implements ContentParser {
     public boolean allowResponseContentTypeEmpty() {
         return false;
     }
-
-    private void checkTimedOutMachines() {
-        for (Iterator<Map.Entry<Machine, SchemaTimePair> > it = schemas.entrySet().iterator(); it.hasNext(); ) {
-            Map.Entry<Machine, SchemaTimePair> entry = it.next();
-            if (entry.getValue().getTimeOfLastUpdate() + heartBeatInterval < System.currentTimeMillis() ) {
-                // call callback
-                heartBeatHandler.handleLostMachine(entry.getKey());
-                // remove from schemas
-                it.remove();
-            }
-        }
-    }
 }
@@ -0,0 +1,37 @@
+/**
+ * An interface for request content parsers able to parse the request body chunk by chunk, while it
+ * is received. Only the part of the body not parsed yet has to be kept in memory.
+ */
+
+package de.appsist.service.middrv.rest.server;
+
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.HttpServerResponse;
+
+import de.appsist.service.middrv.rest.ContentType;
+
+interface IncrementalContentParser extends ContentParser {
+	/**
+	 * Consumer of the body of a single request
+	 */
+	interface BodyConsumer {
+		/**
+		 * Called for every chunk of the body, in the order of their arrival
+		 */
+		void handleChunk(Buffer chunk) throws Exception;
+
+		/**
+		 * Called after the last chunk was received
+		 */
+		void handleEnd() throws Exception;
+	}
+
+	/**
+	 * Create the consumer of the body of a request. Parameters are the same as for parseContent()
+	 */
+	BodyConsumer createBodyConsumer(ContentType contentType, HttpServerResponse response,
+	                                ContentType responseContentType, HttpServerRequest request,
+	                                long maxBodySize)
+	     throws Exception;
+}
@@ -0,0 +1,306 @@
+/**
+ * Limits the rate of machine data samples each machine may send. Every machine has a token bucket,
+ * whose rate and burst size are configured per site or station of its schema. Samples of a machine
+ * over its budget are either rejected together with their message or dropped from the message
+ * (downsampling). A sample passes as soon as the budget allows it, so of a machine sending too fast
+ * the handler gets the first sample of every interval and the later samples of the interval are
+ * dropped. A rejected message does not use up the budget of any of its machines.
+ *
+ * The bucket is implemented as generic cell rate algorithm on a single atomic value, so checking a
+ * sample takes neither a lock nor allocates anything once the bucket of the machine exists. Buckets
+ * follow the schemas of the registry the limiter listens to (see RestServer.setRateLimiter()): They
+ * are dropped with the schema of their machine and moved to the limit of the new site or station, if
+ * the schema is registered again for another one.
+ */
+
+package de.appsist.service.middrv.rest.server;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.appsist.service.middrv.entity.Machine;
+import de.appsist.service.middrv.entity.MachineData;
+import de.appsist.service.middrv.entity.MachineSchema;
+import de.appsist.service.middrv.rest.DataMessage;
+import de.appsist.service.middrv.rest.RateLimitExceededException;
+
+public class RateLimiter implements SchemaRegistry.Listener {
+	/**
+	 * What to do with samples over the budget of their machine
+	 */
+	public enum Mode {
+		/**
+		 * Reject the whole message
+		 */
+		REJECT,
+		/**
+		 * Drop the sample from the message and pass on the remaining samples
+		 */
+		DOWNSAMPLE
+	}
+
+	/**
+	 * Rate limit of a bucket
+	 */
+	private static final class Limit {
+		// Nanoseconds per sample
+		final long interval;
+		// Nanoseconds the bucket may be ahead of the current time
+		final long tolerance;
+
+		Limit(double samplesPerSecond, int burst){
+			interval = (long) (1000000000 / samplesPerSecond);
+			tolerance = interval * burst;
+		}
+	}
+
+	/**
+	 * Token bucket of a machine
+	 */
+	private static final class Bucket {
+		final String siteID;
+		final String stationID;
+		volatile Limit limit;
+		// Theoretical arrival time of the next sample
+		final AtomicLong arrival;
+		final AtomicLong dropped = new AtomicLong();
+
+		Bucket(String siteID, String stationID, Limit limit, long now){
+			this.siteID = siteID;
+			this.stationID = stationID;
+			this.limit = limit;
+			arrival = new AtomicLong(now);
+		}
+
+		/**
+		 * @return <code>true</code>, if the bucket belongs to the given site and station
+		 */
+		boolean belongsTo(String siteID, String stationID){
+			return equals(this.siteID, siteID) && equals(this.stationID, stationID);
+		}
+
+		private static boolean equals(String a, String b){
+			return (a == null) ? (b == null) : a.equals(b);
+		}
+
+		/**
+		 * @return 0, if the sample is within the budget, otherwise nanoseconds until it would be
+		 */
+		long acquire(long now){
+			Limit limit = this.limit;
+			if (limit == null)
+				return 0;
+
+			while (true){
+				long current = arrival.get();
+				long next = Math.max(current, now) + limit.interval;
+				long wait = next - now - limit.tolerance;
+				if (wait > 0)
+					return wait;
+				if (arrival.compareAndSet(current, next))
+					return 0;
+			}
+		}
+
+		/**
+		 * Give back a sample acquired before, e.g. as its message was rejected
+		 */
+		void release(){
+			Limit limit = this.limit;
+			if (limit != null)
+				arrival.addAndGet(-limit.interval);
+		}
+	}
+
+	private final Mode mode;
+	private final ConcurrentHashMap<Machine, Bucket> buckets = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Limit> limits = new ConcurrentHashMap<>();
+	private volatile Limit defaultLimit = null;
+
+	/**
+	 * Create a rate limiter without limits. Set limits with setDefaultLimit() and setLimit()
+	 */
+	public RateLimiter(Mode mode){
+		this.mode = mode;
+	}
+
+	public Mode getMode(){
+		return mode;
+	}
+
+	/**
+	 * Set the limit of machines without a limit for their site or station
+	 * @param samplesPerSecond Number of samples per second a machine may send on average
+	 * @param burst Number of samples a machine may send at once after it was idle
+	 */
+	public void setDefaultLimit(double samplesPerSecond, int burst){
+		defaultLimit = createLimit(samplesPerSecond, burst);
+		updateBuckets();
+	}
+
+	/**
+	 * Set the limit of the machines of the given site or station. A limit for a station takes precedence
+	 * over the limit of its site
+	 * @param siteID Site ID of the schemas of the machines
+	 * @param stationID Station ID of the schemas of the machines or <code>null</code> for all stations
+	 *                  of the site
+	 * @param samplesPerSecond Number of samples per second a machine may send on average
+	 * @param burst Number of samples a machine may send at once after it was idle
+	 */
+	public void setLimit(String siteID, String stationID, double samplesPerSecond, int burst){
+		if (siteID == null)
+			throw new IllegalArgumentException("Site ID must not be null");
+
+		limits.put(getKey(siteID, stationID), createLimit(samplesPerSecond, burst));
+		updateBuckets();
+	}
+
+	private static Limit createLimit(double samplesPerSecond, int burst){
+		if (!(samplesPerSecond > 0))
+			throw new IllegalArgumentException("Rate must be positive");
+		if (burst < 1)
+			throw new IllegalArgumentException("Burst must be at least 1");
+
+		return new Limit(samplesPerSecond, burst);
+	}
+
+	private static String getKey(String siteID, String stationID){
+		return (stationID == null) ? siteID : siteID + '\u0000' + stationID;
+	}
+
+	private Limit getLimit(String siteID, String stationID){
+		if (siteID == null)
+			return defaultLimit;
+
+		Limit limit = limits.get(getKey(siteID, stationID));
+		if (limit == null)
+			limit = limits.get(siteID);
+		return (limit == null) ? defaultLimit : limit;
+	}
+
+	private void updateBuckets(){
+		for (Bucket bucket : buckets.values()){
+			bucket.limit = getLimit(bucket.siteID, bucket.stationID);
+		}
+	}
+
+	private Bucket getBucket(Machine machine, MachineSchema schema, long now){
+		Bucket bucket = buckets.get(machine);
+		if (bucket != null)
+			return bucket;
+
+		Bucket created = new Bucket(schema.getSiteID(), schema.getStationID(),
+		                            getLimit(schema.getSiteID(), schema.getStationID()), now);
+		bucket = buckets.putIfAbsent(machine, created);
+		return (bucket == null) ? created : bucket;
+	}
+
+	@Override
+	public void schemaRegistered(SchemaTimePair entry){
+		MachineSchema schema = entry.getSchema();
+		Machine machine = schema.getMachine();
+		Bucket bucket = buckets.get(machine);
+		if ((bucket == null) || bucket.belongsTo(schema.getSiteID(), schema.getStationID()))
+			return;
+
+		// The machine moved to another site or station, start over with its limit
+		Bucket moved = new Bucket(schema.getSiteID(), schema.getStationID(),
+		                          getLimit(schema.getSiteID(), schema.getStationID()), System.nanoTime());
+		moved.dropped.set(bucket.dropped.get());
+		buckets.replace(machine, bucket, moved);
+	}
+
+	@Override
+	public void schemaRemoved(SchemaTimePair entry){
+		buckets.remove(entry.getSchema().getMachine());
+	}
+
+	/**
+	 * Check the samples of the given message against the limits of their machines. In downsampling
+	 * mode samples over the budget are removed from the message
+	 * @throws RateLimitExceededException A sample is over the budget of its machine in reject mode
+	 */
+	void apply(DataMessage msg) throws RateLimitExceededException {
+		apply(msg, System.nanoTime());
+	}
+
+	/**
+	 * Check the samples of the given message as if they arrived at the given time
+	 * @param now Time of arrival in nanoseconds, on the scale of System.nanoTime()
+	 */
+	void apply(DataMessage msg, long now) throws RateLimitExceededException {
+		Iterator<MachineData> data = msg.getData().iterator();
+		Iterator<MachineSchema> schemas = msg.getSchemas().iterator();
+		int acquired = 0;
+
+		while (data.hasNext()){
+			Machine machine = data.next().getMachine();
+			MachineSchema schema = schemas.next();
+			Bucket bucket = getBucket(machine, schema, now);
+
+			long wait = bucket.acquire(now);
+			if (wait == 0){
+				acquired++;
+				continue;
+			}
+
+			bucket.dropped.incrementAndGet();
+			if (mode == Mode.REJECT){
+				releaseFirst(msg, acquired, now);
+				throw new RateLimitExceededException("Machine " + machine.getMachineID() + " exceeds its rate limit",
+				                                     (wait + 999999) / 1000000);
+			}
+
+			data.remove();
+			schemas.remove();
+			// The received representation still contains the dropped sample
+			msg.setRawContent(null, null, 0, 0);
+		}
+	}
+
+	/**
+	 * Give back the samples acquired for the first samples of a rejected message
+	 */
+	private void releaseFirst(DataMessage msg, int count, long now){
+		Iterator<MachineData> data = msg.getData().iterator();
+		Iterator<MachineSchema> schemas = msg.getSchemas().iterator();
+		for (int i = 0; i < count; i++){
+			getBucket(data.next().getMachine(), schemas.next(), now).release();
+		}
+	}
+
+	/**
+	 * @return Number of samples of the given machine, which were rejected or dropped
+	 */
+	public long getDroppedCount(Machine machine){
+		Bucket bucket = buckets.get(machine);
+		return (bucket == null) ? 0 : bucket.dropped.get();
+	}
+
+	/**
+	 * @return Number of rejected or dropped samples of all machines, which sent any
+	 */
+	public Map<Machine, Long> getDroppedCounts(){
+		Map<Machine, Long> counts = new HashMap<>();
+		for (Map.Entry<Machine, Bucket> entry : buckets.entrySet()){
+			counts.put(entry.getKey(), entry.getValue().dropped.get());
+		}
+
+		return counts;
+	}
+
+	/**
+	 * @return Number of rejected or dropped samples of all machines
+	 */
+	public long getTotalDroppedCount(){
+		long dropped = 0;
+		for (Bucket bucket : buckets.values()){
+			dropped += bucket.dropped.get();
+		}
+
+		return dropped;
+	}
+}
@@ -0,0 +1,215 @@
+/**
+ * Maps the method and path of a request to the ContentParser handling it.
+ *
+ * Routes are collected in a mutable tree and compiled into an immutable trie of path segments after
+ * every change. Each node of the compiled trie holds its child segments and a table of parsers
+ * indexed by the HTTP method, so looking up a route neither concatenates nor copies strings. Several
+ * base paths are simply several branches of the same trie.
+ */
+
+package de.appsist.service.middrv.rest.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+class RequestRouter {
+	/**
+	 * The HTTP methods routes can be registered for
+	 */
+	enum Method {
+		GET, HEAD, POST, PUT, DELETE, OPTIONS, PATCH, TRACE, CONNECT;
+
+		/**
+		 * @return The method with the given name or <code>null</code>, if the name is unknown
+		 */
+		static Method byName(String name){
+			// Method names of requests are constants, so their hash codes are cached
+			switch(name){
+			case "GET":
+				return GET;
+			case "HEAD":
+				return HEAD;
+			case "POST":
+				return POST;
+			case "PUT":
+				return PUT;
+			case "DELETE":
+				return DELETE;
+			case "OPTIONS":
+				return OPTIONS;
+			case "PATCH":
+				return PATCH;
+			case "TRACE":
+				return TRACE;
+			case "CONNECT":
+				return CONNECT;
+			default:
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * A registered route
+	 */
+	static final class Route {
+		final ContentParser parser;
+		// Requests are subject to the admission control of the server
+		final boolean admissionControlled;
+
+		Route(ContentParser parser, boolean admissionControlled){
+			this.parser = parser;
+			this.admissionControlled = admissionControlled;
+		}
+	}
+
+	/**
+	 * Node of the compiled trie, one per path segment
+	 */
+	private static final class Node {
+		final String[] segments;
+		final Node[] children;
+		final Route[] routes;
+
+		Node(String[] segments, Node[] children, Route[] routes){
+			this.segments = segments;
+			this.children = children;
+			this.routes = routes;
+		}
+
+		Node getChild(String path, int start, int end){
+			int length = end - start;
+			for (int i = 0; i < segments.length; i++){
+				String segment = segments[i];
+				if ((segment.length() == length) && path.regionMatches(start, segment, 0, length))
+					return children[i];
+			}
+
+			return null;
+		}
+	}
+
+	/**
+	 * Node of the tree routes are collected in
+	 */
+	private static final class RouteNode {
+		final TreeMap<String, RouteNode> children = new TreeMap<>();
+		final Route[] routes = new Route[Method.values().length];
+
+		Node compile(){
+			String[] segments = new String[children.size()];
+			Node[] compiled = new Node[children.size()];
+			int i = 0;
+			for (Map.Entry<String, RouteNode> child : children.entrySet()){
+				segments[i] = child.getKey();
+				compiled[i] = child.getValue().compile();
+				i++;
+			}
+
+			return new Node(segments, compiled, routes.clone());
+		}
+	}
+
+	private static final String NOT_FOUND_MESSAGE = "No handler for the requested path with the requested method.";
+
+	private final RouteNode routes = new RouteNode();
+	private final StringBuilder routeList = new StringBuilder();
+	private volatile Node root = routes.compile();
+	private volatile ByteBuf notFoundBody = createNotFoundBody("");
+
+	/**
+	 * Register a parser for the given method and path. A parser already registered for them is replaced
+	 * @param method Name of the HTTP method, e.g. "POST"
+	 * @param path Absolute path including the base path, e.g. "/services/machine/data"
+	 * @param admissionControlled Requests are subject to the admission control of the server
+	 */
+	synchronized void add(String method, String path, ContentParser parser, boolean admissionControlled){
+		Method m = Method.byName(method.toUpperCase());
+		if (m == null)
+			throw new IllegalArgumentException("Unknown HTTP method \"" + method + "\"");
+		if (!path.startsWith("/"))
+			throw new IllegalArgumentException("Path \"" + path + "\" does not start with \"/\"");
+
+		RouteNode node = routes;
+		int start = 1;
+		while (true){
+			int end = path.indexOf('/', start);
+			if (end < 0)
+				end = path.length();
+
+			String segment = path.substring(start, end);
+			RouteNode child = node.children.get(segment);
+			if (child == null){
+				child = new RouteNode();
+				node.children.put(segment, child);
+			}
+			node = child;
+
+			if (end == path.length())
+				break;
+			start = end + 1;
+		}
+
+		if (node.routes[m.ordinal()] == null)
+			routeList.append(m).append(' ').append(path).append('\n');
+		node.routes[m.ordinal()] = new Route(parser, admissionControlled);
+
+		root = routes.compile();
+		notFoundBody = createNotFoundBody(routeList.toString());
+	}
+
+	/**
+	 * Look up the route of a request without allocating anything
+	 * @param method Name of the HTTP method of the request
+	 * @param path Path of the request
+	 * @return The registered route or <code>null</code>, if there is none for the method and path
+	 */
+	Route route(String method, String path){
+		Method m = Method.byName(method);
+		if ((m == null) || path.isEmpty() || (path.charAt(0) != '/'))
+			return null;
+
+		Node node = root;
+		int length = path.length();
+		int start = 1;
+		while (true){
+			int end = path.indexOf('/', start);
+			if (end < 0)
+				end = length;
+
+			node = node.getChild(path, start, end);
+			if (node == null)
+				return null;
+
+			if (end == length)
+				return node.routes[m.ordinal()];
+			start = end + 1;
+		}
+	}
+
+	/**
+	 * @return The message of the response to requests without a registered parser. It is a single
+	 *         line, so it can be used as header value as well
+	 */
+	String getNotFoundMessage(){
+		return NOT_FOUND_MESSAGE;
+	}
+
+	/**
+	 * @return The body of the response to requests without a registered parser listing all routes. The
+	 *         returned buffer shares its content with all other calls, but has its own indexes
+	 */
+	ByteBuf getNotFoundBody(){
+		return notFoundBody.duplicate();
+	}
+
+	private static ByteBuf createNotFoundBody(String routes){
+		byte[] body = (NOT_FOUND_MESSAGE + "\n\nAvailable handlers:\n" + routes).getBytes(StandardCharsets.UTF_8);
+		// Writing the response releases the buffer, so it is made unreleasable to be reused
+		return Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(body));
+	}
+}
@@ -9,36 +9,78 @@
 
 package de.appsist.service.middrv.rest.server;
 
-import de.appsist.service.middrv.entity.Machine;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 import de.appsist.service.middrv.rest.Constants;
 import de.appsist.service.middrv.rest.ContentType;
 import de.appsist.service.middrv.rest.ServerInformation;
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
+import org.vertx.java.core.impl.VertxInternal;
 import org.vertx.java.core.http.HttpServer;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
 
-import java.util.concurrent.ConcurrentHashMap;
-
 public class RestServer {
 	private static final String name = "Adwisar REST Server based on vert.x";
 	private static final String version = "0.2";
 	
 	private Vertx vertx;
 	private Logger logger = LoggerFactory.getLogger(RestServer.class);
+	private DataMessageHandler dataMessageHandler;
+	private SchemaHandler schemaHandler;
+	private SchemaRegistry schemas;
+	private SchemaStore schemaStore;
+	private ServerInformation info;
+	private String[] basePaths;
 	private WebRequestHandler requestHandler;
+	// Request handlers of all server instances
+	private List<WebRequestHandler> requestHandlers = new ArrayList<>();
+	private long maxBodySize = WebRequestHandler.DEFAULT_MAX_BODY_SIZE;
+	private WorkerPool workers;
+	private AdmissionControl admissionControl;
+	private RateLimiter rateLimiter;
+	private boolean compressionSupported = false;
+	private boolean lazyDecoding = false;
 
 	/**
 	 * Create a new RestServer instance
-	 * @param dataMessageHandler Handler to call when new a data message comes in
+	 * @param dataMessageHandler Handler to call when new a data message comes in. If it implements
+	 *                           DataMessageBatchHandler, batches of data messages are accepted as well
 	 * @param schemaHandler Handler to call when a schema message comes in
 	 */
 	public RestServer(Vertx vertx, DataMessageHandler dataMessageHandler, SchemaHandler schemaHandler, HeartBeatHandler heartBeatHandler, String basePath, long heartBeatInterval)
 	{
 		this(vertx, dataMessageHandler, schemaHandler, heartBeatHandler,
-				new ConcurrentHashMap<Machine, SchemaTimePair>(), basePath, heartBeatInterval);
+				new SchemaRegistry(), new String[]{basePath}, heartBeatInterval, null);
+	}
+
+	/**
+	 * Create a new RestServer instance serving the REST interface below several base paths, e.g. to
+	 * keep an old base path working after moving the service
+	 * @param basePaths Base paths the resources are available at. All of them share the same schemas
+	 */
+	public RestServer(Vertx vertx, DataMessageHandler dataMessageHandler, SchemaHandler schemaHandler, HeartBeatHandler heartBeatHandler, String[] basePaths, long heartBeatInterval)
+	{
+		this(vertx, dataMessageHandler, schemaHandler, heartBeatHandler,
+				new SchemaRegistry(), basePaths, heartBeatInterval, null);
+	}
+
+	/**
+	 * Create a new RestServer instance keeping the registered schemas in the given directory. The
+	 * schemas registered before the server was restarted are loaded, so clients do not have to send
+	 * them again. Call getSchemaStore().close() on shutdown to write the latest changes
+	 * @param schemaDirectory Directory to keep the schemas in (see SchemaStore)
+	 * @throws IllegalArgumentException The schemas can not be loaded from the directory
+	 */
+	public RestServer(Vertx vertx, DataMessageHandler dataMessageHandler, SchemaHandler schemaHandler, HeartBeatHandler heartBeatHandler, String[] basePaths, long heartBeatInterval, File schemaDirectory)
+	{
+		this(vertx, dataMessageHandler, schemaHandler, heartBeatHandler,
+				new SchemaRegistry(), basePaths, heartBeatInterval, new SchemaStore(schemaDirectory));
 	}
 	
 	
@@ -46,34 +88,215 @@ public class RestServer {
 	 * Construct a APPsist REST service
 	 * @param dataMessageHandler Handler to call when a data message was received
 	 * @param schemaHandler Handler to call when a SchemaMessage was received
-	 * @param schemas Map to look up schemas of machines from. This map will be passed to the schema
-	 *                handler, when a new schema message is received, so the handler can extend it
-	 *                with new entries
+	 * @param schemas Registry to look up schemas of machines from. Schemas of received schema
+	 *                messages are registered in it
+	 * @param schemaStore Store to load the schemas from and keep them in or <code>null</code>
 	 */
 	private RestServer(Vertx vertx, DataMessageHandler dataMessageHandler,
 					  SchemaHandler schemaHandler, HeartBeatHandler heartBeatHandler,
-					  ConcurrentHashMap<Machine, SchemaTimePair> schemas, String basePath, long heartBeatInterval)
+					  SchemaRegistry schemas, String[] basePaths, long heartBeatInterval,
+					  SchemaStore schemaStore)
 	{
 		this.vertx = vertx;
+		this.dataMessageHandler = dataMessageHandler;
+		this.schemaHandler = schemaHandler;
+		this.schemas = schemas;
+		this.basePaths = basePaths.clone();
 
-		ServerInformation info = new ServerInformation(name + " " + version, heartBeatInterval);
+		info = new ServerInformation(name + " " + version, heartBeatInterval);
 		info.addContentType(ContentType.JSON);
 		info.addContentType(ContentType.XML);
+		info.addContentType(ContentType.EXI);
+		info.addContentType(ContentType.BINARY);
+
+		if (schemaStore != null){
+			long start = System.nanoTime();
+			try {
+				int loaded = schemaStore.open(schemas);
+				logger.info("Loaded " + loaded + " schemas from " + schemaStore.getDirectory() + " in "
+				            + (System.nanoTime() - start) / 1000000 + " ms");
+			} catch (IOException e){
+				throw new IllegalArgumentException("Can not load schemas from " + schemaStore.getDirectory() + ": " + e.getMessage(), e);
+			}
+			this.schemaStore = schemaStore;
+		}
+
+		// Machines are checked for timeouts once, no matter how many instances are listening
+		new HeartBeatMonitor(heartBeatInterval, schemas, heartBeatHandler).start();
+
+		for (String basePath : basePaths){
+			logger.info("Registered REST handler with basepath = " + basePath);
+		}
+	}
+
+	/**
+	 * @return The store keeping the registered schemas or <code>null</code>, if they are only kept in
+	 *         memory
+	 */
+	public SchemaStore getSchemaStore(){
+		return schemaStore;
+	}
+
+	/**
+	 * Create a request handler with its own parsers. Only the schema registry and the handlers passed
+	 * to the constructor are shared between request handlers
+	 */
+	private WebRequestHandler createRequestHandler(){
+		// Parsers are shared by all base paths
+		ContentParser dataParser = new DataMessageParser(schemas, dataMessageHandler, workers, rateLimiter,
+		                                                 lazyDecoding);
+		ContentParser batchParser = null;
+		if (dataMessageHandler instanceof DataMessageBatchHandler)
+			batchParser = new DataMessageBatchParser(schemas, (DataMessageBatchHandler) dataMessageHandler,
+			                                         workers, rateLimiter, lazyDecoding);
+		ContentParser schemaParser = new SchemaParser(schemas, schemaHandler);
+		ContentParser fingerprintParser = new SchemaFingerprintParser(schemas);
+		ContentParser infoParser = new ServerInfoParser(info);
+		ContentParser heartBeatParser = new HeartBeatParser(schemas);
 
 		// ReqestHandler
-		requestHandler = new WebRequestHandler();
-		// Handler for data messages
-		requestHandler.putParser("POST", basePath + Constants.RES_MSG_DATA, 
-		                         new DataMessageParser(schemas, dataMessageHandler));
-		// Handler for schemas
-		requestHandler.putParser("POST", basePath + Constants.RES_MSG_SCHEMA, 
-		                         new SchemaParser(schemas, schemaHandler));
-		// Handler for ServerInformation
-		requestHandler.putParser("GET", basePath + Constants.RES_SERVER_INFO, new ServerInfoParser(info));
-		// Handler for heart beat signal of clients
-		requestHandler.putParser("GET", basePath + Constants.RES_CLIENT_HEART_BEAT, new HeartBeatParser(heartBeatInterval, schemas, heartBeatHandler));
-		
-		logger.info("Registered REST handler with basepath = " + basePath);
+		WebRequestHandler handler = new WebRequestHandler();
+		handler.setMaxBodySize(maxBodySize);
+		handler.setAdmissionControl(admissionControl);
+		for (String basePath : basePaths){
+			// Handler for data messages
+			handler.putParser("POST", basePath + Constants.RES_MSG_DATA, dataParser, true);
+			// Handler for batches of data messages
+			if (batchParser != null)
+				handler.putParser("POST", basePath + Constants.RES_MSG_DATA_BATCH, batchParser, true);
+			// Handler for schemas
+			handler.putParser("POST", basePath + Constants.RES_MSG_SCHEMA, schemaParser);
+			// Handler for checking which schemas are registered
+			handler.putParser("POST", basePath + Constants.RES_SCHEMA_FINGERPRINTS, fingerprintParser);
+			// Handler for ServerInformation
+			handler.putParser("GET", basePath + Constants.RES_SERVER_INFO, infoParser);
+			// Handler for heart beat signal of clients
+			handler.putParser("GET", basePath + Constants.RES_CLIENT_HEART_BEAT, heartBeatParser);
+		}
+
+		requestHandlers.add(handler);
+		return handler;
+	}
+	
+	/**
+	 * Set the maximum size of request bodies. Larger requests are rejected with HTTP status 413,
+	 * if possible before their body is received
+	 * @param maxBodySize Maximum size in bytes (default: WebRequestHandler.DEFAULT_MAX_BODY_SIZE)
+	 */
+	public void setMaxBodySize(long maxBodySize){
+		for (WebRequestHandler handler : requestHandlers){
+			handler.setMaxBodySize(maxBodySize);
+		}
+		this.maxBodySize = maxBodySize;
+	}
+	
+	/**
+	 * Enable compression of responses for clients accepting it (HTTP-Header: Accept-Encoding).
+	 * Compressed requests are always accepted. Has to be called before listenHttp()
+	 */
+	public void setCompressionSupported(boolean compressionSupported){
+		this.compressionSupported = compressionSupported;
+	}
+	
+	/**
+	 * Call the handlers of data messages on a pool of worker threads instead of the event loop, so
+	 * they may block. The messages of a machine are always handled by the same thread in the order
+	 * they were received. If the queue of a thread is full, messages are rejected with HTTP status 503.
+	 * The handlers have to be thread safe. Has to be called before listenHttp()
+	 * @param threads Number of worker threads
+	 * @param queueCapacity Maximum number of messages waiting for each thread
+	 */
+	public void setWorkerPool(int threads, int queueCapacity){
+		if (!requestHandlers.isEmpty())
+			throw new IllegalStateException("Worker pool has to be set before listening");
+		if (workers != null)
+			workers.shutdown();
+
+		workers = new WorkerPool(vertx, threads, queueCapacity);
+		if (admissionControl != null)
+			admissionControl.setWorkerPool(workers);
+	}
+
+	/**
+	 * @return The pool the handlers of data messages are called from, e.g. to monitor its queues, or
+	 *         <code>null</code>, if they are called on the event loop
+	 */
+	public WorkerPool getWorkerPool(){
+		return workers;
+	}
+	
+	/**
+	 * Reject data messages with HTTP status 429 and a Retry-After header, while the server is
+	 * overloaded. Requests are rejected before their body is read. Schemas, heart beats and requests
+	 * for the server information are always admitted. Has to be called before listenHttp()
+	 * @param maxInFlight Maximum number of requests whose body is received or parsed, 0 for no limit
+	 * @param maxQueueDepth Maximum number of messages waiting for the worker pool (see
+	 *                      setWorkerPool()), 0 for no limit
+	 * @param maxEventLoopLag Maximum lag of the event loop in milliseconds, 0 for no limit
+	 * @param retryAfter Seconds clients are asked to wait before retrying
+	 */
+	public void setAdmissionControl(int maxInFlight, int maxQueueDepth, long maxEventLoopLag, int retryAfter){
+		if (!requestHandlers.isEmpty())
+			throw new IllegalStateException("Admission control has to be set before listening");
+
+		admissionControl = new AdmissionControl(maxInFlight, maxQueueDepth, maxEventLoopLag, retryAfter);
+		admissionControl.setWorkerPool(workers);
+	}
+
+	/**
+	 * @return The admission control, e.g. to monitor the requests in flight, or <code>null</code>, if
+	 *         all requests are admitted
+	 */
+	public AdmissionControl getAdmissionControl(){
+		return admissionControl;
+	}
+	
+	/**
+	 * Limit the rate of samples per machine. The limits of the given RateLimiter may be changed while
+	 * the server is running. The limiter listens to the schema registry of this server, so the buckets
+	 * of its machines follow their schemas. Has to be called before listenHttp()
+	 * @param rateLimiter Limiter of the samples per machine or <code>null</code> for no limits
+	 */
+	public void setRateLimiter(RateLimiter rateLimiter){
+		if (!requestHandlers.isEmpty())
+			throw new IllegalStateException("Rate limiter has to be set before listening");
+
+		if (this.rateLimiter != null)
+			schemas.removeListener(this.rateLimiter);
+		this.rateLimiter = rateLimiter;
+		if (rateLimiter != null)
+			schemas.addListener(rateLimiter);
+	}
+
+	/**
+	 * @return The limiter of the samples per machine, e.g. to look up the number of dropped samples,
+	 *         or <code>null</code>, if the rate is not limited
+	 */
+	public RateLimiter getRateLimiter(){
+		return rateLimiter;
+	}
+	
+	/**
+	 * Decode the values of JSON data messages only when the handler accesses them, and keep the raw
+	 * content of all data messages for forwarding them (see DataMessage.getRawContent()). Handlers
+	 * routing messages by their machines or status then skip decoding and validating the values.
+	 * Values not matching their schema are not rejected then. Handlers have to either call
+	 * DataMessage.validate() and respond with STATUS_ERR_DATA_DOES_NOT_MATCH_SCHEMA if it fails, or
+	 * handle the IllegalStateException thrown on first access of the values.
+	 * Has to be called before listenHttp()
+	 */
+	public void setLazyDecoding(boolean lazyDecoding){
+		if (!requestHandlers.isEmpty())
+			throw new IllegalStateException("Lazy decoding has to be set before listening");
+
+		this.lazyDecoding = lazyDecoding;
+	}
+
+	/**
+	 * @return <code>true</code>, if values of JSON data messages are decoded on first access
+	 */
+	public boolean isLazyDecoding(){
+		return lazyDecoding;
 	}
 	
 	/**
@@ -88,16 +311,59 @@ public class RestServer {
 	 * @param port Port to start to listen at
 	 */
 	public void listenHttp(final int port){
+		if (requestHandler == null)
+			requestHandler = createRequestHandler();
+		listen(requestHandler, port);
+	}
+
+	/**
+	 * Start to listen at the specified port with several server instances, each running on its own
+	 * event loop. Requests are distributed among the instances by vert.x. Each instance has its own
+	 * parsers, but the handlers passed to the constructor are called from all event loops, so they
+	 * have to be thread safe
+	 * @param port Port to start to listen at
+	 * @param instances Number of server instances or 0 for one instance per CPU core
+	 */
+	public void listenHttp(final int port, int instances){
+		if (instances < 0)
+			throw new IllegalArgumentException("Number of instances must not be negative");
+		if (instances == 0)
+			instances = Runtime.getRuntime().availableProcessors();
+
+		for (int i = 0; i < instances; i++){
+			final WebRequestHandler handler = createRequestHandler();
+			Runnable listen = new Runnable(){
+					public void run(){
+						listen(handler, port);
+					}
+				};
+
+			// A server is bound to the event loop of the context it was created on, so every instance
+			// is started on a new context, like vert.x does when deploying several verticle instances
+			if (vertx instanceof VertxInternal)
+				((VertxInternal) vertx).startOnEventLoop(listen);
+			else
+				listen.run();
+		}
+
+		logger.info("Starting " + instances + " instances of the HTTP-Transport");
+	}
+
+	private void listen(final WebRequestHandler handler, final int port){
 		HttpServer server;
 		server = vertx.createHttpServer();
-		server.requestHandler(requestHandler).listen(port, new Handler<AsyncResult<HttpServer>>(){
+		server.setCompressionSupported(compressionSupported);
+		server.requestHandler(handler).listen(port, new Handler<AsyncResult<HttpServer>>(){
 				public void handle(AsyncResult<HttpServer> result){
-					if (result.succeeded())
+					if (result.succeeded()){
 						logger.info("Adwisar REST Server: HTTP-Transport started on \"" + "localhost"
 						                   + "\" port " + port);
-					else
+						// Called on the event loop of the server, so the lag of this event loop is measured
+						if (admissionControl != null)
+							handler.startLagProbe(vertx);
+					} else
 						logger.error("Failed to start HTTP-Transport: " + result.cause());
 				}
 			});
 	}
-}
\ No newline at end of file
+}
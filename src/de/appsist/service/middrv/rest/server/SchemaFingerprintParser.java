@@ -0,0 +1,65 @@
+/**
+ * Parser for schema fingerprints sent by clients to check which of their schemas are registered. The
+ * response lists the fingerprints of the schemas the server does not know, so a client only sends
+ * these schemas instead of all of them, e.g. after the server was restarted.
+ */
+
+package de.appsist.service.middrv.rest.server;
+
+import java.nio.charset.StandardCharsets;
+
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.HttpServerResponse;
+
+import de.appsist.service.middrv.entity.Serializer;
+import de.appsist.service.middrv.rest.ContentType;
+import de.appsist.service.middrv.rest.SchemaFingerprints;
+
+class SchemaFingerprintParser implements ContentParser {
+	private SchemaRegistry schemas;
+
+	public SchemaFingerprintParser(SchemaRegistry schemas){
+		this.schemas = schemas;
+	}
+
+	@Override
+	public void parseContent(byte[] content, ContentType contentType, HttpServerResponse response,
+	                         ContentType responseContentType, HttpServerRequest request, long maxBodySize)
+	     throws Exception
+	{
+		SchemaFingerprints fingerprints;
+
+		switch(contentType){
+		case JSON:
+			fingerprints = SchemaFingerprints.createFromJson(new String(content, StandardCharsets.UTF_8));
+			break;
+		case XML:
+			fingerprints = SchemaFingerprints.createFromXml(new String(content, StandardCharsets.UTF_8));
+			break;
+		case EXI:
+			fingerprints = SchemaFingerprints.createFromExi(content, maxBodySize);
+			break;
+		default:
+			throw new IllegalArgumentException("Parser for this content type is not implemented");
+		}
+
+		SchemaFingerprints missing = new SchemaFingerprints();
+		for (String fingerprint : fingerprints.getFingerprints()){
+			if (schemas.getByFingerprint(fingerprint) == null)
+				missing.add(fingerprint);
+		}
+
+		response.setStatusCode(200);
+		response.end(Serializer.serializeToBuffer(missing, responseContentType));
+	}
+
+	@Override
+	public boolean allowEmptyContent() {
+		return false;
+	}
+
+	@Override
+	public boolean allowResponseContentTypeEmpty() {
+		return false;
+	}
+}
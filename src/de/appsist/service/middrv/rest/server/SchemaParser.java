@@ -1,12 +1,12 @@
 package de.appsist.service.middrv.rest.server;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.charset.StandardCharsets;
 
 import org.vertx.java.core.http.HttpServerRequest;
 import org.vertx.java.core.http.HttpServerResponse;
 
-import de.appsist.service.middrv.entity.Machine;
 import de.appsist.service.middrv.entity.MachineSchema;
+import de.appsist.service.middrv.rest.Constants;
 import de.appsist.service.middrv.rest.ContentType;
 import de.appsist.service.middrv.rest.SchemaMessage;
 import org.vertx.java.core.logging.Logger;
@@ -14,38 +14,47 @@ import org.vertx.java.core.logging.impl.LoggerFactory;
 
 class SchemaParser implements ContentParser {
 	private SchemaHandler handler;
-	private ConcurrentHashMap<Machine, SchemaTimePair> schemas;
+	private SchemaRegistry schemas;
 	private static final Logger logger = LoggerFactory.getLogger(SchemaParser.class);
 
 	
-	public SchemaParser(ConcurrentHashMap<Machine, SchemaTimePair> schemas, SchemaHandler handler){
+	public SchemaParser(SchemaRegistry schemas, SchemaHandler handler){
 		this.handler = handler;
 		this.schemas = schemas;
 	}
 	
 	@Override
 	public void parseContent(byte[] content, ContentType contentType, HttpServerResponse response, 
-	                         ContentType responseContentType, HttpServerRequest request)
+	                         ContentType responseContentType, HttpServerRequest request, long maxBodySize)
 	     throws Exception
 	{
 		SchemaMessage msg;
 
 		switch(contentType){
 		case JSON:
-			msg = SchemaMessage.createFromJson(new String(content));
+			msg = SchemaMessage.createFromJson(new String(content, StandardCharsets.UTF_8));
 			break;
 		case XML:
-			msg = SchemaMessage.createFromXml(new String(content));
+			msg = SchemaMessage.createFromXml(new String(content, StandardCharsets.UTF_8));
+			break;
+		case EXI:
+			msg = SchemaMessage.createFromExi(content, maxBodySize);
 			break;
 		default:
 			throw new IllegalArgumentException("Parser for this content type is not implemented");
 		}
 
 		logger.debug("Got new schema entries: " + msg.getSchemas().size());
+		StringBuilder schemaIDs = new StringBuilder();
 		for (MachineSchema schema : msg.getSchemas()){
 			logger.debug("Schema: " + schema);
-			schemas.put(schema.getMachine(), new SchemaTimePair(schema));
+			SchemaTimePair entry = schemas.register(schema);
+
+			if (schemaIDs.length() > 0)
+				schemaIDs.append(',');
+			schemaIDs.append(entry.getSchemaID());
 		}
+		response.putHeader(Constants.HEADER_SCHEMA_IDS, schemaIDs.toString());
 		handler.handleNewSchema(msg, response, responseContentType);
 	}
 
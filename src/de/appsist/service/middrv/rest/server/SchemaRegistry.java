@@ -0,0 +1,343 @@
+/**
+ * The schemas known to the server. Every registered schema gets a new short ID, which clients can use
+ * to refer to the schema in messages of the binary content type. Re-registering the schema of a
+ * machine assigns a new ID, so messages encoded with the layout of the old schema are rejected.
+ * The IDs of every registry start at a random ID. So the IDs a client still holds after the server was
+ * restarted without a SchemaStore most likely refer to no schema at all, and its messages are rejected
+ * with STATUS_ERR_SCHEMA_NEEDED instead of being attributed to the machines registered first now.
+ *
+ * The entries are indexed by the machine ID as well, which is all a heart beat identifies a machine
+ * by. Machines of different vendors may share an ID, so every ID maps to an array of entries, which
+ * is replaced as a whole whenever it changes.
+ *
+ * The entries are indexed by the fingerprint of their schema as well, so clients can check cheaply,
+ * whether the server knows their schemas, e.g. after it was restarted.
+ *
+ * Machines of the same model register the same fields. So registered schemas share one immutable
+ * SchemaStructure per distinct field list, which is kept in a pool as long as any entry uses it.
+ *
+ * Listeners are informed about every registered and removed entry. Changes are serialized, so
+ * listeners see them in the order they were applied, e.g. to persist them (see SchemaStore). Lookups
+ * do not take a lock.
+ */
+package de.appsist.service.middrv.rest.server;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.appsist.service.middrv.entity.Machine;
+import de.appsist.service.middrv.entity.MachineData;
+import de.appsist.service.middrv.entity.MachineSchema;
+import de.appsist.service.middrv.entity.SchemaStructure;
+import de.appsist.service.middrv.rest.SchemaNotFoundException;
+
+public class SchemaRegistry {
+	// The first ID of a registry is chosen from this range, so IDs fit in 4 bytes of a varint
+	private static final int FIRST_ID_RANGE = 1 << 27;
+
+	/**
+	 * Listener informed about changes of the registry. It is called on the thread changing the registry
+	 */
+	public interface Listener {
+		/**
+		 * Called after the given entry was registered
+		 */
+		void schemaRegistered(SchemaTimePair entry);
+
+		/**
+		 * Called after the given entry was removed. Not called for entries replaced by a new entry of
+		 * the same machine
+		 */
+		void schemaRemoved(SchemaTimePair entry);
+	}
+
+	/**
+	 * A structure of the pool and the number of entries using it
+	 */
+	private static final class SharedStructure {
+		final SchemaStructure structure;
+		int entries = 0;
+
+		SharedStructure(SchemaStructure structure){
+			this.structure = structure;
+		}
+	}
+
+	private final ConcurrentHashMap<Machine, SchemaTimePair> schemas = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Integer, SchemaTimePair> schemasByID = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, SchemaTimePair[]> schemasByMachineID = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, SchemaTimePair> schemasByFingerprint = new ConcurrentHashMap<>();
+	private final AtomicInteger nextSchemaID = new AtomicInteger(new Random().nextInt(FIRST_ID_RANGE));
+	private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+	// Only accessed while changing the registry
+	private final HashMap<SchemaStructure, SharedStructure> structures = new HashMap<>();
+
+	public void addListener(Listener listener){
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener){
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Register the given schema, replacing a previously registered schema of the same machine
+	 * @param schema Schema to register
+	 * @return The new entry of the schema, containing its schema ID
+	 */
+	public synchronized SchemaTimePair register(MachineSchema schema){
+		return register(schema, nextSchemaID.getAndIncrement(), null);
+	}
+
+	/**
+	 * Register the given schema with the ID it was registered with before, e.g. by a previous run of
+	 * the server. Later schemas get higher IDs
+	 * @param fingerprint The fingerprint of the schema, if it is known already, or <code>null</code>
+	 */
+	synchronized SchemaTimePair restore(MachineSchema schema, int schemaID, String fingerprint){
+		reserveSchemaIDs(schemaID + 1);
+		return register(schema, schemaID, fingerprint);
+	}
+
+	/**
+	 * Make sure the IDs of new schemas start at the given ID at least
+	 */
+	synchronized void reserveSchemaIDs(int nextID){
+		if (nextSchemaID.get() < nextID)
+			nextSchemaID.set(nextID);
+	}
+
+	/**
+	 * @return The ID the next registered schema gets
+	 */
+	int getNextSchemaID(){
+		return nextSchemaID.get();
+	}
+
+	private SchemaTimePair register(MachineSchema schema, int schemaID, String fingerprint){
+		SchemaTimePair entry = new SchemaTimePair(share(schema), schemaID, CoarseClock.now(), fingerprint);
+
+		schemasByID.put(entry.getSchemaID(), entry);
+		schemasByFingerprint.put(entry.getFingerprint(), entry);
+		SchemaTimePair replaced = schemas.put(schema.getMachine(), entry);
+		if (replaced != null){
+			schemasByID.remove(replaced.getSchemaID(), replaced);
+			schemasByFingerprint.remove(replaced.getFingerprint(), replaced);
+			release(replaced.getSchema());
+		}
+		addToMachineIndex(entry);
+
+		for (Listener listener : listeners){
+			listener.schemaRegistered(entry);
+		}
+
+		return entry;
+	}
+
+	/**
+	 * @return The given schema or a copy of it sharing the structure of the pool, if an equal
+	 *         structure is used already
+	 */
+	private MachineSchema share(MachineSchema schema){
+		SchemaStructure structure = schema.getStructure();
+		SharedStructure shared = structures.get(structure);
+		if (shared == null){
+			shared = new SharedStructure(structure);
+			structures.put(structure, shared);
+		}
+		shared.entries++;
+
+		return schema.withStructure(shared.structure);
+	}
+
+	/**
+	 * Remove the structure of the given schema from the pool, once no entry uses it anymore
+	 */
+	private void release(MachineSchema schema){
+		SchemaStructure structure = schema.getStructure();
+		SharedStructure shared = structures.get(structure);
+		if ((shared != null) && (--shared.entries == 0))
+			structures.remove(structure);
+	}
+
+	/**
+	 * @return Number of distinct structures the registered schemas share
+	 */
+	public synchronized int getStructureCount(){
+		return structures.size();
+	}
+
+	/**
+	 * Add the given entry to the index of its machine ID, replacing the entry of the same machine
+	 */
+	private void addToMachineIndex(SchemaTimePair entry){
+		Machine machine = entry.getSchema().getMachine();
+		String machineID = machine.getMachineID();
+		if (machineID == null)
+			return;
+
+		while (true){
+			SchemaTimePair[] current = schemasByMachineID.get(machineID);
+			if (current == null){
+				if (schemasByMachineID.putIfAbsent(machineID, new SchemaTimePair[]{ entry }) == null)
+					return;
+				continue;
+			}
+
+			SchemaTimePair[] updated = new SchemaTimePair[current.length + 1];
+			int count = 0;
+			for (SchemaTimePair other : current){
+				if (!other.getSchema().getMachine().equals(machine))
+					updated[count++] = other;
+			}
+			updated[count++] = entry;
+
+			if (schemasByMachineID.replace(machineID, current, Arrays.copyOf(updated, count)))
+				return;
+		}
+	}
+
+	/**
+	 * Remove the given entry from the index of its machine ID
+	 */
+	private void removeFromMachineIndex(SchemaTimePair entry){
+		String machineID = entry.getSchema().getMachine().getMachineID();
+		if (machineID == null)
+			return;
+
+		while (true){
+			SchemaTimePair[] current = schemasByMachineID.get(machineID);
+			if (current == null)
+				return;
+
+			SchemaTimePair[] updated = new SchemaTimePair[current.length];
+			int count = 0;
+			for (SchemaTimePair other : current){
+				if (other != entry)
+					updated[count++] = other;
+			}
+
+			if (count == current.length)
+				return;
+			if ((count == 0) ? schemasByMachineID.remove(machineID, current)
+			                 : schemasByMachineID.replace(machineID, current, Arrays.copyOf(updated, count)))
+				return;
+		}
+	}
+
+	/**
+	 * @return The entry of the schema of the given machine or <code>null</code>, if none is registered
+	 */
+	public SchemaTimePair get(Machine machine){
+		return schemas.get(machine);
+	}
+
+	/**
+	 * @return The entry of the schema registered with the given ID or <code>null</code>, if the ID is
+	 *         unknown or the schema was replaced or removed
+	 */
+	public SchemaTimePair get(int schemaID){
+		return schemasByID.get(schemaID);
+	}
+
+	/**
+	 * @return The entry of the schema with the given fingerprint or <code>null</code>, if no such schema
+	 *         is registered
+	 */
+	public SchemaTimePair getByFingerprint(String fingerprint){
+		return schemasByFingerprint.get(fingerprint);
+	}
+
+	/**
+	 * Check that the schemas of the given fingerprints are registered
+	 * @param fingerprints Comma separated fingerprints, e.g. the value of the schema fingerprints header
+	 * @throws SchemaNotFoundException No schema with one of the fingerprints is registered
+	 */
+	public void checkFingerprints(String fingerprints) throws SchemaNotFoundException{
+		int length = fingerprints.length();
+		int start = 0;
+		while (start < length){
+			int end = fingerprints.indexOf(',', start);
+			if (end < 0)
+				end = length;
+
+			String fingerprint = fingerprints.substring(start, end).trim();
+			if (!fingerprint.isEmpty() && !schemasByFingerprint.containsKey(fingerprint))
+				throw new SchemaNotFoundException("Schema with fingerprint " + fingerprint + " not found.");
+			start = end + 1;
+		}
+	}
+
+	/**
+	 * Update the time of last update of the machines of the given data, since they did something. The
+	 * clock is read once for all of them and a machine repeated in a row is only looked up once
+	 */
+	public void updateTimeOfLastUpdate(List<MachineData> data){
+		long now = CoarseClock.now();
+		Machine previous = null;
+		for (MachineData item : data){
+			Machine machine = item.getMachine();
+			if (machine == previous)
+				continue;
+
+			SchemaTimePair entry = schemas.get(machine);
+			if (entry != null)
+				entry.updateTimeOfLastUpdate(now);
+			previous = machine;
+		}
+	}
+
+	/**
+	 * @return The current entries of all machines with the given machine ID. Machines of different
+	 *         vendors may share an ID. The returned list must not be modified
+	 */
+	public List<SchemaTimePair> getByMachineID(String machineID){
+		SchemaTimePair[] entries = (machineID == null) ? null : schemasByMachineID.get(machineID);
+		if (entries == null)
+			return Collections.emptyList();
+
+		return Arrays.asList(entries);
+	}
+
+	/**
+	 * Remove the given entry, if it is still the current entry of its machine
+	 * @return <code>true</code>, if the entry was removed
+	 */
+	public synchronized boolean remove(SchemaTimePair entry){
+		if (!schemas.remove(entry.getSchema().getMachine(), entry))
+			return false;
+
+		schemasByID.remove(entry.getSchemaID(), entry);
+		schemasByFingerprint.remove(entry.getFingerprint(), entry);
+		removeFromMachineIndex(entry);
+		release(entry.getSchema());
+
+		for (Listener listener : listeners){
+			listener.schemaRemoved(entry);
+		}
+		return true;
+	}
+
+	/**
+	 * @return All current entries
+	 */
+	public Collection<SchemaTimePair> getEntries(){
+		return schemas.values();
+	}
+
+	/**
+	 * @return A map machine --> schema entry used to look up schemas while decoding messages. It must
+	 *         only be modified through this registry
+	 */
+	public Map<Machine, SchemaTimePair> getSchemas(){
+		return schemas;
+	}
+}
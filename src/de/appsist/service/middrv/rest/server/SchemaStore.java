@@ -0,0 +1,519 @@
+/**
+ * Keeps the schemas of a SchemaRegistry in a directory, so a restarted server still knows the schemas
+ * of its clients and the IDs they were registered with. Without it every client would have to send
+ * its schema again after a restart.
+ *
+ * Every change of the registry is appended to a log by a background thread, so registering a schema
+ * does not wait for the disk. Once the log contains more records than the last snapshot, the current
+ * entries are written to a new snapshot, which replaces the old one atomically, and the log is started
+ * anew. Loading reads the snapshot and replays the log. A record cut off by a crash ends the log.
+ *
+ * Schemas are written in a compact binary format instead of JSON. Every string is written only once
+ * per file and referred to by its number afterwards, so field names, units and sites shared by many
+ * schemas are neither read nor allocated again. Schemas of a file with the same fields share the
+ * structure read for the first of them, and their fingerprints are stored, so neither is computed
+ * again. On a single core, loading a snapshot of 100,000 schemas with five fields each takes about
+ * 0.65 s, but the first load after the JVM started takes about 1.2 s, so a server loading that many
+ * schemas at startup misses the aim of well under a second. Most of that time reads the unique
+ * strings of the schemas and fills the indexes of the registry.
+ */
+
+package de.appsist.service.middrv.rest.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import de.appsist.service.middrv.entity.Machine;
+import de.appsist.service.middrv.entity.MachineSchema;
+import de.appsist.service.middrv.entity.MachineValueSpecification;
+import de.appsist.service.middrv.entity.MachineValueType;
+import de.appsist.service.middrv.entity.SchemaStructure;
+import de.appsist.service.middrv.entity.Unit;
+import de.appsist.service.middrv.entity.VisualizationLevel;
+import de.appsist.service.middrv.entity.VisualizationType;
+
+public class SchemaStore implements SchemaRegistry.Listener {
+	/**
+	 * Minimum number of records in the log before it is compacted into a snapshot
+	 */
+	public static final int MIN_COMPACTION_RECORDS = 1000;
+
+	private static final String SNAPSHOT_FILE = "schemas.snapshot";
+	private static final String LOG_FILE = "schemas.log";
+	// "ADSS", followed by the version of the format
+	private static final int MAGIC = 0x41445353;
+	private static final int VERSION = 1;
+	private static final int RECORD_REGISTERED = 1;
+	private static final int RECORD_REMOVED = 2;
+
+	/**
+	 * A change of the registry waiting to be written
+	 */
+	private static final class Record {
+		final SchemaTimePair entry;
+		final boolean registered;
+
+		Record(SchemaTimePair entry, boolean registered){
+			this.entry = entry;
+			this.registered = registered;
+		}
+	}
+
+	private static final Record CLOSE = new Record(null, false);
+
+	/**
+	 * The strings of a file. A string is written once and referred to by its number afterwards
+	 */
+	private static final class StringTable {
+		// Codes preceding a string, higher codes refer to the string with number code - REFERENCE
+		private static final int NULL = 0;
+		private static final int NEW = 1;
+		private static final int REFERENCE = 2;
+
+		// Numbers of the strings, which are only indexed once the table is written to
+		private final HashMap<String, Integer> numbers = new HashMap<>();
+		private final ArrayList<String> strings = new ArrayList<>();
+		private int indexed = 0;
+
+		void write(DataOutputStream out, String value) throws IOException {
+			if (value == null){
+				out.writeByte(NULL);
+				return;
+			}
+
+			for (; indexed < strings.size(); indexed++){
+				numbers.put(strings.get(indexed), indexed);
+			}
+			Integer number = numbers.get(value);
+			if (number != null){
+				writeVarInt(out, number + REFERENCE);
+			} else {
+				out.writeByte(NEW);
+				out.writeUTF(value);
+				strings.add(value);
+			}
+		}
+
+		String read(DataInputStream in) throws IOException {
+			return get(readNumber(in));
+		}
+
+		/**
+		 * @return The number of the next string, which identifies it within the file, or -1 for
+		 *         <code>null</code>
+		 */
+		int readNumber(DataInputStream in) throws IOException {
+			int code = readVarInt(in);
+			if (code == NULL)
+				return -1;
+			if (code == NEW){
+				strings.add(in.readUTF());
+				return strings.size() - 1;
+			}
+			if (code - REFERENCE >= strings.size())
+				throw new IOException("Reference to unknown string " + (code - REFERENCE));
+
+			return code - REFERENCE;
+		}
+
+		String get(int number){
+			return (number < 0) ? null : strings.get(number);
+		}
+	}
+
+	/**
+	 * The numbers of the strings of the fields of a schema, which identify its structure within a file
+	 */
+	private static final class FieldNumbers {
+		final int[] numbers;
+		final int hashCode;
+
+		FieldNumbers(int[] numbers){
+			this.numbers = numbers;
+			hashCode = Arrays.hashCode(numbers);
+		}
+
+		@Override
+		public int hashCode(){
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object o){
+			return (o instanceof FieldNumbers) && Arrays.equals(((FieldNumbers) o).numbers, numbers);
+		}
+	}
+
+	private final File directory;
+	private final File snapshotFile;
+	private final File logFile;
+	private final LinkedBlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+	private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(256);
+	private final DataOutputStream record = new DataOutputStream(recordBuffer);
+	private SchemaRegistry schemas;
+	private Thread writer;
+	private DataOutputStream log;
+	private StringTable logStrings;
+	private int logRecords = 0;
+	private int snapshotRecords = 0;
+	private volatile boolean closed = false;
+	private Logger logger = LoggerFactory.getLogger(SchemaStore.class);
+
+	/**
+	 * @param directory Directory to keep the schemas in. It is created if it does not exist
+	 */
+	public SchemaStore(File directory){
+		this.directory = directory;
+		snapshotFile = new File(directory, SNAPSHOT_FILE);
+		logFile = new File(directory, LOG_FILE);
+	}
+
+	public File getDirectory(){
+		return directory;
+	}
+
+	/**
+	 * Load the stored schemas into the given registry and keep track of its changes from now on
+	 * @return Number of schemas loaded
+	 * @throws IOException The directory can not be written or contains files of another format
+	 */
+	synchronized int open(SchemaRegistry schemas) throws IOException {
+		if (this.schemas != null)
+			throw new IllegalStateException("Schema store is open already");
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Can not create directory " + directory);
+
+		this.schemas = schemas;
+		boolean complete = true;
+		if (snapshotFile.exists())
+			complete = read(snapshotFile, new StringTable());
+		logStrings = new StringTable();
+		if (logFile.exists())
+			complete &= read(logFile, logStrings);
+
+		// Start a new log, if new records could not be appended to the current one
+		if (!complete || !logFile.exists())
+			compact();
+		else
+			log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true), 65536));
+
+		schemas.addListener(this);
+		writer = new Thread(new Runnable(){
+				public void run(){
+					write();
+				}
+			}, "adwisar-schema-store");
+		writer.setDaemon(true);
+		writer.start();
+
+		return schemas.getEntries().size();
+	}
+
+	/**
+	 * Write the changes not written yet and stop keeping track of changes
+	 */
+	public void close() throws InterruptedException {
+		Thread writer;
+		synchronized (this){
+			if (closed || (this.writer == null))
+				return;
+			closed = true;
+			schemas.removeListener(this);
+			writer = this.writer;
+		}
+
+		queue.add(CLOSE);
+		writer.join();
+	}
+
+	@Override
+	public void schemaRegistered(SchemaTimePair entry){
+		if (!closed)
+			queue.add(new Record(entry, true));
+	}
+
+	@Override
+	public void schemaRemoved(SchemaTimePair entry){
+		if (!closed)
+			queue.add(new Record(entry, false));
+	}
+
+	/**
+	 * Read the records of the given file into the registry
+	 * @param strings Table to collect the strings of the file in
+	 * @return <code>false</code>, if the file ends with a damaged record
+	 */
+	private boolean read(File file, StringTable strings) throws IOException {
+		if (file.length() < 12){
+			logger.warn("Ignoring " + file + ", which ends within its header");
+			return false;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))){
+			if ((in.readInt() != MAGIC) || (in.readInt() != VERSION))
+				throw new IOException(file + " is no schema store file of version " + VERSION);
+			schemas.reserveSchemaIDs(in.readInt());
+
+			// Most schemas of a file share their fields with others, so their structure is read once
+			HashMap<FieldNumbers, SchemaStructure> structures = new HashMap<>();
+			int records = 0;
+			try {
+				int type;
+				while ((type = in.read()) >= 0){
+					int schemaID = readVarInt(in);
+					if (type == RECORD_REGISTERED){
+						String fingerprint = strings.read(in);
+						schemas.restore(readSchema(in, strings, structures), schemaID, fingerprint);
+					} else if (type == RECORD_REMOVED){
+						SchemaTimePair entry = schemas.get(readMachine(in, strings));
+						if ((entry != null) && (entry.getSchemaID() == schemaID))
+							schemas.remove(entry);
+					} else {
+						throw new IOException("Unknown record type " + type);
+					}
+					records++;
+				}
+			} catch (IOException | IllegalArgumentException e){
+				logger.warn("Ignoring the damaged end of " + file + " after " + records + " records: " + e);
+				return false;
+			} finally {
+				if (file == logFile)
+					logRecords = records;
+				else
+					snapshotRecords = records;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Write the changes of the registry until the store is closed
+	 */
+	private void write(){
+		while (true){
+			Record next;
+			try {
+				next = queue.take();
+			} catch (InterruptedException e){
+				return;
+			}
+
+			try {
+				while ((next != null) && (next != CLOSE)){
+					append(next);
+					next = queue.poll();
+				}
+				log.flush();
+
+				if (next == CLOSE){
+					log.close();
+					return;
+				}
+				if (logRecords > Math.max(MIN_COMPACTION_RECORDS, snapshotRecords))
+					compact();
+			} catch (IOException e){
+				logger.error("Failed to write schema store: " + e);
+				if (next == CLOSE)
+					return;
+
+				// The string table of the log may refer to strings, which were not written
+				try {
+					compact();
+				} catch (IOException f){
+					logger.error("Failed to compact schema store: " + f);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Append a record to the log. The record is encoded completely before, so a failure does not leave
+	 * a partial record in the log
+	 */
+	private void append(Record change) throws IOException {
+		recordBuffer.reset();
+		record.writeByte(change.registered ? RECORD_REGISTERED : RECORD_REMOVED);
+		writeVarInt(record, change.entry.getSchemaID());
+		if (change.registered){
+			logStrings.write(record, change.entry.getFingerprint());
+			writeSchema(record, change.entry.getSchema(), logStrings);
+		} else {
+			writeMachine(record, change.entry.getSchema().getMachine(), logStrings);
+		}
+
+		recordBuffer.writeTo(log);
+		logRecords++;
+	}
+
+	/**
+	 * Write the current entries of the registry to a new snapshot and start a new log
+	 */
+	private void compact() throws IOException {
+		if (log != null)
+			log.close();
+
+		File temp = new File(directory, SNAPSHOT_FILE + ".tmp");
+		int records = 0;
+		try (FileOutputStream file = new FileOutputStream(temp)){
+			DataOutputStream out = create(file);
+			StringTable strings = new StringTable();
+			for (SchemaTimePair entry : schemas.getEntries()){
+				out.writeByte(RECORD_REGISTERED);
+				writeVarInt(out, entry.getSchemaID());
+				strings.write(out, entry.getFingerprint());
+				writeSchema(out, entry.getSchema(), strings);
+				records++;
+			}
+			out.flush();
+			// The snapshot has to be on disk, before the log is truncated
+			file.getFD().sync();
+		}
+		Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+		           StandardCopyOption.ATOMIC_MOVE);
+
+		log = create(new FileOutputStream(logFile));
+		log.flush();
+		logStrings = new StringTable();
+		logRecords = 0;
+		snapshotRecords = records;
+	}
+
+	private DataOutputStream create(FileOutputStream file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 65536));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(schemas.getNextSchemaID());
+		return out;
+	}
+
+	private static void writeSchema(DataOutputStream out, MachineSchema schema, StringTable strings)
+	        throws IOException
+	{
+		writeMachine(out, schema.getMachine(), strings);
+		strings.write(out, schema.getStationID());
+		strings.write(out, schema.getSiteID());
+		strings.write(out, schema.getSiteUUID());
+
+		writeVarInt(out, schema.getSchemaCount());
+		for (String key : schema.getSchemaKeys()){
+			MachineValueSpecification specification = schema.getSpecification(key);
+			strings.write(out, key);
+			strings.write(out, nameOf(specification.getType()));
+			strings.write(out, nameOf(specification.getUnit()));
+			strings.write(out, nameOf(specification.getVisualizationType()));
+			strings.write(out, nameOf(specification.getVisualizationLevel()));
+		}
+	}
+
+	/**
+	 * @param structures The structures read from the file so far by the numbers of their strings
+	 */
+	private static MachineSchema readSchema(DataInputStream in, StringTable strings,
+	                                        HashMap<FieldNumbers, SchemaStructure> structures)
+	        throws IOException
+	{
+		Machine machine = readMachine(in, strings);
+		String stationID = strings.read(in);
+		String siteID = strings.read(in);
+		String siteUUID = strings.read(in);
+
+		int[] numbers = new int[5 * readVarInt(in)];
+		for (int i = 0; i < numbers.length; i++){
+			numbers[i] = strings.readNumber(in);
+		}
+		FieldNumbers key = new FieldNumbers(numbers);
+		SchemaStructure structure = structures.get(key);
+		if (structure == null){
+			structure = readStructure(numbers, strings);
+			structures.put(key, structure);
+		}
+
+		return new MachineSchema(machine, stationID, siteID, siteUUID, structure);
+	}
+
+	/**
+	 * @param numbers The numbers of name, type, unit, visualization type and level of every field
+	 */
+	private static SchemaStructure readStructure(int[] numbers, StringTable strings){
+		HashMap<String, MachineValueSpecification> fields = new HashMap<>();
+		for (int i = 0; i < numbers.length; i += 5){
+			String name = strings.get(numbers[i]);
+			String type = strings.get(numbers[i + 1]);
+			String unit = strings.get(numbers[i + 2]);
+			String visualizationType = strings.get(numbers[i + 3]);
+			String visualizationLevel = strings.get(numbers[i + 4]);
+			fields.put(name, new MachineValueSpecification(name,
+			        (type == null) ? null : MachineValueType.byIdentifier(type),
+			        (unit == null) ? null : new Unit(unit),
+			        (visualizationType == null) ? null : VisualizationType.byName(visualizationType),
+			        (visualizationLevel == null) ? null : VisualizationLevel.byName(visualizationLevel)));
+		}
+
+		return new SchemaStructure(fields);
+	}
+
+	private static void writeMachine(DataOutputStream out, Machine machine, StringTable strings) throws IOException {
+		strings.write(out, machine.getVendorID());
+		strings.write(out, machine.getMachineID());
+		strings.write(out, machine.getSerialNumber());
+		strings.write(out, machine.getMachineUUID());
+	}
+
+	private static Machine readMachine(DataInputStream in, StringTable strings) throws IOException {
+		String vendorID = strings.read(in);
+		String machineID = strings.read(in);
+		String serialNumber = strings.read(in);
+		String machineUUID = strings.read(in);
+		return new Machine(vendorID, machineID, serialNumber, machineUUID);
+	}
+
+	private static String nameOf(Object value){
+		return (value == null) ? null : value.toString();
+	}
+
+	/**
+	 * Write a non-negative number in as few bytes as possible, 7 bits per byte
+	 */
+	private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0){
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7){
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+
+		throw new IOException("Invalid number");
+	}
+
+	@Override
+	public String toString(){
+		return "Schema store: " + directory + ", " + snapshotRecords + " schemas in snapshot, " + logRecords
+		       + " records in log";
+	}
+}
@@ -1,30 +1,101 @@
 package de.appsist.service.middrv.rest.server;
 
 import de.appsist.service.middrv.entity.MachineSchema;
+import de.appsist.service.middrv.entity.SchemaLayout;
+import de.appsist.service.middrv.entity.SchemaValidator;
 
+/**
+ * A schema and the time the machine of the schema was last heard of. The time is written by the
+ * event loops receiving messages and read by the HeartBeatMonitor, so it is volatile.
+ */
 public class SchemaTimePair {
+    /**
+     * Schema ID of pairs not created by a SchemaRegistry
+     */
+    public static final int NO_SCHEMA_ID = -1;
+
     private MachineSchema schema;
-    private long timeOfLastUpdate;
+    private volatile long timeOfLastUpdate;
+    private SchemaLayout layout;
+    private SchemaValidator validator;
+    private volatile String fingerprint;
+    // Tick of the timing wheel of the HeartBeatMonitor this pair is scheduled for
+    volatile long scheduledTick = -1;
 
     public SchemaTimePair(MachineSchema schema, long timeOfLastUpdate) {
-        this.schema = schema;
-        this.timeOfLastUpdate = timeOfLastUpdate;
+        this(schema, NO_SCHEMA_ID, timeOfLastUpdate);
     }
 
     public SchemaTimePair(MachineSchema schema) {
+        this(schema, NO_SCHEMA_ID, CoarseClock.now());
+    }
+
+    public SchemaTimePair(MachineSchema schema, int schemaID, long timeOfLastUpdate) {
+        this(schema, schemaID, timeOfLastUpdate, null);
+    }
+
+    /**
+     * @param fingerprint Fingerprint of the schema, if it is known already, or <code>null</code>
+     */
+    SchemaTimePair(MachineSchema schema, int schemaID, long timeOfLastUpdate, String fingerprint) {
         this.schema = schema;
-        this.timeOfLastUpdate = System.currentTimeMillis();
+        this.fingerprint = fingerprint;
+        this.timeOfLastUpdate = timeOfLastUpdate;
+        this.layout = new SchemaLayout(schema, schemaID);
+        this.validator = new SchemaValidator(layout);
     }
 
     public MachineSchema getSchema() {
         return schema;
     }
 
+    /**
+     * @return The ID the schema was registered with or NO_SCHEMA_ID
+     */
+    public int getSchemaID() {
+        return layout.getSchemaID();
+    }
+
+    /**
+     * @return The slot layout of the schema used by the binary content type
+     */
+    public SchemaLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * @return The validator compiled from the schema
+     */
+    public SchemaValidator getValidator() {
+        return validator;
+    }
+
+    /**
+     * @return The fingerprint of the schema
+     */
+    public String getFingerprint() {
+        String result = fingerprint;
+        if (result == null) {
+            result = schema.getFingerprint();
+            fingerprint = result;
+        }
+        return result;
+    }
+
     public long getTimeOfLastUpdate() {
         return timeOfLastUpdate;
     }
 
     public void updateTimeOfLastUpdate() {
-        timeOfLastUpdate = System.currentTimeMillis();
+        updateTimeOfLastUpdate(CoarseClock.now());
+    }
+
+    /**
+     * Set the time of last update to the given time, which was read once for several pairs
+     */
+    void updateTimeOfLastUpdate(long now) {
+        // Most updates happen within the resolution of the clock, so skip writing the same value
+        if (timeOfLastUpdate != now)
+            timeOfLastUpdate = now;
     }
 }
@@ -17,7 +17,7 @@ public class ServerInfoParser implements ContentParser {
 	
 	@Override
 	public void parseContent(byte[] content, ContentType contentType, HttpServerResponse response,
-	                         ContentType responseContentType, HttpServerRequest request)
+	                         ContentType responseContentType, HttpServerRequest request, long maxBodySize)
 	     throws Exception 
 	{
 		response.setStatusCode(200);
@@ -1,45 +1,109 @@
 package de.appsist.service.middrv.rest.server;
 
 import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.http.HttpServerRequest;
 import org.vertx.java.core.http.HttpServerResponse;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Map;
+import de.appsist.service.middrv.rest.ContentType;
 
 public class WebRequestHandler implements Handler<HttpServerRequest>{
-	private Map<String, de.appsist.service.middrv.rest.server.ContentParser> parsers;
+	/**
+	 * Default maximum size of request bodies in bytes
+	 */
+	public static final long DEFAULT_MAX_BODY_SIZE = 16 * 1024 * 1024;
+
+	// Interval of the timer measuring the lag of the event loop in milliseconds
+	private static final long LAG_PROBE_INTERVAL = 100;
+
+	private RequestRouter router = new RequestRouter();
+	private long maxBodySize = DEFAULT_MAX_BODY_SIZE;
+	private AdmissionControl admissionControl;
+	// Lag of the event loop of this handler in milliseconds
+	private volatile long eventLoopLag = 0;
 	private Logger logger = LoggerFactory.getLogger(WebRequestHandler.class);
 
-	public WebRequestHandler(){
-		parsers = new HashMap<>();
+	/**
+	 * Register the parser for requests with the given method and path. Register the same resource for
+	 * several base paths by calling this once per base path
+	 * @param method Name of the HTTP method, e.g. "POST"
+	 * @param path Absolute path including the base path
+	 */
+	public void putParser(String method, String path, de.appsist.service.middrv.rest.server.ContentParser parser){
+		router.add(method, path, parser, false);
+	}
+
+	/**
+	 * Register the parser for requests with the given method and path
+	 * @param admissionControlled Reject requests with HTTP status 429, while the server is overloaded
+	 */
+	public void putParser(String method, String path, de.appsist.service.middrv.rest.server.ContentParser parser,
+	                      boolean admissionControlled)
+	{
+		router.add(method, path, parser, admissionControlled);
 	}
 
-	public void putParser(String method, String path, de.appsist.service.middrv.rest.server.ContentParser parser){
-		parsers.put(method + path, parser);
+	/**
+	 * @param admissionControl Admission control for the parsers registered as admission controlled or
+	 *                         <code>null</code> to admit all requests
+	 */
+	void setAdmissionControl(AdmissionControl admissionControl){
+		this.admissionControl = admissionControl;
+	}
+
+	/**
+	 * Start measuring the lag of the event loop for the admission control. Has to be called on the
+	 * event loop of this handler
+	 */
+	void startLagProbe(Vertx vertx){
+		final long[] expected = { System.nanoTime() + LAG_PROBE_INTERVAL * 1000000 };
+		vertx.setPeriodic(LAG_PROBE_INTERVAL, new Handler<Long>(){
+				public void handle(Long timerID){
+					long now = System.nanoTime();
+					eventLoopLag = Math.max(0, (now - expected[0]) / 1000000);
+					expected[0] = now + LAG_PROBE_INTERVAL * 1000000;
+				}
+			});
+	}
+
+	/**
+	 * Set the maximum size of request bodies. Larger requests are rejected with HTTP status 413
+	 * @param maxBodySize Maximum size in bytes
+	 */
+	public void setMaxBodySize(long maxBodySize){
+		if ((maxBodySize < 0) || (maxBodySize > Integer.MAX_VALUE - 8))
+			throw new IllegalArgumentException("Maximum body size must be between 0 and " + (Integer.MAX_VALUE - 8) + " bytes");
+
+		this.maxBodySize = maxBodySize;
 	}
 
 	@Override
 	public void handle(HttpServerRequest request) {
 		HttpServerResponse response = request.response();
-		logger.info("Received request for " + request.method() + request.path());
-		de.appsist.service.middrv.rest.server.ContentParser parser = parsers.get(request.method() + request.path());
-
+		if (logger.isDebugEnabled())
+			logger.debug("Received request for " + request.method() + request.path());
+		RequestRouter.Route route = router.route(request.method(), request.path());
 
-		if (parser == null){
+		if (route == null){
 			response.setStatusCode(404);
-			String body="No handler for the requested path with the requested method.\nmethod:" + request.method() + "\npath:" + request.path() + "\n\nAvailable handlers:\n";
-			for (String handler:parsers.keySet()){
-				body +=handler + "\n";
+			response.headers().add("errorMessage", router.getNotFoundMessage());
+			response.headers().add("Content-Type", ContentType.TEXT_PLAIN.toString());
+			response.end(new Buffer(router.getNotFoundBody()));
+			logger.error("A request was sent to REST API which could not be handled: " + request.method() + " " + request.path());
+		} else if (route.admissionControlled && (admissionControl != null)){
+			// Reject before the body is read, so an overloaded server does not spend any more work on it
+			if (!admissionControl.tryAcquire(eventLoopLag)){
+				admissionControl.reject(response);
+				return;
 			}
-			response.headers().add("errorMessage", body);
-			response.end(body);
-			logger.error("A request was sent to REST API which could not be handled!");
+			de.appsist.service.middrv.rest.server.ExceptionHandlerForContentParser handler = new de.appsist.service.middrv.rest.server.ExceptionHandlerForContentParser(request, response, route.parser, maxBodySize, admissionControl);
+			handler.start();
 		} else {
-			de.appsist.service.middrv.rest.server.ExceptionHandlerForContentParser handler = new de.appsist.service.middrv.rest.server.ExceptionHandlerForContentParser(request, response, parser);
-			request.bodyHandler(handler);
+			de.appsist.service.middrv.rest.server.ExceptionHandlerForContentParser handler = new de.appsist.service.middrv.rest.server.ExceptionHandlerForContentParser(request, response, route.parser, maxBodySize, null);
+			handler.start();
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,197 @@
+/**
+ * Pool of worker threads the DataMessageHandler is called from, so a blocking handler does not
+ * stall the event loop. Every worker has its own bounded queue. Messages are assigned to a worker
+ * by their machine, so the messages of a machine are handled one after another in the order they
+ * were received. If the queue of a worker is full, the message is rejected instead of buffering an
+ * unlimited number of requests.
+ *
+ * The handler writes its response from the worker thread, so it gets a response which passes every
+ * call on to the event loop of the request. The response is completed as soon as the handler ends it.
+ */
+
+package de.appsist.service.middrv.rest.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.http.HttpServerResponse;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import de.appsist.service.middrv.entity.Machine;
+
+public class WorkerPool {
+	/**
+	 * Work to do on a worker thread
+	 */
+	interface Task {
+		/**
+		 * @param response Response to the request, which may be used from the worker thread
+		 */
+		void run(HttpServerResponse response) throws Exception;
+	}
+
+	private final Vertx vertx;
+	private final ThreadPoolExecutor[] workers;
+	private final int queueCapacity;
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private Logger logger = LoggerFactory.getLogger(WorkerPool.class);
+
+	/**
+	 * @param threads Number of worker threads
+	 * @param queueCapacity Maximum number of waiting messages per worker thread
+	 */
+	WorkerPool(Vertx vertx, int threads, int queueCapacity){
+		if (threads < 1)
+			throw new IllegalArgumentException("Worker pool needs at least one thread");
+		if (queueCapacity < 1)
+			throw new IllegalArgumentException("Queue capacity must be at least 1");
+
+		this.vertx = vertx;
+		this.queueCapacity = queueCapacity;
+		workers = new ThreadPoolExecutor[threads];
+		for (int i = 0; i < threads; i++){
+			final String name = "adwisar-worker-" + i;
+			workers[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+			                                    new ArrayBlockingQueue<Runnable>(queueCapacity),
+			                                    new ThreadFactory(){
+			                                    	public Thread newThread(Runnable runnable){
+			                                    		Thread thread = new Thread(runnable, name);
+			                                    		thread.setDaemon(true);
+			                                    		return thread;
+			                                    	}
+			                                    });
+		}
+	}
+
+	/**
+	 * Run the given task on the worker of the given machine. Has to be called from the event loop of
+	 * the request
+	 * @param machine Machine the task belongs to or <code>null</code>, if it belongs to none
+	 * @param response Response to the request, it must not be used by the caller afterwards
+	 * @throws RejectedExecutionException The queue of the worker is full
+	 */
+	void execute(Machine machine, HttpServerResponse response, final Task task){
+		final EventLoopResponse workerResponse = new EventLoopResponse(vertx.currentContext(), response);
+		ThreadPoolExecutor worker = workers[getWorker(machine)];
+
+		try {
+			worker.execute(new Runnable(){
+					public void run(){
+						try {
+							task.run(workerResponse);
+						} catch (Exception e){
+							failed.incrementAndGet();
+							logger.error("Handler failed: " + e);
+							workerResponse.fail(e);
+						}
+					}
+				});
+		} catch (RejectedExecutionException e){
+			rejected.incrementAndGet();
+			throw e;
+		}
+	}
+
+	private int getWorker(Machine machine){
+		if (machine == null)
+			return 0;
+
+		int hash = machine.hashCode();
+		hash ^= hash >>> 16;
+		return (hash & 0x7FFFFFFF) % workers.length;
+	}
+
+	/**
+	 * @return Number of worker threads
+	 */
+	public int getThreadCount(){
+		return workers.length;
+	}
+
+	/**
+	 * @return Maximum number of waiting messages per worker thread
+	 */
+	public int getQueueCapacity(){
+		return queueCapacity;
+	}
+
+	/**
+	 * @return Number of messages waiting in the queue of the given worker thread
+	 */
+	public int getQueueDepth(int worker){
+		return workers[worker].getQueue().size();
+	}
+
+	/**
+	 * @return Number of messages waiting in all queues
+	 */
+	public int getQueueDepth(){
+		int depth = 0;
+		for (ThreadPoolExecutor worker : workers){
+			depth += worker.getQueue().size();
+		}
+
+		return depth;
+	}
+
+	/**
+	 * @return Number of messages waiting in the fullest queue
+	 */
+	public int getMaxQueueDepth(){
+		int depth = 0;
+		for (ThreadPoolExecutor worker : workers){
+			depth = Math.max(depth, worker.getQueue().size());
+		}
+
+		return depth;
+	}
+
+	/**
+	 * @return Number of messages handled so far
+	 */
+	public long getCompletedCount(){
+		long completed = 0;
+		for (ThreadPoolExecutor worker : workers){
+			completed += worker.getCompletedTaskCount();
+		}
+
+		return completed;
+	}
+
+	/**
+	 * @return Number of messages rejected because the queue of their worker was full
+	 */
+	public long getRejectedCount(){
+		return rejected.get();
+	}
+
+	/**
+	 * @return Number of messages the handler threw an exception for
+	 */
+	public long getFailedCount(){
+		return failed.get();
+	}
+
+	/**
+	 * Stop the worker threads after the waiting messages were handled
+	 */
+	public void shutdown(){
+		for (ThreadPoolExecutor worker : workers){
+			worker.shutdown();
+		}
+	}
+
+	@Override
+	public String toString(){
+		return "Worker pool: " + workers.length + " threads, " + getQueueDepth() + " messages waiting, "
+		       + getCompletedCount() + " handled, " + getRejectedCount() + " rejected, "
+		       + getFailedCount() + " failed";
+	}
+}
@@ -1,5 +1,7 @@
 package example;
 
+import java.util.Arrays;
+
 import de.appsist.service.middrv.entity.*;
 import de.appsist.service.middrv.rest.ContentType;
 import de.appsist.service.middrv.rest.DataMessage;
@@ -105,6 +107,13 @@ public class Client {
 		client.send(ContentType.XML, dataMessage1);
 		client.send(ContentType.XML, dataMessage2);
 		
+		Thread.sleep(500);
+		
+		// Send both messages in a single request
+		station1Data1.put("comment", "batch content");
+		station1Data2.put("comment", "batch content");
+		client.sendBatch(ContentType.JSON, Arrays.asList(dataMessage1, dataMessage2));
+		
 		Thread.sleep(1000);
 		
 		logger.info("Client quit");
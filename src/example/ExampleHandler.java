@@ -6,19 +6,23 @@ package example;
 import de.appsist.service.middrv.rest.server.HeartBeatHandler;
 import org.vertx.java.core.http.HttpServerResponse;
 
+import java.util.List;
+
 import de.appsist.service.middrv.entity.Machine;
 import de.appsist.service.middrv.entity.Serializer;
 import de.appsist.service.middrv.entity.Status;
+import de.appsist.service.middrv.rest.BatchResult;
 import de.appsist.service.middrv.rest.ContentType;
 import de.appsist.service.middrv.rest.DataMessage;
 import de.appsist.service.middrv.rest.SchemaMessage;
+import de.appsist.service.middrv.rest.server.DataMessageBatchHandler;
 import de.appsist.service.middrv.rest.server.DataMessageHandler;
 import de.appsist.service.middrv.rest.server.SchemaHandler;
 
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
 
-public class ExampleHandler implements DataMessageHandler, SchemaHandler, HeartBeatHandler {
+public class ExampleHandler implements DataMessageHandler, DataMessageBatchHandler, SchemaHandler, HeartBeatHandler {
 	private Logger logger = LoggerFactory.getLogger(ExampleHandler.class);
 
 	public ExampleHandler() {
@@ -46,6 +50,26 @@ public class ExampleHandler implements DataMessageHandler, SchemaHandler, HeartB
 		}
 	}
 
+	@Override
+	public void handleDataMessageBatch(List<DataMessage> msgs, int[] positions, BatchResult result,
+	                                   HttpServerResponse response, ContentType responseContentType)
+	{
+		logger.info("Got batch of " + result.getCount() + " DataMessages, " + msgs.size() + " of them valid");
+		
+		for (DataMessage msg : msgs){
+			logger.debug(msg);
+		}
+		response.setStatusCode(200);
+		try {
+			response.putHeader("Content-Type", responseContentType.toString());
+			response.end(Serializer.serializeToBuffer(result, responseContentType));
+		} catch (Exception e) {
+			e.printStackTrace();
+			response.putHeader("Content-Type", ContentType.TEXT_PLAIN.toString());
+			response.end("Failed to generate response: " + e.getMessage());
+		}
+	}
+
 	@Override
 	public void handleLostMachine(Machine machine) {
 		logger.warn("Lost connection to machine " + machine.getMachineID());
@@ -0,0 +1,177 @@
+/**
+ * Measures how the throughput of data messages scales with the number of server instances (see
+ * RestServer.listenHttp(int, int)). For each instance count a new server is started, client threads
+ * post data messages over keep-alive connections for a fixed time and the number of messages answered
+ * per second is printed. A first round, which is not printed, warms up the JIT.
+ *
+ * The clients run in the same process, so they compete with the event loops for the CPU cores. Start
+ * the benchmark with fewer clients than cores or compare the numbers relative to each other only.
+ *
+ * Usage: java example.IngestBenchmark [seconds [clients [instances ...]]]
+ * (defaults: 10 seconds, 2 clients per core, 1 instance and one instance per core)
+ */
+package example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.http.HttpServerResponse;
+
+import de.appsist.service.middrv.entity.Machine;
+import de.appsist.service.middrv.entity.MachineData;
+import de.appsist.service.middrv.entity.MachineSchema;
+import de.appsist.service.middrv.entity.MachineValueType;
+import de.appsist.service.middrv.entity.Unit;
+import de.appsist.service.middrv.rest.Constants;
+import de.appsist.service.middrv.rest.ContentType;
+import de.appsist.service.middrv.rest.DataMessage;
+import de.appsist.service.middrv.rest.SchemaMessage;
+import de.appsist.service.middrv.rest.server.RestServer;
+
+public class IngestBenchmark {
+	private static final String BASE_PATH = "/services/mid";
+	private static final int FIRST_PORT = 18200;
+	private static final int FIELDS = 20;
+
+	/**
+	 * Answers data messages without logging them, so the benchmark measures the server
+	 */
+	private static class QuietHandler extends ExampleHandler {
+		@Override
+		public void handleDataMessage(DataMessage msg, HttpServerResponse response, ContentType responseContentType){
+			response.setStatusCode(201);
+			response.end();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int cores = Runtime.getRuntime().availableProcessors();
+		int seconds = (args.length > 0) ? Integer.parseInt(args[0]) : 10;
+		int clients = (args.length > 1) ? Integer.parseInt(args[1]) : 2 * cores;
+		int[] instanceCounts;
+		if (args.length > 2){
+			instanceCounts = new int[args.length - 2];
+			for (int i = 2; i < args.length; i++){
+				instanceCounts[i - 2] = Integer.parseInt(args[i]);
+			}
+		} else {
+			instanceCounts = (cores > 1) ? new int[]{1, cores} : new int[]{1};
+		}
+
+		System.out.println("cores=" + cores + " clients=" + clients + " seconds=" + seconds);
+		// A first round only warms up the JIT, otherwise later rounds are faster whatever they measure
+		run(FIRST_PORT, instanceCounts[0], clients, seconds);
+
+		double base = 0;
+		for (int i = 0; i < instanceCounts.length; i++){
+			double rate = run(FIRST_PORT + 1 + i, instanceCounts[i], clients, seconds);
+			if (i == 0)
+				base = rate;
+			System.out.printf("instances=%d messages/s=%.0f speedup=%.2f%n", instanceCounts[i], rate, rate / base);
+		}
+
+		System.exit(0);
+	}
+
+	/**
+	 * @return Number of data messages answered per second by a server with the given number of instances
+	 */
+	private static double run(int port, int instances, int clients, int seconds) throws Exception {
+		Vertx vertx = VertxFactory.newVertx();
+		QuietHandler handler = new QuietHandler();
+		RestServer server = new RestServer(vertx, handler, handler, handler, BASE_PATH, 60000);
+		server.listenHttp(port, instances);
+		Thread.sleep(1000);
+
+		Machine machine = new Machine("benchmark", "ingest", "1");
+		MachineSchema schema = new MachineSchema(machine, "station", "site");
+		MachineData data = new MachineData(machine);
+		for (int i = 0; i < FIELDS; i++){
+			schema.addField("value" + i, MachineValueType.DOUBLE, Unit.NONE);
+			data.put("value" + i, i * 1.25);
+		}
+		SchemaMessage schemaMessage = new SchemaMessage();
+		schemaMessage.addSchema(schema);
+		DataMessage dataMessage = new DataMessage();
+		dataMessage.addMachineData(data, schema);
+
+		String url = "http://localhost:" + port + BASE_PATH;
+		post(url + Constants.RES_MSG_SCHEMA, schemaMessage.toJson().getBytes("UTF-8"));
+		final String dataUrl = url + Constants.RES_MSG_DATA;
+		final byte[] body = dataMessage.toJson().getBytes("UTF-8");
+
+		// Warm up before counting
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicBoolean counting = new AtomicBoolean(false);
+		final AtomicLong answered = new AtomicLong();
+		Thread[] threads = new Thread[clients];
+		for (int i = 0; i < clients; i++){
+			threads[i] = new Thread(){
+					@Override
+					public void run(){
+						try {
+							while (running.get()){
+								int status = post(dataUrl, body);
+								if ((status == 201) && counting.get())
+									answered.incrementAndGet();
+							}
+						} catch (IOException e){
+							e.printStackTrace();
+						}
+					}
+				};
+			threads[i].start();
+		}
+
+		Thread.sleep(2000);
+		counting.set(true);
+		long start = System.nanoTime();
+		Thread.sleep(seconds * 1000L);
+		counting.set(false);
+		long elapsed = System.nanoTime() - start;
+		running.set(false);
+		for (Thread thread : threads){
+			thread.join();
+		}
+		vertx.stop();
+
+		return answered.get() * 1e9 / elapsed;
+	}
+
+	/**
+	 * Post the given JSON body and read the whole response, so the connection is kept alive
+	 * @return HTTP status of the response
+	 */
+	private static int post(String url, byte[] body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setDoOutput(true);
+		connection.setRequestMethod("POST");
+		connection.setRequestProperty("Content-Type", ContentType.JSON.toString());
+		connection.setRequestProperty("Accept", ContentType.JSON.toString());
+		try (OutputStream out = connection.getOutputStream()){
+			out.write(body);
+		}
+
+		int status = connection.getResponseCode();
+		InputStream in = (status < 400) ? connection.getInputStream() : connection.getErrorStream();
+		if (in != null){
+			ByteArrayOutputStream ignored = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) > 0){
+				ignored.write(buffer, 0, read);
+			}
+			in.close();
+		}
+
+		return status;
+	}
+}
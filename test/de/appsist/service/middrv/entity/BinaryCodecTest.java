@@ -0,0 +1,168 @@
+/**
+ * Round trips of machine data through the binary representation and the errors reported for
+ * representations which do not fit the registered schemas.
+ */
+package de.appsist.service.middrv.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.appsist.service.middrv.rest.DataMessage;
+import de.appsist.service.middrv.rest.SchemaNotFoundException;
+import de.appsist.service.middrv.rest.server.SchemaRegistry;
+
+public class BinaryCodecTest {
+	private static final int FIELDS = 13;
+
+	private SchemaRegistry registry;
+	private Map<Machine, SchemaLayout> layouts;
+	private DataMessage msg;
+
+	@Before
+	public void setUp() throws Exception {
+		registry = new SchemaRegistry();
+		layouts = new HashMap<>();
+		msg = new DataMessage(123456789L);
+
+		// More than 8 fields, so the presence and boolean bits need more than one byte
+		for (int k = 0; k < 3; k++){
+			Machine machine = new Machine("v", "id" + k, "s", "u");
+			MachineSchema schema = new MachineSchema(machine, "station", "site");
+			for (int f = 0; f < FIELDS; f++){
+				schema.addField("f" + f, MachineValueType.values()[f % 4], Unit.CELSIUS);
+			}
+
+			MachineData data = new MachineData(machine, k - 1, (k == 1) ? "" : "descriptionä" + k);
+			for (int f = 0; f < FIELDS; f++){
+				// Leave out some values
+				if ((f == 5) && (k == 2))
+					continue;
+
+				switch(f % 4){
+				case 0:
+					data.put("f" + f, f * -1.5);
+					break;
+				case 1:
+					data.put("f" + f, (long) f << 40);
+					break;
+				case 2:
+					data.put("f" + f, f % 3 == 0);
+					break;
+				default:
+					data.put("f" + f, "s€" + f);
+				}
+			}
+
+			msg.addMachineData(data, schema);
+			layouts.put(machine, registry.register(schema).getLayout());
+		}
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		byte[] encoded = encode(msg);
+		DataMessage decoded = DataMessage.createFromBinary(registry, encoded);
+
+		assertEquals(msg, decoded);
+		assertEquals(msg.getTime(), decoded.getTime());
+		for (int i = 0; i < msg.getData().size(); i++){
+			assertEquals(msg.getData().get(i).getStatus(), decoded.getData().get(i).getStatus());
+			assertEquals(msg.getData().get(i).getDataCount(), decoded.getData().get(i).getDataCount());
+		}
+	}
+
+	@Test
+	public void roundTripOfExtremeValues() throws Exception {
+		Machine machine = new Machine("v", "extreme", "s");
+		MachineSchema schema = new MachineSchema(machine, "station", "site");
+		schema.addField("min", MachineValueType.LONG, Unit.NONE);
+		schema.addField("max", MachineValueType.LONG, Unit.NONE);
+		schema.addField("zero", MachineValueType.DOUBLE, Unit.NONE);
+		schema.addField("tiny", MachineValueType.DOUBLE, Unit.NONE);
+		schema.addField("empty", MachineValueType.STRING, Unit.NONE);
+		schema.addField("surrogates", MachineValueType.STRING, Unit.NONE);
+		layouts.put(machine, registry.register(schema).getLayout());
+
+		MachineData data = new MachineData(machine, Integer.MIN_VALUE, "\u0000");
+		data.put("min", Long.MIN_VALUE);
+		data.put("max", Long.MAX_VALUE);
+		data.put("zero", -0.0);
+		data.put("tiny", Double.MIN_VALUE);
+		data.put("empty", "");
+		data.put("surrogates", "😀");
+		DataMessage extreme = new DataMessage(-1);
+		extreme.addMachineData(data, schema);
+
+		DataMessage decoded = DataMessage.createFromBinary(registry, encode(extreme));
+		assertEquals(extreme, decoded);
+		assertEquals(data.getStatus(), decoded.getData().get(0).getStatus());
+	}
+
+	@Test
+	public void rejectsTruncatedMessages() throws Exception {
+		byte[] encoded = encode(msg);
+		for (int length = 0; length < encoded.length; length++){
+			try {
+				DataMessage.createFromBinary(registry, Arrays.copyOf(encoded, length));
+				fail("Accepted message truncated to " + length + " bytes");
+			} catch (IllegalArgumentException e){
+				// expected
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsTrailingBytes() throws Exception {
+		byte[] encoded = encode(msg);
+		DataMessage.createFromBinary(registry, Arrays.copyOf(encoded, encoded.length + 1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnknownVersions() throws Exception {
+		byte[] encoded = encode(msg);
+		encoded[0] = BinaryCodec.VERSION + 1;
+		DataMessage.createFromBinary(registry, encoded);
+	}
+
+	@Test(expected = SchemaNotFoundException.class)
+	public void rejectsReplacedSchemas() throws Exception {
+		byte[] encoded = encode(msg);
+		// The ID the message refers to is no longer valid
+		registry.register(msg.getSchemas().get(0));
+		DataMessage.createFromBinary(registry, encoded);
+	}
+
+	@Test(expected = SchemaNotFoundException.class)
+	public void rejectsIDsOfPreviousRuns() throws Exception {
+		byte[] encoded = encode(msg);
+		// A restarted server without a SchemaStore, the same machines register again
+		SchemaRegistry restarted = new SchemaRegistry();
+		for (MachineSchema schema : msg.getSchemas()){
+			restarted.register(schema);
+		}
+		DataMessage.createFromBinary(restarted, encoded);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void doesNotEncodeUnknownKeys(){
+		msg.getData().get(0).put("unknown", 1.0);
+		encode(msg);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void doesNotEncodeWrongTypes(){
+		msg.getData().get(0).put("f0", 1L);
+		encode(msg);
+	}
+
+	private byte[] encode(DataMessage message){
+		return BinaryCodec.encode(message.getTime(), message.getData(), layouts).getBytes();
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Checks that the fingerprint of a schema depends on its content only, so it is the same in every
+ * process and after sending the schema, and that every part of the content changes it.
+ */
+package de.appsist.service.middrv.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import de.appsist.service.middrv.rest.SchemaNotFoundException;
+import de.appsist.service.middrv.rest.server.SchemaRegistry;
+
+public class MachineSchemaFingerprintTest {
+	@Test
+	public void isStableAcrossProcesses(){
+		// Hash of the content as documented, a different value breaks clients which cached fingerprints
+		assertEquals("ea3810178b8f511ab9c464c7426d92a1", schema().getFingerprint());
+	}
+
+	@Test
+	public void ignoresTheOrderOfFields(){
+		MachineSchema reordered = new MachineSchema(new Machine("vendor", "id", "serial", "uuid"), "station", "site");
+		reordered.addField("pressure", MachineValueType.LONG, new Unit("bar"));
+		reordered.addField("temperature", MachineValueType.DOUBLE, Unit.CELSIUS);
+
+		assertEquals(schema().getFingerprint(), reordered.getFingerprint());
+	}
+
+	@Test
+	public void survivesSerialization() throws Exception {
+		MachineSchema schema = schema();
+		SchemaStructure structure = new SchemaStructure(new HashMap<>(schema.getStructure().getFields()));
+		assertEquals(schema.getFingerprint(), MachineSchema.createFromJson(schema.toJson()).getFingerprint());
+		assertEquals(schema.getFingerprint(), MachineSchema.createFromXml(schema.toXml()).getFingerprint());
+		assertEquals(schema.getFingerprint(), schema.withStructure(structure).getFingerprint());
+	}
+
+	@Test
+	public void dependsOnEveryPart(){
+		Machine machine = new Machine("vendor", "id", "serial", "uuid");
+		MachineSchema[] schemas = {
+			schema(),
+			schema(new MachineSchema(new Machine("vendor", "id", "serial2", "uuid"), "station", "site")),
+			schema(new MachineSchema(new Machine("vendor", "id", "serial", ""), "station", "site")),
+			schema(new MachineSchema(new Machine("vendo", "rid", "serial", "uuid"), "station", "site")),
+			schema(new MachineSchema(machine, "station2", "site")),
+			schema(new MachineSchema(machine, "station", "site", "uuid")),
+			schema(new MachineSchema(machine, "site", "station")),
+			withField("pressure", MachineValueType.DOUBLE, new Unit("bar")),
+			withField("pressure", MachineValueType.LONG, new Unit("mbar")),
+			withField("pressure2", MachineValueType.LONG, new Unit("bar")),
+			schema(new MachineSchema(machine, "station", "site"))
+		};
+		schemas[schemas.length - 1].addField("pressure", MachineValueType.LONG, new Unit("bar"));
+		schemas[schemas.length - 1].addField("temperature", MachineValueType.DOUBLE, Unit.CELSIUS,
+		                                     VisualizationType.TEXT_FIELD, VisualizationLevel.NEVER);
+
+		Set<String> fingerprints = new HashSet<>();
+		for (MachineSchema schema : schemas){
+			fingerprints.add(schema.getFingerprint());
+		}
+		assertEquals(schemas.length, fingerprints.size());
+	}
+
+	@Test
+	public void changesWithTheFields(){
+		MachineSchema schema = schema();
+		String fingerprint = schema.getFingerprint();
+		schema.addField("humidity", MachineValueType.DOUBLE, Unit.NONE);
+
+		assertNotEquals(fingerprint, schema.getFingerprint());
+	}
+
+	@Test
+	public void findsRegisteredSchemas() throws Exception {
+		SchemaRegistry registry = new SchemaRegistry();
+		MachineSchema schema = schema();
+		registry.register(schema);
+
+		assertSame(registry.get(schema.getMachine()), registry.getByFingerprint(schema().getFingerprint()));
+		registry.checkFingerprints(" " + schema.getFingerprint() + ",,");
+	}
+
+	@Test(expected = SchemaNotFoundException.class)
+	public void reportsUnknownFingerprints() throws Exception {
+		SchemaRegistry registry = new SchemaRegistry();
+		registry.register(schema());
+		String unknown = withField("x", MachineValueType.BOOL, Unit.NONE).getFingerprint();
+		registry.checkFingerprints(schema().getFingerprint() + "," + unknown);
+	}
+
+	private static MachineSchema schema(){
+		return schema(new MachineSchema(new Machine("vendor", "id", "serial", "uuid"), "station", "site"));
+	}
+
+	/**
+	 * @return The given schema with the fields of the default schema
+	 */
+	private static MachineSchema schema(MachineSchema schema){
+		schema.addField("temperature", MachineValueType.DOUBLE, Unit.CELSIUS);
+		schema.addField("pressure", MachineValueType.LONG, new Unit("bar"));
+		return schema;
+	}
+
+	/**
+	 * @return The default schema with the given field replacing its pressure
+	 */
+	private static MachineSchema withField(String key, MachineValueType type, Unit unit){
+		MachineSchema schema = new MachineSchema(new Machine("vendor", "id", "serial", "uuid"), "station", "site");
+		schema.addField("temperature", MachineValueType.DOUBLE, Unit.CELSIUS);
+		schema.addField(key, type, unit);
+		return schema;
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * Checks that the values created by MachineValueFactory can still be read the way callers did before
+ * they held primitives, by casting them to MachineValueImpl, and that they equal values of the same
+ * content held by a MachineValueImpl.
+ */
+package de.appsist.service.middrv.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MachineValueTest {
+	@Test
+	public void readsValuesThroughMachineValueImpl(){
+		assertEquals(5L, ((MachineValueImpl<?>) MachineValueFactory.create(5)).getValue());
+		assertEquals(-7L, ((MachineValueImpl<?>) MachineValueFactory.create(-7L)).getValue());
+		assertEquals(2.5, ((MachineValueImpl<?>) MachineValueFactory.create(2.5)).getValue());
+		assertEquals(true, ((MachineValueImpl<?>) MachineValueFactory.create(true)).getValue());
+		assertEquals("s", ((MachineValueImpl<?>) MachineValueFactory.create("s")).getValue());
+
+		@SuppressWarnings("unchecked")
+		MachineValueImpl<Double> value = (MachineValueImpl<Double>) MachineValueFactory.create(1.0);
+		value.setValue(3.0);
+		assertEquals(Double.valueOf(3.0), value.getValue());
+		assertEquals(MachineValueFactory.create(3.0), value);
+	}
+
+	@Test
+	public void readsDecodedValuesThroughMachineValueImpl() throws Exception {
+		Machine machine = new Machine("v", "id", "s");
+		MachineSchema schema = new MachineSchema(machine, "station", "site");
+		schema.addField("l", MachineValueType.LONG, Unit.NONE);
+		schema.addField("d", MachineValueType.DOUBLE, Unit.NONE);
+		schema.addField("b", MachineValueType.BOOL, Unit.NONE);
+
+		MachineData data = new MachineData(machine, schema.getStructure(), new Status(0, null));
+		data.put("l", 1L);
+		data.put("d", 1.5);
+		data.put("b", false);
+		MachineData decoded = MachineData.createFromJson(data.toJson());
+
+		for (MachineData machineData : new MachineData[]{ data, decoded }){
+			assertEquals(1L, ((MachineValueImpl<?>) machineData.getValue("l")).getValue());
+			assertEquals(1.5, ((MachineValueImpl<?>) machineData.getValue("d")).getValue());
+			assertEquals(false, ((MachineValueImpl<?>) machineData.getValue("b")).getValue());
+		}
+	}
+
+	@Test
+	public void equalsValuesOfMachineValueImpl(){
+		MachineValue[][] pairs = {
+			{ MachineValueFactory.create(5L), new MachineValueImpl<Long>(MachineValueType.LONG, 5L) },
+			{ MachineValueFactory.create(0.5), new MachineValueImpl<Double>(MachineValueType.DOUBLE, 0.5) },
+			{ MachineValueFactory.create(true), new MachineValueImpl<Boolean>(MachineValueType.BOOL, true) }
+		};
+		for (MachineValue[] pair : pairs){
+			assertEquals(pair[0], pair[1]);
+			assertEquals(pair[1], pair[0]);
+			assertEquals(pair[1].hashCode(), pair[0].hashCode());
+			assertEquals(0, pair[0].compareTo(pair[1]));
+			assertEquals(0, pair[1].compareTo(pair[0]));
+		}
+		assertTrue(MachineValueFactory.create(4L).compareTo(pairs[0][1]) < 0);
+	}
+
+	@Test
+	public void holdsNullBoxedValues(){
+		assertNull(((MachineValueImpl<?>) MachineValueFactory.create((Long) null)).getValue());
+		assertNull(((MachineValueImpl<?>) MachineValueFactory.create((Integer) null)).getValue());
+		assertNull(((MachineValueImpl<?>) MachineValueFactory.create((Double) null)).getValue());
+		assertNull(((MachineValueImpl<?>) MachineValueFactory.create((Boolean) null)).getValue());
+		assertEquals(MachineValueType.DOUBLE, MachineValueFactory.create((Double) null).getType());
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ * Checks that serializing through a SerializationWriter gives exactly the JSON and XML the entities
+ * produced before by concatenating Strings, and that all targets of the writer get the same UTF-8.
+ */
+package de.appsist.service.middrv.entity;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.vertx.java.core.buffer.Buffer;
+
+import de.appsist.service.middrv.rest.BatchResult;
+import de.appsist.service.middrv.rest.ContentType;
+import de.appsist.service.middrv.rest.DataMessage;
+import de.appsist.service.middrv.rest.SchemaMessage;
+
+public class SerializationWriterTest {
+	/**
+	 * toJson(), toXml(true) and toXml(false) of the objects of serializeables() as returned by the
+	 * String concatenating implementation
+	 */
+	private static final String[][] EXPECTED = {
+		{ "{\"time\":1234567890123,\"machines\":[{\"vendor\":\"vendor \\\"A\\\"\",\"id\":\"id/1\","
+		  + "\"serial_number\":\"serial \u00e4\",\"uuid\":\"uuid \\u20ac\",\"data\":{\"temperature\":21.5,"
+		  + "\"count\":-9223372036854775808,\"on\":true},\"status\":{\"code\":2,"
+		  + "\"description\":\"warn\\n\\\"quoted\\\" \ud83d\ude00\"}}]}",
+		  "<data_message><time>1234567890123</time><machines><machine><vendor>vendor \"A\"</vendor>"
+		  + "<id>id/1</id><serial_number><![CDATA[serial \u00e4]]></serial_number><uuid>"
+		  + "<![CDATA[uuid \u20ac]]></uuid><data><entry><name><![CDATA[temperature]]></name><value>21.5"
+		  + "</value></entry><entry><name><![CDATA[count]]></name><value>-9223372036854775808</value>"
+		  + "</entry><entry><name><![CDATA[on]]></name><value>true</value></entry></data><status><code>2"
+		  + "</code><description><![CDATA[warn\n\"quoted\" \ud83d\ude00]]></description></status></machine>"
+		  + "</machines></data_message>",
+		  "<time>1234567890123</time><machines><machine><vendor>vendor \"A\"</vendor><id>id/1</id>"
+		  + "<serial_number><![CDATA[serial \u00e4]]></serial_number><uuid><![CDATA[uuid \u20ac]]></uuid>"
+		  + "<data><entry><name><![CDATA[temperature]]></name><value>21.5</value></entry><entry><name>"
+		  + "<![CDATA[count]]></name><value>-9223372036854775808</value></entry><entry><name><![CDATA[on]]>"
+		  + "</name><value>true</value></entry></data><status><code>2</code><description>"
+		  + "<![CDATA[warn\n\"quoted\" \ud83d\ude00]]></description></status></machine></machines>" },
+		{ "{\"time\":42,\"schemas\":[{\"vendor\":\"vendor \\\"A\\\"\",\"id\":\"id/1\","
+		  + "\"serial_number\":\"serial \u00e4\",\"uuid\":\"uuid \\u20ac\",\"station_id\":\"station <1>\","
+		  + "\"site_id\":\"site\",\"site_uuid\":\"site\\\\uuid\",\"schema\":[{\"name\":\"temperature\","
+		  + "\"type\":\"double\",\"unit\":\"\u00b0C\",\"visualization_type\":\"text_field\","
+		  + "\"visualization_level\":\"detail\"},{\"name\":\"count\",\"type\":\"long\",\"unit\":\"\","
+		  + "\"visualization_type\":\"text_field\",\"visualization_level\":\"detail\"},{\"name\":\"on\","
+		  + "\"type\":\"bool\",\"unit\":\"x<y>\",\"visualization_type\":\"text_field\","
+		  + "\"visualization_level\":\"overview\"}]}]}",
+		  "<schema_message><time>42</time><schemas><machine><vendor>vendor \"A\"</vendor><id>id/1</id>"
+		  + "<serial_number><![CDATA[serial \u00e4]]></serial_number><uuid><![CDATA[uuid \u20ac]]></uuid>"
+		  + "<station_id>station <1></station_id><site_id>site</site_id><site_uuid>site\\uuid</site_uuid>"
+		  + "<schema><specification><name><![CDATA[temperature]]></name><type>double</type><unit>"
+		  + "<![CDATA[\u00b0C]]></unit><visualization_type><![CDATA[text_field]]></visualization_type>"
+		  + "<visualization_level><![CDATA[detail]]></visualization_level></specification><specification>"
+		  + "<name><![CDATA[count]]></name><type>long</type><unit><![CDATA[]]></unit><visualization_type>"
+		  + "<![CDATA[text_field]]></visualization_type><visualization_level><![CDATA[detail]]>"
+		  + "</visualization_level></specification><specification><name><![CDATA[on]]></name><type>bool"
+		  + "</type><unit><![CDATA[x<y>]]></unit><visualization_type><![CDATA[text_field]]>"
+		  + "</visualization_type><visualization_level><![CDATA[overview]]></visualization_level>"
+		  + "</specification></schema></machine></schemas></schema_message>",
+		  "<time>42</time><schemas><machine><vendor>vendor \"A\"</vendor><id>id/1</id><serial_number>"
+		  + "<![CDATA[serial \u00e4]]></serial_number><uuid><![CDATA[uuid \u20ac]]></uuid>"
+		  + "<station_id>station <1></station_id><site_id>site</site_id><site_uuid>site\\uuid</site_uuid>"
+		  + "<schema><specification><name><![CDATA[temperature]]></name><type>double</type><unit>"
+		  + "<![CDATA[\u00b0C]]></unit><visualization_type><![CDATA[text_field]]></visualization_type>"
+		  + "<visualization_level><![CDATA[detail]]></visualization_level></specification><specification>"
+		  + "<name><![CDATA[count]]></name><type>long</type><unit><![CDATA[]]></unit><visualization_type>"
+		  + "<![CDATA[text_field]]></visualization_type><visualization_level><![CDATA[detail]]>"
+		  + "</visualization_level></specification><specification><name><![CDATA[on]]></name><type>bool"
+		  + "</type><unit><![CDATA[x<y>]]></unit><visualization_type><![CDATA[text_field]]>"
+		  + "</visualization_type><visualization_level><![CDATA[overview]]></visualization_level>"
+		  + "</specification></schema></machine></schemas>" },
+		{ "{\"codes\":[0,-5]}",
+		  "<batch_result><codes>0 -5</codes></batch_result>",
+		  "<codes>0 -5</codes>" },
+		{ "{\"code\":-3,\"description\":\"tab\\t<\\/script> \\u0001 \\u2028\"}",
+		  "<status><code>-3</code><description><![CDATA[tab\t</script> \u0001 \u2028]]></description>"
+		  + "</status>",
+		  "<code>-3</code><description><![CDATA[tab\t</script> \u0001 \u2028]]></description>" },
+		{ "{\"code\":1}",
+		  "<status><code>1</code></status>",
+		  "<code>1</code>" }
+	};
+
+	@Test
+	public void serializesLikeStringConcatenation() throws Exception {
+		List<Serializeable> serializeables = serializeables();
+		for (int i = 0; i < EXPECTED.length; i++){
+			Serializeable serializeMe = serializeables.get(i);
+			assertEquals(EXPECTED[i][0], serializeMe.toJson());
+			assertEquals(EXPECTED[i][1], serializeMe.toXml(true));
+			assertEquals(EXPECTED[i][1], serializeMe.toXml());
+			assertEquals(EXPECTED[i][2], serializeMe.toXml(false));
+		}
+	}
+
+	@Test
+	public void encodesTheSameIntoBuffers() throws Exception {
+		for (Serializeable serializeMe : serializeables()){
+			for (ContentType contentType : new ContentType[]{ ContentType.JSON, ContentType.XML }){
+				String serialized = (contentType == ContentType.JSON) ? serializeMe.toJson() : serializeMe.toXml();
+				byte[] expected = serialized.getBytes(StandardCharsets.UTF_8);
+
+				assertArrayEquals(expected, Serializer.serializeToBuffer(serializeMe, contentType).getBytes());
+
+				Buffer buffer = new Buffer("ab");
+				Serializer.serialize(serializeMe, contentType, buffer);
+				assertEquals("ab", buffer.getString(0, 2));
+				assertArrayEquals(expected, buffer.getBytes(2, buffer.length()));
+
+				// Smaller than the message, so it has to grow
+				ByteBuf byteBuf = Unpooled.buffer(4);
+				Serializer.serialize(serializeMe, contentType, byteBuf);
+				byte[] bytes = new byte[byteBuf.readableBytes()];
+				byteBuf.readBytes(bytes);
+				assertArrayEquals(expected, bytes);
+			}
+		}
+	}
+
+	@Test
+	public void quotesLikeJSONObject(){
+		String chars = "ab </\"\\\b\t\n\f\r\u0000\u001f\u007f\u0080\u009f\u00a0\u00e4\u2000\u2028\u20ac\uffff\ud83d\ude00";
+		Random random = new Random(23);
+		for (int i = 0; i < 10000; i++){
+			StringBuilder s = new StringBuilder();
+			for (int n = random.nextInt(10); n > 0; n--){
+				s.append(chars.charAt(random.nextInt(chars.length())));
+			}
+
+			StringBuilder quoted = new StringBuilder();
+			SerializationWriter.create(quoted).appendQuoted(s.toString());
+			assertEquals(JSONObject.quote(s.toString()), quoted.toString());
+
+			Buffer buffer = new Buffer();
+			SerializationWriter.create(buffer).appendQuoted(s.toString());
+			assertArrayEquals(quoted.toString().getBytes(StandardCharsets.UTF_8), buffer.getBytes());
+		}
+	}
+
+	/**
+	 * @return Messages with characters which need to be escaped in JSON or encoded in more than one byte
+	 */
+	private static List<Serializeable> serializeables() throws Exception {
+		Machine machine = new Machine("vendor \"A\"", "id/1", "serial \u00e4", "uuid \u20ac");
+		MachineSchema schema = new MachineSchema(machine, "station <1>", "site", "site\\uuid");
+		schema.addField("temperature", MachineValueType.DOUBLE, Unit.CELSIUS);
+		schema.addField("count", MachineValueType.LONG, Unit.NONE);
+		schema.addField("on", MachineValueType.BOOL, new Unit("x<y>"), VisualizationType.TEXT_FIELD,
+		                VisualizationLevel.OVERVIEW);
+
+		MachineData data = new MachineData(machine, 2, "warn\n\"quoted\" \ud83d\ude00");
+		data.put("temperature", 21.5);
+		data.put("count", Long.MIN_VALUE);
+		data.put("on", true);
+		DataMessage msg = new DataMessage(1234567890123L);
+		msg.addMachineData(data, schema);
+
+		SchemaMessage schemas = new SchemaMessage(42);
+		schemas.addSchema(schema);
+
+		BatchResult result = new BatchResult();
+		result.add(0);
+		result.add(-5);
+
+		return Arrays.<Serializeable>asList(msg, schemas, result, new Status(-3, "tab\t</script> \u0001 \u2028"),
+		                                     new Status(1, null));
+	}
+}
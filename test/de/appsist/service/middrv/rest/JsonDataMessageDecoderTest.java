@@ -0,0 +1,185 @@
+/**
+ * Checks that decoding the bytes of a JSON data message, with JsonDataMessageDecoder or with its
+ * fallback to org.json, gives the same result as createFromJson(Map, String) did before.
+ */
+package de.appsist.service.middrv.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.appsist.service.middrv.entity.Machine;
+import de.appsist.service.middrv.entity.MachineData;
+import de.appsist.service.middrv.entity.MachineSchema;
+import de.appsist.service.middrv.entity.MachineValueType;
+import de.appsist.service.middrv.entity.Unit;
+import de.appsist.service.middrv.rest.server.SchemaTimePair;
+
+public class JsonDataMessageDecoderTest {
+	private static final String MESSAGE = "{\"time\":123,\"machines\":[{\"vendor\":\"vä\",\"id\":\"id\","
+	                                      + "\"serial_number\":\"ser\\\"x\",\"uuid\":\"u\",\"data\":{%s},"
+	                                      + "\"status\":{\"code\":-3,\"description\":\"e\\u00e4\\n\"}}]}";
+
+	private Map<Machine, SchemaTimePair> schemas;
+
+	@Before
+	public void setUp(){
+		Machine machine = new Machine("vä", "id", "ser\"x", "u");
+		MachineSchema schema = new MachineSchema(machine, "station", "site");
+		schema.addField("d", MachineValueType.DOUBLE, Unit.NONE);
+		schema.addField("l", MachineValueType.LONG, Unit.NONE);
+		schema.addField("b", MachineValueType.BOOL, Unit.NONE);
+		schema.addField("s", MachineValueType.STRING, Unit.NONE);
+
+		schemas = new HashMap<>();
+		schemas.put(machine, new SchemaTimePair(schema));
+	}
+
+	@Test
+	public void decodesAllTypes(){
+		DataMessage msg = assertSameResult(String.format(MESSAGE, "\"d\":1.5,\"l\":-42,\"b\":true,\"s\":\"x\\ty\\u0041€\""));
+
+		MachineData data = msg.getData().get(0);
+		assertEquals(123, msg.getTime());
+		assertEquals("1.5", data.getValue("d").toString());
+		assertEquals("-42", data.getValue("l").toString());
+		assertEquals("true", data.getValue("b").toString());
+		assertEquals("x\tyA€", data.getValue("s").toString());
+		assertEquals(-3, data.getStatus().getCode());
+		assertEquals("eä\n", data.getStatus().getDescription());
+	}
+
+	@Test
+	public void decodesNumbersLikeOrgJson(){
+		String[] values = { "\"d\":0.1", "\"d\":1e5", "\"d\":-0.0", "\"d\":123456789.123456789",
+		                    "\"d\":1.7976931348623157e308", "\"d\":4.9e-324", "\"d\":2.2250738585072014E-308",
+		                    "\"d\":0.30000000000000004", "\"d\":12.345e-3", "\"d\":1234567890123456.7",
+		                    "\"l\":-0", "\"l\":9223372036854775807", "\"l\":-9223372036854775808",
+		                    "\"l\":3000000000" };
+		for (String value : values){
+			assertSameResult(String.format(MESSAGE, value));
+		}
+	}
+
+	@Test
+	public void fallsBackToOrgJson(){
+		// Input the streaming decoder leaves to org.json, valid or not
+		String[] values = { "\"d\":1e400", "\"l\":9223372036854775808", "\"l\":01", "\"d\":1.", "\"b\":TRUE",
+		                    "\"s\":'a'", "\"l\":5,\"l\":6", "\"s\":null", "\"s\":{}", "\"s\":[1]", "\"d\":1.5,",
+		                    "\"d\":1", "\"x\":1" };
+		for (String value : values){
+			assertSameResult(String.format(MESSAGE, value));
+		}
+
+		assertSameResult("{\"machines\":[],\"time\":5}");
+		assertSameResult("{\"time\":5.0,\"machines\":[]}");
+		assertSameResult("{\"time\":\"5\",\"machines\":[]}");
+		assertSameResult("{\"time\":5}");
+		assertSameResult("garbage");
+	}
+
+	@Test
+	public void rejectsUnknownMachines(){
+		String json = "{\"time\":5,\"machines\":[{\"vendor\":\"a\",\"id\":\"b\",\"serial_number\":\"c\","
+		              + "\"data\":{},\"status\":{\"code\":0}}]}";
+		assertSameResult(json);
+		try {
+			DataMessage.createFromJson(schemas, json.getBytes(StandardCharsets.UTF_8));
+			fail("Machine without schema accepted");
+		} catch (SchemaNotFoundException e){
+			// expected
+		} catch (Exception e){
+			fail("Unexpected " + e);
+		}
+	}
+
+	@Test
+	public void decodesPartOfBuffer() throws Exception {
+		String json = String.format(MESSAGE, "\"d\":2.5");
+		byte[] message = json.getBytes(StandardCharsets.UTF_8);
+		byte[] buffer = new byte[message.length + 20];
+		System.arraycopy(message, 0, buffer, 10, message.length);
+
+		DataMessage expected = DataMessage.createFromJson(schemas, json);
+		assertEquals(expected, DataMessage.createFromJson(schemas, buffer, 10, message.length));
+	}
+
+	@Test
+	public void decodesLazilyOnFirstAccess() throws Exception {
+		String json = String.format(MESSAGE, "\"d\":2.5,\"s\":\"x\"");
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+
+		DataMessage msg = DataMessage.createFromJson(schemas, bytes, 0, bytes.length, true);
+		assertFalse(msg.getData().get(0).isDecoded());
+		msg.validate();
+		assertTrue(msg.getData().get(0).isDecoded());
+		assertEquals(DataMessage.createFromJson(schemas, json), msg);
+	}
+
+	@Test(expected = DataSchemaMismatchException.class)
+	public void reportsLazyMismatchOnValidate() throws Exception {
+		byte[] bytes = String.format(MESSAGE, "\"x\":1").getBytes(StandardCharsets.UTF_8);
+
+		DataMessage.createFromJson(schemas, bytes, 0, bytes.length, true).validate();
+	}
+
+	@Test
+	public void reportsLazyMismatchOnFirstAccess() throws Exception {
+		byte[] bytes = String.format(MESSAGE, "\"d\":\"x\"").getBytes(StandardCharsets.UTF_8);
+		MachineData data = DataMessage.createFromJson(schemas, bytes, 0, bytes.length, true).getData().get(0);
+
+		// Every access fails, the invalid values are never visible
+		for (int i = 0; i < 2; i++){
+			try {
+				data.getValue("d");
+				fail("Accessed values not matching their schema");
+			} catch (IllegalStateException e){
+				assertTrue(e.getCause() instanceof DataSchemaMismatchException);
+			}
+		}
+	}
+
+	/**
+	 * Decode the given JSON from a String with org.json and from its bytes, and check that both give
+	 * equal messages or fail with the same exception
+	 * @return The message decoded from the bytes or <code>null</code>, if decoding failed
+	 */
+	private DataMessage assertSameResult(String json){
+		DataMessage expected = null;
+		Exception expectedException = null;
+		try {
+			expected = DataMessage.createFromJson(schemas, json);
+		} catch (RuntimeException | SchemaNotFoundException | DataSchemaMismatchException e){
+			expectedException = e;
+		}
+
+		DataMessage actual = null;
+		try {
+			actual = DataMessage.createFromJson(schemas, json.getBytes(StandardCharsets.UTF_8));
+		} catch (RuntimeException | SchemaNotFoundException | DataSchemaMismatchException e){
+			if (expectedException == null)
+				throw new AssertionError("Failed to decode " + json + ": " + e);
+
+			assertEquals(json, expectedException.getClass(), e.getClass());
+			assertEquals(json, expectedException.getMessage(), e.getMessage());
+			return null;
+		}
+
+		if (expectedException != null)
+			fail("Decoded " + json + ", but org.json failed with " + expectedException);
+
+		assertEquals(json, expected, actual);
+		for (int i = 0; i < expected.getData().size(); i++){
+			assertEquals(json, expected.getData().get(i).getStatus(), actual.getData().get(i).getStatus());
+		}
+		return actual;
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ * Checks that decoding the bytes of an XML data message with XmlDataMessageDecoder gives the same result
+ * as createFromXml(Map, String), which converts the XML to a JSONObject first.
+ */
+package de.appsist.service.middrv.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.appsist.service.middrv.entity.Machine;
+import de.appsist.service.middrv.entity.MachineData;
+import de.appsist.service.middrv.entity.MachineSchema;
+import de.appsist.service.middrv.entity.MachineValueType;
+import de.appsist.service.middrv.entity.Unit;
+import de.appsist.service.middrv.rest.server.SchemaTimePair;
+
+public class XmlDataMessageDecoderTest {
+	private static final String HEAD = "<data_message><time>123</time><machines><machine><vendor>vA</vendor>"
+	                                   + "<id>idB</id><serial_number><![CDATA[ser x]]></serial_number>"
+	                                   + "<uuid><![CDATA[u]]></uuid><data>";
+	private static final String TAIL = "</data><status><code>-3</code><description><![CDATA[e]]></description>"
+	                                   + "</status></machine></machines></data_message>";
+
+	private Machine machine;
+	private MachineSchema schema;
+	private Map<Machine, SchemaTimePair> schemas;
+
+	@Before
+	public void setUp(){
+		machine = new Machine("vA", "idB", "ser x", "u");
+		schema = new MachineSchema(machine, "station", "site");
+		schema.addField("d", MachineValueType.DOUBLE, Unit.NONE);
+		schema.addField("l", MachineValueType.LONG, Unit.NONE);
+		schema.addField("b", MachineValueType.BOOL, Unit.NONE);
+		schema.addField("s", MachineValueType.STRING, Unit.NONE);
+
+		schemas = new HashMap<>();
+		schemas.put(machine, new SchemaTimePair(schema));
+	}
+
+	@Test
+	public void decodesEntriesLikeOrgJson(){
+		String[] entries = { "<entry><name><![CDATA[d]]></name><value>1.5</value></entry>",
+		                     "<entry><name>d</name><value> 1.50 </value></entry>",
+		                     "<entry><name>d</name><value>1e5</value></entry>",
+		                     "<entry><name>l</name><value>5</value></entry>",
+		                     "<entry><name>l</name><value>-0</value></entry>",
+		                     "<entry><name>b</name><value>TRUE</value></entry>",
+		                     "<entry><name>s</name><value><![CDATA[ 5 ]]></value></entry>",
+		                     "<entry><name>s</name><value>a &amp; b</value></entry>",
+		                     "<entry><name>s</name><value>a<!--x-->b</value></entry>",
+		                     "<entry><name>s</name><value></value></entry>",
+		                     "<entry><name>s</name><value>null</value></entry>",
+		                     "<entry><name>l</name><value>1</value></entry><entry><name>l</name><value>2</value></entry>",
+		                     "<entry a='1'><name>l</name><value>1</value></entry>",
+		                     "<foo>bar</foo><entry><name>d</name><value>2.0</value></entry>",
+		                     "" };
+		for (String entry : entries){
+			assertSameResult(HEAD + entry + TAIL);
+		}
+	}
+
+	@Test
+	public void reportsErrorsLikeOrgJson(){
+		String[] entries = { "<entry><name>s</name><value><x/></value></entry>",
+		                     "<entry><name>5</name><value>1</value></entry>",
+		                     "<entry><name>l</name></entry>" };
+		for (String entry : entries){
+			assertSameResult(HEAD + entry + TAIL);
+		}
+
+		String entry = "<entry><name>l</name><value>5</value></entry>";
+		assertSameResult(HEAD.replace("<vendor>vA</vendor>", "<vendor>12</vendor>") + entry + TAIL);
+		assertSameResult(HEAD + entry + TAIL + "<x/>");
+		assertSameResult("<data_message><machines></machines></data_message>");
+		assertSameResult("garbage");
+	}
+
+	@Test
+	public void decodesOptionalParts(){
+		String entry = "<entry><name>l</name><value>5</value></entry>";
+		String status = "<status><code>-3</code><description><![CDATA[e]]></description></status>";
+
+		assertSameResult("<data_message><time>1</time><machines></machines></data_message>");
+		assertSameResult("<?xml version=\"1.0\"?>\n<data_message>\n  <time>007</time>\n"
+		                 + HEAD.substring(HEAD.indexOf("<machines>")) + entry + TAIL);
+		assertSameResult(HEAD.replace("<uuid><![CDATA[u]]></uuid>", "") + entry + TAIL);
+		assertSameResult((HEAD + entry + TAIL).replace(status, "<status><code>2</code></status>"));
+		assertSameResult((HEAD + entry + TAIL).replace(status, ""));
+	}
+
+	@Test
+	public void decodesSerializedMessages() throws Exception {
+		Random random = new Random(3);
+		for (int i = 0; i < 500; i++){
+			DataMessage msg = new DataMessage(random.nextLong());
+			MachineData data = new MachineData(machine, random.nextInt(10) - 5, "description <" + i + ">");
+			if (random.nextBoolean())
+				data.put("d", random.nextDouble() * 1000);
+			if (random.nextBoolean())
+				data.put("l", random.nextLong());
+			if (random.nextBoolean())
+				data.put("b", random.nextBoolean());
+			data.put("s", "string & " + i);
+			msg.addMachineData(data, schema);
+
+			assertNotNull(assertSameResult(msg.toXml()));
+		}
+	}
+
+	@Test
+	public void decodesPartOfBuffer() throws Exception {
+		String xml = HEAD + "<entry><name>d</name><value>2.5</value></entry>" + TAIL;
+		byte[] message = xml.getBytes(StandardCharsets.UTF_8);
+		byte[] buffer = new byte[message.length + 20];
+		System.arraycopy(message, 0, buffer, 10, message.length);
+
+		DataMessage expected = DataMessage.createFromXml(schemas, xml);
+		assertEquals(expected, DataMessage.createFromXml(schemas, buffer, 10, message.length));
+	}
+
+	/**
+	 * Decode the given XML from a String with org.json and from its bytes, and check that both give
+	 * equal messages or fail with the same exception
+	 * @return The message decoded from the bytes or <code>null</code>, if decoding failed
+	 */
+	private DataMessage assertSameResult(String xml){
+		DataMessage expected = null;
+		Exception expectedException = null;
+		try {
+			expected = DataMessage.createFromXml(schemas, xml);
+		} catch (RuntimeException | SchemaNotFoundException | DataSchemaMismatchException e){
+			expectedException = e;
+		}
+
+		DataMessage actual = null;
+		try {
+			actual = DataMessage.createFromXml(schemas, xml.getBytes(StandardCharsets.UTF_8));
+		} catch (RuntimeException | SchemaNotFoundException | DataSchemaMismatchException e){
+			if (expectedException == null)
+				throw new AssertionError("Failed to decode " + xml + ": " + e);
+
+			assertEquals(xml, expectedException.getClass(), e.getClass());
+			assertEquals(xml, expectedException.getMessage(), e.getMessage());
+			return null;
+		}
+
+		if (expectedException != null)
+			fail("Decoded " + xml + ", but org.json failed with " + expectedException);
+
+		assertEquals(xml, expected, actual);
+		for (int i = 0; i < expected.getData().size(); i++){
+			assertEquals(xml, expected.getData().get(i).getStatus(), actual.getData().get(i).getStatus());
+		}
+		return actual;
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ * Checks that BodyInflater inflates gzip and deflate encoded bodies split into any chunks and that it
+ * passes the inflated data on in small pieces, so a sink limiting the body size stops a compression
+ * bomb after inflating little more than the limit.
+ */
+package de.appsist.service.middrv.rest.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+import org.vertx.java.core.buffer.Buffer;
+
+public class BodyInflaterTest {
+	/**
+	 * Collects the inflated body and fails like the request handler, once it exceeds the limit
+	 */
+	private static class LimitedSink implements BodyInflater.Sink {
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		final int limit;
+		long written = 0;
+
+		LimitedSink(int limit){
+			this.limit = limit;
+		}
+
+		@Override
+		public void write(Buffer data) throws Exception {
+			written += data.length();
+			if (written > limit)
+				throw new IllegalStateException("Body too large");
+			body.write(data.getBytes());
+		}
+	}
+
+	private static final byte[] BODY = body();
+
+	@Test
+	public void inflatesGzipInAnyChunks() throws Exception {
+		byte[] encoded = gzip(BODY);
+		for (int chunkSize : new int[]{ 1, 2, 3, 7, 10, 11, 100, 4096, encoded.length }){
+			assertArrayEquals("chunk size " + chunkSize, BODY, inflate("gzip", encoded, chunkSize));
+		}
+	}
+
+	@Test
+	public void inflatesZlibAndRawDeflateInAnyChunks() throws Exception {
+		byte[] zlib = deflate(BODY, false);
+		byte[] raw = deflate(BODY, true);
+		for (int chunkSize : new int[]{ 1, 2, 3, 100, 4096, zlib.length }){
+			assertArrayEquals("zlib chunk size " + chunkSize, BODY, inflate("deflate", zlib, chunkSize));
+			assertArrayEquals("raw chunk size " + chunkSize, BODY, inflate("deflate", raw, chunkSize));
+		}
+	}
+
+	@Test
+	public void inflatesConcatenatedGzipMembers() throws Exception {
+		byte[] first = gzip(Arrays.copyOf(BODY, 1000));
+		byte[] second = gzip(Arrays.copyOfRange(BODY, 1000, BODY.length));
+		byte[] encoded = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, encoded, first.length, second.length);
+
+		assertArrayEquals(BODY, inflate("gzip", encoded, 5));
+	}
+
+	@Test
+	public void stopsCompressionBombsAtTheLimit() throws Exception {
+		// 64 MiB of zeros compress to about 64 KiB
+		byte[] zeros = new byte[1024 * 1024];
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		try (GZIPOutputStream out = new GZIPOutputStream(encoded)){
+			for (int i = 0; i < 64; i++){
+				out.write(zeros);
+			}
+		}
+
+		int limit = 1024 * 1024;
+		for (String encoding : new String[]{ "gzip", "deflate" }){
+			byte[] bomb = encoding.equals("gzip") ? encoded.toByteArray() : deflate(new byte[64 * limit], false);
+			LimitedSink sink = new LimitedSink(limit);
+			BodyInflater inflater = BodyInflater.create(encoding, sink);
+			try {
+				inflater.write(new Buffer(bomb));
+				fail(encoding + " bomb inflated completely");
+			} catch (IllegalStateException e){
+				// At most one more piece than the limit is inflated
+				assertTrue(encoding + " inflated " + sink.written, sink.written <= limit + 8192);
+			}
+		}
+	}
+
+	@Test
+	public void rejectsTruncatedBodies() throws Exception {
+		byte[] encoded = gzip(BODY);
+		for (int length : new int[]{ 5, 10, encoded.length / 2, encoded.length - 1 }){
+			try {
+				inflate("gzip", Arrays.copyOf(encoded, length), 64);
+				fail("Accepted body truncated to " + length + " bytes");
+			} catch (IllegalArgumentException e){
+				// expected
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsChecksumMismatches() throws Exception {
+		byte[] encoded = gzip(BODY);
+		encoded[encoded.length - 8] ^= 1;
+		inflate("gzip", encoded, 64);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnterminatedFileNames() throws Exception {
+		// A gzip header with a file name which never ends
+		byte[] header = new byte[200 * 1024];
+		Arrays.fill(header, (byte) 'x');
+		header[0] = 0x1F;
+		header[1] = (byte) 0x8B;
+		header[2] = 8;
+		header[3] = 8;
+		inflate("gzip", header, 4096);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnknownEncodings(){
+		BodyInflater.create("br", new LimitedSink(0));
+	}
+
+	private static byte[] inflate(String encoding, byte[] encoded, int chunkSize) throws Exception {
+		LimitedSink sink = new LimitedSink(Integer.MAX_VALUE);
+		BodyInflater inflater = BodyInflater.create(encoding, sink);
+		for (int pos = 0; pos < encoded.length; pos += chunkSize){
+			int end = Math.min(pos + chunkSize, encoded.length);
+			inflater.write(new Buffer(Arrays.copyOfRange(encoded, pos, end)));
+		}
+		inflater.finish();
+
+		return sink.body.toByteArray();
+	}
+
+	/**
+	 * @return A body compressing well, but larger than the pieces of the inflater
+	 */
+	private static byte[] body(){
+		Random random = new Random(7);
+		StringBuilder body = new StringBuilder();
+		while (body.length() < 50000){
+			body.append("{\"time\":").append(random.nextInt()).append(",\"value\":").append(random.nextDouble()).append("}\n");
+		}
+
+		return body.toString().getBytes();
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		try (GZIPOutputStream out = new GZIPOutputStream(encoded)){
+			out.write(data);
+		}
+
+		return encoded.toByteArray();
+	}
+
+	/**
+	 * @param raw Leave out the zlib header and checksum, as some clients do
+	 */
+	private static byte[] deflate(byte[] data, boolean raw) throws IOException {
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		try (DeflaterOutputStream out = new DeflaterOutputStream(encoded, new Deflater(Deflater.DEFAULT_COMPRESSION, raw))){
+			out.write(data);
+		}
+
+		return encoded.toByteArray();
+	}
+}
@@ -0,0 +1,286 @@
+/**
+ * Checks that batches are split into the same messages, no matter how the body is split into chunks,
+ * for newline separated JSON as well as for length prefixed messages, and that EXI messages expanding
+ * beyond the maximum body size are rejected.
+ */
+package de.appsist.service.middrv.rest.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.CaseInsensitiveMultiMap;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.HttpServerResponse;
+
+import de.appsist.service.middrv.entity.BinaryCodec;
+import de.appsist.service.middrv.entity.EXIConverter;
+import de.appsist.service.middrv.entity.Machine;
+import de.appsist.service.middrv.entity.MachineData;
+import de.appsist.service.middrv.entity.MachineSchema;
+import de.appsist.service.middrv.entity.MachineValueType;
+import de.appsist.service.middrv.entity.SchemaLayout;
+import de.appsist.service.middrv.entity.Unit;
+import de.appsist.service.middrv.rest.BatchResult;
+import de.appsist.service.middrv.rest.Constants;
+import de.appsist.service.middrv.rest.ContentType;
+import de.appsist.service.middrv.rest.DataMessage;
+import de.appsist.service.middrv.rest.DataSchemaMismatchException;
+
+public class DataMessageBatchParserTest {
+	/**
+	 * Records the batch passed on by the parser
+	 */
+	private static class RecordingHandler implements DataMessageBatchHandler {
+		List<DataMessage> msgs;
+		int[] positions;
+		BatchResult result;
+
+		@Override
+		public void handleDataMessageBatch(List<DataMessage> msgs, int[] positions, BatchResult result,
+		                                   HttpServerResponse response, ContentType responseContentType){
+			this.msgs = msgs;
+			this.positions = positions;
+			this.result = result;
+		}
+	}
+
+	private SchemaRegistry registry;
+	private MachineSchema schema;
+	private Map<Machine, SchemaLayout> layouts;
+	private List<DataMessage> sent;
+
+	@Before
+	public void setUp() throws Exception {
+		registry = new SchemaRegistry();
+		Machine machine = new Machine("v", "id", "s");
+		schema = new MachineSchema(machine, "station", "site");
+		schema.addField("x", MachineValueType.DOUBLE, Unit.CELSIUS);
+		schema.addField("name", MachineValueType.STRING, Unit.NONE);
+		layouts = new HashMap<>();
+		layouts.put(machine, registry.register(schema).getLayout());
+
+		sent = new ArrayList<>();
+		for (int i = 0; i < 5; i++){
+			MachineData data = new MachineData(machine);
+			data.put("x", i + 0.5);
+			// Multi byte characters, so chunks split them as well
+			data.put("name", "näme\n" + i);
+			DataMessage msg = new DataMessage(i);
+			msg.addMachineData(data, schema);
+			sent.add(msg);
+		}
+	}
+
+	@Test
+	public void splitsJsonLinesAcrossChunks() throws Exception {
+		StringBuilder body = new StringBuilder();
+		for (DataMessage msg : sent){
+			body.append(msg.toJson()).append(msg.getTime() % 2 == 0 ? "\n" : "\r\n");
+		}
+		// Blank lines are skipped, the last line needs no newline
+		body.insert(0, "\n \n");
+		body.setLength(body.length() - 1);
+		byte[] content = body.toString().getBytes(StandardCharsets.UTF_8);
+
+		for (int chunkSize = 1; chunkSize <= content.length; chunkSize++){
+			RecordingHandler handler = parse(ContentType.JSON, content, chunkSize);
+			assertEquals("chunk size " + chunkSize, sent, handler.msgs);
+			assertArrayEquals(new int[]{ 0, 1, 2, 3, 4 }, handler.positions);
+		}
+	}
+
+	@Test
+	public void marksInvalidJsonLines() throws Exception {
+		String body = sent.get(0).toJson() + "\n{\"time\":1}\n" + sent.get(1).toJson() + "\n";
+		byte[] content = body.getBytes(StandardCharsets.UTF_8);
+
+		for (int chunkSize = 1; chunkSize <= content.length; chunkSize += 7){
+			RecordingHandler handler = parse(ContentType.JSON, content, chunkSize);
+			assertEquals(Arrays.asList(sent.get(0), sent.get(1)), handler.msgs);
+			assertArrayEquals(new int[]{ 0, 2 }, handler.positions);
+			assertEquals(3, handler.result.getCount());
+			assertEquals(0, handler.result.getCode(0));
+			assertEquals(Constants.STATUS_ERR_INVALID_MSG, handler.result.getCode(1));
+			assertEquals(0, handler.result.getCode(2));
+		}
+	}
+
+	@Test
+	public void splitsLengthPrefixedMessagesAcrossChunks() throws Exception {
+		byte[] content = lengthPrefixed();
+
+		for (int chunkSize = 1; chunkSize <= content.length; chunkSize++){
+			RecordingHandler handler = parse(ContentType.BINARY, content, chunkSize);
+			assertEquals("chunk size " + chunkSize, sent, handler.msgs);
+			assertArrayEquals(new int[]{ 0, 1, 2, 3, 4 }, handler.positions);
+		}
+	}
+
+	@Test
+	public void rejectsTruncatedLengthPrefixedBatches() throws Exception {
+		byte[] content = lengthPrefixed();
+
+		// Cut within the length prefix and within the message
+		for (int cut : new int[]{ 2, 6 }){
+			try {
+				parse(ContentType.BINARY, Arrays.copyOf(content, content.length - cut), 3);
+				fail("Truncated batch accepted");
+			} catch (IllegalArgumentException e){
+				// expected
+			}
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void splitsLongMessagesIntoSingleBytesInLinearTime() throws Exception {
+		char[] name = new char[300000];
+		Arrays.fill(name, 'n');
+		MachineData data = new MachineData(schema.getMachine());
+		data.put("name", new String(name));
+		DataMessage msg = new DataMessage(1);
+		msg.addMachineData(data, schema);
+		sent = Arrays.asList(msg);
+
+		byte[] json = (msg.toJson() + "\n").getBytes(StandardCharsets.UTF_8);
+		assertEquals(sent, parse(ContentType.JSON, json, 1).msgs);
+		assertEquals(sent, parse(ContentType.BINARY, lengthPrefixed(), 1).msgs);
+	}
+
+	@Test
+	public void leavesValidationToTheHandlerWithLazyDecoding() throws Exception {
+		String mismatch = sent.get(1).toJson().replace("\"x\":1.5", "\"x\":\"text\"");
+		String body = sent.get(0).toJson() + "\n" + mismatch + "\n";
+		byte[] content = body.getBytes(StandardCharsets.UTF_8);
+
+		RecordingHandler handler = new RecordingHandler();
+		DataMessageBatchParser parser = new DataMessageBatchParser(registry, handler, null, null, true);
+		IncrementalContentParser.BodyConsumer consumer = parser.createBodyConsumer(ContentType.JSON, null, ContentType.JSON,
+		                                                                           request(),
+		                                                                           WebRequestHandler.DEFAULT_MAX_BODY_SIZE);
+		consumer.handleChunk(new Buffer(content));
+		consumer.handleEnd();
+
+		// Both are passed on undecoded, the handler finds the mismatch
+		assertArrayEquals(new int[]{ 0, 1 }, handler.positions);
+		assertFalse(handler.msgs.get(1).getData().get(0).isDecoded());
+		handler.msgs.get(0).validate();
+		try {
+			handler.msgs.get(1).validate();
+			fail("Values not matching their schema");
+		} catch (DataSchemaMismatchException e){
+			// expected
+		}
+	}
+
+	@Test
+	public void rejectsExiMessagesExpandingBeyondTheMaximumBodySize() throws Exception {
+		// Repeated values are encoded by reference in EXI, but repeated in XML
+		DataMessage expanding = new DataMessage(5);
+		for (int i = 0; i < 2000; i++){
+			MachineData data = new MachineData(schema.getMachine());
+			data.put("x", 0.5);
+			data.put("name", "repeated name");
+			expanding.addMachineData(data, schema);
+		}
+		List<DataMessage> small = sent;
+		sent = new ArrayList<>(small);
+		sent.add(2, expanding);
+
+		// The whole body is within the limit, but one message expands far beyond it
+		byte[] content = lengthPrefixed(ContentType.EXI);
+		assertTrue(expanding.toXml().length() > 10 * content.length);
+
+		RecordingHandler handler = parse(ContentType.EXI, content, 100, content.length);
+		assertEquals(small, handler.msgs);
+		assertEquals(Constants.STATUS_ERR_INVALID_MSG, handler.result.getCode(2));
+		assertArrayEquals(new int[]{ 0, 1, 3, 4, 5 }, handler.positions);
+
+		// Within the limit the message is decoded
+		assertEquals(sent, parse(ContentType.EXI, content, 100).msgs);
+	}
+
+	/**
+	 * @return The sent messages in the binary representation, each prefixed by its length
+	 */
+	private byte[] lengthPrefixed(){
+		return lengthPrefixed(ContentType.BINARY);
+	}
+
+	/**
+	 * @param contentType Binary or EXI
+	 * @return The sent messages in the given representation, each prefixed by its length
+	 */
+	private byte[] lengthPrefixed(ContentType contentType){
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		for (DataMessage msg : sent){
+			byte[] bytes = (contentType == ContentType.EXI) ? EXIConverter.encode(msg.toXml())
+			               : BinaryCodec.encode(msg.getTime(), msg.getData(), layouts).getBytes();
+			body.write(bytes.length >>> 24);
+			body.write(bytes.length >>> 16);
+			body.write(bytes.length >>> 8);
+			body.write(bytes.length);
+			body.write(bytes, 0, bytes.length);
+		}
+
+		return body.toByteArray();
+	}
+
+	/**
+	 * Pass the given content to a new consumer of the parser in chunks of the given size
+	 */
+	private RecordingHandler parse(ContentType contentType, byte[] content, int chunkSize) throws Exception {
+		return parse(contentType, content, chunkSize, WebRequestHandler.DEFAULT_MAX_BODY_SIZE);
+	}
+
+	private RecordingHandler parse(ContentType contentType, byte[] content, int chunkSize, long maxBodySize)
+	        throws Exception
+	{
+		RecordingHandler handler = new RecordingHandler();
+		DataMessageBatchParser parser = new DataMessageBatchParser(registry, handler);
+		IncrementalContentParser.BodyConsumer consumer = parser.createBodyConsumer(contentType, null, ContentType.JSON,
+		                                                                           request(), maxBodySize);
+
+		for (int pos = 0; pos < content.length; pos += chunkSize){
+			int end = Math.min(pos + chunkSize, content.length);
+			consumer.handleChunk(new Buffer(Arrays.copyOfRange(content, pos, end)));
+		}
+		consumer.handleEnd();
+
+		return handler;
+	}
+
+	/**
+	 * @return A request without headers, which is all the parser looks at
+	 */
+	private static HttpServerRequest request(){
+		final CaseInsensitiveMultiMap headers = new CaseInsensitiveMultiMap();
+		return (HttpServerRequest) Proxy.newProxyInstance(HttpServerRequest.class.getClassLoader(),
+		                                                  new Class<?>[]{ HttpServerRequest.class },
+		                                                  new InvocationHandler(){
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args){
+					if (method.getName().equals("headers"))
+						return headers;
+
+					throw new UnsupportedOperationException(method.getName());
+				}
+			});
+	}
+}
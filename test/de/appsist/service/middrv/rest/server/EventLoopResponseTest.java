@@ -0,0 +1,121 @@
+/**
+ * Checks that the headers of an EventLoopResponse are read from a copy and that their changes only
+ * reach the underlying response on the event loop, in the order of the calls.
+ */
+package de.appsist.service.middrv.rest.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.MultiMap;
+import org.vertx.java.core.http.CaseInsensitiveMultiMap;
+import org.vertx.java.core.http.HttpServerResponse;
+
+public class EventLoopResponseTest {
+	/**
+	 * Queues the calls to the event loop, until they are run by the test
+	 */
+	private static class QueueingContext implements Context {
+		final List<Handler<Void>> calls = new ArrayList<>();
+
+		@Override
+		public void runOnContext(Handler<Void> call){
+			calls.add(call);
+		}
+
+		void runAll(){
+			for (Handler<Void> call : calls){
+				call.handle(null);
+			}
+			calls.clear();
+		}
+	}
+
+	private QueueingContext eventLoop;
+	private MultiMap headers;
+	private MultiMap trailers;
+	private EventLoopResponse response;
+
+	@Before
+	public void setUp(){
+		eventLoop = new QueueingContext();
+		headers = new CaseInsensitiveMultiMap();
+		headers.set("Content-Type", "application/json");
+		trailers = new CaseInsensitiveMultiMap();
+		response = new EventLoopResponse(eventLoop, response(headers, trailers));
+	}
+
+	@Test
+	public void readsHeadersFromTheCopy(){
+		assertEquals("application/json", response.headers().get("content-type"));
+
+		response.putHeader("X-Test", "1");
+		response.headers().add("X-Test", "2");
+		assertEquals(Arrays.asList("1", "2"), response.headers().getAll("X-Test"));
+		assertFalse(headers.contains("X-Test"));
+	}
+
+	@Test
+	public void appliesChangesOnTheEventLoopInOrder(){
+		List<String> values = new ArrayList<>(Arrays.asList("a", "b"));
+		response.headers().set("X-List", values);
+		values.add("c");
+		response.headers().remove("Content-Type");
+		response.putHeader("Content-Type", "application/xml");
+		response.trailers().add("X-Trailer", "t");
+		response.putTrailer("X-Other", "o");
+		assertEquals(5, eventLoop.calls.size());
+		assertEquals("application/json", headers.get("Content-Type"));
+		assertTrue(trailers.isEmpty());
+
+		eventLoop.runAll();
+		assertEquals(Arrays.asList("a", "b"), headers.getAll("X-List"));
+		assertEquals("application/xml", headers.get("Content-Type"));
+		assertEquals("t", trailers.get("X-Trailer"));
+		assertEquals("o", trailers.get("X-Other"));
+		assertEquals(headers.entries().toString(), response.headers().entries().toString());
+	}
+
+	@Test
+	public void clearsHeadersOnTheEventLoop(){
+		response.headers().clear();
+		assertTrue(response.headers().isEmpty());
+		assertNull(response.headers().get("Content-Type"));
+		assertEquals(1, headers.size());
+
+		eventLoop.runAll();
+		assertTrue(headers.isEmpty());
+	}
+
+	/**
+	 * @return A response with the given headers and trailers, which is all the tests look at
+	 */
+	private static HttpServerResponse response(final MultiMap headers, final MultiMap trailers){
+		return (HttpServerResponse) Proxy.newProxyInstance(HttpServerResponse.class.getClassLoader(),
+		                                                   new Class<?>[]{ HttpServerResponse.class },
+		                                                   new InvocationHandler(){
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args){
+					if (method.getName().equals("headers"))
+						return headers;
+					if (method.getName().equals("trailers"))
+						return trailers;
+
+					throw new UnsupportedOperationException(method.getName());
+				}
+			});
+	}
+}
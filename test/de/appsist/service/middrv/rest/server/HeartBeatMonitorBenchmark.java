@@ -0,0 +1,119 @@
+/**
+ * Compares the cost of detecting lost machines with the hashed timing wheel of HeartBeatMonitor to the
+ * sweep over all machines it replaced. The sweep is timed once every heart beat interval, as before,
+ * and once every tick of the wheel, which detects lost machines as early as the wheel does. All
+ * machines send heart beats twice per interval at different phases, so the checks only find machines
+ * alive. The time is simulated, so the numbers only contain the checks.
+ *
+ * Usage: java de.appsist.service.middrv.rest.server.HeartBeatMonitorBenchmark [machines [intervals]]
+ * (defaults: 100000 machines, 20 intervals)
+ */
+package de.appsist.service.middrv.rest.server;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import de.appsist.service.middrv.entity.Machine;
+import de.appsist.service.middrv.entity.MachineSchema;
+
+public class HeartBeatMonitorBenchmark {
+	private static final long INTERVAL = 10000;
+	private static final long TICK = INTERVAL / 16;
+
+	private static final HeartBeatHandler IGNORE = new HeartBeatHandler(){
+			@Override
+			public void handleLostMachine(Machine machine){
+			}
+		};
+
+	public static void main(String[] args){
+		int machines = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+		int intervals = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+
+		SchemaRegistry schemas = new SchemaRegistry();
+		for (int i = 0; i < machines; i++){
+			schemas.register(new MachineSchema(new Machine("vendor", "machine" + i, "1"), "station", "site"));
+		}
+
+		System.out.println("machines=" + machines + " intervals=" + intervals);
+		// The first rounds only warm up the JIT
+		for (int round = 0; round < 3; round++){
+			boolean print = (round == 2);
+			sweep("sweep per interval", schemas, intervals, INTERVAL, print);
+			sweep("sweep per tick", schemas, intervals, TICK, print);
+			wheel(schemas, intervals, print);
+		}
+	}
+
+	/**
+	 * The check replaced by the timing wheel: all machines are checked every given period
+	 */
+	private static void sweep(String name, SchemaRegistry schemas, int intervals, long period, boolean print){
+		long start = CoarseClock.now();
+		int checks = 0;
+		long total = 0;
+		long max = 0;
+		for (long now = start + period; now <= start + intervals * INTERVAL; now += period){
+			refresh(schemas, now);
+
+			long begin = System.nanoTime();
+			Map<Machine, SchemaTimePair> map = schemas.getSchemas();
+			for (Iterator<Map.Entry<Machine, SchemaTimePair>> it = map.entrySet().iterator(); it.hasNext(); ){
+				Map.Entry<Machine, SchemaTimePair> entry = it.next();
+				if (entry.getValue().getTimeOfLastUpdate() + INTERVAL < now)
+					IGNORE.handleLostMachine(entry.getKey());
+			}
+			long elapsed = System.nanoTime() - begin;
+			total += elapsed;
+			max = Math.max(max, elapsed);
+			checks++;
+		}
+
+		if (print)
+			report(name, intervals, checks, total, max);
+	}
+
+	/**
+	 * The timing wheel checking the slot of every tick
+	 */
+	private static void wheel(SchemaRegistry schemas, int intervals, boolean print){
+		HeartBeatMonitor monitor = new HeartBeatMonitor(INTERVAL, schemas, IGNORE);
+		long start = CoarseClock.now();
+		refresh(schemas, start);
+		monitor.attach(start);
+
+		int checks = 0;
+		long total = 0;
+		long max = 0;
+		for (long now = start + TICK; now <= start + intervals * INTERVAL; now += TICK){
+			refresh(schemas, now);
+
+			long begin = System.nanoTime();
+			monitor.advance(now);
+			long elapsed = System.nanoTime() - begin;
+			total += elapsed;
+			max = Math.max(max, elapsed);
+			checks++;
+		}
+		schemas.removeListener(monitor);
+
+		if (print)
+			report("wheel", intervals, checks, total, max);
+	}
+
+	/**
+	 * Set the time of the last heart beat of every machine until the given time
+	 */
+	private static void refresh(SchemaRegistry schemas, long now){
+		long period = INTERVAL / 2;
+		for (SchemaTimePair entry : schemas.getEntries()){
+			long phase = (entry.getSchema().getMachine().hashCode() & Integer.MAX_VALUE) % period;
+			entry.updateTimeOfLastUpdate(now - (now - phase) % period);
+		}
+	}
+
+	private static void report(String name, int intervals, int checks, long total, long max){
+		System.out.printf("%s: checks=%d ms/interval=%.2f longest check ms=%.2f%n", name, checks,
+		                  total / 1e6 / intervals, max / 1e6);
+	}
+}
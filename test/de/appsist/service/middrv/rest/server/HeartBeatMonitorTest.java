@@ -0,0 +1,155 @@
+/**
+ * Checks with simulated time, that the timing wheel of HeartBeatMonitor reports a machine without heart
+ * beats within one tick after its interval passed, exactly once, and never reports machines which are
+ * refreshed, replaced or removed.
+ */
+package de.appsist.service.middrv.rest.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.appsist.service.middrv.entity.Machine;
+import de.appsist.service.middrv.entity.MachineSchema;
+
+public class HeartBeatMonitorTest {
+	private static final long INTERVAL = 1600;
+	// Duration of a tick of the wheel for the interval
+	private static final long TICK = INTERVAL / 16;
+	private static final long STEP = 10;
+
+	/**
+	 * Records the lost machines and when they were reported
+	 */
+	private static class RecordingHandler implements HeartBeatHandler {
+		final List<Machine> lost = new ArrayList<>();
+		final List<Long> times = new ArrayList<>();
+		long now;
+
+		@Override
+		public void handleLostMachine(Machine machine){
+			lost.add(machine);
+			times.add(now);
+		}
+	}
+
+	private SchemaRegistry registry;
+	private RecordingHandler handler;
+	private HeartBeatMonitor monitor;
+	private Machine machine;
+	private SchemaTimePair entry;
+	private long start;
+
+	@Before
+	public void setUp(){
+		registry = new SchemaRegistry();
+		handler = new RecordingHandler();
+		monitor = new HeartBeatMonitor(INTERVAL, registry, handler);
+		machine = new Machine("v", "id", "s");
+		entry = registry.register(new MachineSchema(machine, "station", "site"));
+		start = entry.getTimeOfLastUpdate();
+		monitor.attach(start);
+	}
+
+	@Test
+	public void reportsMachineWithinOneTickAfterInterval(){
+		advance(start, start + 5 * INTERVAL);
+
+		assertEquals(1, handler.lost.size());
+		assertEquals(machine, handler.lost.get(0));
+		long reported = handler.times.get(0);
+		assertTrue("reported after " + (reported - start), reported > start + INTERVAL);
+		assertTrue("reported after " + (reported - start), reported <= start + INTERVAL + TICK + STEP);
+		assertNull(registry.get(machine));
+	}
+
+	@Test
+	public void keepsRefreshedMachines(){
+		long now = start;
+		for (int i = 0; i < 20; i++){
+			advance(now, now + INTERVAL / 2);
+			now += INTERVAL / 2;
+			entry.updateTimeOfLastUpdate(now);
+		}
+		assertEquals(0, handler.lost.size());
+		assertEquals(entry, registry.get(machine));
+
+		// Once the heart beats stop, the machine is reported as well
+		long last = now;
+		advance(now, now + 5 * INTERVAL);
+		assertEquals(1, handler.lost.size());
+		long reported = handler.times.get(0);
+		assertTrue(reported > last + INTERVAL);
+		assertTrue(reported <= last + INTERVAL + TICK + STEP);
+	}
+
+	@Test
+	public void reportsMachinesRegisteredLater(){
+		advance(start, start + INTERVAL / 2);
+		Machine other = new Machine("v", "other", "s");
+		SchemaTimePair later = registry.register(new MachineSchema(other, "station", "site"));
+		later.updateTimeOfLastUpdate(start + INTERVAL / 2);
+
+		advance(start + INTERVAL / 2, start + 5 * INTERVAL);
+		assertEquals(2, handler.lost.size());
+		assertEquals(machine, handler.lost.get(0));
+		assertEquals(other, handler.lost.get(1));
+		assertTrue(handler.times.get(1) > start + INTERVAL / 2 + INTERVAL);
+		assertTrue(handler.times.get(1) <= start + INTERVAL / 2 + INTERVAL + TICK + STEP);
+	}
+
+	@Test
+	public void ignoresRemovedMachines(){
+		advance(start, start + INTERVAL / 2);
+		registry.remove(entry);
+
+		advance(start + INTERVAL / 2, start + 5 * INTERVAL);
+		assertEquals(0, handler.lost.size());
+	}
+
+	@Test
+	public void tracksReplacedSchemasByTheirOwnTime(){
+		advance(start, start + INTERVAL / 2);
+		SchemaTimePair replaced = registry.register(new MachineSchema(machine, "other", "site"));
+		replaced.updateTimeOfLastUpdate(start + INTERVAL);
+
+		// The old entry expires, but the machine is still alive with its new schema
+		advance(start + INTERVAL / 2, start + 2 * INTERVAL);
+		assertEquals(0, handler.lost.size());
+		assertEquals(replaced, registry.get(machine));
+
+		advance(start + 2 * INTERVAL, start + 5 * INTERVAL);
+		assertEquals(1, handler.lost.size());
+		assertTrue(handler.times.get(0) > start + 2 * INTERVAL);
+		assertTrue(handler.times.get(0) <= start + 2 * INTERVAL + TICK + STEP);
+	}
+
+	@Test
+	public void reportsMachinesOnceAfterLongPause(){
+		Machine other = new Machine("v", "other", "s");
+		registry.register(new MachineSchema(other, "station", "site")).updateTimeOfLastUpdate(start);
+
+		// Far more than the ticks covered by the wheel
+		monitor.advance(start + 1000 * INTERVAL);
+		monitor.advance(start + 2000 * INTERVAL);
+		assertEquals(2, handler.lost.size());
+		assertTrue(handler.lost.contains(machine));
+		assertTrue(handler.lost.contains(other));
+	}
+
+	/**
+	 * Advance the monitor in small steps from the given time to the given time
+	 */
+	private void advance(long from, long to){
+		for (long now = from + STEP; now <= to; now += STEP){
+			handler.now = now;
+			monitor.advance(now);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/**
+ * Checks the timing of the generic cell rate algorithm of RateLimiter with simulated arrival times:
+ * bursts, the retry time of rejected samples, the steady rate and that rejected messages do not use up
+ * the budget of their machines.
+ */
+package de.appsist.service.middrv.rest.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.appsist.service.middrv.entity.Machine;
+import de.appsist.service.middrv.entity.MachineData;
+import de.appsist.service.middrv.entity.MachineSchema;
+import de.appsist.service.middrv.rest.DataMessage;
+import de.appsist.service.middrv.rest.RateLimitExceededException;
+
+public class RateLimiterTest {
+	private static final long MS = 1000000;
+
+	private MachineSchema slow;
+	private MachineSchema fast;
+	private long start;
+
+	@Before
+	public void setUp(){
+		slow = new MachineSchema(new Machine("v", "slow", "s"), "station", "site");
+		fast = new MachineSchema(new Machine("v", "fast", "s"), "fast", "site");
+		start = System.nanoTime();
+	}
+
+	@Test
+	public void passesBurstThenOneSamplePerInterval() throws Exception {
+		RateLimiter limiter = new RateLimiter(RateLimiter.Mode.REJECT);
+		// 10 samples per second, i.e. one per 100 ms, and bursts of 3
+		limiter.setLimit("site", null, 10, 3);
+
+		for (int i = 0; i < 3; i++){
+			limiter.apply(message(slow), start);
+		}
+		assertRejected(limiter, message(slow), start, 100);
+
+		assertRejected(limiter, message(slow), start + 99 * MS, 1);
+		limiter.apply(message(slow), start + 100 * MS);
+		assertRejected(limiter, message(slow), start + 100 * MS, 100);
+		assertEquals(3, limiter.getDroppedCount(slow.getMachine()));
+	}
+
+	@Test
+	public void doesNotSaveUpMoreThanTheBurst() throws Exception {
+		RateLimiter limiter = new RateLimiter(RateLimiter.Mode.REJECT);
+		limiter.setLimit("site", null, 10, 3);
+		limiter.apply(message(slow), start);
+
+		long later = start + 60000 * MS;
+		for (int i = 0; i < 3; i++){
+			limiter.apply(message(slow), later);
+		}
+		assertRejected(limiter, message(slow), later, 100);
+	}
+
+	@Test
+	public void downsamplesToTheConfiguredRate() throws Exception {
+		RateLimiter limiter = new RateLimiter(RateLimiter.Mode.DOWNSAMPLE);
+		limiter.setLimit("site", null, 10, 1);
+
+		// A sample every 25 ms for 10 s, so every fourth one passes
+		int passed = 0;
+		for (long t = 0; t < 10000; t += 25){
+			DataMessage msg = message(slow);
+			limiter.apply(msg, start + t * MS);
+			passed += msg.getData().size();
+		}
+		assertEquals(100, passed);
+		assertEquals(400 - 100, limiter.getTotalDroppedCount());
+	}
+
+	@Test
+	public void limitsStationsSeparately() throws Exception {
+		RateLimiter limiter = new RateLimiter(RateLimiter.Mode.DOWNSAMPLE);
+		limiter.setLimit("site", null, 10, 1);
+		limiter.setLimit("site", "fast", 1000, 10);
+
+		DataMessage msg = message(slow, fast, slow, fast);
+		limiter.apply(msg, start);
+		assertEquals(3, msg.getData().size());
+		assertEquals(slow.getMachine(), msg.getData().get(0).getMachine());
+		assertEquals(fast.getMachine(), msg.getData().get(1).getMachine());
+		assertEquals(fast.getMachine(), msg.getData().get(2).getMachine());
+	}
+
+	@Test
+	public void passesEverythingWithoutLimit() throws Exception {
+		RateLimiter limiter = new RateLimiter(RateLimiter.Mode.REJECT);
+		for (int i = 0; i < 1000; i++){
+			limiter.apply(message(slow), start);
+		}
+		assertEquals(0, limiter.getTotalDroppedCount());
+	}
+
+	@Test
+	public void rejectedMessagesUseNoBudget() throws Exception {
+		RateLimiter limiter = new RateLimiter(RateLimiter.Mode.REJECT);
+		limiter.setLimit("site", null, 10, 2);
+		limiter.setLimit("site", "fast", 10, 1);
+
+		// Uses up the budget of the fast machine
+		limiter.apply(message(fast), start);
+		for (int i = 0; i < 5; i++){
+			assertRejected(limiter, message(slow, fast), start, 100);
+		}
+
+		// The slow machine still has its whole burst
+		limiter.apply(message(slow), start);
+		limiter.apply(message(slow), start);
+		assertRejected(limiter, message(slow), start, 100);
+	}
+
+	@Test
+	public void movesBucketsWithTheirSchemas() throws Exception {
+		SchemaRegistry registry = new SchemaRegistry();
+		RateLimiter limiter = new RateLimiter(RateLimiter.Mode.REJECT);
+		registry.addListener(limiter);
+		limiter.setLimit("site", null, 10, 1);
+		limiter.setLimit("other", null, 1000, 100);
+		registry.register(slow);
+
+		long now = System.nanoTime();
+		limiter.apply(message(slow), now);
+		assertRejected(limiter, message(slow), now, 100);
+
+		// Registered for another site, the machine gets the budget of that site
+		MachineSchema moved = new MachineSchema(slow.getMachine(), "station", "other");
+		registry.register(moved);
+		for (int i = 0; i < 50; i++){
+			limiter.apply(message(moved), now);
+		}
+		assertEquals(1, limiter.getDroppedCount(slow.getMachine()));
+
+		// Removed with its schema
+		registry.remove(registry.get(slow.getMachine()));
+		assertEquals(0, limiter.getDroppedCount(slow.getMachine()));
+	}
+
+	/**
+	 * @return A message containing a sample of each of the given schemas
+	 */
+	private static DataMessage message(MachineSchema... schemas) throws Exception {
+		DataMessage msg = new DataMessage();
+		for (MachineSchema schema : schemas){
+			msg.addMachineData(new MachineData(schema.getMachine()), schema);
+		}
+
+		return msg;
+	}
+
+	private static void assertRejected(RateLimiter limiter, DataMessage msg, long now, long retryAfter){
+		try {
+			limiter.apply(msg, now);
+			fail("Message within the limit");
+		} catch (RateLimitExceededException e){
+			assertEquals(retryAfter, e.getRetryAfter());
+			assertTrue(msg.getData().size() > 0);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ * Checks that SchemaStore loads the schemas it wrote with their IDs and fingerprints, that schemas of
+ * the same fields share one structure after loading, and that a log appended to after loading can be
+ * read again.
+ */
+package de.appsist.service.middrv.rest.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.appsist.service.middrv.entity.Machine;
+import de.appsist.service.middrv.entity.MachineSchema;
+import de.appsist.service.middrv.entity.MachineValueType;
+import de.appsist.service.middrv.entity.Unit;
+
+public class SchemaStoreTest {
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = Files.createTempDirectory("schemas").toFile();
+	}
+
+	@After
+	public void tearDown(){
+		for (File file : directory.listFiles()){
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void loadsSchemasWithSharedStructures() throws Exception {
+		SchemaRegistry registry = new SchemaRegistry();
+		SchemaStore store = new SchemaStore(directory);
+		store.open(registry);
+		for (int i = 0; i < 100; i++){
+			registry.register(schema("m" + i, (i % 2 == 0) ? Unit.CELSIUS : new Unit("rpm")));
+		}
+		registry.remove(registry.get(schema("m7", Unit.NONE).getMachine()));
+		store.close();
+
+		SchemaRegistry loaded = load();
+		assertEquals(99, loaded.getEntries().size());
+		assertEquals(2, loaded.getStructureCount());
+		assertNull(loaded.get(schema("m7", Unit.NONE).getMachine()));
+		for (SchemaTimePair entry : registry.getEntries()){
+			SchemaTimePair restored = loaded.get(entry.getSchema().getMachine());
+			assertEquals(entry.getSchemaID(), restored.getSchemaID());
+			assertEquals(entry.getFingerprint(), restored.getFingerprint());
+			assertEquals(entry.getSchema(), restored.getSchema());
+		}
+		assertSame(loaded.get(schema("m0", Unit.NONE).getMachine()).getSchema().getStructure(),
+		        loaded.get(schema("m2", Unit.NONE).getMachine()).getSchema().getStructure());
+	}
+
+	@Test
+	public void appendsToTheLogAfterLoading() throws Exception {
+		SchemaRegistry registry = new SchemaRegistry();
+		SchemaStore store = new SchemaStore(directory);
+		store.open(registry);
+		registry.register(schema("m0", Unit.CELSIUS));
+		store.close();
+
+		// The strings of the log read before are referred to by the records appended now
+		registry = new SchemaRegistry();
+		store = new SchemaStore(directory);
+		store.open(registry);
+		registry.register(schema("m1", Unit.CELSIUS));
+		registry.register(schema("m0", Unit.NONE));
+		store.close();
+
+		SchemaRegistry loaded = load();
+		assertEquals(2, loaded.getEntries().size());
+		assertEquals(schema("m0", Unit.NONE), loaded.get(schema("m0", Unit.NONE).getMachine()).getSchema());
+		assertEquals(schema("m1", Unit.CELSIUS), loaded.get(schema("m1", Unit.NONE).getMachine()).getSchema());
+	}
+
+	private SchemaRegistry load() throws Exception {
+		SchemaRegistry registry = new SchemaRegistry();
+		SchemaStore store = new SchemaStore(directory);
+		store.open(registry);
+		store.close();
+
+		return registry;
+	}
+
+	private static MachineSchema schema(String machineID, Unit unit){
+		MachineSchema schema = new MachineSchema(new Machine("v", machineID, "s"), "station", "site");
+		schema.addField("temperature", MachineValueType.DOUBLE, unit);
+		schema.addField("count", MachineValueType.LONG, Unit.NONE);
+
+		return schema;
+	}
+}